@@ -0,0 +1,193 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.FloatVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.SparseDoubleVector;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.PrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SparseEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SparseLPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+
+/**
+ * Benchmark the Minkowski distance functions on dense and sparse vectors.
+ * <p>
+ * Each invocation computes the distances of {@link #NUM} consecutive pairs of
+ * vectors, so the timings are per distance computation.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class DistanceFunctionBenchmark {
+  /**
+   * Number of vectors.
+   */
+  static final int NUM = 1024;
+
+  /**
+   * Distance function: euclidean, squared (euclidean) or lp3 (p=3).
+   */
+  @Param({ "euclidean", "squared", "lp3" })
+  String function;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "3", "32", "256" })
+  int dim;
+
+  /**
+   * Fraction of non-zero values in the sparse vectors.
+   */
+  @Param({ "0.1" })
+  double density;
+
+  /**
+   * Distance function for dense vectors.
+   */
+  PrimitiveDistanceFunction<? super NumberVector> dense;
+
+  /**
+   * Distance function for sparse vectors. The squared Euclidean distance has
+   * no sparse specialization, the generic version is used instead.
+   */
+  PrimitiveDistanceFunction<? super SparseNumberVector> sparse;
+
+  /**
+   * Double vectors.
+   */
+  DoubleVector[] doubles;
+
+  /**
+   * Float vectors.
+   */
+  FloatVector[] floats;
+
+  /**
+   * Sparse vectors.
+   */
+  SparseDoubleVector[] sparses;
+
+  @Setup
+  public void setup() {
+    switch(function){
+    case "euclidean":
+      dense = EuclideanDistanceFunction.STATIC;
+      sparse = SparseEuclideanDistanceFunction.STATIC;
+      break;
+    case "squared":
+      dense = SquaredEuclideanDistanceFunction.STATIC;
+      sparse = SquaredEuclideanDistanceFunction.STATIC;
+      break;
+    case "lp3":
+      dense = new LPNormDistanceFunction(3.);
+      sparse = new SparseLPNormDistanceFunction(3.);
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown distance function: " + function);
+    }
+    Random r = new Random(0L);
+    doubles = new DoubleVector[NUM];
+    floats = new FloatVector[NUM];
+    sparses = new SparseDoubleVector[NUM];
+    for(int i = 0; i < NUM; i++) {
+      double[] d = new double[dim];
+      float[] f = new float[dim];
+      for(int j = 0; j < dim; j++) {
+        f[j] = (float) (d[j] = r.nextDouble());
+      }
+      doubles[i] = new DoubleVector(d);
+      floats[i] = new FloatVector(f);
+      double[] s = new double[dim];
+      for(int j = 0; j < dim; j++) {
+        s[j] = r.nextDouble() < density ? r.nextDouble() : 0.;
+      }
+      sparses[i] = new SparseDoubleVector(s);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM)
+  public double doubleVector() {
+    double sum = 0.;
+    for(int i = 1; i < NUM; i++) {
+      sum += dense.distance(doubles[i - 1], doubles[i]);
+    }
+    return sum + dense.distance(doubles[NUM - 1], doubles[0]);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM)
+  public double floatVector() {
+    double sum = 0.;
+    for(int i = 1; i < NUM; i++) {
+      sum += dense.distance(floats[i - 1], floats[i]);
+    }
+    return sum + dense.distance(floats[NUM - 1], floats[0]);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM)
+  public double sparseVector() {
+    double sum = 0.;
+    for(int i = 1; i < NUM; i++) {
+      sum += sparse.distance(sparses[i - 1], sparses[i]);
+    }
+    return sum + sparse.distance(sparses[NUM - 1], sparses[0]);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM)
+  public double sparseVectorDenseDistance() {
+    double sum = 0.;
+    for(int i = 1; i < NUM; i++) {
+      sum += dense.distance(sparses[i - 1], sparses[i]);
+    }
+    return sum + dense.distance(sparses[NUM - 1], sparses[0]);
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+
+/**
+ * Benchmark inserting into the kNN heap
+ * ({@code DoubleIntegerDBIDKNNHeap} with the default integer DBIDs).
+ * <p>
+ * Each invocation inserts {@link #NUM} candidates in random order, so the
+ * timings are per insertion.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class KNNHeapBenchmark {
+  /**
+   * Number of candidates.
+   */
+  static final int NUM = 10000;
+
+  /**
+   * Heap size.
+   */
+  @Param({ "10", "100" })
+  int k;
+
+  /**
+   * Number of distinct distances, 0 for continuous distances. Few distinct
+   * values cause many ties.
+   */
+  @Param({ "0", "10" })
+  int distinct;
+
+  /**
+   * Candidate distances.
+   */
+  double[] distances;
+
+  /**
+   * Candidate ids.
+   */
+  DBIDRange ids;
+
+  @Setup
+  public void setup() {
+    Random r = new Random(0L);
+    distances = new double[NUM];
+    for(int i = 0; i < NUM; i++) {
+      distances[i] = distinct > 0 ? r.nextInt(distinct) : r.nextDouble();
+    }
+    ids = DBIDUtil.generateStaticDBIDRange(NUM);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM)
+  public double insert() {
+    KNNHeap heap = DBIDUtil.newHeap(k);
+    DBIDArrayIter it = ids.iter();
+    for(int i = 0; i < NUM; i++, it.advance()) {
+      heap.insert(distances[i], it);
+    }
+    return heap.getKNNDistance();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM)
+  public KNNList insertAndSort() {
+    KNNHeap heap = DBIDUtil.newHeap(k);
+    DBIDArrayIter it = ids.iter();
+    for(int i = 0; i < NUM; i++, it.advance()) {
+      heap.insert(distances[i], it);
+    }
+    return heap.toKNNList();
+  }
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.covertree.CoverTree;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.SmallMemoryKDTree;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Benchmark kNN queries on the main in-memory indexes, with a linear scan as
+ * baseline.
+ * <p>
+ * The indexes are built once per trial (using their default parameters), and
+ * each invocation runs {@link #QUERIES} queries for objects of the data set,
+ * so the timings are per query.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class KNNQueryBenchmark {
+  /**
+   * Number of queries per invocation.
+   */
+  static final int QUERIES = 256;
+
+  /**
+   * Index to use: linear, covertree, kdtree or rstar.
+   */
+  @Param({ "linear", "covertree", "kdtree", "rstar" })
+  String index;
+
+  /**
+   * Data set size.
+   */
+  @Param({ "10000" })
+  int size;
+
+  /**
+   * Dimensionality.
+   */
+  @Param({ "2", "8" })
+  int dim;
+
+  /**
+   * Number of neighbors.
+   */
+  @Param({ "10" })
+  int k;
+
+  /**
+   * kNN query.
+   */
+  KNNQuery<NumberVector> knnq;
+
+  /**
+   * Query objects.
+   */
+  ArrayDBIDs queries;
+
+  @Setup
+  public void setup() {
+    Random r = new Random(0L);
+    double[][] data = new double[size][dim];
+    for(int i = 0; i < size; i++) {
+      for(int j = 0; j < dim; j++) {
+        data[i][j] = r.nextDouble();
+      }
+    }
+    List<IndexFactory<?>> indexes = new ArrayList<>();
+    switch(index){
+    case "linear":
+      break;
+    case "covertree":
+      indexes.add(new ELKIBuilder<>(CoverTree.Factory.class) //
+          .with(CoverTree.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class).build());
+      break;
+    case "kdtree":
+      indexes.add(new ELKIBuilder<>(SmallMemoryKDTree.Factory.class).build());
+      break;
+    case "rstar":
+      indexes.add(new ELKIBuilder<>(RStarTreeFactory.class).build());
+      break;
+    default:
+      throw new IllegalArgumentException("Unknown index: " + index);
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), indexes);
+    db.initialize();
+    Relation<NumberVector> relation = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dq = db.getDistanceQuery(relation, EuclideanDistanceFunction.STATIC);
+    knnq = db.getKNNQuery(dq, k);
+    queries = DBIDUtil.newArray(DBIDUtil.randomSample(relation.getDBIDs(), QUERIES, r));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(QUERIES)
+  public double knn() {
+    double sum = 0.;
+    for(DBIDArrayIter it = queries.iter(); it.valid(); it.advance()) {
+      sum += knnq.getKNNForDBID(it, k).getKNNDistance();
+    }
+    return sum;
+  }
+}
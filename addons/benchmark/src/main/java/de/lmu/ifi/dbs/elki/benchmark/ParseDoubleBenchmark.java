@@ -0,0 +1,126 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.lmu.ifi.dbs.elki.utilities.io.ParseUtil;
+
+/**
+ * Benchmark {@link ParseUtil#parseDouble}, compared to the Java API.
+ * <p>
+ * Each invocation parses {@link #NUM} numbers of varying format, so the
+ * timings are per number.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ParseDoubleBenchmark {
+  /**
+   * Number of values.
+   */
+  static final int NUM = 1024;
+
+  /**
+   * Values as strings.
+   */
+  String[] strings;
+
+  /**
+   * Values as bytes.
+   */
+  byte[][] bytes;
+
+  @Setup
+  public void setup() {
+    Random r = new Random(0L);
+    strings = new String[NUM];
+    bytes = new byte[NUM][];
+    for(int i = 0; i < NUM; i++) {
+      final double v = r.nextGaussian();
+      switch(i % 4){
+      case 0: // Short decimals, as in typical CSV files
+        strings[i] = Integer.toString((int) (v * 1000)) + "." + r.nextInt(10);
+        break;
+      case 1: // Integers
+        strings[i] = Integer.toString((int) (v * 1000));
+        break;
+      case 2: // Full precision
+        strings[i] = Double.toString(v);
+        break;
+      default: // Exponential notation
+        strings[i] = Double.toString(v * 1e-20);
+      }
+      bytes[i] = strings[i].getBytes(StandardCharsets.US_ASCII);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM)
+  public double parseCharSequence() {
+    double sum = 0.;
+    for(int i = 0; i < NUM; i++) {
+      sum += ParseUtil.parseDouble(strings[i]);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM)
+  public double parseBytes() {
+    double sum = 0.;
+    for(int i = 0; i < NUM; i++) {
+      final byte[] b = bytes[i];
+      sum += ParseUtil.parseDouble(b, 0, b.length);
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(NUM)
+  public double javaParseDouble() {
+    double sum = 0.;
+    for(int i = 0; i < NUM; i++) {
+      sum += Double.parseDouble(strings[i]);
+    }
+    return sum;
+  }
+}
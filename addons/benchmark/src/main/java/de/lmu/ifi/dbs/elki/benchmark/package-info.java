@@ -0,0 +1,34 @@
+/**
+ * JMH micro-benchmarks of performance critical building blocks, such as
+ * distance functions, heaps, parsers and index queries.
+ * <p>
+ * These are meant to catch performance regressions, e.g., when upgrading the
+ * JVM or dependencies. Run them with
+ * {@code ./gradlew :elki-benchmark:jmh}, passing JMH options via
+ * {@code -PjmhArgs="..."}; results are written to
+ * {@code build/jmh-result.json}.
+ * <p>
+ * For benchmarking queries within complete runs, use the benchmark
+ * algorithms in {@code de.lmu.ifi.dbs.elki.algorithm.benchmark} instead.
+ */
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.benchmark;
@@ -217,7 +217,7 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
     // initial models
     List<? extends EMClusterModel<M>> models = mfactory.buildInitialModels(database, relation, k, SquaredEuclideanDistanceFunction.STATIC);
     WritableDataStore<double[]> probClusterIGivenX = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_SORTED, double[].class);
-    double loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
+    double loglikelihood = assignProbabilities(relation, models, probClusterIGivenX);
     DoubleStatistic likestat = LOG.isStatistics() ? new DoubleStatistic(this.getClass().getName() + ".loglikelihood") : null;
     if(LOG.isStatistics()) {
       LOG.statistics(likestat.setDouble(loglikelihood));
@@ -228,9 +228,9 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
     double bestloglikelihood = loglikelihood; // For detecting instabilities.
     for(++it; it < maxiter || maxiter < 0; it++) {
       final double oldloglikelihood = loglikelihood;
-      recomputeCovarianceMatrices(relation, probClusterIGivenX, models, prior);
+      recomputeModels(relation, probClusterIGivenX, models, prior);
       // reassign probabilities
-      loglikelihood = assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
+      loglikelihood = assignProbabilities(relation, models, probClusterIGivenX);
 
       if(LOG.isStatistics()) {
         LOG.statistics(likestat.setDouble(loglikelihood));
@@ -271,6 +271,30 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
     return result;
   }
 
+  /**
+   * Recompute the cluster models from the current assignment.
+   *
+   * @param relation Vector data
+   * @param probClusterIGivenX Object probabilities
+   * @param models Cluster models to update
+   * @param prior MAP prior (use 0 for MLE)
+   */
+  protected void recomputeModels(Relation<V> relation, WritableDataStore<double[]> probClusterIGivenX, List<? extends EMClusterModel<M>> models, double prior) {
+    recomputeCovarianceMatrices(relation, probClusterIGivenX, models, prior);
+  }
+
+  /**
+   * Assign the objects to the current cluster models.
+   *
+   * @param relation Vector data
+   * @param models Cluster models
+   * @param probClusterIGivenX Output storage for cluster probabilities
+   * @return the expectation value of the current mixture of distributions
+   */
+  protected double assignProbabilities(Relation<V> relation, List<? extends EMClusterModel<M>> models, WritableDataStore<double[]> probClusterIGivenX) {
+    return assignProbabilitiesToInstances(relation, models, probClusterIGivenX);
+  }
+
   /**
    * Recompute the covariance matrixes.
    * 
@@ -314,11 +338,7 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
         wsum[i] += prob;
       }
     }
-    for(int i = 0; i < models.size(); i++) {
-      // MLE / MAP
-      final double weight = prior <= 0. ? wsum[i] / relation.size() : (wsum[i] + prior - 1) / (relation.size() + prior * k - k);
-      models.get(i).finalizeEStep(weight, prior);
-    }
+    finalizeEStep(models, wsum, relation.size(), prior);
   }
 
   /**
@@ -338,22 +358,51 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
     double emSum = 0.;
 
     for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
-      NumberVector vec = relation.get(iditer);
       double[] probs = new double[k];
-      for(int i = 0; i < k; i++) {
-        double v = models.get(i).estimateLogDensity(vec);
-        probs[i] = v > MIN_LOGLIKELIHOOD ? v : MIN_LOGLIKELIHOOD;
-      }
-      final double logP = logSumExp(probs);
-      for(int i = 0; i < k; i++) {
-        probs[i] = FastMath.exp(probs[i] - logP);
-      }
+      emSum += computeProbabilities(relation.get(iditer), models, probs);
       probClusterIGivenX.put(iditer, probs);
-      emSum += logP;
     }
     return emSum / relation.size();
   }
 
+  /**
+   * Compute the cluster probabilities of a single object.
+   *
+   * @param vec Object
+   * @param models Cluster models
+   * @param probs Output array for the cluster probabilities
+   * @return log likelihood of the object
+   */
+  public static double computeProbabilities(NumberVector vec, List<? extends EMClusterModel<?>> models, double[] probs) {
+    final int k = models.size();
+    for(int i = 0; i < k; i++) {
+      double v = models.get(i).estimateLogDensity(vec);
+      probs[i] = v > MIN_LOGLIKELIHOOD ? v : MIN_LOGLIKELIHOOD;
+    }
+    final double logP = logSumExp(probs);
+    for(int i = 0; i < k; i++) {
+      probs[i] = FastMath.exp(probs[i] - logP);
+    }
+    return logP;
+  }
+
+  /**
+   * Compute the cluster weights from the weight sums.
+   *
+   * @param models Cluster models to finalize
+   * @param wsum Weight sums
+   * @param size Number of objects
+   * @param prior MAP prior (use 0 for MLE)
+   */
+  public static void finalizeEStep(List<? extends EMClusterModel<?>> models, double[] wsum, int size, double prior) {
+    final int k = models.size();
+    for(int i = 0; i < k; i++) {
+      // MLE / MAP
+      final double weight = prior <= 0. ? wsum[i] / size : (wsum[i] + prior - 1) / (size + prior * k - k);
+      models.get(i).finalizeEStep(weight, prior);
+    }
+  }
+
   /**
    * Compute log(sum(exp(x_i)), with attention to numerical issues.
    * 
@@ -458,7 +507,7 @@ public class EM<V extends NumberVector, M extends MeanModel> extends AbstractAlg
     /**
      * Prior to enable MAP estimation (use 0 for MLE)
      */
-    double prior = 0.;
+    protected double prior = 0.;
 
     @Override
     protected void makeOptions(Parameterization config) {
@@ -73,6 +73,49 @@ public interface EMClusterModel<M extends MeanModel> {
    */
   void updateE(NumberVector vec, double weight);
 
+  /**
+   * True, if the model supports the parallel E step, i.e.,
+   * {@link #newAccumulator()} and {@link #mergeE}.
+   *
+   * @return {@code true} when accumulators are supported.
+   */
+  default boolean supportsParallel() {
+    return false;
+  }
+
+  /**
+   * Create an empty accumulator for the statistics of the E step, so that
+   * parts of the data can be processed in parallel. The accumulator may use
+   * the current model parameters (e.g., the mean after the first pass), and
+   * its statistics are added back using {@link #mergeFirstPassE} and
+   * {@link #mergeE}.
+   *
+   * @return Accumulator
+   */
+  default EMClusterModel<M> newAccumulator() {
+    throw new UnsupportedOperationException("Parallel accumulation is not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * Merge the first pass statistics of an accumulator into this model.
+   *
+   * By default, this is not used (c.f. {@link #needsTwoPass()}.
+   *
+   * @param other Accumulator obtained from {@link #newAccumulator()}
+   */
+  default void mergeFirstPassE(EMClusterModel<M> other) {
+    // empty.
+  }
+
+  /**
+   * Merge the statistics of an accumulator into this model.
+   *
+   * @param other Accumulator obtained from {@link #newAccumulator()}
+   */
+  default void mergeE(EMClusterModel<M> other) {
+    throw new UnsupportedOperationException("Parallel accumulation is not supported by " + getClass().getSimpleName());
+  }
+
   /**
    * Finalize the E step.
    * 
@@ -85,6 +85,11 @@ public class TwoPassMultivariateGaussianModel implements EMClusterModel<EMModel>
    */
   double prior = 0;
 
+  /**
+   * Flag whether the first pass (mean aggregation) is in progress.
+   */
+  boolean firstPass = false;
+
   /**
    * Matrix for prior conditioning.
    */
@@ -118,8 +123,21 @@ public class TwoPassMultivariateGaussianModel implements EMClusterModel<EMModel>
     updateCholesky();
   }
 
+  /**
+   * Constructor for an accumulator.
+   * 
+   * @param mean Zero vector for the first pass, final mean for the second pass
+   *        (not modified then)
+   */
+  private TwoPassMultivariateGaussianModel(double[] mean) {
+    this.mean = mean;
+    this.tmp = new double[mean.length];
+    this.covariance = new double[mean.length][mean.length];
+  }
+
   @Override
   public void beginEStep() {
+    firstPass = true;
     wsum = 0.;
     clear(mean);
     clear(covariance);
@@ -157,6 +175,7 @@ public class TwoPassMultivariateGaussianModel implements EMClusterModel<EMModel>
     for(int i = 0; i < mean.length; i++) {
       mean[i] *= s;
     }
+    firstPass = false;
   }
 
   /**
@@ -185,6 +204,37 @@ public class TwoPassMultivariateGaussianModel implements EMClusterModel<EMModel>
     // Should we assert that the weight sum matches the first step?
   }
 
+  @Override
+  public boolean supportsParallel() {
+    return true;
+  }
+
+  @Override
+  public TwoPassMultivariateGaussianModel newAccumulator() {
+    // In the first pass, the mean of this model is a partial sum.
+    return new TwoPassMultivariateGaussianModel(firstPass ? new double[mean.length] : mean.clone());
+  }
+
+  @Override
+  public void mergeFirstPassE(EMClusterModel<EMModel> other) {
+    TwoPassMultivariateGaussianModel o = (TwoPassMultivariateGaussianModel) other;
+    for(int i = 0; i < mean.length; i++) {
+      mean[i] += o.mean[i];
+    }
+    wsum += o.wsum;
+  }
+
+  @Override
+  public void mergeE(EMClusterModel<EMModel> other) {
+    TwoPassMultivariateGaussianModel o = (TwoPassMultivariateGaussianModel) other;
+    for(int i = 0; i < covariance.length; i++) {
+      double[] cov_i = covariance[i], ocov_i = o.covariance[i];
+      for(int j = 0; j <= i; j++) {
+        cov_i[j] += ocov_i[j];
+      }
+    }
+  }
+
   @Override
   public void finalizeEStep(double weight, double prior) {
     this.weight = weight;
@@ -0,0 +1,157 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.em.parallel;
+
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EM;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EMClusterModel;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+
+/**
+ * Processor to assign the objects to the current EM cluster models, and sum
+ * up the log likelihood.
+ *
+ * The cluster models are only read, and thus shared by all threads.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has Instance
+ */
+public class EMAssignmentProcessor implements Processor {
+  /**
+   * Data relation.
+   */
+  Relation<? extends NumberVector> relation;
+
+  /**
+   * Current cluster models.
+   */
+  List<? extends EMClusterModel<?>> models;
+
+  /**
+   * Output storage for cluster probabilities.
+   */
+  WritableDataStore<double[]> probClusterIGivenX;
+
+  /**
+   * Log likelihood sum.
+   */
+  double loglikelihood;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param probClusterIGivenX Output storage for cluster probabilities
+   */
+  public EMAssignmentProcessor(Relation<? extends NumberVector> relation, WritableDataStore<double[]> probClusterIGivenX) {
+    super();
+    this.relation = relation;
+    this.probClusterIGivenX = probClusterIGivenX;
+  }
+
+  /**
+   * Initialize for a new iteration.
+   *
+   * @param models Current cluster models
+   */
+  public void nextIteration(List<? extends EMClusterModel<?>> models) {
+    this.models = models;
+    this.loglikelihood = 0.;
+  }
+
+  /**
+   * Get the average log likelihood of the last iteration.
+   *
+   * @return Log likelihood
+   */
+  public double getLogLikelihood() {
+    return loglikelihood / relation.size();
+  }
+
+  @Override
+  public Instance instantiate(Executor exectutor) {
+    return new Instance(relation, models, probClusterIGivenX);
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    Instance instance = (Instance) inst;
+    synchronized(this) {
+      loglikelihood += instance.loglikelihood;
+    }
+  }
+
+  /**
+   * Instance to process part of the data set, for a single iteration.
+   *
+   * @author Erich Schubert
+   */
+  public static class Instance implements Processor.Instance {
+    /**
+     * Data relation.
+     */
+    private Relation<? extends NumberVector> relation;
+
+    /**
+     * Current cluster models.
+     */
+    private List<? extends EMClusterModel<?>> models;
+
+    /**
+     * Output storage for cluster probabilities.
+     */
+    private WritableDataStore<double[]> probClusterIGivenX;
+
+    /**
+     * Partial log likelihood sum.
+     */
+    private double loglikelihood = 0.;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param models Current cluster models
+     * @param probClusterIGivenX Output storage for cluster probabilities
+     */
+    public Instance(Relation<? extends NumberVector> relation, List<? extends EMClusterModel<?>> models, WritableDataStore<double[]> probClusterIGivenX) {
+      super();
+      this.relation = relation;
+      this.models = models;
+      this.probClusterIGivenX = probClusterIGivenX;
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      double[] probs = new double[models.size()];
+      loglikelihood += EM.computeProbabilities(relation.get(id), models, probs);
+      probClusterIGivenX.put(id, probs);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.em.parallel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EMClusterModel;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.MeanModel;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.math.linearalgebra.VMath;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+
+/**
+ * Processor to recompute the EM cluster models.
+ *
+ * Every thread accumulates the sufficient statistics (weight sums, means,
+ * covariances) in its own accumulator models, which are merged into the
+ * shared models when the thread has finished its part of the data.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has Instance
+ *
+ * @param <M> Model type
+ */
+public class EMUpdateProcessor<M extends MeanModel> implements Processor {
+  /**
+   * Data relation.
+   */
+  Relation<? extends NumberVector> relation;
+
+  /**
+   * Cluster probabilities.
+   */
+  DataStore<double[]> probClusterIGivenX;
+
+  /**
+   * Cluster models to update.
+   */
+  List<? extends EMClusterModel<M>> models;
+
+  /**
+   * Weight sums.
+   */
+  double[] wsum;
+
+  /**
+   * Flag for the first pass of two-pass models.
+   */
+  boolean firstPass;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param probClusterIGivenX Cluster probabilities
+   * @param models Cluster models to update
+   */
+  public EMUpdateProcessor(Relation<? extends NumberVector> relation, DataStore<double[]> probClusterIGivenX, List<? extends EMClusterModel<M>> models) {
+    super();
+    this.relation = relation;
+    this.probClusterIGivenX = probClusterIGivenX;
+    this.models = models;
+    this.wsum = new double[models.size()];
+  }
+
+  /**
+   * Begin a pass over the data.
+   *
+   * @param firstPass First pass of two-pass models
+   */
+  public void beginPass(boolean firstPass) {
+    this.firstPass = firstPass;
+    VMath.clear(wsum);
+  }
+
+  /**
+   * Get the weight sums of the last pass.
+   *
+   * @return Weight sums
+   */
+  public double[] getWeightSums() {
+    return wsum;
+  }
+
+  @Override
+  public Instance<M> instantiate(Executor exectutor) {
+    List<EMClusterModel<M>> accumulators = new ArrayList<>(models.size());
+    for(EMClusterModel<M> m : models) {
+      accumulators.add(m.newAccumulator());
+    }
+    return new Instance<>(relation, probClusterIGivenX, accumulators, firstPass);
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    @SuppressWarnings("unchecked")
+    Instance<M> instance = (Instance<M>) inst;
+    synchronized(this) {
+      for(int i = 0; i < wsum.length; i++) {
+        if(firstPass) {
+          models.get(i).mergeFirstPassE(instance.accumulators.get(i));
+        }
+        else {
+          models.get(i).mergeE(instance.accumulators.get(i));
+        }
+      }
+      VMath.plusEquals(wsum, instance.wsum);
+    }
+  }
+
+  /**
+   * Instance to process part of the data set, for a single pass.
+   *
+   * @author Erich Schubert
+   *
+   * @param <M> Model type
+   */
+  public static class Instance<M extends MeanModel> implements Processor.Instance {
+    /**
+     * Data relation.
+     */
+    private Relation<? extends NumberVector> relation;
+
+    /**
+     * Cluster probabilities.
+     */
+    private DataStore<double[]> probClusterIGivenX;
+
+    /**
+     * Thread-local accumulators.
+     */
+    private List<EMClusterModel<M>> accumulators;
+
+    /**
+     * Partial weight sums.
+     */
+    private double[] wsum;
+
+    /**
+     * Flag for the first pass of two-pass models.
+     */
+    private boolean firstPass;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Data relation
+     * @param probClusterIGivenX Cluster probabilities
+     * @param accumulators Thread-local accumulators
+     * @param firstPass Flag for the first pass of two-pass models
+     */
+    public Instance(Relation<? extends NumberVector> relation, DataStore<double[]> probClusterIGivenX, List<EMClusterModel<M>> accumulators, boolean firstPass) {
+      super();
+      this.relation = relation;
+      this.probClusterIGivenX = probClusterIGivenX;
+      this.accumulators = accumulators;
+      this.wsum = new double[accumulators.size()];
+      this.firstPass = firstPass;
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      double[] clusterProbabilities = probClusterIGivenX.get(id);
+      NumberVector instance = relation.get(id);
+      for(int i = 0; i < clusterProbabilities.length; i++) {
+        final double prob = clusterProbabilities[i];
+        if(prob > 1e-10) {
+          if(firstPass) {
+            accumulators.get(i).firstPassE(instance, prob);
+          }
+          else {
+            accumulators.get(i).updateE(instance, prob);
+          }
+        }
+        wsum[i] += prob;
+      }
+    }
+  }
+}
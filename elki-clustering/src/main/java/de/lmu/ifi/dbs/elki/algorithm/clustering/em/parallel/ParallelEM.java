@@ -0,0 +1,125 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.em.parallel;
+
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EM;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EMClusterModel;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EMClusterModelFactory;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.MeanModel;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+
+/**
+ * Parallel implementation of EM clustering.
+ *
+ * Both the assignment of objects to clusters and the recomputation of the
+ * cluster models are processed in parallel. For the latter, each thread
+ * accumulates the sufficient statistics into its own copies of the models
+ * (c.f. {@link EMClusterModel#newAccumulator()}), which are merged at the end
+ * of each iteration. Because of the different summation order, results may
+ * differ from {@link EM} within numerical precision.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has EMAssignmentProcessor
+ * @apiviz.has EMUpdateProcessor
+ *
+ * @param <V> vector type to analyze
+ * @param <M> model type to produce
+ */
+public class ParallelEM<V extends NumberVector, M extends MeanModel> extends EM<V, M> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelEM.class);
+
+  /**
+   * Constructor.
+   *
+   * @param k k parameter
+   * @param delta delta parameter
+   * @param mfactory EM cluster model factory
+   * @param maxiter Maximum number of iterations
+   * @param prior MAP prior
+   * @param soft Include soft assignments
+   */
+  public ParallelEM(int k, double delta, EMClusterModelFactory<V, M> mfactory, int maxiter, double prior, boolean soft) {
+    super(k, delta, mfactory, maxiter, prior, soft);
+  }
+
+  @Override
+  protected void recomputeModels(Relation<V> relation, WritableDataStore<double[]> probClusterIGivenX, List<? extends EMClusterModel<M>> models, double prior) {
+    boolean needsTwoPass = false;
+    for(EMClusterModel<M> m : models) {
+      if(!m.supportsParallel()) {
+        LOG.warning("Model " + m.getClass().getSimpleName() + " does not support parallel updates.");
+        super.recomputeModels(relation, probClusterIGivenX, models, prior);
+        return;
+      }
+      m.beginEStep();
+      needsTwoPass |= m.needsTwoPass();
+    }
+    EMUpdateProcessor<M> proc = new EMUpdateProcessor<>(relation, probClusterIGivenX, models);
+    if(needsTwoPass) {
+      proc.beginPass(true);
+      ParallelExecutor.run(relation.getDBIDs(), proc);
+      for(EMClusterModel<M> m : models) {
+        m.finalizeFirstPassE();
+      }
+    }
+    proc.beginPass(false);
+    ParallelExecutor.run(relation.getDBIDs(), proc);
+    finalizeEStep(models, proc.getWeightSums(), relation.size(), prior);
+  }
+
+  @Override
+  protected double assignProbabilities(Relation<V> relation, List<? extends EMClusterModel<M>> models, WritableDataStore<double[]> probClusterIGivenX) {
+    EMAssignmentProcessor proc = new EMAssignmentProcessor(relation, probClusterIGivenX);
+    proc.nextIteration(models);
+    ParallelExecutor.run(relation.getDBIDs(), proc);
+    return proc.getLogLikelihood();
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<V extends NumberVector, M extends MeanModel> extends EM.Parameterizer<V, M> {
+    @Override
+    protected ParallelEM<V, M> makeInstance() {
+      return new ParallelEM<>(k, delta, initializer, maxiter, prior, false);
+    }
+  }
+}
@@ -20,6 +20,10 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
 import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.DistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.linkage.Linkage;
@@ -41,6 +45,7 @@ import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -55,6 +60,11 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * This implementation uses the pointer-based representation used by SLINK, so
  * that the extraction algorithms we have can be used with either of them.
  * <p>
+ * The distance matrix is computed in parallel, in tiles for cache efficiency;
+ * the search for the closest pair and the Lance-Williams updates are
+ * performed in parallel blocks, too. Optionally, the matrix can be stored in
+ * single precision, to halve the memory requirements.
+ * <p>
  * The algorithm is believed to be first published (for single-linkage) by:
  * <p>
  * P. H. Sneath<br>
@@ -117,6 +127,31 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
    */
   Linkage linkage = WardLinkage.STATIC;
 
+  /**
+   * Store the distance matrix in single precision.
+   */
+  boolean singlePrecision = false;
+
+  /**
+   * Minimum number of matrix cells per block, for computing distances.
+   */
+  private static final int MIN_FILL_BLOCKSIZE = 1 << 12;
+
+  /**
+   * Minimum number of matrix cells per block, for scanning the matrix.
+   */
+  private static final int MIN_SCAN_BLOCKSIZE = 1 << 16;
+
+  /**
+   * Minimum number of objects per block, for updating the matrix.
+   */
+  protected static final int MIN_UPDATE_BLOCKSIZE = 1 << 14;
+
+  /**
+   * Tile width when computing the distance matrix.
+   */
+  private static final int TILE_WIDTH = 256;
+
   /**
    * Constructor.
    *
@@ -124,8 +159,20 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
    * @param linkage Linkage method
    */
   public AGNES(DistanceFunction<? super O> distanceFunction, Linkage linkage) {
+    this(distanceFunction, linkage, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function to use
+   * @param linkage Linkage method
+   * @param singlePrecision Store the distance matrix in single precision
+   */
+  public AGNES(DistanceFunction<? super O> distanceFunction, Linkage linkage, boolean singlePrecision) {
     super(distanceFunction);
     this.linkage = linkage;
+    this.singlePrecision = singlePrecision;
   }
 
   /**
@@ -144,7 +191,7 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
     DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
 
     // Compute the initial (lower triangular) distance matrix.
-    MatrixParadigm mat = new MatrixParadigm(ids);
+    MatrixParadigm mat = new MatrixParadigm(ids, singlePrecision);
     initializeDistanceMatrix(mat, dq, linkage);
 
     // Initialize space for result:
@@ -185,34 +232,100 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
 
   /**
    * Initialize a distance matrix.
+   * <p>
+   * The rows are split into blocks of roughly equal size that are computed in
+   * parallel. Within each block, the columns are processed in tiles, such that
+   * the objects of a tile remain in the CPU cache.
    *
    * @param mat Matrix
    * @param dq Distance query
    * @param linkage Linkage method
    */
   protected static void initializeDistanceMatrix(MatrixParadigm mat, DistanceQuery<?> dq, Linkage linkage) {
-    final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] matrix = mat.matrix;
-    final boolean issquare = dq.getDistanceFunction().isSquared();
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Distance matrix computation", matrix.length, LOG) : null;
-    int pos = 0;
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      final int x = ix.getOffset();
-      assert (pos == MatrixParadigm.triangleSize(x));
-      for(iy.seek(0); iy.getOffset() < x; iy.advance()) {
-        matrix[pos++] = linkage.initial(dq.distance(ix, iy), issquare);
-      }
-      if(prog != null) {
-        prog.setProcessed(pos, LOG);
-      }
+    final int size = mat.size;
+    final int numblocks = MatrixParadigm.numBlocks(MatrixParadigm.triangleSize(size), MIN_FILL_BLOCKSIZE);
+    List<FillBlock> blocks = new ArrayList<>(numblocks);
+    int numtiles = 0;
+    for(int b = 0, begin = 0; b < numblocks; b++) {
+      final int end = MatrixParadigm.blockEnd(size, b, numblocks, true);
+      blocks.add(new FillBlock(mat, dq, linkage, begin, end));
+      numtiles += (end + TILE_WIDTH - 1) / TILE_WIDTH;
+      begin = end;
     }
-    // Avoid logging errors in case scratch space was too large:
-    if(prog != null) {
-      prog.setProcessed(matrix.length, LOG);
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Distance matrix computation (tiles)", numtiles, LOG) : null;
+    for(FillBlock block : blocks) {
+      block.prog = prog;
     }
+    MatrixParadigm.run(blocks);
     LOG.ensureCompleted(prog);
   }
 
+  /**
+   * Compute the distances for a block of rows, in tiles.
+   *
+   * @author Erich Schubert
+   */
+  private static class FillBlock implements Callable<Void> {
+    /**
+     * Matrix to fill.
+     */
+    private MatrixParadigm mat;
+
+    /**
+     * Distance query.
+     */
+    private DistanceQuery<?> dq;
+
+    /**
+     * Linkage method.
+     */
+    private Linkage linkage;
+
+    /**
+     * Row range.
+     */
+    private int begin, end;
+
+    /**
+     * Progress, may be {@code null}.
+     */
+    FiniteProgress prog;
+
+    /**
+     * Constructor.
+     *
+     * @param mat Matrix
+     * @param dq Distance query
+     * @param linkage Linkage method
+     * @param begin First row
+     * @param end End of row range (exclusive)
+     */
+    FillBlock(MatrixParadigm mat, DistanceQuery<?> dq, Linkage linkage, int begin, int end) {
+      this.mat = mat;
+      this.dq = dq;
+      this.linkage = linkage;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public Void call() {
+      final DBIDArrayIter ix = mat.ids.iter(), iy = mat.ids.iter();
+      final boolean issquare = dq.getDistanceFunction().isSquared();
+      for(int tbegin = 0; tbegin < end; tbegin += TILE_WIDTH) {
+        final int tend = Math.min(tbegin + TILE_WIDTH, end);
+        for(ix.seek(Math.max(begin, tbegin + 1)); ix.getOffset() < end; ix.advance()) {
+          final int x = ix.getOffset(), xend = Math.min(x, tend);
+          for(int pos = MatrixParadigm.triangleSize(x) + iy.seek(tbegin).getOffset(); iy.getOffset() < xend; iy.advance()) {
+            mat.setValue(pos++, linkage.initial(dq.distance(ix, iy), issquare));
+          }
+        }
+        LOG.incrementProcessed(prog);
+      }
+      return null;
+    }
+  }
+
   /**
    * Perform the next merge step in AGNES.
    *
@@ -223,34 +336,100 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
    */
   protected int findMerge(int end, MatrixParadigm mat, PointerHierarchyRepresentationBuilder builder) {
     assert (end > 0);
-    final DBIDArrayIter ix = mat.ix, iy = mat.iy;
-    final double[] matrix = mat.matrix;
+    final int numblocks = MatrixParadigm.numBlocks(MatrixParadigm.triangleSize(end), MIN_SCAN_BLOCKSIZE);
+    List<MinimumBlock> blocks = new ArrayList<>(numblocks);
+    for(int b = 0, begin = 0; b < numblocks; b++) {
+      final int bend = MatrixParadigm.blockEnd(end, b, numblocks, true);
+      blocks.add(new MinimumBlock(mat, builder, begin, bend));
+      begin = bend;
+    }
+    MatrixParadigm.run(blocks);
     double mindist = Double.POSITIVE_INFINITY;
     int x = -1, y = -1;
-    // Find minimum:
-    for(int ox = 0, xbase = 0; ox < end; xbase += ox++) {
-      // Skip if object has already joined a cluster:
-      if(builder.isLinked(ix.seek(ox))) {
-        continue;
+    // Combine in scan order, to resolve ties the same way.
+    for(MinimumBlock block : blocks) {
+      if(block.x >= 0 && block.mindist <= mindist) {
+        mindist = block.mindist;
+        x = block.x;
+        y = block.y;
       }
-      assert (xbase == MatrixParadigm.triangleSize(ox));
-      for(int oy = 0; oy < ox; oy++) {
+    }
+    assert (x >= 0 && y >= 0);
+    assert (y < x); // We could swap otherwise, but this shouldn't arise.
+    merge(end, mat, builder, mindist, x, y);
+    return x;
+  }
+
+  /**
+   * Find the minimum in a block of rows.
+   *
+   * @author Erich Schubert
+   */
+  private static class MinimumBlock implements Callable<Void> {
+    /**
+     * Matrix to scan.
+     */
+    private MatrixParadigm mat;
+
+    /**
+     * Hierarchy builder, to skip merged objects.
+     */
+    private PointerHierarchyRepresentationBuilder builder;
+
+    /**
+     * Row range.
+     */
+    private int begin, end;
+
+    /**
+     * Output: minimum distance.
+     */
+    double mindist = Double.POSITIVE_INFINITY;
+
+    /**
+     * Output: position of the minimum, -1 if not found.
+     */
+    int x = -1, y = -1;
+
+    /**
+     * Constructor.
+     *
+     * @param mat Matrix
+     * @param builder Hierarchy builder
+     * @param begin First row
+     * @param end End of row range (exclusive)
+     */
+    MinimumBlock(MatrixParadigm mat, PointerHierarchyRepresentationBuilder builder, int begin, int end) {
+      this.mat = mat;
+      this.builder = builder;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public Void call() {
+      final DBIDArrayIter ix = mat.ids.iter(), iy = mat.ids.iter();
+      for(int ox = begin, xbase = MatrixParadigm.triangleSize(begin); ox < end; xbase += ox++) {
         // Skip if object has already joined a cluster:
-        if(builder.isLinked(iy.seek(oy))) {
+        if(builder.isLinked(ix.seek(ox))) {
           continue;
         }
-        final double dist = matrix[xbase + oy];
-        if(dist <= mindist) { // Prefer later on ==, to truncate more often.
-          mindist = dist;
-          x = ox;
-          y = oy;
+        assert (xbase == MatrixParadigm.triangleSize(ox));
+        for(int oy = 0; oy < ox; oy++) {
+          // Skip if object has already joined a cluster:
+          if(builder.isLinked(iy.seek(oy))) {
+            continue;
+          }
+          final double dist = mat.getValue(xbase + oy);
+          if(dist <= mindist) { // Prefer later on ==, to truncate more often.
+            mindist = dist;
+            x = ox;
+            y = oy;
+          }
         }
       }
+      return null;
     }
-    assert (x >= 0 && y >= 0);
-    assert (y < x); // We could swap otherwise, but this shouldn't arise.
-    merge(end, mat, builder, mindist, x, y);
-    return x;
   }
 
   /**
@@ -292,40 +471,89 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
    * @param sizey Old size of second cluster
    */
   protected void updateMatrix(int end, MatrixParadigm mat, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, final int sizex, final int sizey) {
-    // Update distance matrix. Note: y < x
-    final int xbase = MatrixParadigm.triangleSize(x);
-    final int ybase = MatrixParadigm.triangleSize(y);
-    double[] scratch = mat.matrix;
-    DBIDArrayIter ij = mat.ix;
-
-    // Write to (y, j), with j < y
-    int j = 0;
-    for(; j < y; j++) {
-      if(builder.isLinked(ij.seek(j))) {
-        continue;
-      }
-      assert (j < y); // Otherwise, ybase + j is the wrong position!
-      final int yb = ybase + j;
-      scratch[yb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[yb], builder.getSize(ij), mindist);
+    final int numblocks = MatrixParadigm.numBlocks(end, MIN_UPDATE_BLOCKSIZE);
+    List<UpdateBlock> blocks = new ArrayList<>(numblocks);
+    for(int b = 0, begin = 0; b < numblocks; b++) {
+      final int bend = MatrixParadigm.blockEnd(end, b, numblocks, false);
+      blocks.add(new UpdateBlock(mat, builder, mindist, x, y, sizex, sizey, begin, bend));
+      begin = bend;
     }
-    j++; // Skip y
-    // Write to (j, y), with y < j < x
-    int jbase = MatrixParadigm.triangleSize(j);
-    for(; j < x; jbase += j++) {
-      if(builder.isLinked(ij.seek(j))) {
-        continue;
-      }
-      final int jb = jbase + y;
-      scratch[jb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[jb], builder.getSize(ij), mindist);
+    MatrixParadigm.run(blocks);
+  }
+
+  /**
+   * Update the distances of a range of objects to the merged cluster.
+   *
+   * @author Erich Schubert
+   */
+  private class UpdateBlock implements Callable<Void> {
+    /**
+     * Matrix to update.
+     */
+    private MatrixParadigm mat;
+
+    /**
+     * Hierarchy builder, for cluster sizes.
+     */
+    private PointerHierarchyRepresentationBuilder builder;
+
+    /**
+     * Distance that was used for merging.
+     */
+    private double mindist;
+
+    /**
+     * Merged positions, {@code y < x}, and their old sizes.
+     */
+    private int x, y, sizex, sizey;
+
+    /**
+     * Range of objects to update.
+     */
+    private int begin, end;
+
+    /**
+     * Constructor.
+     *
+     * @param mat Matrix
+     * @param builder Hierarchy builder
+     * @param mindist Distance that was used for merging
+     * @param x First matrix position
+     * @param y Second matrix position
+     * @param sizex Old size of first cluster
+     * @param sizey Old size of second cluster
+     * @param begin First object
+     * @param end End of range (exclusive)
+     */
+    UpdateBlock(MatrixParadigm mat, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, int sizex, int sizey, int begin, int end) {
+      this.mat = mat;
+      this.builder = builder;
+      this.mindist = mindist;
+      this.x = x;
+      this.y = y;
+      this.sizex = sizex;
+      this.sizey = sizey;
+      this.begin = begin;
+      this.end = end;
     }
-    jbase += j++; // Skip x
-    // Write to (j, y), with y < x < j
-    for(; j < end; jbase += j++) {
-      if(builder.isLinked(ij.seek(j))) {
-        continue;
+
+    @Override
+    public Void call() {
+      // Update distance matrix. Note: y < x
+      final int xbase = MatrixParadigm.triangleSize(x);
+      final int ybase = MatrixParadigm.triangleSize(y);
+      DBIDArrayIter ij = mat.ids.iter();
+      for(int j = begin; j < end; j++) {
+        if(j == x || j == y || builder.isLinked(ij.seek(j))) {
+          continue;
+        }
+        final int jbase = MatrixParadigm.triangleSize(j);
+        // Write to (y, j) if j < y, to (j, y) otherwise
+        final int yj = j < y ? ybase + j : jbase + y;
+        final int xj = j < x ? xbase + j : jbase + x;
+        mat.setValue(yj, linkage.combine(sizex, mat.getValue(xj), sizey, mat.getValue(yj), builder.getSize(ij), mindist));
       }
-      final int jb = jbase + y;
-      scratch[jb] = linkage.combine(sizex, scratch[jbase + x], sizey, scratch[jb], builder.getSize(ij), mindist);
+      return null;
     }
   }
 
@@ -355,11 +583,21 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
      */
     public static final OptionID LINKAGE_ID = new OptionID("hierarchical.linkage", "Linkage method to use (e.g. Ward, Single-Link)");
 
+    /**
+     * Flag to store the distance matrix in single precision.
+     */
+    public static final OptionID SINGLE_PRECISION_ID = new OptionID("hierarchical.float", "Store the distance matrix in single precision (float), to halve the memory requirements.");
+
     /**
      * Current linkage in use.
      */
     protected Linkage linkage;
 
+    /**
+     * Store the distance matrix in single precision.
+     */
+    protected boolean singlePrecision;
+
     @Override
     protected void makeOptions(Parameterization config) {
       // We don't call super, because we want a different default distance.
@@ -373,11 +611,16 @@ public class AGNES<O> extends AbstractDistanceBasedAlgorithm<O, PointerHierarchy
       if(config.grab(linkageP)) {
         linkage = linkageP.instantiateClass(config);
       }
+
+      Flag singleP = new Flag(SINGLE_PRECISION_ID);
+      if(config.grab(singleP)) {
+        singlePrecision = singleP.isTrue();
+      }
     }
 
     @Override
     protected AGNES<O> makeInstance() {
-      return new AGNES<>(distanceFunction, linkage);
+      return new AGNES<>(distanceFunction, linkage, singlePrecision);
     }
   }
 }
@@ -20,7 +20,10 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.DistanceBasedAlgorithm;
@@ -42,6 +45,7 @@ import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
 /**
@@ -57,6 +61,9 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * <p>
  * This optimization is attributed to M. R. Anderberg.
  * <p>
+ * The initial nearest neighbors and the updates of the distances and nearest
+ * neighbors after each merge are computed in parallel blocks.
+ * <p>
  * Reference:
  * <p>
  * M. R. Anderberg<br>
@@ -88,6 +95,16 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    */
   Linkage linkage = WardLinkage.STATIC;
 
+  /**
+   * Store the distance matrix in single precision.
+   */
+  boolean singlePrecision = false;
+
+  /**
+   * Minimum number of matrix cells per block, for the nearest neighbor cache.
+   */
+  private static final int MIN_SCAN_BLOCKSIZE = 1 << 16;
+
   /**
    * Constructor.
    *
@@ -95,8 +112,20 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    * @param linkage Linkage method
    */
   public AnderbergHierarchicalClustering(DistanceFunction<? super O> distanceFunction, Linkage linkage) {
+    this(distanceFunction, linkage, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function to use
+   * @param linkage Linkage method
+   * @param singlePrecision Store the distance matrix in single precision
+   */
+  public AnderbergHierarchicalClustering(DistanceFunction<? super O> distanceFunction, Linkage linkage, boolean singlePrecision) {
     super(distanceFunction);
     this.linkage = linkage;
+    this.singlePrecision = singlePrecision;
   }
 
   /**
@@ -112,7 +141,7 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
     }
     DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
     final DBIDs ids = relation.getDBIDs();
-    MatrixParadigm mat = new MatrixParadigm(ids);
+    MatrixParadigm mat = new MatrixParadigm(ids, singlePrecision);
     final int size = ids.size();
 
     // Position counter - must agree with computeOffset!
@@ -121,7 +150,7 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
     // Arrays used for caching:
     double[] bestd = new double[size];
     int[] besti = new int[size];
-    initializeNNCache(mat.matrix, bestd, besti);
+    initializeNNCache(mat, bestd, besti);
 
     // Initialize space for result:
     PointerHierarchyRepresentationBuilder builder = new PointerHierarchyRepresentationBuilder(ids, dq.getDistanceFunction().isSquared());
@@ -141,32 +170,116 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
 
   /**
    * Initialize the NN cache.
+   * <p>
+   * Each block of rows computes the row minima, and the minima of the columns
+   * within its rows. These are then combined in row order, to resolve ties the
+   * same way as a sequential scan.
    *
-   * @param scratch Scratch space
+   * @param mat Matrix paradigm
    * @param bestd Best distance
    * @param besti Best index
    */
-  private static void initializeNNCache(double[] scratch, double[] bestd, int[] besti) {
+  private static void initializeNNCache(MatrixParadigm mat, double[] bestd, int[] besti) {
     final int size = bestd.length;
-    Arrays.fill(bestd, Double.POSITIVE_INFINITY);
-    Arrays.fill(besti, -1);
-    for(int x = 0, p = 0; x < size; x++) {
-      assert (p == MatrixParadigm.triangleSize(x));
-      double bestdx = Double.POSITIVE_INFINITY;
-      int bestix = -1;
-      for(int y = 0; y < x; y++, p++) {
-        final double v = scratch[p];
-        if(v < bestd[y]) {
-          bestd[y] = v;
-          besti[y] = x;
+    final int numblocks = MatrixParadigm.numBlocks(MatrixParadigm.triangleSize(size), MIN_SCAN_BLOCKSIZE);
+    List<NNCacheBlock> blocks = new ArrayList<>(numblocks);
+    for(int b = 0, begin = 0; b < numblocks; b++) {
+      final int end = MatrixParadigm.blockEnd(size, b, numblocks, true);
+      blocks.add(new NNCacheBlock(mat, bestd, besti, begin, end));
+      begin = end;
+    }
+    MatrixParadigm.run(blocks);
+    // Rows were written by the blocks; add the column minima.
+    for(NNCacheBlock block : blocks) {
+      final double[] colbestd = block.colbestd;
+      final int[] colbesti = block.colbesti;
+      for(int y = 0; y < colbestd.length; y++) {
+        if(colbestd[y] < bestd[y]) {
+          bestd[y] = colbestd[y];
+          besti[y] = colbesti[y];
         }
-        if(v < bestdx) {
-          bestdx = v;
-          bestix = y;
+      }
+    }
+  }
+
+  /**
+   * Compute the nearest neighbors within a block of rows.
+   *
+   * @author Erich Schubert
+   */
+  private static class NNCacheBlock implements Callable<Void> {
+    /**
+     * Matrix to scan.
+     */
+    private MatrixParadigm mat;
+
+    /**
+     * Output: best distance and index of each row.
+     */
+    private double[] bestd;
+
+    /**
+     * Output: best index of each row.
+     */
+    private int[] besti;
+
+    /**
+     * Row range.
+     */
+    private int begin, end;
+
+    /**
+     * Output: column minima within this block.
+     */
+    double[] colbestd;
+
+    /**
+     * Output: index of the column minima.
+     */
+    int[] colbesti;
+
+    /**
+     * Constructor.
+     *
+     * @param mat Matrix
+     * @param bestd Best distance output
+     * @param besti Best index output
+     * @param begin First row
+     * @param end End of row range (exclusive)
+     */
+    NNCacheBlock(MatrixParadigm mat, double[] bestd, int[] besti, int begin, int end) {
+      this.mat = mat;
+      this.bestd = bestd;
+      this.besti = besti;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public Void call() {
+      colbestd = new double[end];
+      colbesti = new int[end];
+      Arrays.fill(colbestd, Double.POSITIVE_INFINITY);
+      Arrays.fill(colbesti, -1);
+      for(int x = begin, p = MatrixParadigm.triangleSize(begin); x < end; x++) {
+        assert (p == MatrixParadigm.triangleSize(x));
+        double bestdx = Double.POSITIVE_INFINITY;
+        int bestix = -1;
+        for(int y = 0; y < x; y++, p++) {
+          final double v = mat.getValue(p);
+          if(v < colbestd[y]) {
+            colbestd[y] = v;
+            colbesti[y] = x;
+          }
+          if(v < bestdx) {
+            bestdx = v;
+            bestix = y;
+          }
         }
+        bestd[x] = bestdx;
+        besti[x] = bestix;
       }
-      bestd[x] = bestdx;
-      besti[x] = bestix;
+      return null;
     }
   }
 
@@ -234,19 +347,20 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
     // Deactivate x in cache:
     besti[x] = -1;
 
-    // Note: this changes iy.
-    updateMatrix(size, mat.matrix, iy, bestd, besti, builder, mindist, x, y, sizex, sizey);
+    updateMatrix(size, mat, bestd, besti, builder, mindist, x, y, sizex, sizey);
     if(besti[y] == x) {
-      findBest(size, mat.matrix, bestd, besti, y);
+      findBest(size, mat, bestd, besti, y);
     }
   }
 
   /**
-   * Update the scratch distance matrix.
+   * Update the scratch distance matrix, and the nearest neighbor cache.
+   * <p>
+   * Each object j only modifies its distance to y, and its own cache entry, so
+   * the objects can be processed in parallel blocks.
    *
    * @param size Data set size
-   * @param scratch Scratch matrix.
-   * @param ij Iterator to reuse
+   * @param mat Matrix paradigm
    * @param bestd Best distance
    * @param besti Index of best distance
    * @param builder Hierarchy builder
@@ -256,44 +370,108 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    * @param sizex Old size of first cluster
    * @param sizey Old size of second cluster
    */
-  protected void updateMatrix(int size, double[] scratch, DBIDArrayIter ij, double[] bestd, int[] besti, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, final int sizex, final int sizey) {
-    // Update distance matrix. Note: miny < minx
-    final int xbase = MatrixParadigm.triangleSize(x);
-    final int ybase = MatrixParadigm.triangleSize(y);
-
-    // Write to (y, j), with j < y
-    int j = 0;
-    for(; j < y; j++) {
-      if(builder.isLinked(ij.seek(j))) {
-        continue;
-      }
-      final int sizej = builder.getSize(ij);
-      final int yb = ybase + j;
-      final double d = scratch[yb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[yb], sizej, mindist);
-      updateCache(size, scratch, bestd, besti, x, y, j, d);
+  protected void updateMatrix(int size, MatrixParadigm mat, double[] bestd, int[] besti, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, final int sizex, final int sizey) {
+    final int numblocks = MatrixParadigm.numBlocks(size, AGNES.MIN_UPDATE_BLOCKSIZE);
+    List<UpdateBlock> blocks = new ArrayList<>(numblocks);
+    for(int b = 0, begin = 0; b < numblocks; b++) {
+      final int end = MatrixParadigm.blockEnd(size, b, numblocks, false);
+      blocks.add(new UpdateBlock(size, mat, bestd, besti, builder, mindist, x, y, sizex, sizey, begin, end));
+      begin = end;
     }
-    j++; // Skip y
-    // Write to (j, y), with y < j < x
-    int jbase = MatrixParadigm.triangleSize(j);
-    for(; j < x; jbase += j++) {
-      if(builder.isLinked(ij.seek(j))) {
-        continue;
-      }
-      final int sizej = builder.getSize(ij);
-      final int jb = jbase + y;
-      final double d = scratch[jb] = linkage.combine(sizex, scratch[xbase + j], sizey, scratch[jb], sizej, mindist);
-      updateCache(size, scratch, bestd, besti, x, y, j, d);
+    MatrixParadigm.run(blocks);
+  }
+
+  /**
+   * Update the distances of a range of objects to the merged cluster.
+   *
+   * @author Erich Schubert
+   */
+  private class UpdateBlock implements Callable<Void> {
+    /**
+     * Matrix to update.
+     */
+    private MatrixParadigm mat;
+
+    /**
+     * Nearest neighbor cache: best distance.
+     */
+    private double[] bestd;
+
+    /**
+     * Nearest neighbor cache: best index.
+     */
+    private int[] besti;
+
+    /**
+     * Hierarchy builder, for cluster sizes.
+     */
+    private PointerHierarchyRepresentationBuilder builder;
+
+    /**
+     * Distance that was used for merging.
+     */
+    private double mindist;
+
+    /**
+     * Working set size, merged positions ({@code y < x}), and old sizes.
+     */
+    private int size, x, y, sizex, sizey;
+
+    /**
+     * Range of objects to update.
+     */
+    private int begin, end;
+
+    /**
+     * Constructor.
+     *
+     * @param size Working set size
+     * @param mat Matrix
+     * @param bestd Best distance
+     * @param besti Index of best distance
+     * @param builder Hierarchy builder
+     * @param mindist Distance that was used for merging
+     * @param x First matrix position
+     * @param y Second matrix position
+     * @param sizex Old size of first cluster
+     * @param sizey Old size of second cluster
+     * @param begin First object
+     * @param end End of range (exclusive)
+     */
+    UpdateBlock(int size, MatrixParadigm mat, double[] bestd, int[] besti, PointerHierarchyRepresentationBuilder builder, double mindist, int x, int y, int sizex, int sizey, int begin, int end) {
+      this.size = size;
+      this.mat = mat;
+      this.bestd = bestd;
+      this.besti = besti;
+      this.builder = builder;
+      this.mindist = mindist;
+      this.x = x;
+      this.y = y;
+      this.sizex = sizex;
+      this.sizey = sizey;
+      this.begin = begin;
+      this.end = end;
     }
-    jbase += j++; // Skip x
-    // Write to (j, y), with y < x < j
-    for(; j < size; jbase += j++) {
-      if(builder.isLinked(ij.seek(j))) {
-        continue;
+
+    @Override
+    public Void call() {
+      // Update distance matrix. Note: y < x
+      final int xbase = MatrixParadigm.triangleSize(x);
+      final int ybase = MatrixParadigm.triangleSize(y);
+      DBIDArrayIter ij = mat.ids.iter();
+      for(int j = begin; j < end; j++) {
+        if(j == x || j == y || builder.isLinked(ij.seek(j))) {
+          continue;
+        }
+        final int jbase = MatrixParadigm.triangleSize(j);
+        // Write to (y, j) if j < y, to (j, y) otherwise
+        final int yj = j < y ? ybase + j : jbase + y;
+        final int xj = j < x ? xbase + j : jbase + x;
+        mat.setValue(yj, linkage.combine(sizex, mat.getValue(xj), sizey, mat.getValue(yj), builder.getSize(ij), mindist));
+        // Use the stored value, which may have been rounded.
+        updateCache(size, mat, bestd, besti, x, y, j, mat.getValue(yj));
       }
-      final int sizej = builder.getSize(ij);
-      final int jb = jbase + y;
-      final double d = scratch[jb] = linkage.combine(sizex, scratch[jbase + x], sizey, scratch[jb], sizej, mindist);
-      updateCache(size, scratch, bestd, besti, x, y, j, d);
+      return null;
     }
   }
 
@@ -301,7 +479,7 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    * Update the cache.
    *
    * @param size Working set size
-   * @param scratch Scratch matrix
+   * @param mat Matrix paradigm
    * @param bestd Best distance
    * @param besti Best index
    * @param x First cluster
@@ -309,7 +487,7 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
    * @param j Updated value d(y, j)
    * @param d New distance
    */
-  private void updateCache(int size, double[] scratch, double[] bestd, int[] besti, int x, int y, int j, double d) {
+  private void updateCache(int size, MatrixParadigm mat, double[] bestd, int[] besti, int x, int y, int j, double d) {
     // New best
     if(d <= bestd[j]) {
       bestd[j] = d;
@@ -318,11 +496,20 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
     }
     // Needs slow update.
     if(besti[j] == x || besti[j] == y) {
-      findBest(size, scratch, bestd, besti, j);
+      findBest(size, mat, bestd, besti, j);
     }
   }
 
-  protected void findBest(int size, double[] scratch, double[] bestd, int[] besti, int j) {
+  /**
+   * Find the nearest neighbor of object j.
+   *
+   * @param size Working set size
+   * @param mat Matrix paradigm
+   * @param bestd Best distance
+   * @param besti Best index
+   * @param j Object
+   */
+  protected void findBest(int size, MatrixParadigm mat, double[] bestd, int[] besti, int j) {
     final int jbase = MatrixParadigm.triangleSize(j);
     // The distance has increased, we may no longer be the best merge.
     double bestdj = Double.POSITIVE_INFINITY;
@@ -331,7 +518,7 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
       if(besti[i] < 0) {
         continue;
       }
-      final double dist = scratch[o];
+      final double dist = mat.getValue(o);
       if(dist <= bestdj) {
         bestdj = dist;
         bestij = i;
@@ -342,7 +529,7 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
       if(besti[i] < 0) {
         continue;
       }
-      final double dist = scratch[o];
+      final double dist = mat.getValue(o);
       if(dist <= bestdj) {
         bestdj = dist;
         bestij = i;
@@ -378,6 +565,11 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
      */
     protected Linkage linkage;
 
+    /**
+     * Store the distance matrix in single precision.
+     */
+    protected boolean singlePrecision;
+
     @Override
     protected void makeOptions(Parameterization config) {
       // We don't call super, because we want a different default distance.
@@ -391,11 +583,16 @@ public class AnderbergHierarchicalClustering<O> extends AbstractDistanceBasedAlg
       if(config.grab(linkageP)) {
         linkage = linkageP.instantiateClass(config);
       }
+
+      Flag singleP = new Flag(AGNES.Parameterizer.SINGLE_PRECISION_ID);
+      if(config.grab(singleP)) {
+        singlePrecision = singleP.isTrue();
+      }
     }
 
     @Override
     protected AnderbergHierarchicalClustering<O> makeInstance() {
-      return new AnderbergHierarchicalClustering<>(distanceFunction, linkage);
+      return new AnderbergHierarchicalClustering<>(distanceFunction, linkage, singlePrecision);
     }
   }
 }
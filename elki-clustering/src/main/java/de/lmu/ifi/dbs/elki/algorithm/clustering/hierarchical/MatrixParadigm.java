@@ -20,11 +20,17 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 
 /**
@@ -36,21 +42,41 @@ import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
  * the matrix view (indexed by integers 0...n-1).
  *
  * While this will usually store (merge-) distances when clustering, it can
- * store arbitrary doubles.
+ * store arbitrary doubles. Optionally, the values can be stored in single
+ * precision only, to halve the memory requirements. Use {@link #getValue} and
+ * {@link #setValue} to support both; {@link #matrix} is {@code null} then.
+ * <p>
+ * This class also contains helpers to process the matrix in parallel blocks
+ * on the shared fork-join pool.
  *
  * @author Erich Schubert
  */
 public class MatrixParadigm {
+  /**
+   * Number of blocks per thread, for load balancing.
+   */
+  private static final int BLOCKS_PER_THREAD = 4;
+
+  /**
+   * Object ids, for obtaining additional iterators.
+   */
+  public final ArrayDBIDs ids;
+
   /**
    * Two iterators to reference to objects.
    */
   public final DBIDArrayIter ix, iy;
 
   /**
-   * Distance matrix (<b>modifiable</b>).
+   * Distance matrix (<b>modifiable</b>), {@code null} in single precision.
    */
   public final double[] matrix;
 
+  /**
+   * Single precision distance matrix (<b>modifiable</b>), or {@code null}.
+   */
+  public final float[] fmatrix;
+
   /**
    * Number of rows/columns.
    */
@@ -62,16 +88,27 @@ public class MatrixParadigm {
    * @param ids Database ids.
    */
   public MatrixParadigm(DBIDs ids) {
+    this(ids, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param ids Database ids.
+   * @param singlePrecision Store values as float only
+   */
+  public MatrixParadigm(DBIDs ids, boolean singlePrecision) {
     size = ids.size();
     if(size > 0x10000) {
       throw new AbortException("This implementation does not scale to data sets larger than " + //
           0x10000 // = 65535
           + " instances (~16 GB RAM), at which point the Java maximum array size is reached.");
     }
-    ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
-    ix = aids.iter();
-    iy = aids.iter();
-    matrix = new double[triangleSize(size)];
+    this.ids = DBIDUtil.ensureArray(ids);
+    ix = this.ids.iter();
+    iy = this.ids.iter();
+    matrix = singlePrecision ? null : new double[triangleSize(size)];
+    fmatrix = singlePrecision ? new float[triangleSize(size)] : null;
   }
 
   /**
@@ -96,8 +133,33 @@ public class MatrixParadigm {
    */
   public double get(int x, int y) {
     return (x == y) ? 0 : (x < y) //
-        ? matrix[MatrixParadigm.triangleSize(y) + x] //
-        : matrix[MatrixParadigm.triangleSize(x) + y];
+        ? getValue(MatrixParadigm.triangleSize(y) + x) //
+        : getValue(MatrixParadigm.triangleSize(x) + y);
+  }
+
+  /**
+   * Get a value from the matrix storage, by position.
+   *
+   * @param pos Position, {@code triangleSize(x) + y} for {@code y < x}
+   * @return Value
+   */
+  public double getValue(int pos) {
+    return matrix != null ? matrix[pos] : fmatrix[pos];
+  }
+
+  /**
+   * Set a value in the matrix storage, by position.
+   *
+   * @param pos Position, {@code triangleSize(x) + y} for {@code y < x}
+   * @param v New value (rounded in single precision mode)
+   */
+  public void setValue(int pos, double v) {
+    if(matrix != null) {
+      matrix[pos] = v;
+    }
+    else {
+      fmatrix[pos] = (float) v;
+    }
   }
 
   /**
@@ -108,15 +170,79 @@ public class MatrixParadigm {
    */
   public MatrixParadigm initializeWithDistances(DistanceQuery<?> dq) {
     final DBIDArrayIter ix = this.ix, iy = this.iy;
-    final double[] matrix = this.matrix;
     int pos = 0;
     for(ix.seek(0); ix.valid(); ix.advance()) {
       final int x = ix.getOffset();
       assert (pos == triangleSize(x));
       for(iy.seek(0); iy.getOffset() < x; iy.advance()) {
-        matrix[pos++] = dq.distance(ix, iy);
+        setValue(pos++, dq.distance(ix, iy));
       }
     }
     return this;
   }
+
+  /**
+   * Choose the number of blocks for parallel processing.
+   *
+   * @param work Amount of work, e.g., number of matrix cells
+   * @param minwork Minimum amount of work per block
+   * @return Number of blocks, 1 for sequential processing
+   */
+  public static int numBlocks(long work, int minwork) {
+    return (int) Math.max(1, Math.min(ParallelCore.getCore().getParallelism() * BLOCKS_PER_THREAD, work / minwork));
+  }
+
+  /**
+   * Compute the end of a block of rows.
+   * <p>
+   * For triangular processing (where row x only processes the first x
+   * columns), the boundaries are chosen such that each block has
+   * approximately the same number of cells.
+   *
+   * @param size Number of rows
+   * @param b Block number
+   * @param numblocks Number of blocks
+   * @param triangular Triangular processing
+   * @return End of block b (exclusive)
+   */
+  public static int blockEnd(int size, int b, int numblocks, boolean triangular) {
+    if(b + 1 == numblocks) {
+      return size;
+    }
+    final double f = (b + 1) / (double) numblocks;
+    return (int) (size * (triangular ? Math.sqrt(f) : f));
+  }
+
+  /**
+   * Run blocks on the shared fork-join pool, and wait for their completion.
+   * A single block is run on the calling thread.
+   *
+   * @param blocks Blocks to run
+   * @param <T> Block result type
+   */
+  public static <T> void run(List<? extends Callable<T>> blocks) {
+    if(blocks.size() == 1) {
+      try {
+        blocks.get(0).call();
+        return;
+      }
+      catch(RuntimeException e) {
+        throw e;
+      }
+      catch(Exception e) {
+        throw new RuntimeException("Matrix processing failed.", e);
+      }
+    }
+    try {
+      for(Future<T> fut : ParallelCore.getCore().getForkJoinPool().invokeAll(blocks)) {
+        fut.get();
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Matrix processing failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+  }
 }
@@ -75,6 +75,17 @@ public class NNChain<O> extends AGNES<O> {
     super(distanceFunction, linkage);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param linkage Linkage method
+   * @param singlePrecision Store the distance matrix in single precision
+   */
+  public NNChain(DistanceFunction<? super O> distanceFunction, Linkage linkage, boolean singlePrecision) {
+    super(distanceFunction, linkage, singlePrecision);
+  }
+
   /**
    * Run the algorithm
    * 
@@ -88,7 +99,7 @@ public class NNChain<O> extends AGNES<O> {
     }
     DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
     final DBIDs ids = relation.getDBIDs();
-    MatrixParadigm mat = new MatrixParadigm(ids);
+    MatrixParadigm mat = new MatrixParadigm(ids, singlePrecision);
 
     // Compute the initial (lower triangular) distance matrix.
     initializeDistanceMatrix(mat, dq, linkage);
@@ -109,7 +120,6 @@ public class NNChain<O> extends AGNES<O> {
    */
   private void nnChainCore(MatrixParadigm mat, PointerHierarchyRepresentationBuilder builder) {
     final DBIDArrayIter ix = mat.ix;
-    final double[] distances = mat.matrix;
     final int size = mat.size;
     // The maximum chain size = number of ids + 1
     IntegerArray chain = new IntegerArray(size + 1);
@@ -147,7 +157,7 @@ public class NNChain<O> extends AGNES<O> {
         final int ta = MatrixParadigm.triangleSize(a);
         for(int i = 0; i < a; i++) {
           if(i != b && !builder.isLinked(ix.seek(i))) {
-            double dist = distances[ta + i];
+            double dist = mat.getValue(ta + i);
             if(dist < minDist) {
               minDist = dist;
               c = i;
@@ -156,7 +166,7 @@ public class NNChain<O> extends AGNES<O> {
         }
         for(int i = a + 1; i < size; i++) {
           if(i != b && !builder.isLinked(ix.seek(i))) {
-            double dist = distances[MatrixParadigm.triangleSize(i) + a];
+            double dist = mat.getValue(MatrixParadigm.triangleSize(i) + a);
             if(dist < minDist) {
               minDist = dist;
               c = i;
@@ -222,7 +232,7 @@ public class NNChain<O> extends AGNES<O> {
   public static class Parameterizer<O> extends AGNES.Parameterizer<O> {
     @Override
     protected NNChain<O> makeInstance() {
-      return new NNChain<>(distanceFunction, linkage);
+      return new NNChain<>(distanceFunction, linkage, singlePrecision);
     }
   }
 }
@@ -96,7 +96,7 @@ public class KMeansElkan<V extends NumberVector> extends AbstractKMeans<V, KMean
   /**
    * Flag whether to compute the final variance statistic.
    */
-  private boolean varstat = false;
+  protected boolean varstat = false;
 
   /**
    * Constructor.
@@ -218,7 +218,7 @@ public class KMeansElkan<V extends NumberVector> extends AbstractKMeans<V, KMean
    * @param sep Output array of separation
    * @param cdist Center-to-Center distances
    */
-  private void recomputeSeperation(double[][] means, double[] sep, double[][] cdist) {
+  protected void recomputeSeperation(double[][] means, double[] sep, double[][] cdist) {
     final int k = means.length;
     assert (sep.length == k);
     boolean issquared = distanceFunction.isSquared();
@@ -362,7 +362,7 @@ public class KMeansElkan<V extends NumberVector> extends AbstractKMeans<V, KMean
    * @param dists Distances moved
    * @return Maximum distance moved
    */
-  private double maxMoved(double[][] means, double[][] newmeans, double[] dists) {
+  protected double maxMoved(double[][] means, double[][] newmeans, double[] dists) {
     assert (means.length == k);
     assert (newmeans.length == k);
     assert (dists.length == k);
@@ -91,7 +91,7 @@ public class KMeansHamerly<V extends NumberVector> extends AbstractKMeans<V, KMe
   /**
    * Flag whether to compute the final variance statistic.
    */
-  private boolean varstat = false;
+  protected boolean varstat = false;
 
   /**
    * Constructor.
@@ -207,7 +207,7 @@ public class KMeansHamerly<V extends NumberVector> extends AbstractKMeans<V, KMe
    * @param means Means
    * @param sep Output array
    */
-  private void recomputeSeperation(double[][] means, double[] sep) {
+  protected void recomputeSeperation(double[][] means, double[] sep) {
     final int k = means.length;
     assert (sep.length == k);
     boolean issquared = distanceFunction.isSquared();
@@ -358,7 +358,7 @@ public class KMeansHamerly<V extends NumberVector> extends AbstractKMeans<V, KMe
    * @param dists Distances moved
    * @return Maximum distance moved
    */
-  private double maxMoved(double[][] means, double[][] newmeans, double[] dists) {
+  protected double maxMoved(double[][] means, double[][] newmeans, double[] dists) {
     assert (means.length == k);
     assert (newmeans.length == k);
     assert (dists.length == k);
@@ -0,0 +1,380 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import net.jafama.FastMath;
+
+/**
+ * Parallel processor for Elkan's k-means.
+ * <p>
+ * The instances only update the cluster assignment and the bounds. The cluster
+ * sums and sizes are then updated by {@link #updateSums} in the order of the
+ * data, so they are the same as with the sequential algorithm, independent of
+ * how the data was split into threads.
+ * The bounds of each object are updated with the center movement of the
+ * previous iteration before the object is processed.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has Instance
+ *
+ * @param <V> Vector type
+ */
+public class KMeansElkanProcessor<V extends NumberVector> implements Processor {
+  /**
+   * Data relation.
+   */
+  Relation<V> relation;
+
+  /**
+   * Distance function.
+   */
+  NumberVectorDistanceFunction<? super V> distance;
+
+  /**
+   * Assignment storage.
+   */
+  WritableIntegerDataStore assignment;
+
+  /**
+   * Upper bounds.
+   */
+  WritableDoubleDataStore upper;
+
+  /**
+   * Lower bounds.
+   */
+  WritableDataStore<double[]> lower;
+
+  /**
+   * Cluster assignment at the previous update of the sums.
+   */
+  WritableIntegerDataStore previous;
+
+  /**
+   * Cluster sums.
+   */
+  double[][] sums;
+
+  /**
+   * Cluster sizes.
+   */
+  int[] sizes;
+
+  /**
+   * Current mean vectors.
+   */
+  double[][] means;
+
+  /**
+   * Cluster separation, {@code null} in the initial iteration.
+   */
+  double[] sep;
+
+  /**
+   * Center-to-center distances.
+   */
+  double[][] cdist;
+
+  /**
+   * Distance moved by each center in the previous iteration.
+   */
+  double[] move;
+
+  /**
+   * Number of reassigned objects.
+   */
+  int changed = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param assignment Cluster assignment
+   * @param upper Upper bounds
+   * @param lower Lower bounds
+   * @param previous Previous cluster assignment, initialized to -1
+   * @param sums Cluster sums
+   * @param sizes Cluster sizes
+   */
+  public KMeansElkanProcessor(Relation<V> relation, NumberVectorDistanceFunction<? super V> distance, WritableIntegerDataStore assignment, WritableDoubleDataStore upper, WritableDataStore<double[]> lower, WritableIntegerDataStore previous, double[][] sums, int[] sizes) {
+    super();
+    this.relation = relation;
+    this.distance = distance;
+    this.assignment = assignment;
+    this.upper = upper;
+    this.lower = lower;
+    this.previous = previous;
+    this.sums = sums;
+    this.sizes = sizes;
+  }
+
+  /**
+   * Initialize for the initial assignment of all objects.
+   *
+   * @param means Initial means
+   */
+  public void initialIteration(double[][] means) {
+    this.means = means;
+    this.sep = null;
+    this.cdist = null;
+    this.move = null;
+  }
+
+  /**
+   * Initialize for a new iteration.
+   *
+   * @param means Current means
+   * @param sep Cluster separation
+   * @param cdist Center-to-center distances
+   * @param move Distance moved by each center in the previous iteration
+   */
+  public void nextIteration(double[][] means, double[] sep, double[][] cdist, double[] move) {
+    this.means = means;
+    this.sep = sep;
+    this.cdist = cdist;
+    this.move = move;
+  }
+
+  /**
+   * Update the cluster sums and sizes for the objects reassigned in the last
+   * iteration.
+   * <p>
+   * This is done sequentially, in the same order and with the same operations
+   * as in the sequential algorithm, so the sums do not depend on the order in
+   * which the threads finished.
+   */
+  public void updateSums() {
+    changed = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      final int cur = assignment.intValue(it), orig = previous.intValue(it);
+      if(cur == orig) {
+        continue;
+      }
+      V fv = relation.get(it);
+      double[] newsum = sums[cur];
+      if(orig < 0) { // Initial assignment
+        for(int d = 0; d < fv.getDimensionality(); d++) {
+          newsum[d] += fv.doubleValue(d);
+        }
+      }
+      else {
+        double[] oldsum = sums[orig];
+        for(int d = 0; d < fv.getDimensionality(); d++) {
+          final double v = fv.doubleValue(d);
+          newsum[d] += v;
+          oldsum[d] -= v;
+        }
+        --sizes[orig];
+      }
+      ++sizes[cur];
+      previous.putInt(it, cur);
+      ++changed;
+    }
+  }
+
+  /**
+   * Get the number of reassigned objects.
+   *
+   * @return Number of changes
+   */
+  public int changed() {
+    return changed;
+  }
+
+  @Override
+  public Instance<V> instantiate(Executor executor) {
+    return new Instance<>(this);
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    // Nothing to do.
+  }
+
+  /**
+   * Instance to process part of the data set, for a single iteration.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> Vector type
+   */
+  public static class Instance<V extends NumberVector> implements Processor.Instance {
+    /**
+     * Data relation.
+     */
+    private Relation<V> relation;
+
+    /**
+     * Distance function.
+     */
+    private NumberVectorDistanceFunction<? super V> distance;
+
+    /**
+     * Cluster assignment storage.
+     */
+    private WritableIntegerDataStore assignment;
+
+    /**
+     * Upper bounds.
+     */
+    private WritableDoubleDataStore upper;
+
+    /**
+     * Lower bounds.
+     */
+    private WritableDataStore<double[]> lower;
+
+    /**
+     * Current mean vectors.
+     */
+    private double[][] means;
+
+    /**
+     * Cluster separation, {@code null} in the initial iteration.
+     */
+    private double[] sep;
+
+    /**
+     * Center-to-center distances.
+     */
+    private double[][] cdist;
+
+    /**
+     * Distance moved by each center.
+     */
+    private double[] move;
+
+    /**
+     * Squared distance function.
+     */
+    private boolean issquared;
+
+    /**
+     * Constructor.
+     *
+     * @param parent Parent processor
+     */
+    public Instance(KMeansElkanProcessor<V> parent) {
+      super();
+      this.relation = parent.relation;
+      this.distance = parent.distance;
+      this.assignment = parent.assignment;
+      this.upper = parent.upper;
+      this.lower = parent.lower;
+      this.means = parent.means;
+      this.sep = parent.sep;
+      this.cdist = parent.cdist;
+      this.move = parent.move;
+      this.issquared = distance.isSquared();
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      if(sep == null) {
+        initialAssign(id);
+        return;
+      }
+      final int k = means.length;
+      final int orig = assignment.intValue(id);
+      double[] l = lower.get(id);
+      // Update the bounds for the previous center movement:
+      double u = upper.doubleValue(id) + move[orig];
+      upper.putDouble(id, u);
+      for(int i = 0; i < k; i++) {
+        l[i] -= move[i];
+      }
+      // Upper bound check (#2):
+      if(u <= sep[orig]) {
+        return;
+      }
+      boolean recompute_u = true; // Elkan's r(x)
+      V fv = relation.get(id);
+      // Check all (other) means:
+      int cur = orig;
+      for(int j = 0; j < k; j++) {
+        if(orig == j || u <= l[j] || u <= cdist[cur][j]) {
+          continue; // Condition #3 i-iii not satisfied
+        }
+        if(recompute_u) { // Need to update bound? #3a
+          u = distance.distance(fv, DoubleVector.wrap(means[cur]));
+          u = issquared ? FastMath.sqrt(u) : u;
+          upper.putDouble(id, u);
+          recompute_u = false; // Once only
+          if(u <= l[j] || u <= cdist[cur][j]) { // #3b
+            continue;
+          }
+        }
+        double dist = distance.distance(fv, DoubleVector.wrap(means[j]));
+        dist = issquared ? FastMath.sqrt(dist) : dist;
+        l[j] = dist;
+        if(dist < u) {
+          cur = j;
+          u = dist;
+        }
+      }
+      // Object is to be reassigned.
+      if(cur != orig) {
+        upper.putDouble(id, u); // Remember bound.
+        assignment.putInt(id, cur);
+      }
+    }
+
+    /**
+     * Initial assignment of an object to its nearest center.
+     *
+     * @param id Object
+     */
+    private void initialAssign(DBIDRef id) {
+      final int k = means.length;
+      V fv = relation.get(id);
+      double[] l = lower.get(id);
+      // Check all (other) means:
+      double best = Double.POSITIVE_INFINITY;
+      int cur = -1;
+      for(int j = 0; j < k; j++) {
+        double dist = distance.distance(fv, DoubleVector.wrap(means[j]));
+        dist = issquared ? FastMath.sqrt(dist) : dist;
+        l[j] = dist;
+        if(dist < best) {
+          cur = j;
+          best = dist;
+        }
+      }
+      // Assign to nearest cluster.
+      assignment.putInt(id, cur);
+      upper.putDouble(id, best);
+    }
+  }
+}
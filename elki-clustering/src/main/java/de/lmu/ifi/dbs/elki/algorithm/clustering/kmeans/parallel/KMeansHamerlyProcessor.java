@@ -0,0 +1,384 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import net.jafama.FastMath;
+
+/**
+ * Parallel processor for Hamerly's k-means.
+ * <p>
+ * The instances only update the cluster assignment and the bounds. The cluster
+ * sums and sizes are then updated by {@link #updateSums} in the order of the
+ * data, so they are the same as with the sequential algorithm, independent of
+ * how the data was split into threads.
+ * The bounds of each object are updated with the center movement of the
+ * previous iteration before the object is processed.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has Instance
+ *
+ * @param <V> Vector type
+ */
+public class KMeansHamerlyProcessor<V extends NumberVector> implements Processor {
+  /**
+   * Data relation.
+   */
+  Relation<V> relation;
+
+  /**
+   * Distance function.
+   */
+  NumberVectorDistanceFunction<? super V> distance;
+
+  /**
+   * Assignment storage.
+   */
+  WritableIntegerDataStore assignment;
+
+  /**
+   * Upper bounds.
+   */
+  WritableDoubleDataStore upper;
+
+  /**
+   * Lower bounds.
+   */
+  WritableDoubleDataStore lower;
+
+  /**
+   * Cluster assignment at the previous update of the sums.
+   */
+  WritableIntegerDataStore previous;
+
+  /**
+   * Cluster sums.
+   */
+  double[][] sums;
+
+  /**
+   * Cluster sizes.
+   */
+  int[] sizes;
+
+  /**
+   * Current mean vectors.
+   */
+  double[][] means;
+
+  /**
+   * Cluster separation, {@code null} in the initial iteration.
+   */
+  double[] sep;
+
+  /**
+   * Distance moved by each center in the previous iteration.
+   */
+  double[] move;
+
+  /**
+   * Maximum distance moved by any center in the previous iteration.
+   */
+  double delta;
+
+  /**
+   * Number of reassigned objects.
+   */
+  int changed = 0;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distance Distance function
+   * @param assignment Cluster assignment
+   * @param upper Upper bounds
+   * @param lower Lower bounds
+   * @param previous Previous cluster assignment, initialized to -1
+   * @param sums Cluster sums
+   * @param sizes Cluster sizes
+   */
+  public KMeansHamerlyProcessor(Relation<V> relation, NumberVectorDistanceFunction<? super V> distance, WritableIntegerDataStore assignment, WritableDoubleDataStore upper, WritableDoubleDataStore lower, WritableIntegerDataStore previous, double[][] sums, int[] sizes) {
+    super();
+    this.relation = relation;
+    this.distance = distance;
+    this.assignment = assignment;
+    this.upper = upper;
+    this.lower = lower;
+    this.previous = previous;
+    this.sums = sums;
+    this.sizes = sizes;
+  }
+
+  /**
+   * Initialize for the initial assignment of all objects.
+   *
+   * @param means Initial means
+   */
+  public void initialIteration(double[][] means) {
+    this.means = means;
+    this.sep = null;
+    this.move = null;
+    this.delta = 0.;
+  }
+
+  /**
+   * Initialize for a new iteration.
+   *
+   * @param means Current means
+   * @param sep Cluster separation
+   * @param move Distance moved by each center in the previous iteration
+   * @param delta Maximum distance moved
+   */
+  public void nextIteration(double[][] means, double[] sep, double[] move, double delta) {
+    this.means = means;
+    this.sep = sep;
+    this.move = move;
+    this.delta = delta;
+  }
+
+  /**
+   * Update the cluster sums and sizes for the objects reassigned in the last
+   * iteration.
+   * <p>
+   * This is done sequentially, in the same order and with the same operations
+   * as in the sequential algorithm, so the sums do not depend on the order in
+   * which the threads finished.
+   */
+  public void updateSums() {
+    changed = 0;
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      final int cur = assignment.intValue(it), orig = previous.intValue(it);
+      if(cur == orig) {
+        continue;
+      }
+      V fv = relation.get(it);
+      double[] newsum = sums[cur];
+      if(orig < 0) { // Initial assignment
+        for(int d = 0; d < fv.getDimensionality(); d++) {
+          newsum[d] += fv.doubleValue(d);
+        }
+      }
+      else {
+        double[] oldsum = sums[orig];
+        for(int d = 0; d < fv.getDimensionality(); d++) {
+          final double v = fv.doubleValue(d);
+          newsum[d] += v;
+          oldsum[d] -= v;
+        }
+        --sizes[orig];
+      }
+      ++sizes[cur];
+      previous.putInt(it, cur);
+      ++changed;
+    }
+  }
+
+  /**
+   * Get the number of reassigned objects.
+   *
+   * @return Number of changes
+   */
+  public int changed() {
+    return changed;
+  }
+
+  @Override
+  public Instance<V> instantiate(Executor executor) {
+    return new Instance<>(this);
+  }
+
+  @Override
+  public void cleanup(Processor.Instance inst) {
+    // Nothing to do.
+  }
+
+  /**
+   * Instance to process part of the data set, for a single iteration.
+   *
+   * @author Erich Schubert
+   *
+   * @param <V> Vector type
+   */
+  public static class Instance<V extends NumberVector> implements Processor.Instance {
+    /**
+     * Data relation.
+     */
+    private Relation<V> relation;
+
+    /**
+     * Distance function.
+     */
+    private NumberVectorDistanceFunction<? super V> distance;
+
+    /**
+     * Cluster assignment storage.
+     */
+    private WritableIntegerDataStore assignment;
+
+    /**
+     * Upper bounds.
+     */
+    private WritableDoubleDataStore upper;
+
+    /**
+     * Lower bounds.
+     */
+    private WritableDoubleDataStore lower;
+
+    /**
+     * Current mean vectors.
+     */
+    private double[][] means;
+
+    /**
+     * Cluster separation, {@code null} in the initial iteration.
+     */
+    private double[] sep;
+
+    /**
+     * Distance moved by each center.
+     */
+    private double[] move;
+
+    /**
+     * Maximum distance moved.
+     */
+    private double delta;
+
+    /**
+     * Squared distance function.
+     */
+    private boolean issquared;
+
+    /**
+     * Constructor.
+     *
+     * @param parent Parent processor
+     */
+    public Instance(KMeansHamerlyProcessor<V> parent) {
+      super();
+      this.relation = parent.relation;
+      this.distance = parent.distance;
+      this.assignment = parent.assignment;
+      this.upper = parent.upper;
+      this.lower = parent.lower;
+      this.means = parent.means;
+      this.sep = parent.sep;
+      this.move = parent.move;
+      this.delta = parent.delta;
+      this.issquared = distance.isSquared();
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      if(sep == null) {
+        initialAssign(id);
+        return;
+      }
+      final int cur = assignment.intValue(id);
+      // Update the bounds for the previous center movement:
+      double u = upper.doubleValue(id) + move[cur];
+      final double z = lower.doubleValue(id) - delta;
+      upper.putDouble(id, u);
+      lower.putDouble(id, z);
+      // Compute the current bound:
+      final double sa = sep[cur];
+      if(u <= z || u <= sa) {
+        return;
+      }
+      // Update the upper bound
+      V fv = relation.get(id);
+      u = distance.distance(fv, DoubleVector.wrap(means[cur]));
+      u = issquared ? FastMath.sqrt(u) : u;
+      upper.putDouble(id, u);
+      if(u <= z || u <= sa) {
+        return;
+      }
+      // Find closest center, and distance to two closest centers
+      double min1 = Double.POSITIVE_INFINITY, min2 = Double.POSITIVE_INFINITY;
+      int minIndex = -1;
+      for(int i = 0; i < means.length; i++) {
+        double dist = distance.distance(fv, DoubleVector.wrap(means[i]));
+        if(dist < min1) {
+          minIndex = i;
+          min2 = min1;
+          min1 = dist;
+        }
+        else if(dist < min2) {
+          min2 = dist;
+        }
+      }
+      // make squared Euclidean a metric:
+      if(issquared) {
+        min1 = FastMath.sqrt(min1);
+        min2 = FastMath.sqrt(min2);
+      }
+      if(minIndex != cur) {
+        assignment.putInt(id, minIndex);
+        upper.putDouble(id, min1);
+      }
+      lower.putDouble(id, min2);
+    }
+
+    /**
+     * Initial assignment of an object to its nearest center.
+     *
+     * @param id Object
+     */
+    private void initialAssign(DBIDRef id) {
+      V fv = relation.get(id);
+      // Find closest center, and distance to two closest centers
+      double min1 = Double.POSITIVE_INFINITY, min2 = Double.POSITIVE_INFINITY;
+      int minIndex = -1;
+      for(int i = 0; i < means.length; i++) {
+        double dist = distance.distance(fv, DoubleVector.wrap(means[i]));
+        if(dist < min1) {
+          minIndex = i;
+          min2 = min1;
+          min1 = dist;
+        }
+        else if(dist < min2) {
+          min2 = dist;
+        }
+      }
+      // make squared Euclidean a metric:
+      if(issquared) {
+        min1 = FastMath.sqrt(min1);
+        min2 = FastMath.sqrt(min2);
+      }
+      assignment.putInt(id, minIndex);
+      upper.putDouble(id, min1);
+      lower.putDouble(id, min2);
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2017
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.parallel;
+
+import static de.lmu.ifi.dbs.elki.math.linearalgebra.VMath.timesEquals;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.ClusteringAlgorithmUtil;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeansHamerly;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.KMeansInitialization;
+import de.lmu.ifi.dbs.elki.data.Cluster;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.KMeansModel;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableIntegerDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.NumberVectorDistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.StringStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+
+/**
+ * Parallel implementation of Hamerly's k-means.
+ * <p>
+ * The objects are processed in parallel using {@link KMeansHamerlyProcessor},
+ * while the center updates are computed as in {@link KMeansHamerly}, so the
+ * resulting assignment is the same as with the sequential version. For this,
+ * the cluster sums are updated after each parallel pass, in the order of the
+ * data.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has KMeansHamerlyProcessor
+ *
+ * @param <V> vector datatype
+ */
+public class ParallelKMeansHamerly<V extends NumberVector> extends KMeansHamerly<V> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelKMeansHamerly.class);
+
+  /**
+   * Key for statistics logging.
+   */
+  private static final String KEY = ParallelKMeansHamerly.class.getName();
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction distance function
+   * @param k k parameter
+   * @param maxiter Maxiter parameter
+   * @param initializer Initialization method
+   * @param varstat Compute the variance statistic
+   */
+  public ParallelKMeansHamerly(NumberVectorDistanceFunction<? super V> distanceFunction, int k, int maxiter, KMeansInitialization<? super V> initializer, boolean varstat) {
+    super(distanceFunction, k, maxiter, initializer, varstat);
+  }
+
+  @Override
+  public Clustering<KMeansModel> run(Database database, Relation<V> relation) {
+    if(relation.size() <= 0) {
+      return new Clustering<>("k-Means Clustering", "kmeans-clustering");
+    }
+    DBIDs ids = relation.getDBIDs();
+    // Choose initial means
+    if(LOG.isStatistics()) {
+      LOG.statistics(new StringStatistic(KEY + ".initialization", initializer.toString()));
+    }
+    double[][] means = initializer.chooseInitialMeans(database, relation, k, getDistanceFunction());
+    WritableIntegerDataStore assignment = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, -1);
+    // Hamerly bounds
+    WritableDoubleDataStore upper = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, Double.POSITIVE_INFINITY);
+    WritableDoubleDataStore lower = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, 0.);
+    // Storage for updated means:
+    final int dim = means[0].length;
+    double[][] sums = new double[k][dim];
+    int[] sizes = new int[k];
+    // Assignment at the last update of the sums
+    WritableIntegerDataStore previous = DataStoreUtil.makeIntegerStorage(ids, DataStoreFactory.HINT_TEMP | DataStoreFactory.HINT_HOT, -1);
+
+    // Separation of means
+    double[] sep = new double[k];
+    // Center movement
+    double[] move = new double[k];
+    double delta = 0.;
+
+    KMeansHamerlyProcessor<V> kmm = new KMeansHamerlyProcessor<>(relation, distanceFunction, assignment, upper, lower, previous, sums, sizes);
+
+    IndefiniteProgress prog = LOG.isVerbose() ? new IndefiniteProgress("K-Means iteration", LOG) : null;
+    LongStatistic rstat = LOG.isStatistics() ? new LongStatistic(KEY + ".reassignments") : null;
+    int iteration = 0;
+    for(; maxiter <= 0 || iteration < maxiter; iteration++) {
+      LOG.incrementProcessed(prog);
+      if(iteration == 0) {
+        kmm.initialIteration(means);
+      }
+      else {
+        recomputeSeperation(means, sep);
+        kmm.nextIteration(means, sep, move, delta);
+      }
+      ParallelExecutor.run(ids, kmm);
+      kmm.updateSums();
+      int changed = kmm.changed();
+      if(rstat != null) {
+        rstat.setLong(changed);
+        LOG.statistics(rstat);
+      }
+      // Stop if no cluster assignment changed.
+      if(changed == 0) {
+        break;
+      }
+      // Recompute means.
+      for(int i = 0; i < k; i++) {
+        final int s = sizes[i];
+        timesEquals(sums[i], s > 0 ? 1. / s : 1.);
+      }
+      delta = maxMoved(means, sums, move); // Bounds are updated in the next pass.
+      for(int i = 0; i < k; i++) {
+        final int s = sizes[i];
+        System.arraycopy(sums[i], 0, means[i], 0, dim);
+        // Restore to sum for next iteration
+        timesEquals(sums[i], s > 0 ? s : 1.);
+      }
+    }
+    LOG.setCompleted(prog);
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(KEY + ".iterations", iteration));
+    }
+    upper.destroy();
+    lower.destroy();
+    previous.destroy();
+    return wrapResult(relation, means, assignment);
+  }
+
+  /**
+   * Build the clustering result.
+   *
+   * @param relation Data relation
+   * @param means Final means
+   * @param assignment Cluster assignment
+   * @return Clustering result
+   */
+  private Clustering<KMeansModel> wrapResult(Relation<V> relation, double[][] means, WritableIntegerDataStore assignment) {
+    ArrayModifiableDBIDs[] clusters = ClusteringAlgorithmUtil.partitionsFromIntegerLabels(relation.getDBIDs(), assignment, means.length);
+    double totalvariance = 0.;
+    Clustering<KMeansModel> result = new Clustering<>("k-Means Clustering", "kmeans-clustering");
+    for(int i = 0; i < clusters.length; i++) {
+      DBIDs ids = clusters[i];
+      if(ids.size() == 0) {
+        continue;
+      }
+      double[] mean = means[i];
+      double varsum = 0.;
+      if(varstat) {
+        DoubleVector mvec = DoubleVector.wrap(mean);
+        for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
+          varsum += distanceFunction.distance(mvec, relation.get(it));
+        }
+        totalvariance += varsum;
+      }
+      KMeansModel model = new KMeansModel(mean, varsum);
+      result.addToplevelCluster(new Cluster<>(ids, model));
+    }
+    if(LOG.isStatistics() && varstat) {
+      LOG.statistics(new DoubleStatistic(KEY + ".variance-sum", totalvariance));
+    }
+    return result;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<V extends NumberVector> extends KMeansHamerly.Parameterizer<V> {
+    @Override
+    protected Logging getLogger() {
+      return LOG;
+    }
+
+    @Override
+    protected ParallelKMeansHamerly<V> makeInstance() {
+      return new ParallelKMeansHamerly<>(distanceFunction, k, maxiter, initializer, varstat);
+    }
+  }
+}
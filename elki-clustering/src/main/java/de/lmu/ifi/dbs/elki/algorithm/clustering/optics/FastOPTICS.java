@@ -33,10 +33,12 @@ import de.lmu.ifi.dbs.elki.database.datastore.DataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.DoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDBIDDataStore;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
@@ -46,7 +48,7 @@ import de.lmu.ifi.dbs.elki.index.preprocessed.fastoptics.RandomProjectedNeighbor
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.utilities.ClassGenericsUtil;
-import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.UpdatableHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerUpdatableMinHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -104,6 +106,16 @@ public class FastOPTICS<V extends NumberVector> extends AbstractAlgorithm<Cluste
    */
   ModifiableDBIDs processed;
 
+  /**
+   * Heap of candidates, by reachability and (integer) object id.
+   */
+  DoubleIntegerUpdatableMinHeap heap;
+
+  /**
+   * Predecessors of the candidates in the heap.
+   */
+  WritableDBIDDataStore predecessors;
+
   /**
    * neighbors of a point
    */
@@ -158,6 +170,8 @@ public class FastOPTICS<V extends NumberVector> extends AbstractAlgorithm<Cluste
     // compute ordering as for OPTICS
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("FastOPTICS clustering", ids.size(), LOG) : null;
     processed = DBIDUtil.newHashSet(ids.size());
+    heap = new DoubleIntegerUpdatableMinHeap();
+    predecessors = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
     order = new ClusterOrder(ids, "FastOPTICS Cluster Order", "fast-optics");
     for(DBIDIter it = ids.iter(); it.valid(); it.advance()) {
       if(!processed.contains(it)) {
@@ -179,12 +193,22 @@ public class FastOPTICS<V extends NumberVector> extends AbstractAlgorithm<Cluste
    * @param prog Progress for logging.
    */
   protected void expandClusterOrder(DBID ipt, ClusterOrder order, DistanceQuery<V> dq, FiniteProgress prog) {
-    UpdatableHeap<OPTICSHeapEntry> heap = new UpdatableHeap<>();
-    heap.add(new OPTICSHeapEntry(ipt, null, Double.POSITIVE_INFINITY));
+    DBIDVar currPt = DBIDUtil.newVar(), predecessor = DBIDUtil.newVar();
+    heap.add(Double.POSITIVE_INFINITY, DBIDUtil.asInteger(ipt));
+    // The first object has no predecessor.
+    boolean first = true;
     while(!heap.isEmpty()) {
-      final OPTICSHeapEntry current = heap.poll();
-      DBID currPt = current.objectID;
-      order.add(currPt, current.reachability, current.predecessorID);
+      final double reachability = heap.peekKey();
+      DBIDUtil.importInteger(currPt, heap.peekValue());
+      heap.poll();
+      if(first) {
+        predecessor.unset();
+        first = false;
+      }
+      else {
+        predecessors.assignVar(currPt, predecessor);
+      }
+      order.add(currPt, reachability, predecessor);
       processed.add(currPt);
       double coredist = inverseDensities.doubleValue(currPt);
       for(DBIDIter it = neighs.get(currPt).iter(); it.valid(); it.advance()) {
@@ -201,7 +225,9 @@ public class FastOPTICS<V extends NumberVector> extends AbstractAlgorithm<Cluste
         else if(nrdist < reachDist.doubleValue(it)) {
           reachDist.put(it, nrdist);
         }
-        heap.add(new OPTICSHeapEntry(DBIDUtil.deref(it), currPt, nrdist));
+        if(heap.add(nrdist, DBIDUtil.asInteger(it))) {
+          predecessors.putDBID(it, currPt);
+        }
       }
       LOG.incrementProcessed(prog);
     }
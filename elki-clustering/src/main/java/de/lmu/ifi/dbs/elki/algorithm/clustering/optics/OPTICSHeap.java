@@ -21,6 +21,9 @@
 package de.lmu.ifi.dbs.elki.algorithm.clustering.optics;
 
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDBIDDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.*;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
@@ -30,7 +33,7 @@ import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
-import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.UpdatableHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerUpdatableMinHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
 
@@ -41,7 +44,8 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
  * parameters 'minPts' and 'epsilon' (specifying a volume). These two parameters
  * determine a density threshold for clustering.
  * <p>
- * This implementation uses a heap.
+ * This implementation uses a primitive updatable heap of reachabilities and
+ * object ids, which does not allocate entry objects in the main loop.
  * <p>
  * Reference:
  * <p>
@@ -97,9 +101,14 @@ public class OPTICSHeap<O> extends AbstractOPTICS<O> {
     private ModifiableDBIDs processedIDs;
 
     /**
-     * Heap of candidates.
+     * Heap of candidates, by reachability and (integer) object id.
      */
-    UpdatableHeap<OPTICSHeapEntry> heap;
+    DoubleIntegerUpdatableMinHeap heap;
+
+    /**
+     * Predecessors of the candidates in the heap.
+     */
+    WritableDBIDDataStore predecessors;
 
     /**
      * Output cluster order.
@@ -134,7 +143,8 @@ public class OPTICSHeap<O> extends AbstractOPTICS<O> {
       progress = LOG.isVerbose() ? new FiniteProgress("OPTICS", ids.size(), LOG) : null;
       DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
       rangeQuery = db.getRangeQuery(dq, epsilon);
-      heap = new UpdatableHeap<>();
+      heap = new DoubleIntegerUpdatableMinHeap();
+      predecessors = DataStoreUtil.makeDBIDStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
     }
 
     /**
@@ -161,15 +171,27 @@ public class OPTICSHeap<O> extends AbstractOPTICS<O> {
     protected void expandClusterOrder(DBIDRef objectID) {
       ModifiableDoubleDBIDList neighbors = DBIDUtil.newDistanceDBIDList();
       DoubleDBIDListIter neighbor = neighbors.iter();
-      heap.add(new OPTICSHeapEntry(DBIDUtil.deref(objectID), null, Double.POSITIVE_INFINITY));
+      DBIDVar current = DBIDUtil.newVar(), predecessor = DBIDUtil.newVar();
+      heap.add(Double.POSITIVE_INFINITY, DBIDUtil.asInteger(objectID));
+      // The first object has no predecessor.
+      boolean first = true;
 
       while(!heap.isEmpty()) {
-        final OPTICSHeapEntry current = heap.poll();
-        clusterOrder.add(current.objectID, current.reachability, current.predecessorID);
-        processedIDs.add(current.objectID);
+        final double reachability = heap.peekKey();
+        DBIDUtil.importInteger(current, heap.peekValue());
+        heap.poll();
+        if(first) {
+          predecessor.unset();
+          first = false;
+        }
+        else {
+          predecessors.assignVar(current, predecessor);
+        }
+        clusterOrder.add(current, reachability, predecessor);
+        processedIDs.add(current);
 
         neighbors.clear();
-        rangeQuery.getRangeForDBID(current.objectID, epsilon, neighbors);
+        rangeQuery.getRangeForDBID(current, epsilon, neighbors);
         if(neighbors.size() >= minpts) {
           neighbors.sort();
           final double coreDistance = neighbor.seek(minpts - 1).doubleValue();
@@ -178,8 +200,10 @@ public class OPTICSHeap<O> extends AbstractOPTICS<O> {
             if(processedIDs.contains(neighbor)) {
               continue;
             }
-            double reachability = MathUtil.max(neighbor.doubleValue(), coreDistance);
-            heap.add(new OPTICSHeapEntry(DBIDUtil.deref(neighbor), current.objectID, reachability));
+            double nreach = MathUtil.max(neighbor.doubleValue(), coreDistance);
+            if(heap.add(nreach, DBIDUtil.asInteger(neighbor))) {
+              predecessors.putDBID(neighbor, current);
+            }
           }
         }
         LOG.incrementProcessed(progress);
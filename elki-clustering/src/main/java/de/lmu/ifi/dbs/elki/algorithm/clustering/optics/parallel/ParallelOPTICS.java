@@ -0,0 +1,270 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.optics.parallel;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.optics.AbstractOPTICS;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.optics.ClusterOrder;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.optics.OPTICSHeap;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDoubleDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.math.geometry.PrimsMinimumSpanningTree;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelPrimsMinimumSpanningTree;
+import de.lmu.ifi.dbs.elki.parallel.processor.KDistanceProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.WriteDoubleDataStoreProcessor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedDouble;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+
+/**
+ * Parallel implementation of the OPTICS algorithm for density-based
+ * hierarchical clustering.
+ * <p>
+ * The core distances are computed with the parallel kNN processors first.
+ * Because the OPTICS cluster order is the order in which Prim's algorithm
+ * adds nodes when using the reachability distance from the last added object
+ * as edge weight, the cluster order is then built with a parallel variant of
+ * Prim's algorithm, where the reachability updates of each step are split
+ * across threads.
+ * <p>
+ * This produces the same cluster order as {@link OPTICSHeap}. But because the
+ * reachabilities are updated for all unprocessed objects in every step, this
+ * needs a quadratic number of distance computations even for small values of
+ * epsilon; it is meant for large epsilon values (such as the default, infinity)
+ * where the sequential versions cannot benefit from an index either.
+ * <p>
+ * Reference:
+ * <p>
+ * Mihael Ankerst, Markus M. Breunig, Hans-Peter Kriegel, Jörg Sander<br>
+ * OPTICS: Ordering Points to Identify the Clustering Structure<br>
+ * Proc. ACM SIGMOD Int. Conf. on Management of Data (SIGMOD '99)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.composedOf KNNProcessor
+ * @apiviz.composedOf KDistanceProcessor
+ * @apiviz.uses ParallelPrimsMinimumSpanningTree
+ *
+ * @param <O> the type of objects handled by the algorithm
+ */
+@Title("OPTICS: Density-Based Hierarchical Clustering (parallel implementation)")
+public class ParallelOPTICS<O> extends AbstractOPTICS<O> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelOPTICS.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param epsilon Epsilon value
+   * @param minpts Minpts value
+   */
+  public ParallelOPTICS(DistanceFunction<? super O> distanceFunction, double epsilon, int minpts) {
+    super(distanceFunction, epsilon, minpts);
+  }
+
+  @Override
+  public ClusterOrder run(Database db, Relation<O> relation) {
+    final DistanceQuery<O> dq = db.getDistanceQuery(relation, getDistanceFunction());
+    final KNNQuery<O> knnq = db.getKNNQuery(dq, minpts);
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    ClusterOrder clusterOrder = new ClusterOrder(ids, "OPTICS Clusterorder", "optics-clusterorder");
+    if(ids.size() == 0) {
+      return clusterOrder;
+    }
+
+    // Compute the core distances, including the query point.
+    WritableDoubleDataStore coredists = DataStoreUtil.makeDoubleStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP);
+    KNNProcessor<O> knnm = new KNNProcessor<>(minpts, knnq);
+    SharedObject<KNNList> knnv = new SharedObject<>();
+    knnm.connectKNNOutput(knnv);
+    KDistanceProcessor kdistm = new KDistanceProcessor(minpts);
+    SharedDouble kdistv = new SharedDouble();
+    kdistm.connectKNNInput(knnv);
+    kdistm.connectOutput(kdistv);
+    WriteDoubleDataStoreProcessor storem = new WriteDoubleDataStoreProcessor(coredists);
+    storem.connectInput(kdistv);
+    ParallelExecutor.run(ids, knnm, kdistm, storem);
+
+    FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("OPTICS", ids.size(), LOG) : null;
+    // Prim's algorithm starts with the first object.
+    DBIDArrayIter first = ids.iter();
+    clusterOrder.add(first, Double.POSITIVE_INFINITY, null);
+    LOG.incrementProcessed(progress);
+    ParallelPrimsMinimumSpanningTree.processDense(ids, //
+        new Adapter(ids, coredists, dq, epsilon), //
+        new Collector(ids, clusterOrder, progress));
+    LOG.ensureCompleted(progress);
+    coredists.destroy();
+    return clusterOrder;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Reachability distances of OPTICS, for parallel processing.
+   *
+   * @author Erich Schubert
+   */
+  private static class Adapter implements ParallelPrimsMinimumSpanningTree.Adapter<ArrayDBIDs> {
+    /**
+     * IDs to process.
+     */
+    private ArrayDBIDs ids;
+
+    /**
+     * Core distances, by index; infinite for non-core objects.
+     */
+    private double[] coredists;
+
+    /**
+     * Distance query for exact distances.
+     */
+    private DistanceQuery<?> distq;
+
+    /**
+     * Maximum radius.
+     */
+    private double epsilon;
+
+    /**
+     * Constructor.
+     *
+     * @param ids Ids to process.
+     * @param coredists Core distances
+     * @param distq Distance query
+     * @param epsilon Maximum radius
+     */
+    public Adapter(ArrayDBIDs ids, WritableDoubleDataStore coredists, DistanceQuery<?> distq, double epsilon) {
+      this.ids = ids;
+      this.coredists = new double[ids.size()];
+      for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        final double c = coredists.doubleValue(iter);
+        // Fewer than minpts objects in the epsilon neighborhood?
+        this.coredists[iter.getOffset()] = c <= epsilon ? c : Double.POSITIVE_INFINITY;
+      }
+      this.distq = distq;
+      this.epsilon = epsilon;
+    }
+
+    @Override
+    public PrimsMinimumSpanningTree.Adapter<ArrayDBIDs> instantiate() {
+      return new PrimsMinimumSpanningTree.Adapter<ArrayDBIDs>() {
+        /**
+         * Iterators for accessing the data objects.
+         */
+        private DBIDArrayIter p = ids.iter(), q = ids.iter();
+
+        @Override
+        public double distance(ArrayDBIDs data, int ip, int iq) {
+          final double core = coredists[ip];
+          if(core == Double.POSITIVE_INFINITY) {
+            return Double.POSITIVE_INFINITY; // Not a core object.
+          }
+          final double dist = distq.distance(p.seek(ip), q.seek(iq));
+          return dist <= epsilon ? (dist > core ? dist : core) : Double.POSITIVE_INFINITY;
+        }
+
+        @Override
+        public int size(ArrayDBIDs data) {
+          return ids.size();
+        }
+      };
+    }
+  }
+
+  /**
+   * Collect the cluster order from the spanning tree edges.
+   *
+   * @author Erich Schubert
+   */
+  private static class Collector implements PrimsMinimumSpanningTree.Collector {
+    /**
+     * Iterators for the object and its predecessor.
+     */
+    private DBIDArrayIter obj, pre;
+
+    /**
+     * Output cluster order.
+     */
+    private ClusterOrder clusterOrder;
+
+    /**
+     * Progress for logging.
+     */
+    private FiniteProgress progress;
+
+    /**
+     * Constructor.
+     *
+     * @param ids Object ids
+     * @param clusterOrder Output cluster order
+     * @param progress Progress for logging, may be {@code null}
+     */
+    public Collector(ArrayDBIDs ids, ClusterOrder clusterOrder, FiniteProgress progress) {
+      this.obj = ids.iter();
+      this.pre = ids.iter();
+      this.clusterOrder = clusterOrder;
+      this.progress = progress;
+    }
+
+    @Override
+    public void addEdge(double length, int i, int j) {
+      obj.seek(j);
+      // Infinite reachability: not reachable, start a new tree.
+      clusterOrder.add(obj, length, length < Double.POSITIVE_INFINITY ? pre.seek(i) : null);
+      LOG.incrementProcessed(progress);
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<O> extends AbstractOPTICS.Parameterizer<O> {
+    @Override
+    protected ParallelOPTICS<O> makeInstance() {
+      return new ParallelOPTICS<>(distanceFunction, epsilon, minpts);
+    }
+  }
+}
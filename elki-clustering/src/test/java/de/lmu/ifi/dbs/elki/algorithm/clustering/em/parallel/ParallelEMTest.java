@@ -0,0 +1,160 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.em.parallel;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.DiagonalGaussianModelFactory;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EM;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EMClusterModel;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.EMClusterModelFactory;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.MultivariateGaussianModelFactory;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.SphericalGaussianModelFactory;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.TextbookMultivariateGaussianModelFactory;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.em.TwoPassMultivariateGaussianModelFactory;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.KMeans;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.kmeans.initialization.FirstKInitialMeans;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.model.MeanModel;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Test the parallel EM implementation.
+ *
+ * @author Erich Schubert
+ */
+public class ParallelEMTest extends AbstractClusterAlgorithmTest {
+  @Test
+  public void testParallelEMMLEMultivariate() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    Clustering<?> result = new ELKIBuilder<ParallelEM<DoubleVector, ?>>(ParallelEM.class) //
+        .with(KMeans.SEED_ID, 0) //
+        .with(EM.Parameterizer.K_ID, 6) //
+        .build().run(db);
+    testFMeasure(db, result, 0.967410486);
+    testClusterSizes(result, new int[] { 3, 5, 91, 98, 200, 313 });
+  }
+
+  @Test
+  public void testMultivariateLikelihood() {
+    assertLikelihoodMatches(new MultivariateGaussianModelFactory<>(new FirstKInitialMeans<>()));
+  }
+
+  @Test
+  public void testTwoPassLikelihood() {
+    assertLikelihoodMatches(new TwoPassMultivariateGaussianModelFactory<>(new FirstKInitialMeans<>()));
+  }
+
+  @Test
+  public void testTextbookLikelihood() {
+    assertLikelihoodMatches(new TextbookMultivariateGaussianModelFactory<>(new FirstKInitialMeans<>()));
+  }
+
+  @Test
+  public void testDiagonalLikelihood() {
+    assertLikelihoodMatches(new DiagonalGaussianModelFactory<>(new FirstKInitialMeans<>()));
+  }
+
+  @Test
+  public void testSphericalLikelihood() {
+    assertLikelihoodMatches(new SphericalGaussianModelFactory<>(new FirstKInitialMeans<>()));
+  }
+
+  /**
+   * Run sequential EM, and EM with the data split into several parts that are
+   * accumulated separately, and compare the log likelihood.
+   *
+   * @param factory Model factory
+   */
+  private <M extends MeanModel> void assertLikelihoodMatches(EMClusterModelFactory<NumberVector, M> factory) {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    final int k = 5;
+    List<? extends EMClusterModel<M>> seq = factory.buildInitialModels(db, rel, k, SquaredEuclideanDistanceFunction.STATIC);
+    List<? extends EMClusterModel<M>> par = factory.buildInitialModels(db, rel, k, SquaredEuclideanDistanceFunction.STATIC);
+    WritableDataStore<double[]> sprob = DataStoreUtil.makeStorage(rel.getDBIDs(), DataStoreFactory.HINT_HOT, double[].class);
+    WritableDataStore<double[]> pprob = DataStoreUtil.makeStorage(rel.getDBIDs(), DataStoreFactory.HINT_HOT, double[].class);
+    for(int it = 0; it < 10; it++) {
+      double slik = EM.assignProbabilitiesToInstances(rel, seq, sprob);
+      EMAssignmentProcessor aproc = new EMAssignmentProcessor(rel, pprob);
+      aproc.nextIteration(par);
+      runSplit(rel, aproc);
+      assertEquals("Log likelihood differs in iteration " + it, slik, aproc.getLogLikelihood(), 1e-10 * Math.abs(slik));
+
+      EM.recomputeCovarianceMatrices(rel, sprob, seq, 0.);
+      boolean twopass = false;
+      for(EMClusterModel<M> m : par) {
+        m.beginEStep();
+        twopass |= m.needsTwoPass();
+      }
+      EMUpdateProcessor<M> uproc = new EMUpdateProcessor<>(rel, pprob, par);
+      if(twopass) {
+        uproc.beginPass(true);
+        runSplit(rel, uproc);
+        for(EMClusterModel<M> m : par) {
+          m.finalizeFirstPassE();
+        }
+      }
+      uproc.beginPass(false);
+      runSplit(rel, uproc);
+      EM.finalizeEStep(par, uproc.getWeightSums(), rel.size(), 0.);
+      for(int i = 0; i < k; i++) {
+        assertEquals("Cluster weight differs", seq.get(i).getWeight(), par.get(i).getWeight(), 1e-12);
+      }
+    }
+  }
+
+  /**
+   * Process the data in three consecutive blocks, as the block mode of the
+   * parallel executor does: each block is instantiated after the previous
+   * block has been merged.
+   *
+   * @param rel Relation
+   * @param proc Processor
+   */
+  private static void runSplit(Relation<?> rel, Processor proc) {
+    final int parts = 3, size = rel.size();
+    DBIDIter it = rel.iterDBIDs();
+    for(int p = 0, i = 0; p < parts; p++) {
+      Processor.Instance inst = proc.instantiate(null);
+      for(final int end = (p + 1) * size / parts; i < end; it.advance(), i++) {
+        inst.map(it);
+      }
+      proc.cleanup(inst);
+    }
+  }
+}
@@ -71,6 +71,22 @@ public class AGNESTest extends AbstractClusterAlgorithmTest {
     testClusterSizes(clustering, new int[] { 200, 211, 227 });
   }
 
+  /**
+   * Run Ward clustering with a single precision distance matrix.
+   */
+  @Test
+  public void testWardSinglePrecision() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+        .with(CutDendrogramByNumberOfClusters.Parameterizer.MINCLUSTERS_ID, 3) //
+        .with(AbstractAlgorithm.ALGORITHM_ID, AGNES.class) //
+        .with(AGNES.Parameterizer.LINKAGE_ID, WardLinkage.class) //
+        .with(AGNES.Parameterizer.SINGLE_PRECISION_ID) //
+        .build().run(db);
+    testFMeasure(db, clustering, 0.93866265);
+    testClusterSizes(clustering, new int[] { 200, 211, 227 });
+  }
+
   /**
    * Run agglomerative hierarchical clustering with fixed parameters and compare
    * the result to a golden standard.
@@ -0,0 +1,84 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.parallel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractAlgorithm;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.HDBSCANLinearMemory;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.PointerDensityHierarchyRepresentationResult;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.hierarchical.extraction.CutDendrogramByNumberOfClusters;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Perform parallel HDBSCAN unit test
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ParallelHDBSCANLinearMemoryTest extends AbstractClusterAlgorithmTest {
+  /**
+   * Run with fixed parameters and compare the result to a golden standard.
+   */
+  @Test
+  public void testHDBSCAN() {
+    Database db = makeSimpleDatabase(UNITTEST + "single-link-effect.ascii", 638);
+    Clustering<?> clustering = new ELKIBuilder<>(CutDendrogramByNumberOfClusters.class) //
+        .with(CutDendrogramByNumberOfClusters.Parameterizer.MINCLUSTERS_ID, 3) //
+        .with(AbstractAlgorithm.ALGORITHM_ID, ParallelHDBSCANLinearMemory.class) //
+        .with(HDBSCANLinearMemory.Parameterizer.MIN_PTS_ID, 20) //
+        .build().run(db);
+    testFMeasure(db, clustering, 0.686953412);
+    testClusterSizes(clustering, new int[] { 1, 200, 437 });
+  }
+
+  /**
+   * Compare the pointer representation to the sequential implementation, on a
+   * data set large enough to use multiple blocks.
+   */
+  @Test
+  public void testSameAsSequential() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d.ascii", 1200);
+    PointerDensityHierarchyRepresentationResult seq = new ELKIBuilder<HDBSCANLinearMemory<Object>>(HDBSCANLinearMemory.class) //
+        .with(HDBSCANLinearMemory.Parameterizer.MIN_PTS_ID, 10) //
+        .build().run(db);
+    PointerDensityHierarchyRepresentationResult par = new ELKIBuilder<ParallelHDBSCANLinearMemory<Object>>(ParallelHDBSCANLinearMemory.class) //
+        .with(HDBSCANLinearMemory.Parameterizer.MIN_PTS_ID, 10) //
+        .build().run(db);
+    DBIDVar seqp = DBIDUtil.newVar(), parp = DBIDUtil.newVar();
+    for(DBIDIter it = seq.getDBIDs().iter(); it.valid(); it.advance()) {
+      assertEquals("Core distance differs.", seq.getCoreDistanceStore().doubleValue(it), par.getCoreDistanceStore().doubleValue(it), 0.);
+      assertEquals("Parent distance differs.", seq.getParentDistanceStore().doubleValue(it), par.getParentDistanceStore().doubleValue(it), 0.);
+      seq.getParentStore().assignVar(it, seqp);
+      par.getParentStore().assignVar(it, parp);
+      assertTrue("Parent differs.", DBIDUtil.equal(seqp, parp));
+    }
+  }
+}
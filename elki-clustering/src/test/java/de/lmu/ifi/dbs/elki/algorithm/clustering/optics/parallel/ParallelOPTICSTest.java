@@ -0,0 +1,85 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.clustering.optics.parallel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.clustering.AbstractClusterAlgorithmTest;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.optics.ClusterOrder;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.optics.OPTICSHeap;
+import de.lmu.ifi.dbs.elki.algorithm.clustering.optics.OPTICSXi;
+import de.lmu.ifi.dbs.elki.data.Clustering;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Performs a full parallel OPTICS run, and compares the result with a
+ * clustering derived from the data set labels, and with the cluster order of
+ * the sequential implementation.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ParallelOPTICSTest extends AbstractClusterAlgorithmTest {
+  @Test
+  public void testOPTICS() {
+    Database db = makeSimpleDatabase(UNITTEST + "hierarchical-2d.ascii", 710);
+    Clustering<?> clustering = new ELKIBuilder<>(OPTICSXi.class) //
+        .with(OPTICSHeap.Parameterizer.MINPTS_ID, 18) //
+        .with(OPTICSHeap.Parameterizer.EPSILON_ID, 0.1) //
+        .with(OPTICSXi.Parameterizer.XI_ID, 0.038) //
+        .with(OPTICSXi.Parameterizer.XIALG_ID, ParallelOPTICS.class) //
+        .build().run(db);
+    testFMeasure(db, clustering, 0.8891673);
+    testClusterSizes(clustering, new int[] { 108, 117, 209, 276 });
+  }
+
+  @Test
+  public void testSameAsSequential() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d.ascii", 1200);
+    for(double epsilon : new double[] { 0.05, Double.POSITIVE_INFINITY }) {
+      ClusterOrder seq = new ELKIBuilder<OPTICSHeap<Object>>(OPTICSHeap.class) //
+          .with(OPTICSHeap.Parameterizer.MINPTS_ID, 10) //
+          .with(OPTICSHeap.Parameterizer.EPSILON_ID, epsilon) //
+          .build().run(db);
+      ClusterOrder par = new ELKIBuilder<ParallelOPTICS<Object>>(ParallelOPTICS.class) //
+          .with(OPTICSHeap.Parameterizer.MINPTS_ID, 10) //
+          .with(OPTICSHeap.Parameterizer.EPSILON_ID, epsilon) //
+          .build().run(db);
+      assertEquals("Cluster order size differs.", seq.size(), par.size());
+      DBIDVar p1 = DBIDUtil.newVar(), p2 = DBIDUtil.newVar();
+      for(DBIDArrayIter it1 = seq.iter(), it2 = par.iter(); it1.valid(); it1.advance(), it2.advance()) {
+        assertTrue("Cluster order differs.", DBIDUtil.equal(it1, it2));
+        assertEquals("Reachability differs.", seq.getReachability(it1), par.getReachability(it2), 0.);
+        seq.getPredecessor(it1, p1);
+        par.getPredecessor(it2, p2);
+        assertEquals("Predecessor differs.", p1.isSet(), p2.isSet());
+        assertTrue("Predecessor differs.", !p1.isSet() || DBIDUtil.equal(p1, p2));
+      }
+    }
+  }
+}
@@ -183,9 +183,9 @@ public class VectorFieldTypeInformation<V extends FeatureVector<?>> extends Vect
   /**
    * Get the column labels.
    *
-   * @return labels
+   * @return labels, may be {@code null}
    */
-  protected String[] getLabels() {
+  public String[] getLabels() {
     return labels;
   }
 }
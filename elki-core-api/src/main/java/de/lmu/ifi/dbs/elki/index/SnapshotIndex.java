@@ -0,0 +1,74 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index;
+
+import java.nio.ByteBuffer;
+
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+
+/**
+ * Index that can store its state in a binary snapshot, and restore it from a
+ * snapshot instead of being rebuilt.
+ * <p>
+ * Object references are stored as offsets into the {@link DBIDRange} of the
+ * indexed relation, so that a snapshot can be restored in a different
+ * database instance with the same data.
+ * <p>
+ * Snapshots are managed by the {@code SnapshotIndexFactory}, which builds or
+ * restores the index itself, and then calls {@link #skipNextInitialize()}, as
+ * the database initializes every index returned by a factory.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public interface SnapshotIndex extends Index {
+  /**
+   * Ignore the next call of {@link #initialize()}, because the index has
+   * already been built or restored. Later calls behave as usual.
+   */
+  void skipNextInitialize();
+
+  /**
+   * Get the number of bytes needed to store a snapshot of the index.
+   *
+   * @return Snapshot size in bytes
+   */
+  long getSnapshotSize();
+
+  /**
+   * Write a snapshot of the (initialized) index.
+   *
+   * @param buffer Buffer to write to, of at least {@link #getSnapshotSize()}
+   *        bytes.
+   * @param ids DBID range of the indexed relation
+   */
+  void writeSnapshot(ByteBuffer buffer, DBIDRange ids);
+
+  /**
+   * Restore the index from a snapshot.
+   *
+   * @param buffer Buffer to read from
+   * @param ids DBID range of the indexed relation
+   * @return {@code false} if the snapshot is not usable, and the index must be
+   *         built instead.
+   */
+  boolean readSnapshot(ByteBuffer buffer, DBIDRange ids);
+}
@@ -103,6 +103,18 @@ public class DoubleVector implements NumberVector {
     return values.clone();
   }
 
+  /**
+   * Get the internal values array, without copying.
+   * <p>
+   * This is meant for fast paths in performance critical code such as
+   * distance functions. The array must <em>not</em> be modified!
+   *
+   * @return Internal values array
+   */
+  public double[] getValuesReference() {
+    return values;
+  }
+
   @Override
   public String toString() {
     StringBuilder featureLine = new StringBuilder();
@@ -116,6 +116,18 @@ public class FloatVector implements NumberVector {
     return data;
   }
 
+  /**
+   * Get the internal values array, without copying.
+   * <p>
+   * This is meant for fast paths in performance critical code such as
+   * distance functions. The array must <em>not</em> be modified!
+   *
+   * @return Internal values array
+   */
+  public float[] getValuesReference() {
+    return values;
+  }
+
   @Override
   public String toString() {
     StringBuilder featureLine = new StringBuilder();
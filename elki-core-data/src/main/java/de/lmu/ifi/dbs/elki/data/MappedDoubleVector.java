@@ -0,0 +1,227 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.ArrayAdapter;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteBufferSerializer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+
+/**
+ * Vector type viewing a range of a shared {@link ByteBuffer}, usually a
+ * memory-mapped file.
+ * <p>
+ * This is used as lightweight view on data that is not loaded into the Java
+ * heap, for example by a memory-mapped bundle file. Values are read on demand
+ * using absolute positioning, so views are safe for concurrent use. The vector
+ * must be considered immutable, as is the shared buffer.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class MappedDoubleVector implements NumberVector {
+  /**
+   * Static factory instance.
+   */
+  public static final MappedDoubleVector.Factory FACTORY = new MappedDoubleVector.Factory();
+
+  /**
+   * Serializer using varint encoding.
+   */
+  public static final ByteBufferSerializer<MappedDoubleVector> VARIABLE_SERIALIZER = new VariableSerializer();
+
+  /**
+   * Shared data buffer.
+   */
+  private final ByteBuffer data;
+
+  /**
+   * Byte position of the first value.
+   */
+  private final int offset;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Constructor.
+   *
+   * @param data Shared data buffer, not copied
+   * @param offset Byte position of the first value
+   * @param dim Dimensionality
+   */
+  public MappedDoubleVector(ByteBuffer data, int offset, int dim) {
+    super();
+    assert (offset >= 0 && offset + (long) dim * ByteArrayUtil.SIZE_DOUBLE <= data.limit());
+    this.data = data;
+    this.offset = offset;
+    this.dim = dim;
+  }
+
+  @Override
+  public int getDimensionality() {
+    return dim;
+  }
+
+  @Override
+  public double doubleValue(int dimension) {
+    return data.getDouble(offset + (dimension << 3));
+  }
+
+  @Override
+  public long longValue(int dimension) {
+    return (long) data.getDouble(offset + (dimension << 3));
+  }
+
+  @Override
+  public double[] toArray() {
+    double[] values = new double[dim];
+    for(int i = 0, p = offset; i < dim; i++, p += ByteArrayUtil.SIZE_DOUBLE) {
+      values[i] = data.getDouble(p);
+    }
+    return values;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder featureLine = new StringBuilder();
+    for(int i = 0; i < dim; i++) {
+      featureLine.append(doubleValue(i));
+      if(i + 1 < dim) {
+        featureLine.append(ATTRIBUTE_SEPARATOR);
+      }
+    }
+    return featureLine.toString();
+  }
+
+  /**
+   * Wrap an array of values in a new heap buffer.
+   *
+   * @param values Values
+   * @return Vector
+   */
+  private static MappedDoubleVector wrap(double[] values) {
+    ByteBuffer buf = ByteBuffer.allocate(values.length * ByteArrayUtil.SIZE_DOUBLE);
+    for(double v : values) {
+      buf.putDouble(v);
+    }
+    return new MappedDoubleVector(buf, 0, values.length);
+  }
+
+  /**
+   * Factory for mapped double vectors; new vectors use their own heap buffers.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.has MappedDoubleVector
+   */
+  public static class Factory implements NumberVector.Factory<MappedDoubleVector> {
+    @Override
+    public MappedDoubleVector newNumberVector(double[] values) {
+      return wrap(values);
+    }
+
+    @Override
+    public <A> MappedDoubleVector newFeatureVector(A array, ArrayAdapter<? extends Number, A> adapter) {
+      int dim = adapter.size(array);
+      double[] values = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        values[i] = adapter.get(array, i).doubleValue();
+      }
+      return wrap(values);
+    }
+
+    @Override
+    public <A> MappedDoubleVector newNumberVector(A array, NumberArrayAdapter<?, ? super A> adapter) {
+      final int dim = adapter.size(array);
+      double[] values = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        values[i] = adapter.getDouble(array, i);
+      }
+      return wrap(values);
+    }
+
+    @Override
+    public ByteBufferSerializer<MappedDoubleVector> getDefaultSerializer() {
+      return VARIABLE_SERIALIZER;
+    }
+
+    @Override
+    public Class<? super MappedDoubleVector> getRestrictionClass() {
+      return MappedDoubleVector.class;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     */
+    public static class Parameterizer extends AbstractParameterizer {
+      @Override
+      protected MappedDoubleVector.Factory makeInstance() {
+        return FACTORY;
+      }
+    }
+  }
+
+  /**
+   * Serialization class for variable dimensionality by using VarInt encoding.
+   * This uses the same format as {@link DoubleVector.VariableSerializer}.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.uses MappedDoubleVector - - «serializes»
+   */
+  public static class VariableSerializer implements ByteBufferSerializer<MappedDoubleVector> {
+    @Override
+    public MappedDoubleVector fromByteBuffer(ByteBuffer buffer) throws IOException {
+      final int dimensionality = ByteArrayUtil.readUnsignedVarint(buffer);
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_DOUBLE * dimensionality) : "Not enough data remaining in buffer to read " + dimensionality + " doubles";
+      final double[] values = new double[dimensionality];
+      for(int i = 0; i < dimensionality; i++) {
+        values[i] = buffer.getDouble();
+      }
+      return wrap(values);
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, MappedDoubleVector vec) throws IOException {
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_DOUBLE * vec.dim) : "Not enough space remaining in buffer to write " + vec.dim + " doubles";
+      ByteArrayUtil.writeUnsignedVarint(buffer, vec.dim);
+      for(int i = 0; i < vec.dim; i++) {
+        buffer.putDouble(vec.doubleValue(i));
+      }
+    }
+
+    @Override
+    public int getByteSize(MappedDoubleVector vec) {
+      return ByteArrayUtil.getUnsignedVarintSize(vec.dim) + ByteArrayUtil.SIZE_DOUBLE * vec.dim;
+    }
+  }
+}
@@ -0,0 +1,227 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.ArrayAdapter;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.NumberArrayAdapter;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteBufferSerializer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+
+/**
+ * Vector type viewing a range of a shared {@code double[]} array.
+ * <p>
+ * This is used as lightweight view on data stored in contiguous arrays, for
+ * example by relations that store all vectors in a single array to avoid the
+ * memory overhead of one array per object. The vector must be considered
+ * immutable, as is the shared array.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class OffsetDoubleVector implements NumberVector {
+  /**
+   * Static factory instance.
+   */
+  public static final OffsetDoubleVector.Factory FACTORY = new OffsetDoubleVector.Factory();
+
+  /**
+   * Serializer using varint encoding.
+   */
+  public static final ByteBufferSerializer<OffsetDoubleVector> VARIABLE_SERIALIZER = new VariableSerializer();
+
+  /**
+   * Shared data array.
+   */
+  private final double[] data;
+
+  /**
+   * Offset of the first value.
+   */
+  private final int offset;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Constructor.
+   *
+   * @param data Shared data array, not copied
+   * @param offset Offset of the first value
+   * @param dim Dimensionality
+   */
+  public OffsetDoubleVector(double[] data, int offset, int dim) {
+    super();
+    assert (offset >= 0 && offset + dim <= data.length);
+    this.data = data;
+    this.offset = offset;
+    this.dim = dim;
+  }
+
+  @Override
+  public int getDimensionality() {
+    return dim;
+  }
+
+  @Override
+  public double doubleValue(int dimension) {
+    return data[offset + dimension];
+  }
+
+  @Override
+  public long longValue(int dimension) {
+    return (long) data[offset + dimension];
+  }
+
+  @Override
+  public double[] toArray() {
+    double[] values = new double[dim];
+    System.arraycopy(data, offset, values, 0, dim);
+    return values;
+  }
+
+  /**
+   * Get the shared data array, for direct (read-only!) access.
+   *
+   * @return Data array
+   */
+  public double[] getArray() {
+    return data;
+  }
+
+  /**
+   * Get the offset of the first value in the shared data array.
+   *
+   * @return Offset
+   */
+  public int getOffset() {
+    return offset;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder featureLine = new StringBuilder();
+    for(int i = 0; i < dim; i++) {
+      featureLine.append(data[offset + i]);
+      if(i + 1 < dim) {
+        featureLine.append(ATTRIBUTE_SEPARATOR);
+      }
+    }
+    return featureLine.toString();
+  }
+
+  /**
+   * Factory for offset double vectors; new vectors use their own arrays.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.has OffsetDoubleVector
+   */
+  public static class Factory implements NumberVector.Factory<OffsetDoubleVector> {
+    @Override
+    public OffsetDoubleVector newNumberVector(double[] values) {
+      return new OffsetDoubleVector(values.clone(), 0, values.length);
+    }
+
+    @Override
+    public <A> OffsetDoubleVector newFeatureVector(A array, ArrayAdapter<? extends Number, A> adapter) {
+      int dim = adapter.size(array);
+      double[] values = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        values[i] = adapter.get(array, i).doubleValue();
+      }
+      return new OffsetDoubleVector(values, 0, dim);
+    }
+
+    @Override
+    public <A> OffsetDoubleVector newNumberVector(A array, NumberArrayAdapter<?, ? super A> adapter) {
+      final int dim = adapter.size(array);
+      double[] values = new double[dim];
+      for(int i = 0; i < dim; i++) {
+        values[i] = adapter.getDouble(array, i);
+      }
+      return new OffsetDoubleVector(values, 0, dim);
+    }
+
+    @Override
+    public ByteBufferSerializer<OffsetDoubleVector> getDefaultSerializer() {
+      return VARIABLE_SERIALIZER;
+    }
+
+    @Override
+    public Class<? super OffsetDoubleVector> getRestrictionClass() {
+      return OffsetDoubleVector.class;
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     */
+    public static class Parameterizer extends AbstractParameterizer {
+      @Override
+      protected OffsetDoubleVector.Factory makeInstance() {
+        return FACTORY;
+      }
+    }
+  }
+
+  /**
+   * Serialization class for variable dimensionality by using VarInt encoding.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.uses OffsetDoubleVector - - «serializes»
+   */
+  public static class VariableSerializer implements ByteBufferSerializer<OffsetDoubleVector> {
+    @Override
+    public OffsetDoubleVector fromByteBuffer(ByteBuffer buffer) throws IOException {
+      final int dimensionality = ByteArrayUtil.readUnsignedVarint(buffer);
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_DOUBLE * dimensionality) : "Not enough data remaining in buffer to read " + dimensionality + " doubles";
+      final double[] values = new double[dimensionality];
+      for(int i = 0; i < dimensionality; i++) {
+        values[i] = buffer.getDouble();
+      }
+      return new OffsetDoubleVector(values, 0, dimensionality);
+    }
+
+    @Override
+    public void toByteBuffer(ByteBuffer buffer, OffsetDoubleVector vec) throws IOException {
+      assert (buffer.remaining() >= ByteArrayUtil.SIZE_DOUBLE * vec.dim) : "Not enough space remaining in buffer to write " + vec.dim + " doubles";
+      ByteArrayUtil.writeUnsignedVarint(buffer, vec.dim);
+      for(int i = 0; i < vec.dim; i++) {
+        buffer.putDouble(vec.data[vec.offset + i]);
+      }
+    }
+
+    @Override
+    public int getByteSize(OffsetDoubleVector vec) {
+      return ByteArrayUtil.getUnsignedVarintSize(vec.dim) + ByteArrayUtil.SIZE_DOUBLE * vec.dim;
+    }
+  }
+}
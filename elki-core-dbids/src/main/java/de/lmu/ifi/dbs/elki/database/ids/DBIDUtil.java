@@ -73,6 +73,19 @@ public final class DBIDUtil {
     return DBIDFactory.FACTORY.importInteger(id);
   }
 
+  /**
+   * Import an integer into a DBID variable, without allocating a new DBID.
+   * <p>
+   * Note: this may not be possible for some factories!
+   *
+   * @param var Variable to assign to
+   * @param id Integer ID to import
+   * @return Variable
+   */
+  public static DBIDVar importInteger(DBIDVar var, int id) {
+    return DBIDFactory.FACTORY.assignVar(var, id);
+  }
+
   /**
    * Export a DBID as int.
    * <p>
@@ -27,6 +27,10 @@ import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
 /**
  * Abstract base class for the most common family of distance functions: defined
  * on number vectors and returning double values.
+ * <p>
+ * Also provides the kernels of the common distances on dense arrays, which
+ * keep the summation order of the generic {@link NumberVector} code, so that
+ * the fast paths produce identical results.
  * 
  * @author Erich Schubert
  * @since 0.4.0
@@ -187,4 +191,178 @@ public abstract class AbstractNumberVectorDistanceFunction implements NumberVect
     }
     return expect;
   }
+
+  /**
+   * Squared Euclidean distance of two dense double arrays, used as fast path
+   * for dense vectors. Missing dimensions are treated as 0.
+   *
+   * @param v1 First vector
+   * @param v2 Second vector
+   * @return Squared Euclidean distance
+   */
+  public static double squaredEuclideanDense(double[] v1, double[] v2) {
+    final int dim1 = v1.length, dim2 = v2.length;
+    final int mindim = dim1 < dim2 ? dim1 : dim2;
+    double agg = 0.;
+    for(int d = 0; d < mindim; d++) {
+      final double xd = v1[d], yd = v2[d];
+      final double delta = xd - yd;
+      agg += delta * delta;
+    }
+    if(dim1 != dim2) {
+      final double[] v = dim1 > mindim ? v1 : v2;
+      double tail = 0.;
+      for(int d = mindim; d < v.length; d++) {
+        final double xd = v[d];
+        tail += xd * xd;
+      }
+      agg += tail;
+    }
+    return agg;
+  }
+
+  /**
+   * Squared Euclidean distance of two dense float arrays, see
+   * {@link #squaredEuclideanDense(double[], double[])}.
+   *
+   * @param v1 First vector
+   * @param v2 Second vector
+   * @return Squared Euclidean distance
+   */
+  public static double squaredEuclideanDense(float[] v1, float[] v2) {
+    final int dim1 = v1.length, dim2 = v2.length;
+    final int mindim = dim1 < dim2 ? dim1 : dim2;
+    double agg = 0.;
+    for(int d = 0; d < mindim; d++) {
+      final double xd = v1[d], yd = v2[d];
+      final double delta = xd - yd;
+      agg += delta * delta;
+    }
+    if(dim1 != dim2) {
+      final float[] v = dim1 > mindim ? v1 : v2;
+      double tail = 0.;
+      for(int d = mindim; d < v.length; d++) {
+        final double xd = v[d];
+        tail += xd * xd;
+      }
+      agg += tail;
+    }
+    return agg;
+  }
+
+  /**
+   * Manhattan distance of two dense double arrays, used as fast path for dense
+   * vectors. Missing dimensions are treated as 0.
+   *
+   * @param v1 First vector
+   * @param v2 Second vector
+   * @return Manhattan distance
+   */
+  public static double manhattanDense(double[] v1, double[] v2) {
+    final int dim1 = v1.length, dim2 = v2.length;
+    final int mindim = dim1 < dim2 ? dim1 : dim2;
+    double agg = 0.;
+    for(int d = 0; d < mindim; d++) {
+      final double xd = v1[d], yd = v2[d];
+      agg += xd >= yd ? xd - yd : yd - xd;
+    }
+    if(dim1 != dim2) {
+      final double[] v = dim1 > mindim ? v1 : v2;
+      double tail = 0.;
+      for(int d = mindim; d < v.length; d++) {
+        final double xd = v[d];
+        tail += (xd >= 0.) ? xd : -xd;
+      }
+      agg += tail;
+    }
+    return agg;
+  }
+
+  /**
+   * Manhattan distance of two dense float arrays, see
+   * {@link #manhattanDense(double[], double[])}.
+   *
+   * @param v1 First vector
+   * @param v2 Second vector
+   * @return Manhattan distance
+   */
+  public static double manhattanDense(float[] v1, float[] v2) {
+    final int dim1 = v1.length, dim2 = v2.length;
+    final int mindim = dim1 < dim2 ? dim1 : dim2;
+    double agg = 0.;
+    for(int d = 0; d < mindim; d++) {
+      final double xd = v1[d], yd = v2[d];
+      agg += xd >= yd ? xd - yd : yd - xd;
+    }
+    if(dim1 != dim2) {
+      final float[] v = dim1 > mindim ? v1 : v2;
+      double tail = 0.;
+      for(int d = mindim; d < v.length; d++) {
+        final double xd = v[d];
+        tail += (xd >= 0.) ? xd : -xd;
+      }
+      agg += tail;
+    }
+    return agg;
+  }
+
+  /**
+   * Weighted squared Euclidean distance of two dense double arrays, used as
+   * fast path for dense vectors. Missing dimensions are treated as 0.
+   *
+   * @param weights Weight vector
+   * @param v1 First vector
+   * @param v2 Second vector
+   * @return Weighted squared Euclidean distance
+   */
+  public static double weightedSquaredEuclideanDense(double[] weights, double[] v1, double[] v2) {
+    final int dim1 = v1.length, dim2 = v2.length;
+    final int mindim = dim1 < dim2 ? dim1 : dim2;
+    double agg = 0.;
+    for(int d = 0; d < mindim; d++) {
+      final double xd = v1[d], yd = v2[d];
+      final double delta = xd - yd;
+      agg += delta * delta * weights[d];
+    }
+    if(dim1 != dim2) {
+      final double[] v = dim1 > mindim ? v1 : v2;
+      double tail = 0.;
+      for(int d = mindim; d < v.length; d++) {
+        final double xd = v[d];
+        tail += xd * xd * weights[d];
+      }
+      agg += tail;
+    }
+    return agg;
+  }
+
+  /**
+   * Weighted squared Euclidean distance of two dense float arrays, see
+   * {@link #weightedSquaredEuclideanDense(double[], double[], double[])}.
+   *
+   * @param weights Weight vector
+   * @param v1 First vector
+   * @param v2 Second vector
+   * @return Weighted squared Euclidean distance
+   */
+  public static double weightedSquaredEuclideanDense(double[] weights, float[] v1, float[] v2) {
+    final int dim1 = v1.length, dim2 = v2.length;
+    final int mindim = dim1 < dim2 ? dim1 : dim2;
+    double agg = 0.;
+    for(int d = 0; d < mindim; d++) {
+      final double xd = v1[d], yd = v2[d];
+      final double delta = xd - yd;
+      agg += delta * delta * weights[d];
+    }
+    if(dim1 != dim2) {
+      final float[] v = dim1 > mindim ? v1 : v2;
+      double tail = 0.;
+      for(int d = mindim; d < v.length; d++) {
+        final double xd = v[d];
+        tail += xd * xd * weights[d];
+      }
+      agg += tail;
+    }
+    return agg;
+  }
 }
@@ -20,8 +20,11 @@
  */
 package de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski;
 
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.FloatVector;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.AbstractNumberVectorDistanceFunction;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
@@ -112,6 +115,13 @@ public class EuclideanDistanceFunction extends LPIntegerNormDistanceFunction {
 
   @Override
   public double distance(NumberVector v1, NumberVector v2) {
+    // Fast paths for dense vectors of the same type:
+    if(v1 instanceof DoubleVector && v2 instanceof DoubleVector) {
+      return FastMath.sqrt(AbstractNumberVectorDistanceFunction.squaredEuclideanDense(((DoubleVector) v1).getValuesReference(), ((DoubleVector) v2).getValuesReference()));
+    }
+    if(v1 instanceof FloatVector && v2 instanceof FloatVector) {
+      return FastMath.sqrt(AbstractNumberVectorDistanceFunction.squaredEuclideanDense(((FloatVector) v1).getValuesReference(), ((FloatVector) v2).getValuesReference()));
+    }
     final int dim1 = v1.getDimensionality(), dim2 = v2.getDimensionality();
     final int mindim = dim1 < dim2 ? dim1 : dim2;
     double agg = preDistance(v1, v2, 0, mindim);
@@ -27,8 +27,10 @@ import static org.junit.Assert.assertTrue;
 import java.util.Random;
 
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.FloatVector;
 import de.lmu.ifi.dbs.elki.data.HyperBoundingBox;
 import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.SparseDoubleVector;
 import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
 import de.lmu.ifi.dbs.elki.data.type.VectorTypeInformation;
 import de.lmu.ifi.dbs.elki.utilities.random.FastNonThreadsafeRandom;
@@ -210,6 +212,36 @@ public abstract class AbstractDistanceFunctionTest {
     }
   }
 
+  /**
+   * Check that the fast paths for dense vectors give exactly the same results
+   * as the generic code path, including vectors of different length.
+   *
+   * @param dist Distance function to check
+   * @param maxdim Maximum dimensionality to test
+   */
+  public static void denseConsistency(PrimitiveDistanceFunction<? super NumberVector> dist, int maxdim) {
+    final Random rnd = new FastNonThreadsafeRandom(2);
+    for(int i = 0; i < 1000; i++) {
+      final int dim1 = rnd.nextInt(maxdim) + 1;
+      final int dim2 = rnd.nextInt(3) == 0 ? rnd.nextInt(maxdim) + 1 : dim1;
+      double[] d1 = new double[dim1], d2 = new double[dim2];
+      float[] f1 = new float[dim1], f2 = new float[dim2];
+      for(int d = 0; d < dim1; d++) {
+        d1[d] = f1[d] = (float) ((rnd.nextDouble() - .5) * 2E4);
+      }
+      for(int d = 0; d < dim2; d++) {
+        d2[d] = (rnd.nextDouble() - .5) * 2E4;
+        f2[d] = (float) d2[d];
+      }
+      DoubleVector dv1 = DoubleVector.wrap(d1), dv2 = DoubleVector.wrap(d2);
+      FloatVector fv1 = new FloatVector(f1), fv2 = new FloatVector(f2);
+      // Sparse vectors and mixed types use the generic code path:
+      NumberVector sv2 = new SparseDoubleVector(d2);
+      assertEquals("Double fast path differs.", dist.distance(dv1, sv2), dist.distance(dv1, dv2), 0.);
+      assertEquals("Float fast path differs.", dist.distance(dv1, fv2), dist.distance(fv1, fv2), 0.);
+    }
+  }
+
   public static void compareDistances(NumberVector v1, NumberVector v2, HyperBoundingBox mbr2, SpatialPrimitiveDistanceFunction<? super NumberVector> dist) {
     double exact = dist.distance(v1, v2), mind = dist.minDist(v1, v2),
         mbrd = dist.minDist(v1, mbr2), zero = dist.minDist(v2, mbr2),
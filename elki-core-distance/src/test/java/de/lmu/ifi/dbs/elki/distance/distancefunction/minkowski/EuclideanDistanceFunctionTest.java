@@ -40,5 +40,6 @@ public class EuclideanDistanceFunctionTest extends AbstractDistanceFunctionTest
     varyingLengthBasic(0, dist, 1, 0, 1, 1, MathUtil.SQRT2, 1);
     spatialConsistency(dist);
     nonnegativeSpatialConsistency(dist);
+    denseConsistency(dist, 10);
   }
 }
@@ -39,5 +39,6 @@ public class SquaredEuclideanDistanceFunctionTest extends AbstractDistanceFuncti
     varyingLengthBasic(0, dist, 1, 0, 1, 1, 2, 1);
     spatialConsistency(dist);
     nonnegativeSpatialConsistency(dist);
+    denseConsistency(dist, 10);
   }
 }
@@ -21,6 +21,7 @@
 package de.lmu.ifi.dbs.elki.parallel;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -29,6 +30,9 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Core for parallel processing in ELKI, based on {@link ThreadPoolExecutor}.
+ * <p>
+ * For work-stealing execution, a {@link ForkJoinPool} with the same
+ * parallelism is available, too.
  * 
  * TODO: make configurable how many threads are used.
  * 
@@ -51,6 +55,16 @@ public class ParallelCore {
    */
   ThreadPoolExecutor executor;
 
+  /**
+   * Work-stealing pool, initialized on demand.
+   */
+  private volatile ForkJoinPool forkjoin;
+
+  /**
+   * Scheduling strategy used by {@link ParallelExecutor}.
+   */
+  private volatile ParallelExecutor.Scheduling scheduling = ParallelExecutor.Scheduling.BLOCKS;
+
   /**
    * Number of connected submitters.
    */
@@ -87,6 +101,24 @@ public class ParallelCore {
     return executor != null ? executor.getMaximumPoolSize() : processors;
   }
 
+  /**
+   * Get the scheduling strategy for {@link ParallelExecutor}.
+   * 
+   * @return Scheduling strategy
+   */
+  public ParallelExecutor.Scheduling getScheduling() {
+    return scheduling;
+  }
+
+  /**
+   * Set the scheduling strategy for {@link ParallelExecutor}.
+   * 
+   * @param scheduling Scheduling strategy
+   */
+  public void setScheduling(ParallelExecutor.Scheduling scheduling) {
+    this.scheduling = scheduling;
+  }
+
   /**
    * Submit a task to the executor core.
    * 
@@ -98,6 +130,24 @@ public class ParallelCore {
     return executor.submit(task);
   }
 
+  /**
+   * Get the work-stealing pool. Idle worker threads of this pool terminate
+   * automatically, hence it does not need to be connected.
+   * 
+   * @return Fork-join pool
+   */
+  public ForkJoinPool getForkJoinPool() {
+    ForkJoinPool pool = forkjoin;
+    if(pool == null) {
+      synchronized(this) {
+        if((pool = forkjoin) == null) {
+          forkjoin = pool = new ForkJoinPool(processors);
+        }
+      }
+    }
+    return pool;
+  }
+
   /**
    * Connect to the executor.
    */
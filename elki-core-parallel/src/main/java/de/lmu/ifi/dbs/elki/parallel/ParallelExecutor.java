@@ -24,8 +24,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
@@ -37,6 +39,16 @@ import de.lmu.ifi.dbs.elki.parallel.variables.SharedVariable.Instance;
 
 /**
  * Class to run processors in parallel, on all available cores.
+ * <p>
+ * Two scheduling strategies are available: the classic strategy splits the
+ * data into a fixed number of equal-sized blocks, while the work-stealing
+ * strategy recursively splits the data on a {@link java.util.concurrent.ForkJoinPool},
+ * and only keeps splitting while idle threads are likely to steal work. The
+ * latter performs much better when the cost per object is skewed, e.g., for
+ * kNN queries on clustered data.
+ * <p>
+ * In either case, each thread uses its own {@link Processor.Instance}s and
+ * {@link SharedVariable.Instance}s.
  *
  * TODO: add progress
  *
@@ -44,9 +56,36 @@ import de.lmu.ifi.dbs.elki.parallel.variables.SharedVariable.Instance;
  * @since 0.7.0
  *
  * @apiviz.has BlockArrayRunner
+ * @apiviz.has WorkStealingTask
  * @apiviz.uses ParallelCore
  */
 public final class ParallelExecutor {
+  /**
+   * Scheduling strategies.
+   *
+   * @author Erich Schubert
+   */
+  public enum Scheduling {
+    /**
+     * Fixed number of equal-sized blocks.
+     */
+    BLOCKS, //
+    /**
+     * Recursive splitting with work stealing.
+     */
+    WORK_STEALING, //
+  }
+
+  /**
+   * Minimum number of objects per task in work-stealing mode.
+   */
+  private static final int MIN_BLOCKSIZE = 8;
+
+  /**
+   * Number of queued tasks per thread, above which we stop splitting.
+   */
+  private static final int SURPLUS_THRESHOLD = 3;
+
   /**
    * Private constructor. Static methods only.
    */
@@ -55,16 +94,45 @@ public final class ParallelExecutor {
   }
 
   /**
-   * Run a task on all available CPUs.
+   * Run a task on all available CPUs, using the scheduling strategy configured
+   * in the {@link ParallelCore}.
    *
    * @param ids IDs to process
    * @param procs Processors to run
    */
   public static void run(DBIDs ids, Processor... procs) {
+    run(ids, ParallelCore.getCore().getScheduling(), procs);
+  }
+
+  /**
+   * Run a task on all available CPUs.
+   *
+   * @param ids IDs to process
+   * @param scheduling Scheduling strategy
+   * @param procs Processors to run
+   */
+  public static void run(DBIDs ids, Scheduling scheduling, Processor... procs) {
+    switch(scheduling){
+    case WORK_STEALING:
+      runWorkStealing(ids, procs);
+      return;
+    case BLOCKS:
+    default:
+      runBlocks(ids, procs);
+      return;
+    }
+  }
+
+  /**
+   * Run a task on all available CPUs, using equal-sized blocks.
+   *
+   * @param ids IDs to process
+   * @param procs Processors to run
+   */
+  private static void runBlocks(DBIDs ids, Processor... procs) {
     ParallelCore core = ParallelCore.getCore();
     core.connect();
     try {
-      // TODO: try different strategies anyway!
       ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
       final int size = aids.size();
       int numparts = core.getParallelism();
@@ -95,6 +163,26 @@ public final class ParallelExecutor {
     }
   }
 
+  /**
+   * Run a task on all available CPUs, using recursive splitting and work
+   * stealing.
+   *
+   * @param ids IDs to process
+   * @param procs Processors to run
+   */
+  private static void runWorkStealing(DBIDs ids, Processor... procs) {
+    ParallelCore core = ParallelCore.getCore();
+    ArrayDBIDs aids = DBIDUtil.ensureArray(ids);
+    final int size = aids.size();
+    final int minblock = Math.max(MIN_BLOCKSIZE, size / (core.getParallelism() << 8));
+    ConcurrentHashMap<Thread, WorkerState> states = new ConcurrentHashMap<>();
+    core.getForkJoinPool().invoke(new WorkStealingTask(aids, 0, size, minblock, procs, states));
+    // Cleanup the per-thread instances.
+    for(WorkerState state : states.values()) {
+      state.cleanup();
+    }
+  }
+
   /**
    * Run for an array part, without step size.
    *
@@ -172,4 +260,187 @@ public final class ParallelExecutor {
       return inst;
     }
   }
+
+  /**
+   * Per-thread state for work-stealing execution, holding the processor and
+   * variable instances of one worker thread.
+   *
+   * @author Erich Schubert
+   */
+  private static class WorkerState implements Executor {
+    /**
+     * The processor masters that own the instances.
+     */
+    private Processor[] procs;
+
+    /**
+     * Processor instances of this thread.
+     */
+    private Processor.Instance[] instances;
+
+    /**
+     * Variables map.
+     */
+    private HashMap<SharedVariable<?>, SharedVariable.Instance<?>> variables = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param procs Processors to run
+     */
+    protected WorkerState(Processor[] procs) {
+      super();
+      this.procs = procs;
+      this.instances = new Processor.Instance[procs.length];
+      for(int i = 0; i < procs.length; i++) {
+        instances[i] = procs[i].instantiate(this);
+      }
+    }
+
+    /**
+     * Process a block of the array.
+     *
+     * @param ids IDs to process
+     * @param start Starting position
+     * @param end End position
+     */
+    protected void process(ArrayDBIDs ids, int start, int end) {
+      for(DBIDArrayIter iter = ids.iter().seek(start); iter.valid() && iter.getOffset() < end; iter.advance()) {
+        for(int i = 0; i < instances.length; i++) {
+          instances[i].map(iter);
+        }
+      }
+    }
+
+    /**
+     * Invoke the cleanup of all processor instances.
+     */
+    protected void cleanup() {
+      for(int i = 0; i < instances.length; i++) {
+        procs[i].cleanup(instances[i]);
+      }
+    }
+
+    @Override
+    public <I extends Instance<?>> I getInstance(SharedVariable<I> parent) {
+      @SuppressWarnings("unchecked")
+      I inst = (I) variables.get(parent);
+      if(inst == null) {
+        inst = parent.instantiate();
+        variables.put(parent, inst);
+      }
+      return inst;
+    }
+  }
+
+  /**
+   * Recursively split task for work-stealing execution.
+   * <p>
+   * The range is halved as long as it is larger than the minimum block size,
+   * and the current thread does not have a surplus of queued tasks already;
+   * so we split finely only while other threads are idle.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.uses Processor
+   */
+  private static class WorkStealingTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Array IDs to process
+     */
+    private ArrayDBIDs ids;
+
+    /**
+     * Start position
+     */
+    private int start;
+
+    /**
+     * End position
+     */
+    private int end;
+
+    /**
+     * Minimum block size
+     */
+    private int minblock;
+
+    /**
+     * The processor masters that own the instances.
+     */
+    private Processor[] procs;
+
+    /**
+     * Per-thread states.
+     */
+    private ConcurrentHashMap<Thread, WorkerState> states;
+
+    /**
+     * Next forked task, for joining.
+     */
+    private WorkStealingTask next;
+
+    /**
+     * Constructor.
+     *
+     * @param ids IDs to process
+     * @param start Starting position
+     * @param end End position
+     * @param minblock Minimum block size
+     * @param procs Processors to run
+     * @param states Per-thread states
+     */
+    protected WorkStealingTask(ArrayDBIDs ids, int start, int end, int minblock, Processor[] procs, ConcurrentHashMap<Thread, WorkerState> states) {
+      super();
+      this.ids = ids;
+      this.start = start;
+      this.end = end;
+      this.minblock = minblock;
+      this.procs = procs;
+      this.states = states;
+    }
+
+    @Override
+    protected void compute() {
+      int e = end;
+      WorkStealingTask forked = null;
+      while(e - start > minblock && getSurplusQueuedTaskCount() <= SURPLUS_THRESHOLD) {
+        final int mid = (start + e) >>> 1;
+        WorkStealingTask right = new WorkStealingTask(ids, mid, e, minblock, procs, states);
+        right.next = forked;
+        (forked = right).fork();
+        e = mid;
+      }
+      getState().process(ids, start, e);
+      // Join the forked tasks, most recent first:
+      for(; forked != null; forked = forked.next) {
+        if(forked.tryUnfork()) {
+          forked.compute(); // Not stolen.
+        }
+        else {
+          forked.join();
+        }
+      }
+    }
+
+    /**
+     * Get the state of the current thread.
+     *
+     * @return Worker state
+     */
+    private WorkerState getState() {
+      final Thread thread = Thread.currentThread();
+      WorkerState state = states.get(thread);
+      if(state == null) {
+        // Only the current thread can insert this key:
+        states.put(thread, state = new WorkerState(procs));
+      }
+      return state;
+    }
+  }
 }
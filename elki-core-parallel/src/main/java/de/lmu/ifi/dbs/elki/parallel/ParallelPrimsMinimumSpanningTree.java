@@ -0,0 +1,273 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.parallel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import de.lmu.ifi.dbs.elki.math.geometry.PrimsMinimumSpanningTree;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+
+/**
+ * Prim's algorithm for finding the minimum spanning tree of a dense graph,
+ * where the distance update and minimum search of each iteration is split
+ * into blocks that are processed in parallel.
+ * <p>
+ * The edges are reported in the same order, and ties are resolved the same
+ * way as in {@link PrimsMinimumSpanningTree#processDense}: the unconnected
+ * node with the smallest index wins. If no unconnected node can be reached
+ * (infinite distance), the node with the smallest index is reported with an
+ * infinite edge length, and a new tree is started from it.
+ * <p>
+ * Reference:
+ * <p>
+ * R. C. Prim<br>
+ * Shortest connection networks and some generalizations<br>
+ * Bell System Technical Journal 36
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.composedOf Adapter
+ * @apiviz.uses PrimsMinimumSpanningTree.Adapter
+ * @apiviz.uses PrimsMinimumSpanningTree.Collector
+ */
+@Reference(authors = "R. C. Prim", //
+    title = "Shortest connection networks and some generalizations", //
+    booktitle = "Bell System Technical Journal, 36 (1957)", //
+    url = "https://doi.org/10.1002/j.1538-7305.1957.tb01515.x", //
+    bibkey = "doi:10.1002/j.1538-7305.1957.tb01515.x")
+public class ParallelPrimsMinimumSpanningTree {
+  /**
+   * Number of blocks per thread. Every iteration synchronizes all blocks, so
+   * we do not want too many of them.
+   */
+  private static final int BLOCKS_PER_THREAD = 2;
+
+  /**
+   * Minimum number of nodes per block.
+   */
+  private static final int MIN_BLOCKSIZE = 512;
+
+  /**
+   * Fake constructor. Do not instantiate.
+   */
+  private ParallelPrimsMinimumSpanningTree() {
+    // Do not instantiate.
+  }
+
+  /**
+   * Run Prim's algorithm on a dense graph.
+   *
+   * @param data Data set
+   * @param adapter Adapter, to obtain per-thread adapter instances
+   * @param collector Edge collector, called from the calling thread only
+   * @param <T> Data type
+   */
+  public static <T> void processDense(T data, Adapter<T> adapter, PrimsMinimumSpanningTree.Collector collector) {
+    final PrimsMinimumSpanningTree.Adapter<T> first = adapter.instantiate();
+    final int n = first.size(data);
+    if(n < 2) {
+      return;
+    }
+    // Best distance for each node
+    final double[] best = new double[n];
+    Arrays.fill(best, Double.POSITIVE_INFINITY);
+    // Best previous node
+    final int[] src = new int[n];
+    // Unconnected nodes, in ascending order.
+    final int[] todo = new int[n - 1];
+    for(int i = 0; i < todo.length; i++) {
+      todo[i] = i + 1;
+    }
+    int remaining = todo.length;
+
+    final int maxblocks = Math.max(1, Math.min(ParallelCore.getCore().getParallelism() * BLOCKS_PER_THREAD, remaining / MIN_BLOCKSIZE));
+    List<ScanBlock<T>> blocks = new ArrayList<>(maxblocks);
+    for(int b = 0; b < maxblocks; b++) {
+      blocks.add(new ScanBlock<>(b == 0 ? first : adapter.instantiate(), data, todo, best, src));
+    }
+
+    // We always start at node 0
+    int current = 0;
+    while(remaining > 0) {
+      final int numblocks = Math.max(1, Math.min(maxblocks, remaining / MIN_BLOCKSIZE));
+      List<ScanBlock<T>> active = blocks.subList(0, numblocks);
+      for(int b = 0; b < numblocks; b++) {
+        active.get(b).configure(current, (int) (remaining * (long) b / numblocks), (int) (remaining * (long) (b + 1) / numblocks));
+      }
+      if(numblocks == 1) {
+        active.get(0).call();
+      }
+      else {
+        runAll(active);
+      }
+      // Combine, in block order to resolve ties as the sequential version.
+      int newbestk = -1;
+      double newbestd = Double.POSITIVE_INFINITY;
+      for(ScanBlock<T> block : active) {
+        if(newbestk == -1 || block.bestd < newbestd) {
+          newbestd = block.bestd;
+          newbestk = block.bestk;
+        }
+      }
+      final int newbesti = todo[newbestk];
+      // Remove, but keep the remaining nodes sorted.
+      System.arraycopy(todo, newbestk + 1, todo, newbestk, --remaining - newbestk);
+      collector.addEdge(newbestd, src[newbesti], newbesti);
+      current = newbesti;
+    }
+  }
+
+  /**
+   * Run all blocks on the work-stealing pool.
+   *
+   * @param blocks Blocks to run
+   * @param <T> Data type
+   */
+  private static <T> void runAll(List<ScanBlock<T>> blocks) {
+    try {
+      for(Future<ScanBlock<T>> fut : ParallelCore.getCore().getForkJoinPool().invokeAll(blocks)) {
+        fut.get();
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Minimum spanning tree construction failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+  }
+
+  /**
+   * Update and scan a range of the unconnected nodes.
+   *
+   * @author Erich Schubert
+   *
+   * @param <T> Data type
+   */
+  private static class ScanBlock<T> implements Callable<ScanBlock<T>> {
+    /**
+     * Adapter instance, used by this block only.
+     */
+    private PrimsMinimumSpanningTree.Adapter<T> dist;
+
+    /**
+     * Data set.
+     */
+    private T data;
+
+    /**
+     * Shared arrays: unconnected nodes, best distances, best sources.
+     */
+    private int[] todo, src;
+
+    /**
+     * Shared array of best distances.
+     */
+    private double[] best;
+
+    /**
+     * Node added last, and range to process.
+     */
+    private int current, start, end;
+
+    /**
+     * Output: position of the best node in todo.
+     */
+    int bestk;
+
+    /**
+     * Output: distance of the best node.
+     */
+    double bestd;
+
+    /**
+     * Constructor.
+     *
+     * @param dist Adapter instance
+     * @param data Data set
+     * @param todo Unconnected nodes
+     * @param best Best distances
+     * @param src Best sources
+     */
+    ScanBlock(PrimsMinimumSpanningTree.Adapter<T> dist, T data, int[] todo, double[] best, int[] src) {
+      this.dist = dist;
+      this.data = data;
+      this.todo = todo;
+      this.best = best;
+      this.src = src;
+    }
+
+    /**
+     * Configure the next iteration.
+     *
+     * @param current Node added last
+     * @param start Begin of range in todo
+     * @param end End of range in todo (exclusive)
+     */
+    void configure(int current, int start, int end) {
+      this.current = current;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    public ScanBlock<T> call() {
+      bestk = -1;
+      bestd = Double.POSITIVE_INFINITY;
+      for(int k = start; k < end; k++) {
+        final int j = todo[k];
+        final double d = dist.distance(data, current, j);
+        if(d < best[j]) {
+          best[j] = d;
+          src[j] = current;
+        }
+        if(best[j] < bestd || bestk == -1) {
+          bestd = best[j];
+          bestk = k;
+        }
+      }
+      return this;
+    }
+  }
+
+  /**
+   * Adapter interface, to obtain per-thread adapter instances.
+   *
+   * @author Erich Schubert
+   *
+   * @param <T> Data type
+   */
+  public interface Adapter<T> {
+    /**
+     * Create a new adapter instance. Instances are used by a single thread
+     * at a time, and hence need not be thread-safe.
+     *
+     * @return New instance
+     */
+    PrimsMinimumSpanningTree.Adapter<T> instantiate();
+  }
+}
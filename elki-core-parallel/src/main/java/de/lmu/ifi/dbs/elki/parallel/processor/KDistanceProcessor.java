@@ -104,7 +104,9 @@ public class KDistanceProcessor extends AbstractDoubleProcessor {
 
     @Override
     public void map(DBIDRef id) {
-      output.set(input.get().doubleValue(k - 1));
+      final KNNList knn = input.get();
+      // Fewer than k neighbors: infinite, as in KNNList#getKNNDistance
+      output.set(k <= knn.size() ? knn.doubleValue(k - 1) : Double.POSITIVE_INFINITY);
     }
   }
 }
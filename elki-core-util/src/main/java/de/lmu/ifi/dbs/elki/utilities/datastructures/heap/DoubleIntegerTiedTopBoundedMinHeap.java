@@ -0,0 +1,247 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.heap;
+
+import java.util.Arrays;
+
+/**
+ * A size-limited min heap with double keys and integer values, which keeps the
+ * elements with the largest keys, and all elements tied with the smallest of
+ * these.
+ * <p>
+ * This is the primitive counterpart of a {@link TiedTopBoundedHeap} of
+ * key-value pairs compared by their key only. Tied elements are kept in a
+ * primitive array, so no objects are allocated per insertion.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class DoubleIntegerTiedTopBoundedMinHeap {
+  /**
+   * Heap keys.
+   */
+  protected final double[] keys;
+
+  /**
+   * Heap values.
+   */
+  protected final int[] values;
+
+  /**
+   * Current size of the heap (excluding ties).
+   */
+  protected int size;
+
+  /**
+   * Maximum size of the heap (excluding ties).
+   */
+  protected final int maxsize;
+
+  /**
+   * Values tied with the top element.
+   */
+  protected int[] ties;
+
+  /**
+   * Number of tied values.
+   */
+  protected int numties;
+
+  /**
+   * Constructor.
+   *
+   * @param maxsize Maximum size of heap (unless tied)
+   */
+  public DoubleIntegerTiedTopBoundedMinHeap(int maxsize) {
+    super();
+    assert (maxsize > 0);
+    this.maxsize = maxsize;
+    this.keys = new double[maxsize];
+    this.values = new int[maxsize];
+    this.ties = new int[16];
+  }
+
+  /**
+   * Add a key-value pair to the heap.
+   *
+   * @param key Key
+   * @param val Value
+   */
+  public void add(double key, int val) {
+    if(size < maxsize) {
+      heapifyUp(size++, key, val);
+      return;
+    }
+    // Peek at the top element, return if we are worse.
+    final double top = keys[0];
+    if(key < top) {
+      return;
+    }
+    if(key == top) {
+      addTie(val);
+      return;
+    }
+    // Otherwise, replace and repair:
+    final int prev = values[0];
+    heapifyDown(key, val);
+    if(keys[0] == top) {
+      addTie(prev);
+    }
+    else {
+      // Also remove old ties.
+      numties = 0;
+    }
+  }
+
+  /**
+   * Add a tied value.
+   *
+   * @param val Value
+   */
+  private void addTie(int val) {
+    if(numties == ties.length) {
+      ties = Arrays.copyOf(ties, ties.length << 1);
+    }
+    ties[numties++] = val;
+  }
+
+  /**
+   * Get the key of the top element.
+   *
+   * @return Key of the top element
+   */
+  public double peekKey() {
+    assert (size > 0) : "Heap is empty.";
+    // Ties always have the same key as the top element.
+    return keys[0];
+  }
+
+  /**
+   * Get the value of the top element.
+   *
+   * @return Value of the top element
+   */
+  public int peekValue() {
+    assert (size > 0) : "Heap is empty.";
+    return numties > 0 ? ties[numties - 1] : values[0];
+  }
+
+  /**
+   * Remove the top element.
+   */
+  public void poll() {
+    assert (size > 0) : "Heap is empty.";
+    if(numties > 0) {
+      --numties;
+      return;
+    }
+    if(--size > 0) {
+      heapifyDown(keys[size], values[size]);
+    }
+  }
+
+  /**
+   * Execute a "Heapify Upwards" aka "SiftUp". Used in insertions.
+   *
+   * @param pos insertion position
+   * @param curkey Current key
+   * @param curval Current value
+   */
+  private void heapifyUp(int pos, double curkey, int curval) {
+    while(pos > 0) {
+      final int parent = (pos - 1) >>> 1;
+      final double parkey = keys[parent];
+      if(curkey >= parkey) {
+        break;
+      }
+      keys[pos] = parkey;
+      values[pos] = values[parent];
+      pos = parent;
+    }
+    keys[pos] = curkey;
+    values[pos] = curval;
+  }
+
+  /**
+   * Execute a "Heapify Downwards" aka "SiftDown", replacing the top element.
+   *
+   * @param curkey Current key
+   * @param curval Current value
+   */
+  private void heapifyDown(double curkey, int curval) {
+    int pos = 0;
+    final int half = size >>> 1;
+    while(pos < half) {
+      // Get left child (must exist!)
+      int cpos = (pos << 1) + 1;
+      double chikey = keys[cpos];
+      // Get right child, if smaller
+      final int rchild = cpos + 1;
+      if(rchild < size && keys[rchild] < chikey) {
+        cpos = rchild;
+        chikey = keys[rchild];
+      }
+      if(curkey <= chikey) {
+        break;
+      }
+      keys[pos] = chikey;
+      values[pos] = values[cpos];
+      pos = cpos;
+    }
+    keys[pos] = curkey;
+    values[pos] = curval;
+  }
+
+  /**
+   * Query the size, including tied elements.
+   *
+   * @return Size
+   */
+  public int size() {
+    return size + numties;
+  }
+
+  /**
+   * Is the heap empty?
+   *
+   * @return {@code true} when the size is 0.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Delete all elements from the heap.
+   */
+  public void clear() {
+    size = 0;
+    numties = 0;
+  }
+
+  /**
+   * Get the maximum size (excluding ties).
+   *
+   * @return the maximum size
+   */
+  public int getMaxSize() {
+    return maxsize;
+  }
+}
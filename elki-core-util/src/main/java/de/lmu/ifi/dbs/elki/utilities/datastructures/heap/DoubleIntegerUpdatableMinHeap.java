@@ -0,0 +1,307 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.heap;
+
+import java.util.Arrays;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+
+/**
+ * Updatable min heap with double keys and integer values, as used for example
+ * in OPTICS.
+ * <p>
+ * This is the primitive counterpart of {@link UpdatableHeap}: every value can
+ * be contained at most once, and adding a value that is already in the heap
+ * decreases its key if the new key is smaller (decrease-key). The heap stores
+ * keys and values in primitive arrays, with a primitive hash map from values
+ * to heap positions, so no objects are allocated per insertion.
+ * <p>
+ * Ties in the keys are broken by the smaller value, so the order of elements
+ * is deterministic.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class DoubleIntegerUpdatableMinHeap {
+  /**
+   * Constant for "not in heap".
+   */
+  private static final int NO_VALUE = Integer.MIN_VALUE;
+
+  /**
+   * Default initial capacity.
+   */
+  private static final int DEFAULT_INITIAL_CAPACITY = 11;
+
+  /**
+   * Heap keys.
+   */
+  protected double[] keys;
+
+  /**
+   * Heap values.
+   */
+  protected int[] values;
+
+  /**
+   * Current size of the heap.
+   */
+  protected int size;
+
+  /**
+   * Position of each value in the heap.
+   */
+  protected final Int2IntOpenHashMap index;
+
+  /**
+   * Constructor with default size.
+   */
+  public DoubleIntegerUpdatableMinHeap() {
+    this(DEFAULT_INITIAL_CAPACITY);
+  }
+
+  /**
+   * Constructor with initial capacity.
+   *
+   * @param capacity initial capacity
+   */
+  public DoubleIntegerUpdatableMinHeap(int capacity) {
+    super();
+    capacity = capacity > 0 ? capacity : DEFAULT_INITIAL_CAPACITY;
+    this.keys = new double[capacity];
+    this.values = new int[capacity];
+    this.index = new Int2IntOpenHashMap(capacity);
+    this.index.defaultReturnValue(NO_VALUE);
+  }
+
+  /**
+   * Add a value to the heap, or decrease its key if it is already contained
+   * and the new key is smaller.
+   *
+   * @param key Key
+   * @param val Value
+   * @return {@code true} if the value was added or its key was decreased.
+   */
+  public boolean add(double key, int val) {
+    final int pos = index.get(val);
+    if(pos == NO_VALUE) {
+      if(size == keys.length) {
+        // Grow by 50%, like the generated heaps.
+        final int newsize = keys.length + (keys.length >> 1) + 1;
+        keys = Arrays.copyOf(keys, newsize);
+        values = Arrays.copyOf(values, newsize);
+      }
+      heapifyUp(size++, key, val);
+      return true;
+    }
+    assert (values[pos] == val);
+    // Did the value improve?
+    if(!(key < keys[pos])) {
+      return false;
+    }
+    heapifyUp(pos, key, val);
+    return true;
+  }
+
+  /**
+   * Get the minimum key.
+   *
+   * @return Key of the top element
+   */
+  public double peekKey() {
+    assert (size > 0) : "Heap is empty.";
+    return keys[0];
+  }
+
+  /**
+   * Get the value of the minimum element.
+   *
+   * @return Value of the top element
+   */
+  public int peekValue() {
+    assert (size > 0) : "Heap is empty.";
+    return values[0];
+  }
+
+  /**
+   * Remove the top element.
+   */
+  public void poll() {
+    removeAt(0);
+  }
+
+  /**
+   * Test whether a value is in the heap.
+   *
+   * @param val Value
+   * @return {@code true} when contained
+   */
+  public boolean containsValue(int val) {
+    return index.containsKey(val);
+  }
+
+  /**
+   * Get the current key of a value.
+   *
+   * @param val Value
+   * @return Key, or NaN if not contained.
+   */
+  public double getKey(int val) {
+    final int pos = index.get(val);
+    return pos == NO_VALUE ? Double.NaN : keys[pos];
+  }
+
+  /**
+   * Remove a value from the heap.
+   *
+   * @param val Value
+   * @return {@code true} if the value was contained
+   */
+  public boolean removeValue(int val) {
+    final int pos = index.get(val);
+    if(pos == NO_VALUE) {
+      return false;
+    }
+    removeAt(pos);
+    return true;
+  }
+
+  /**
+   * Remove the element at the given position.
+   *
+   * @param pos Position
+   */
+  private void removeAt(int pos) {
+    assert (pos >= 0 && pos < size);
+    index.remove(values[pos]);
+    final int last = --size;
+    if(pos == last) {
+      return;
+    }
+    final double rkey = keys[last];
+    final int rval = values[last];
+    if(lessThan(rkey, rval, keys[pos], values[pos])) {
+      heapifyUp(pos, rkey, rval);
+    }
+    else {
+      heapifyDown(pos, rkey, rval);
+    }
+  }
+
+  /**
+   * Execute a "Heapify Upwards" aka "SiftUp". Used in insertions.
+   *
+   * @param pos insertion position
+   * @param curkey Current key
+   * @param curval Current value
+   */
+  private void heapifyUp(int pos, double curkey, int curval) {
+    while(pos > 0) {
+      final int parent = (pos - 1) >>> 1;
+      final double parkey = keys[parent];
+      final int parval = values[parent];
+      if(!lessThan(curkey, curval, parkey, parval)) {
+        break;
+      }
+      keys[pos] = parkey;
+      values[pos] = parval;
+      index.put(parval, pos);
+      pos = parent;
+    }
+    keys[pos] = curkey;
+    values[pos] = curval;
+    index.put(curval, pos);
+  }
+
+  /**
+   * Execute a "Heapify Downwards" aka "SiftDown". Used in deletions.
+   *
+   * @param ipos re-insertion position
+   * @param curkey Current key
+   * @param curval Current value
+   */
+  private void heapifyDown(int ipos, double curkey, int curval) {
+    int pos = ipos;
+    final int half = size >>> 1;
+    while(pos < half) {
+      // Get left child (must exist!)
+      int cpos = (pos << 1) + 1;
+      double chikey = keys[cpos];
+      int chival = values[cpos];
+      // Get right child, if smaller
+      final int rchild = cpos + 1;
+      if(rchild < size && lessThan(keys[rchild], values[rchild], chikey, chival)) {
+        cpos = rchild;
+        chikey = keys[rchild];
+        chival = values[rchild];
+      }
+      if(!lessThan(chikey, chival, curkey, curval)) {
+        break;
+      }
+      keys[pos] = chikey;
+      values[pos] = chival;
+      index.put(chival, pos);
+      pos = cpos;
+    }
+    keys[pos] = curkey;
+    values[pos] = curval;
+    index.put(curval, pos);
+  }
+
+  /**
+   * Order by key, then by value.
+   *
+   * @param k1 First key
+   * @param v1 First value
+   * @param k2 Second key
+   * @param v2 Second value
+   * @return {@code true} if the first element comes first
+   */
+  private static boolean lessThan(double k1, int v1, double k2, int v2) {
+    return k1 < k2 || (k1 == k2 && v1 < v2);
+  }
+
+  /**
+   * Query the size.
+   *
+   * @return Size
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Is the heap empty?
+   *
+   * @return {@code true} when the size is 0.
+   */
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Delete all elements from the heap.
+   */
+  public void clear() {
+    size = 0;
+    index.clear();
+  }
+}
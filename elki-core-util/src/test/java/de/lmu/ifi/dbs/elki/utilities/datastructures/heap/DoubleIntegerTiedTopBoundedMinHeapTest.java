@@ -0,0 +1,102 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.heap;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.utilities.pairs.DoubleIntPair;
+
+/**
+ * Test the primitive tied bounded heap.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class DoubleIntegerTiedTopBoundedMinHeapTest {
+  @Test
+  public void testTiedTopBoundedHeap() {
+    double[] data = { 5, 3, 4, 2, 7, 1, 9, 8, 10, 6, 5 };
+    double[] asc = { 5, 5, 6, 7, 8, 9, 10 };
+    DoubleIntegerTiedTopBoundedMinHeap hasc = new DoubleIntegerTiedTopBoundedMinHeap(asc.length - 1);
+    for(int i = 0; i < data.length; i++) {
+      hasc.add(data[i], i);
+    }
+    assertEquals("Ascending heap size doesn't match", asc.length, hasc.size());
+    for(int i = 0; i < asc.length; i++) {
+      assertEquals("Objects sorted incorrectly at ascending position " + i, asc[i], hasc.peekKey(), 0.);
+      assertEquals("Values do not match keys " + i, asc[i], data[hasc.peekValue()], 0.);
+      hasc.poll();
+    }
+  }
+
+  @Test
+  public void testTiedTopBoundedHeapTrival() {
+    DoubleIntegerTiedTopBoundedMinHeap heap1 = new DoubleIntegerTiedTopBoundedMinHeap(1);
+    DoubleIntegerTiedTopBoundedMinHeap heap2 = new DoubleIntegerTiedTopBoundedMinHeap(1);
+    DoubleIntegerTiedTopBoundedMinHeap heap3 = new DoubleIntegerTiedTopBoundedMinHeap(1);
+    DoubleIntegerTiedTopBoundedMinHeap heap4 = new DoubleIntegerTiedTopBoundedMinHeap(1);
+    DoubleIntegerTiedTopBoundedMinHeap heap5 = new DoubleIntegerTiedTopBoundedMinHeap(1);
+    heap2.add(2, 0);
+    heap4.add(0, 0);
+    for(int i = 0; i < 100; i++) {
+      heap1.add(1, i);
+      heap2.add(1, i);
+      heap3.add(1, i);
+      heap4.add(1, i);
+      heap5.add(1, i);
+    }
+    heap3.add(2, 0);
+    heap5.add(0, 0);
+    assertEquals("First heap size doesn't match", 100, heap1.size());
+    assertEquals("Second heap size doesn't match", 1, heap2.size());
+    assertEquals("Third heap size doesn't match", 1, heap3.size());
+    assertEquals("Fourth heap size doesn't match", 100, heap4.size());
+    assertEquals("Fifth heap size doesn't match", 100, heap5.size());
+  }
+
+  /**
+   * Compare to the object-based tied heap, on random data with many ties.
+   */
+  @Test
+  public void testAgainstObjectHeap() {
+    final Random r = new Random(0L);
+    for(int k = 1; k < 20; k += 3) {
+      DoubleIntegerTiedTopBoundedMinHeap heap = new DoubleIntegerTiedTopBoundedMinHeap(k);
+      TiedTopBoundedHeap<DoubleIntPair> ref = new TiedTopBoundedHeap<>(k, DoubleIntPair.BYFIRST_COMPARATOR);
+      for(int i = 0; i < 1000; i++) {
+        double key = r.nextInt(50);
+        heap.add(key, i);
+        ref.add(new DoubleIntPair(key, i));
+        assertEquals("Sizes don't match.", ref.size(), heap.size());
+        assertEquals("Top keys don't match.", ref.peek().first, heap.peekKey(), 0.);
+      }
+      while(ref.size() > 0) {
+        assertEquals("Keys don't match.", ref.poll().first, heap.peekKey(), 0.);
+        heap.poll();
+      }
+      assertEquals("Sizes don't match.", 0, heap.size());
+    }
+  }
+}
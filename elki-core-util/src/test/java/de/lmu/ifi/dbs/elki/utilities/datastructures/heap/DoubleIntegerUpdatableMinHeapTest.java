@@ -0,0 +1,93 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.utilities.datastructures.heap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test the primitive updatable heap, against a naive simulation.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class DoubleIntegerUpdatableMinHeapTest {
+  @Test
+  public void testUpdatableHeap() {
+    final int iters = 100;
+    final int maxid = 5000;
+    final int bsize = 100;
+    final Random r = new Random(1);
+    Map<Integer, Double> simulate = new HashMap<>();
+    DoubleIntegerUpdatableMinHeap heap = new DoubleIntegerUpdatableMinHeap(4);
+    for(int i = 0; i < iters; i++) {
+      int batchsize = r.nextInt(bsize);
+      for(int j = 0; j < batchsize; j++) {
+        int id = r.nextInt(maxid);
+        // Few distinct keys, to produce ties.
+        double score = r.nextInt(100);
+        Double prev = simulate.get(id);
+        boolean changed = prev == null || score < prev;
+        if(changed) {
+          simulate.put(id, score);
+        }
+        assertEquals("Update result doesn't agree.", changed, heap.add(score, id));
+        assertEquals("Key doesn't agree.", simulate.get(id), heap.getKey(id), 0.);
+      }
+      assertEquals("Sizes don't match!", simulate.size(), heap.size());
+      if(r.nextBoolean() && !simulate.isEmpty()) {
+        int id = simulate.keySet().iterator().next();
+        simulate.remove(id);
+        assertTrue(heap.removeValue(id));
+        assertFalse(heap.containsValue(id));
+        assertFalse(heap.removeValue(id));
+      }
+      int remove = simulate.isEmpty() ? 0 : r.nextInt(simulate.size());
+      for(int j = 0; j < remove; j++) {
+        // Find the minimum, breaking ties by value.
+        int bestid = -1;
+        double bestscore = Double.POSITIVE_INFINITY;
+        for(Map.Entry<Integer, Double> ent : simulate.entrySet()) {
+          final double s = ent.getValue();
+          if(bestid < 0 || s < bestscore || (s == bestscore && ent.getKey() < bestid)) {
+            bestid = ent.getKey();
+            bestscore = s;
+          }
+        }
+        simulate.remove(bestid);
+        assertEquals("Priority doesn't agree.", bestscore, heap.peekKey(), 0.);
+        assertEquals("Value doesn't agree.", bestid, heap.peekValue());
+        heap.poll();
+      }
+      assertEquals("Sizes don't match!", simulate.size(), heap.size());
+    }
+    heap.clear();
+    assertTrue(heap.isEmpty());
+    assertFalse(heap.containsValue(0));
+  }
+}
@@ -22,26 +22,35 @@ package de.lmu.ifi.dbs.elki.database;
 
 import java.util.Collection;
 
+import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
 import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayStaticDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.relation.DBIDView;
+import de.lmu.ifi.dbs.elki.database.relation.MappedDoubleVectorRelation;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.datasource.DatabaseConnection;
 import de.lmu.ifi.dbs.elki.datasource.FileBasedDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MappedVectorColumn;
 import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.index.Index;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectListParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 
@@ -49,6 +58,12 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  * This database class uses array-based storage and thus does not allow for
  * dynamic insert, delete and update operations. However, array access is
  * expected to be faster and use less memory.
+ * <p>
+ * Optionally, dense double vector relations can be stored in contiguous
+ * arrays using {@link MaterializedDoubleVectorRelation}, which further reduces
+ * memory usage for large data sets. Note that such relations contain
+ * {@link de.lmu.ifi.dbs.elki.data.OffsetDoubleVector} objects, and hence do
+ * not satisfy requests for {@code DoubleVector} relations.
  *
  * @author Arthur Zimek
  * @author Erich Schubert
@@ -80,6 +95,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
    */
   protected DatabaseConnection databaseConnection;
 
+  /**
+   * Store double vectors in contiguous arrays.
+   */
+  protected boolean contiguous;
+
   /**
    * Constructor.
    *
@@ -87,8 +107,20 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @param indexFactories Indexes to add
    */
   public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<IndexFactory<?>> indexFactories) {
+    this(databaseConnection, indexFactories, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param databaseConnection Database connection to get the initial data from.
+   * @param indexFactories Indexes to add
+   * @param contiguous Store double vectors in contiguous arrays
+   */
+  public StaticArrayDatabase(DatabaseConnection databaseConnection, Collection<IndexFactory<?>> indexFactories, boolean contiguous) {
     super();
     this.databaseConnection = databaseConnection;
+    this.contiguous = contiguous;
     this.ids = null;
     this.idrep = null;
 
@@ -143,19 +175,33 @@ public class StaticArrayDatabase extends AbstractDatabase {
       int numrel = bundle.metaLength();
       for(int i = 0; i < numrel; i++) {
         SimpleTypeInformation<?> meta = bundle.meta(i);
-        @SuppressWarnings("unchecked")
-        SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) meta;
-        WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
-        for(it.seek(0); it.valid(); it.advance()) {
-          store.put(it, bundle.data(it.getOffset(), i));
+        Relation<?> relation;
+        if(bundle.getColumn(i) instanceof MappedVectorColumn && ids instanceof DBIDRange) {
+          // Keep memory-mapped data in the mapped file.
+          relation = new MappedDoubleVectorRelation((DBIDRange) ids, (MappedVectorColumn) bundle.getColumn(i), null);
+        }
+        else if(contiguous && ids instanceof DBIDRange && TypeUtil.DOUBLE_VECTOR_FIELD.isAssignableFromType(meta)) {
+          MaterializedDoubleVectorRelation vrel = new MaterializedDoubleVectorRelation((DBIDRange) ids, (VectorFieldTypeInformation<?>) meta, null);
+          for(it.seek(0); it.valid(); it.advance()) {
+            vrel.set(it, (NumberVector) bundle.data(it.getOffset(), i));
+          }
+          relation = vrel;
+        }
+        else {
+          @SuppressWarnings("unchecked")
+          SimpleTypeInformation<Object> ometa = (SimpleTypeInformation<Object>) meta;
+          WritableDataStore<Object> store = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_DB, ometa.getRestrictionClass());
+          for(it.seek(0); it.valid(); it.advance()) {
+            store.put(it, bundle.data(it.getOffset(), i));
+          }
+          relation = new MaterializedRelation<>(ometa, ids, null, store);
         }
-        Relation<?> relation = new MaterializedRelation<>(ometa, ids, null, store);
         relations.add(relation);
         getHierarchy().add(this, relation);
 
         // Try to add indexes where appropriate
         for(IndexFactory<?> factory : indexFactories) {
-          if(factory.getInputTypeRestriction().isAssignableFromType(ometa)) {
+          if(factory.getInputTypeRestriction().isAssignableFromType(relation.getDataTypeInformation())) {
             @SuppressWarnings("unchecked")
             final IndexFactory<Object> ofact = (IndexFactory<Object>) factory;
             @SuppressWarnings("unchecked")
@@ -189,6 +235,12 @@ public class StaticArrayDatabase extends AbstractDatabase {
    * @apiviz.exclude
    */
   public static class Parameterizer extends AbstractDatabase.Parameterizer {
+    /**
+     * Flag to store dense double vectors in contiguous arrays.
+     */
+    public static final OptionID CONTIGUOUS_ID = new OptionID("db.contiguous", "Store dense double vector relations in contiguous arrays, to reduce memory usage. " //
+        + "The resulting relations contain vector views, not DoubleVector objects.");
+
     /**
      * Holds the database connection to get the initial data from.
      */
@@ -199,6 +251,11 @@ public class StaticArrayDatabase extends AbstractDatabase {
      */
     private Collection<IndexFactory<?>> indexFactories;
 
+    /**
+     * Store double vectors in contiguous arrays.
+     */
+    protected boolean contiguous = false;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -212,11 +269,15 @@ public class StaticArrayDatabase extends AbstractDatabase {
       if(config.grab(indexFactoryP)) {
         indexFactories = indexFactoryP.instantiateClasses(config);
       }
+      Flag contiguousF = new Flag(CONTIGUOUS_ID);
+      if(config.grab(contiguousF)) {
+        contiguous = contiguousF.isTrue();
+      }
     }
 
     @Override
     protected StaticArrayDatabase makeInstance() {
-      return new StaticArrayDatabase(databaseConnection, indexFactories);
+      return new StaticArrayDatabase(databaseConnection, indexFactories, contiguous);
     }
   }
 }
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -42,6 +43,16 @@ import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
  * @apiviz.has DistanceQuery
  */
 public class LinearScanDistanceKNNQuery<O> extends AbstractDistanceKNNQuery<O> implements LinearScanQuery {
+  /**
+   * Number of query objects to process at once in batch queries.
+   */
+  private static final int QUERY_BLOCK = 64;
+
+  /**
+   * Number of data objects to process at once in batch queries.
+   */
+  private static final int DATA_BLOCK = 256;
+
   /**
    * Constructor.
    * 
@@ -98,17 +109,31 @@ public class LinearScanDistanceKNNQuery<O> extends AbstractDistanceKNNQuery<O> i
   /**
    * Linear batch knn for arbitrary distance functions.
    * 
+   * Queries are processed in tiles, and the data is scanned in blocks, to
+   * improve cache locality.
+   * 
    * @param ids DBIDs to process
    * @param heaps Heaps to store the results in
    */
   private void linearScanBatchKNN(ArrayDBIDs ids, List<KNNHeap> heaps) {
     final DistanceQuery<O> dq = distanceQuery;
-    // The distance is computed on database IDs
-    for(DBIDIter iter = getRelation().getDBIDs().iter(); iter.valid(); iter.advance()) {
-      int index = 0;
-      for(DBIDIter iter2 = ids.iter(); iter2.valid(); iter2.advance(), index++) {
-        KNNHeap heap = heaps.get(index);
-        heap.insert(dq.distance(iter2, iter), iter);
+    final ArrayDBIDs data = DBIDUtil.ensureArray(getRelation().getDBIDs());
+    final DBIDArrayIter iter = data.iter(), qiter = ids.iter();
+    final int size = ids.size(), dsize = data.size();
+    for(int qstart = 0; qstart < size; qstart += QUERY_BLOCK) {
+      final int qend = Math.min(qstart + QUERY_BLOCK, size);
+      for(int dstart = 0; dstart < dsize; dstart += DATA_BLOCK) {
+        final int dend = Math.min(dstart + DATA_BLOCK, dsize);
+        for(qiter.seek(qstart); qiter.getOffset() < qend; qiter.advance()) {
+          final KNNHeap heap = heaps.get(qiter.getOffset());
+          double max = heap.getKNNDistance();
+          for(iter.seek(dstart); iter.getOffset() < dend; iter.advance()) {
+            final double dist = dq.distance(qiter, iter);
+            if(dist <= max) {
+              max = heap.insert(dist, iter);
+            }
+          }
+        }
       }
     }
   }
@@ -25,6 +25,7 @@ import java.util.List;
 
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -32,6 +33,7 @@ import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
 import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.MaterializedDoubleVectorRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
@@ -82,6 +84,9 @@ public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends
    * @return Heap
    */
   private KNNHeap linearScan(Relation<? extends O> relation, DBIDIter iter, final O obj, KNNHeap heap) {
+    if(relation instanceof MaterializedDoubleVectorRelation && obj.getDimensionality() == ((MaterializedDoubleVectorRelation) relation).getDimensionality()) {
+      return linearScan((MaterializedDoubleVectorRelation) relation, obj.toArray(), heap);
+    }
     final SquaredEuclideanDistanceFunction squared = SquaredEuclideanDistanceFunction.STATIC;
     double max = Double.POSITIVE_INFINITY;
     while(iter.valid()) {
@@ -94,6 +99,33 @@ public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends
     return heap;
   }
 
+  /**
+   * Main loop of the linear scan, operating directly on contiguous storage.
+   *
+   * @param relation Data relation
+   * @param obj Query object
+   * @param heap Output heap
+   * @return Heap
+   */
+  private static KNNHeap linearScan(MaterializedDoubleVectorRelation relation, final double[] obj, KNNHeap heap) {
+    final int dim = obj.length;
+    double max = Double.POSITIVE_INFINITY;
+    for(DBIDArrayIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      final int row = iter.getOffset();
+      final double[] data = relation.getArray(row);
+      final int off = relation.getArrayOffset(row);
+      double dist = 0.;
+      for(int d = 0; d < dim; d++) {
+        final double v = obj[d] - data[off + d];
+        dist += v * v;
+      }
+      if(dist <= max) {
+        max = heap.insert(dist, iter);
+      }
+    }
+    return heap;
+  }
+
   @Override
   public List<KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
     final Relation<? extends O> relation = getRelation();
@@ -114,26 +146,13 @@ public class LinearScanEuclideanDistanceKNNQuery<O extends NumberVector> extends
   }
 
   /**
-   * Perform a linear scan batch kNN for primitive distance functions.
+   * Perform a linear scan batch kNN, using squared Euclidean distance.
    *
    * @param objs Objects list
    * @param heaps Heaps array
    */
   @Override
   protected void linearScanBatchKNN(List<O> objs, List<KNNHeap> heaps) {
-    final SquaredEuclideanDistanceFunction squared = SquaredEuclideanDistanceFunction.STATIC;
-    final Relation<? extends O> relation = getRelation();
-    final int size = objs.size();
-    // Linear scan style KNN.
-    for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-      O candidate = relation.get(iter);
-      for(int index = 0; index < size; index++) {
-        final KNNHeap heap = heaps.get(index);
-        final double dist = squared.distance(objs.get(index), candidate);
-        if(dist <= heap.getKNNDistance()) {
-          heap.insert(dist, iter);
-        }
-      }
-    }
+    linearScanBatchKNN(SquaredEuclideanDistanceFunction.STATIC, objs, heaps);
   }
-}
\ No newline at end of file
+}
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -52,6 +53,16 @@ public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQ
    */
   private PrimitiveDistanceFunction<? super O> rawdist;
 
+  /**
+   * Number of query objects to process at once in batch queries.
+   */
+  protected static final int QUERY_BLOCK = 64;
+
+  /**
+   * Number of data objects to process at once in batch queries.
+   */
+  protected static final int DATA_BLOCK = 256;
+
   /**
    * Constructor.
    * 
@@ -122,19 +133,46 @@ public class LinearScanPrimitiveDistanceKNNQuery<O> extends AbstractDistanceKNNQ
    * @param heaps Heaps array
    */
   protected void linearScanBatchKNN(List<O> objs, List<KNNHeap> heaps) {
-    final PrimitiveDistanceFunction<? super O> rawdist = this.rawdist;
+    linearScanBatchKNN(rawdist, objs, heaps);
+  }
+
+  /**
+   * Perform a cache-blocked linear scan batch kNN.
+   * 
+   * Query objects are processed in tiles of {@link #QUERY_BLOCK} objects, the
+   * data is scanned in blocks of {@link #DATA_BLOCK} objects, such that a block
+   * of the data is used for all queries of a tile while still in cache.
+   * 
+   * @param rawdist Distance function
+   * @param objs Objects list
+   * @param heaps Heaps array
+   */
+  @SuppressWarnings("unchecked")
+  protected void linearScanBatchKNN(PrimitiveDistanceFunction<? super O> rawdist, List<O> objs, List<KNNHeap> heaps) {
     final Relation<? extends O> relation = getRelation();
-    final int size = objs.size();
-    // Linear scan style KNN.
-    for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-      O candidate = relation.get(iter);
-      for(int index = 0; index < size; index++) {
-        final KNNHeap heap = heaps.get(index);
-        final double dist = rawdist.distance(objs.get(index), candidate);
-        if(dist <= heap.getKNNDistance()) {
-          heap.insert(dist, iter);
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    final DBIDArrayIter iter = ids.iter();
+    final int size = objs.size(), dsize = ids.size();
+    final Object[] block = new Object[Math.min(DATA_BLOCK, dsize)];
+    for(int qstart = 0; qstart < size; qstart += QUERY_BLOCK) {
+      final int qend = Math.min(qstart + QUERY_BLOCK, size);
+      for(int dstart = 0; dstart < dsize; dstart += DATA_BLOCK) {
+        final int dend = Math.min(dstart + DATA_BLOCK, dsize);
+        for(iter.seek(dstart); iter.getOffset() < dend; iter.advance()) {
+          block[iter.getOffset() - dstart] = relation.get(iter);
+        }
+        for(int index = qstart; index < qend; index++) {
+          final O obj = objs.get(index);
+          final KNNHeap heap = heaps.get(index);
+          double max = heap.getKNNDistance();
+          for(int j = dstart; j < dend; j++) {
+            final double dist = rawdist.distance(obj, (O) block[j - dstart]);
+            if(dist <= max) {
+              max = heap.insert(dist, iter.seek(j));
+            }
+          }
         }
       }
     }
   }
-}
\ No newline at end of file
+}
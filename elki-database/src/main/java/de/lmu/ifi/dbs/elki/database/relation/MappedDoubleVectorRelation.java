@@ -0,0 +1,121 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.relation;
+
+import de.lmu.ifi.dbs.elki.data.MappedDoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MappedVectorColumn;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+
+/**
+ * Relation of dense double vectors that remain in a memory-mapped bundle file.
+ * <p>
+ * The relation directly uses the {@link MappedVectorColumn} of the bundle,
+ * without copying the data into the Java heap; {@link #get} returns
+ * lightweight {@link MappedDoubleVector} views into the mapped file.
+ * <p>
+ * This relation is static: it is defined on a {@link DBIDRange}, and does not
+ * support insertions or deletions.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.composedOf MappedVectorColumn
+ */
+public class MappedDoubleVectorRelation extends AbstractRelation<MappedDoubleVector> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(MappedDoubleVectorRelation.class);
+
+  /**
+   * The DBIDs this is defined for.
+   */
+  private final DBIDRange ids;
+
+  /**
+   * Mapped data column.
+   */
+  private final MappedVectorColumn column;
+
+  /**
+   * The relation name.
+   */
+  private String name;
+
+  /**
+   * Constructor.
+   *
+   * @param ids IDs
+   * @param column Mapped data column
+   * @param name Relation name, may be {@code null}
+   */
+  public MappedDoubleVectorRelation(DBIDRange ids, MappedVectorColumn column, String name) {
+    super();
+    assert (ids.size() == column.size()) : "Size mismatch.";
+    this.ids = ids;
+    this.column = column;
+    this.name = name;
+  }
+
+  @Override
+  public MappedDoubleVector get(DBIDRef id) {
+    return column.get(ids.getOffset(id));
+  }
+
+  @Override
+  public DBIDRange getDBIDs() {
+    return ids;
+  }
+
+  @Override
+  public DBIDArrayIter iterDBIDs() {
+    return ids.iter();
+  }
+
+  @Override
+  public int size() {
+    return ids.size();
+  }
+
+  @Override
+  public VectorFieldTypeInformation<MappedDoubleVector> getDataTypeInformation() {
+    return column.getDataTypeInformation();
+  }
+
+  @Override
+  public String getLongName() {
+    return (name != null) ? name : getDataTypeInformation().toString();
+  }
+
+  @Override
+  public String getShortName() {
+    return "relation";
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.relation;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.OffsetDoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+
+/**
+ * Relation storing dense double vectors in contiguous, row-major arrays.
+ * <p>
+ * Instead of one object with its own array per vector, all values are stored
+ * in a few large {@code double[]} chunks, and {@link #get} returns lightweight
+ * {@link OffsetDoubleVector} views into these arrays. This avoids the object
+ * and array headers, pointer chasing and garbage collection cost of millions of
+ * small objects, and allows linear scans to iterate over the arrays directly,
+ * using {@link #getArray} and {@link #getArrayOffset}. The views are not
+ * stored, but allocated by {@link #get}; as they are usually short-lived, the
+ * JIT can often eliminate these allocations.
+ * <p>
+ * This relation is static: it is defined on a {@link DBIDRange}, and does not
+ * support insertions or deletions.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has OffsetDoubleVector
+ */
+public class MaterializedDoubleVectorRelation extends AbstractRelation<OffsetDoubleVector> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(MaterializedDoubleVectorRelation.class);
+
+  /**
+   * Maximum number of values per chunk.
+   */
+  private static final int CHUNK_SIZE = 1 << 24;
+
+  /**
+   * Data type.
+   */
+  private final VectorFieldTypeInformation<OffsetDoubleVector> type;
+
+  /**
+   * The DBIDs this is defined for.
+   */
+  private final DBIDRange ids;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Number of rows per chunk.
+   */
+  private final int rowsPerChunk;
+
+  /**
+   * Data chunks.
+   */
+  private final double[][] chunks;
+
+  /**
+   * The relation name.
+   */
+  private String name;
+
+  /**
+   * Constructor.
+   *
+   * @param ids IDs
+   * @param dim Dimensionality
+   * @param labels Column labels, may be {@code null}
+   * @param name Relation name, may be {@code null}
+   */
+  public MaterializedDoubleVectorRelation(DBIDRange ids, int dim, String[] labels, String name) {
+    super();
+    this.ids = ids;
+    this.dim = dim;
+    this.name = name;
+    this.type = new VectorFieldTypeInformation<>(OffsetDoubleVector.FACTORY, dim, labels);
+    this.rowsPerChunk = Math.max(1, CHUNK_SIZE / Math.max(1, dim));
+    final int size = ids.size();
+    this.chunks = new double[(size + rowsPerChunk - 1) / rowsPerChunk][];
+    for(int i = 0, start = 0; i < chunks.length; i++, start += rowsPerChunk) {
+      chunks[i] = new double[Math.min(rowsPerChunk, size - start) * dim];
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param ids IDs
+   * @param type Vector type to copy dimensionality and labels from
+   * @param name Relation name, may be {@code null}
+   */
+  public MaterializedDoubleVectorRelation(DBIDRange ids, VectorFieldTypeInformation<?> type, String name) {
+    this(ids, type.getDimensionality(), type.getLabels(), name);
+  }
+
+  /**
+   * Set the values of an object.
+   *
+   * @param id Object ID
+   * @param vec Vector values
+   */
+  public void set(DBIDRef id, NumberVector vec) {
+    assert (vec.getDimensionality() == dim) : "Dimensionality mismatch.";
+    final int row = ids.getOffset(id);
+    final double[] data = chunks[row / rowsPerChunk];
+    final int off = (row % rowsPerChunk) * dim;
+    for(int d = 0; d < dim; d++) {
+      data[off + d] = vec.doubleValue(d);
+    }
+  }
+
+  @Override
+  public OffsetDoubleVector get(DBIDRef id) {
+    final int row = ids.getOffset(id);
+    return new OffsetDoubleVector(chunks[row / rowsPerChunk], (row % rowsPerChunk) * dim, dim);
+  }
+
+  /**
+   * Get the array containing a row, for direct (read-only!) access.
+   *
+   * @param row Row number, i.e., the offset in the DBID range
+   * @return Data array
+   */
+  public double[] getArray(int row) {
+    return chunks[row / rowsPerChunk];
+  }
+
+  /**
+   * Get the offset of a row within its array.
+   *
+   * @param row Row number, i.e., the offset in the DBID range
+   * @return Offset of the first value
+   */
+  public int getArrayOffset(int row) {
+    return (row % rowsPerChunk) * dim;
+  }
+
+  /**
+   * Get the dimensionality of the vectors.
+   *
+   * @return Dimensionality
+   */
+  public int getDimensionality() {
+    return dim;
+  }
+
+  @Override
+  public DBIDRange getDBIDs() {
+    return ids;
+  }
+
+  @Override
+  public DBIDArrayIter iterDBIDs() {
+    return ids.iter();
+  }
+
+  @Override
+  public int size() {
+    return ids.size();
+  }
+
+  @Override
+  public VectorFieldTypeInformation<OffsetDoubleVector> getDataTypeInformation() {
+    return type;
+  }
+
+  @Override
+  public String getLongName() {
+    return (name != null) ? name : type.toString();
+  }
+
+  @Override
+  public String getShortName() {
+    return "relation";
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+}
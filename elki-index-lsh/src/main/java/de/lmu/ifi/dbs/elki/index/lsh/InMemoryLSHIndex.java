@@ -21,8 +21,12 @@
 package de.lmu.ifi.dbs.elki.index.lsh;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
@@ -42,19 +46,41 @@ import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
 import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.LocalitySensitiveHashFunctionFamily;
 import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.LocalitySensitiveHashFunction;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.MultiProbeLocalitySensitiveHashFunction;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.MathUtil;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 
 /**
  * Locality Sensitive Hashing.
+ * <p>
+ * With multi-probe querying, each table is not only probed at the bucket of the
+ * query object, but also at the buckets obtained by perturbing the labels of
+ * the projections that are closest to a bucket boundary. The perturbations are
+ * generated in the order of increasing score (query-directed probing). This
+ * achieves a similar recall with much fewer hash tables, and needs hash
+ * functions implementing {@link MultiProbeLocalitySensitiveHashFunction}.
+ * <p>
+ * Each hash table is stored in a compressed sparse row layout: the objects
+ * sorted by bucket, the sorted bucket numbers, and the offsets of the buckets.
+ * This avoids the overhead of boxed buckets in hash maps.
+ * <p>
+ * Reference:
+ * <p>
+ * Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li<br>
+ * Multi-probe LSH: efficient indexing for high-dimensional similarity
+ * search<br>
+ * Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB 2007)
  *
  * @author Erich Schubert
  * @since 0.6.0
@@ -64,6 +90,11 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
  *
  * @param <V> Object type to index
  */
+@Reference(authors = "Q. Lv, W. Josephson, Z. Wang, M. Charikar, K. Li", //
+    title = "Multi-probe LSH: efficient indexing for high-dimensional similarity search", //
+    booktitle = "Proc. 33rd Int. Conf. on Very Large Data Bases (VLDB 2007)", //
+    url = "http://www.vldb.org/conf/2007/papers/research/p950-lv.pdf", //
+    bibkey = "DBLP:conf/vldb/LvJWCL07")
 public class InMemoryLSHIndex<V> implements IndexFactory<V> {
   /**
    * Class logger
@@ -85,6 +116,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    */
   int numberOfBuckets;
 
+  /**
+   * Number of additional buckets to probe in each table.
+   */
+  int probes;
+
   /**
    * Constructor.
    *
@@ -93,15 +129,28 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
    * @param numberOfBuckets Number of buckets to use.
    */
   public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets) {
+    this(family, l, numberOfBuckets, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param family Projection family
+   * @param l Number of hash tables to use
+   * @param numberOfBuckets Number of buckets to use.
+   * @param probes Number of additional buckets to probe in each table.
+   */
+  public InMemoryLSHIndex(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int numberOfBuckets, int probes) {
     super();
     this.family = family;
     this.l = l;
     this.numberOfBuckets = numberOfBuckets;
+    this.probes = probes;
   }
 
   @Override
   public Instance instantiate(Relation<V> relation) {
-    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets);
+    return new Instance(relation, family.generateHashFunctions(relation, l), numberOfBuckets, probes);
   }
 
   @Override
@@ -123,25 +172,47 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions;
 
     /**
-     * The actual table
+     * The actual tables
      */
-    ArrayList<Int2ObjectOpenHashMap<DBIDs>> hashtables;
+    ArrayList<BucketTable> hashtables;
 
     /**
      * Number of buckets to use.
      */
     private int numberOfBuckets;
 
+    /**
+     * Number of additional buckets to probe in each table.
+     */
+    private int probes;
+
     /**
      * Constructor.
      *
      * @param relation Relation to index.
      * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets to use.
      */
     public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets) {
+      this(relation, hashfunctions, numberOfBuckets, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation to index.
+     * @param hashfunctions Hash functions.
+     * @param numberOfBuckets Number of buckets to use.
+     * @param probes Number of additional buckets to probe in each table.
+     */
+    public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int numberOfBuckets, int probes) {
       super(relation);
       this.hashfunctions = hashfunctions;
       this.numberOfBuckets = numberOfBuckets;
+      this.probes = probes;
+      if(probes > 0 && !(hashfunctions.get(0) instanceof MultiProbeLocalitySensitiveHashFunction)) {
+        LOG.warning("Hash functions do not support multi-probe querying, only the exact buckets will be probed.");
+      }
     }
 
     @Override
@@ -158,46 +229,31 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     public void initialize() {
       final int numhash = hashfunctions.size();
       hashtables = new ArrayList<>(numhash);
-      for(int i = 0; i < numhash; i++) {
-        hashtables.add(new Int2ObjectOpenHashMap<DBIDs>(numberOfBuckets));
-      }
 
       // TODO: We assume all hash functions have the same dimensionality.
       double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
-      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH index", relation.size(), LOG) : null;
-      int expect = Math.max(2, (int) Math.ceil(relation.size() / (double) numberOfBuckets));
-      for(DBIDIter iter = relation.getDBIDs().iter(); iter.valid(); iter.advance()) {
-        V obj = relation.get(iter);
-        for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-          final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
+      ArrayDBIDs ids = DBIDUtil.ensureArray(relation.getDBIDs());
+      // Bucket in the high, offset in the low 32 bits; sorting groups buckets.
+      long[] pairs = new long[ids.size()];
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH index", numhash, LOG) : null;
+      for(int i = 0; i < numhash; i++) {
+        final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
+        for(DBIDArrayIter iter = ids.iter(); iter.valid(); iter.advance()) {
           // Get the initial (unbounded) hash code:
-          int hash = hashfunc.hashObject(obj, buf);
+          int hash = hashfunc.hashObject(relation.get(iter), buf);
           // Reduce to hash table size
           int bucket = hash % numberOfBuckets;
-          DBIDs cur = table.get(bucket);
-          if(cur == null) {
-            table.put(bucket, DBIDUtil.deref(iter));
-          }
-          else if(cur.size() > 1) {
-            ((ModifiableDBIDs) cur).add(iter);
-          }
-          else {
-            ModifiableDBIDs newbuck = DBIDUtil.newArray(expect);
-            newbuck.addDBIDs(cur);
-            newbuck.add(iter);
-            table.put(bucket, newbuck);
-          }
+          pairs[iter.getOffset()] = (((long) bucket) << 32) | iter.getOffset();
         }
+        hashtables.add(new BucketTable(pairs, ids));
         LOG.incrementProcessed(progress);
       }
       LOG.ensureCompleted(progress);
       if(LOG.isStatistics()) {
         int min = Integer.MAX_VALUE, max = 0;
-        for(int i = 0; i < numhash; i++) {
-          final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
-          for(DBIDs set : table.values()) {
-            final int size = set.size();
+        for(BucketTable table : hashtables) {
+          for(int j = 0; j < table.keys.length; j++) {
+            final int size = table.offsets[j + 1] - table.offsets[j];
             min = size < min ? size : min;
             max = size > max ? size : max;
           }
@@ -251,22 +307,130 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
       ModifiableDBIDs candidates = null;
       final int numhash = hashtables.size();
       double[] buf = new double[hashfunctions.get(0).getNumberOfProjections()];
+      int[] labels = probes > 0 ? new int[buf.length] : null;
+      double[] bounds = probes > 0 ? new double[buf.length << 1] : null;
       for(int i = 0; i < numhash; i++) {
-        final Int2ObjectOpenHashMap<DBIDs> table = hashtables.get(i);
+        final BucketTable table = hashtables.get(i);
         final LocalitySensitiveHashFunction<? super V> hashfunc = hashfunctions.get(i);
+        if(probes > 0 && hashfunc instanceof MultiProbeLocalitySensitiveHashFunction) {
+          candidates = multiProbe(table, (MultiProbeLocalitySensitiveHashFunction<? super V>) hashfunc, obj, buf, labels, bounds, candidates);
+          continue;
+        }
         // Get the initial (unbounded) hash code:
         int hash = hashfunc.hashObject(obj, buf);
-        // Reduce to hash table size
-        int bucket = hash % numberOfBuckets;
-        DBIDs cur = table.get(bucket);
-        if(cur != null) {
-          if(candidates == null) {
-            candidates = DBIDUtil.newHashSet(cur.size() * numhash);
+        candidates = addBucket(table, hash, candidates);
+      }
+      return (candidates == null) ? DBIDUtil.EMPTYDBIDS : candidates;
+    }
+
+    /**
+     * Add the contents of a bucket to the candidates.
+     *
+     * @param table Hash table
+     * @param hash Hash code
+     * @param candidates Candidates, may be {@code null}
+     * @return Candidates, may be {@code null}
+     */
+    private ModifiableDBIDs addBucket(BucketTable table, int hash, ModifiableDBIDs candidates) {
+      // Reduce to hash table size
+      int bucket = hash % numberOfBuckets;
+      DBIDs cur = table.get(bucket);
+      if(cur != null) {
+        if(candidates == null) {
+          candidates = DBIDUtil.newHashSet(cur.size() * hashtables.size());
+        }
+        candidates.addDBIDs(cur);
+      }
+      return candidates;
+    }
+
+    /**
+     * Probe the bucket of the query object, and the nearby buckets of a single
+     * hash table.
+     * <p>
+     * Perturbation sets are represented as increasing positions in the
+     * perturbations sorted by score, and are generated using the "shift" and
+     * "expand" operations of Lv et al.
+     *
+     * @param table Hash table
+     * @param hashfunc Hash function
+     * @param obj Query object
+     * @param buf Projection buffer
+     * @param labels Label buffer
+     * @param bounds Boundary distance buffer
+     * @param candidates Candidates, may be {@code null}
+     * @return Candidates, may be {@code null}
+     */
+    private ModifiableDBIDs multiProbe(BucketTable table, MultiProbeLocalitySensitiveHashFunction<? super V> hashfunc, V obj, double[] buf, int[] labels, double[] bounds, ModifiableDBIDs candidates) {
+      hashfunc.labelObject(obj, buf, labels, bounds);
+      candidates = addBucket(table, hashfunc.hashLabels(labels), candidates);
+      // Sort the perturbations by their score, the squared boundary distance:
+      final int n = bounds.length;
+      for(int i = 0; i < n; i++) {
+        bounds[i] *= bounds[i];
+      }
+      int[] order = MathUtil.sequence(0, n);
+      DoubleIntegerArrayQuickSort.sort(bounds, order, n);
+      DoubleObjectMinHeap<int[]> heap = new DoubleObjectMinHeap<>();
+      heap.add(bounds[0], new int[] { 0 });
+      for(int found = 0; found < probes && !heap.isEmpty();) {
+        final double score = heap.peekKey();
+        if(score == Double.POSITIVE_INFINITY) {
+          break; // Only impossible perturbations remain.
+        }
+        final int[] set = heap.peekValue();
+        heap.poll();
+        final int last = set[set.length - 1];
+        if(last + 1 < n) {
+          int[] shifted = set.clone();
+          shifted[set.length - 1] = last + 1;
+          heap.add(score - bounds[last] + bounds[last + 1], shifted);
+          int[] expanded = Arrays.copyOf(set, set.length + 1);
+          expanded[set.length] = last + 1;
+          heap.add(score + bounds[last + 1], expanded);
+        }
+        if(isValidPerturbation(order, set)) {
+          perturb(labels, order, set, 1);
+          candidates = addBucket(table, hashfunc.hashLabels(labels), candidates);
+          perturb(labels, order, set, -1);
+          ++found;
+        }
+      }
+      return candidates;
+    }
+
+    /**
+     * Check that a perturbation set changes every label at most once.
+     *
+     * @param order Perturbations, sorted by score
+     * @param set Perturbation set
+     * @return {@code true} if valid
+     */
+    private boolean isValidPerturbation(int[] order, int[] set) {
+      for(int i = 1; i < set.length; i++) {
+        final int li = order[set[i]] >>> 1;
+        for(int j = 0; j < i; j++) {
+          if(li == order[set[j]] >>> 1) {
+            return false;
           }
-          candidates.addDBIDs(cur);
         }
       }
-      return (candidates == null) ? DBIDUtil.EMPTYDBIDS : candidates;
+      return true;
+    }
+
+    /**
+     * Apply (or revert) a perturbation set to the labels.
+     *
+     * @param labels Labels to modify
+     * @param order Perturbations, sorted by score
+     * @param set Perturbation set
+     * @param sign {@code 1} to apply, {@code -1} to revert
+     */
+    private void perturb(int[] labels, int[] order, int[] set, int sign) {
+      for(int i : set) {
+        final int p = order[i];
+        labels[p >>> 1] += (p & 1) == 0 ? -sign : sign;
+      }
     }
 
     /**
@@ -332,6 +496,71 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
     }
   }
 
+  /**
+   * Hash table in compressed sparse row layout.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  static class BucketTable {
+    /**
+     * Bucket numbers, sorted.
+     */
+    int[] keys;
+
+    /**
+     * Start offsets of the buckets, with an additional end offset.
+     */
+    int[] offsets;
+
+    /**
+     * Objects, sorted by bucket.
+     */
+    ArrayModifiableDBIDs ids;
+
+    /**
+     * Constructor.
+     *
+     * @param pairs Bucket (high 32 bits) and offset (low 32 bits) of each
+     *        object, will be sorted.
+     * @param all Objects
+     */
+    BucketTable(long[] pairs, ArrayDBIDs all) {
+      Arrays.sort(pairs);
+      int nkeys = 0;
+      for(int j = 0; j < pairs.length; j++) {
+        if(j == 0 || (pairs[j] >> 32) != (pairs[j - 1] >> 32)) {
+          ++nkeys;
+        }
+      }
+      keys = new int[nkeys];
+      offsets = new int[nkeys + 1];
+      ids = DBIDUtil.newArray(pairs.length);
+      DBIDArrayIter it = all.iter();
+      for(int j = 0, k = -1; j < pairs.length; j++) {
+        final int key = (int) (pairs[j] >> 32);
+        if(k < 0 || keys[k] != key) {
+          keys[++k] = key;
+          offsets[k] = j;
+        }
+        ids.add(it.seek((int) pairs[j]));
+      }
+      offsets[nkeys] = pairs.length;
+    }
+
+    /**
+     * Get the contents of a bucket.
+     *
+     * @param bucket Bucket number
+     * @return Bucket contents, {@code null} if empty.
+     */
+    DBIDs get(int bucket) {
+      final int k = Arrays.binarySearch(keys, bucket);
+      return k < 0 ? null : ids.slice(offsets[k], offsets[k + 1]);
+    }
+  }
+
   /**
    * Parameterization class.
    *
@@ -355,6 +584,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     public static final OptionID BUCKETS_ID = new OptionID("lsh.buckets", "Number of hash buckets to use.");
 
+    /**
+     * Number of additional buckets to probe in each table.
+     */
+    public static final OptionID PROBES_ID = new OptionID("lsh.probes", "Number of additional buckets to probe in each hash table (multi-probe LSH).");
+
     /**
      * LSH hash function family to use.
      */
@@ -370,6 +604,11 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
      */
     int numberOfBuckets;
 
+    /**
+     * Number of additional buckets to probe.
+     */
+    int probes;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -390,11 +629,17 @@ public class InMemoryLSHIndex<V> implements IndexFactory<V> {
       if(config.grab(bucketsP)) {
         numberOfBuckets = bucketsP.intValue();
       }
+
+      IntParameter probesP = new IntParameter(PROBES_ID, 0) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ZERO_INT);
+      if(config.grab(probesP)) {
+        probes = probesP.intValue();
+      }
     }
 
     @Override
     protected InMemoryLSHIndex<V> makeInstance() {
-      return new InMemoryLSHIndex<>(family, l, numberOfBuckets);
+      return new InMemoryLSHIndex<>(family, l, numberOfBuckets, probes);
     }
   }
 }
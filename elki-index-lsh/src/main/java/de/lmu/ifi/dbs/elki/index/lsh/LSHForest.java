@@ -0,0 +1,590 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.lsh;
+
+import java.util.ArrayList;
+
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.HashSetModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.LocalitySensitiveHashFunctionFamily;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.LocalitySensitiveHashFunction;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfunctions.MultiProbeLocalitySensitiveHashFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.math.MathUtil;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.IntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+
+/**
+ * LSH forest: locality sensitive hashing with prefix trees.
+ * <p>
+ * Instead of hashing the concatenated labels of a fixed number of projections,
+ * each tree sorts the objects by the sequence of their labels, which is
+ * equivalent to a prefix tree. A query descends into each tree as deep as its
+ * labels match, and then ascends all trees synchronously, collecting the
+ * objects of decreasing common prefix length until sufficiently many
+ * candidates were found. The effective number of projections is thus chosen
+ * for each query ("self-tuning"), and fewer trees are needed than hash tables
+ * in {@link InMemoryLSHIndex}.
+ * <p>
+ * The trees are stored as sorted arrays, along with the labels and the common
+ * prefix lengths of adjacent objects.
+ * <p>
+ * Reference:
+ * <p>
+ * M. Bawa, T. Condie, P. Ganesan<br>
+ * LSH forest: self-tuning indexes for similarity search<br>
+ * Proc. 14th Int. Conf. World Wide Web (WWW 2005)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has LocalitySensitiveHashFunctionFamily
+ * @apiviz.has Instance
+ *
+ * @param <V> Object type to index
+ */
+@Reference(authors = "M. Bawa, T. Condie, P. Ganesan", //
+    title = "LSH forest: self-tuning indexes for similarity search", //
+    booktitle = "Proc. 14th Int. Conf. World Wide Web (WWW 2005)", //
+    url = "https://doi.org/10.1145/1060745.1060840", //
+    bibkey = "DBLP:conf/www/BawaCG05")
+public class LSHForest<V> implements IndexFactory<V> {
+  /**
+   * Class logger
+   */
+  private static final Logging LOG = Logging.getLogger(LSHForest.class);
+
+  /**
+   * LSH hash function family to use.
+   */
+  LocalitySensitiveHashFunctionFamily<? super V> family;
+
+  /**
+   * Number of trees to use.
+   */
+  int l;
+
+  /**
+   * Candidate multiplier.
+   */
+  int c;
+
+  /**
+   * Constructor.
+   *
+   * @param family Projection family
+   * @param l Number of trees to use
+   * @param c Candidate multiplier
+   */
+  public LSHForest(LocalitySensitiveHashFunctionFamily<? super V> family, int l, int c) {
+    super();
+    this.family = family;
+    this.l = l;
+    this.c = c;
+  }
+
+  @Override
+  public Instance instantiate(Relation<V> relation) {
+    return new Instance(relation, family.generateHashFunctions(relation, l), c);
+  }
+
+  @Override
+  public TypeInformation getInputTypeRestriction() {
+    return family.getInputTypeRestriction();
+  }
+
+  /**
+   * Compare two label sequences lexicographically.
+   *
+   * @param a First labels
+   * @param aoff Offset in the first array
+   * @param b Second labels
+   * @param boff Offset in the second array
+   * @param depth Sequence length
+   * @return Comparison result
+   */
+  static int compareLabels(int[] a, int aoff, int[] b, int boff, int depth) {
+    for(int i = 0; i < depth; i++) {
+      final int x = a[aoff + i], y = b[boff + i];
+      if(x != y) {
+        return x < y ? -1 : +1;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Length of the common prefix of two label sequences.
+   *
+   * @param a First labels
+   * @param aoff Offset in the first array
+   * @param b Second labels
+   * @param boff Offset in the second array
+   * @param depth Sequence length
+   * @return Common prefix length
+   */
+  static int prefixLength(int[] a, int aoff, int[] b, int boff, int depth) {
+    int i = 0;
+    while(i < depth && a[aoff + i] == b[boff + i]) {
+      ++i;
+    }
+    return i;
+  }
+
+  /**
+   * Instance of a LSH forest for a single relation.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.has MultiProbeLocalitySensitiveHashFunction
+   */
+  public class Instance extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+    /**
+     * Hash functions to use, one for each tree.
+     */
+    ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions;
+
+    /**
+     * The prefix trees.
+     */
+    ArrayList<PrefixTree> trees;
+
+    /**
+     * Maximum depth of the trees, the number of projections.
+     */
+    int depth;
+
+    /**
+     * Candidate multiplier.
+     */
+    int c;
+
+    /**
+     * Constructor.
+     *
+     * @param relation Relation to index.
+     * @param hashfunctions Hash functions, one for each tree.
+     * @param c Candidate multiplier
+     */
+    public Instance(Relation<V> relation, ArrayList<? extends LocalitySensitiveHashFunction<? super V>> hashfunctions, int c) {
+      super(relation);
+      this.hashfunctions = hashfunctions;
+      this.c = c;
+      for(LocalitySensitiveHashFunction<? super V> hashfunc : hashfunctions) {
+        if(!(hashfunc instanceof MultiProbeLocalitySensitiveHashFunction)) {
+          throw new AbortException("LSH forests need hash functions that provide the projection labels.");
+        }
+      }
+    }
+
+    @Override
+    public String getLongName() {
+      return "LSH forest";
+    }
+
+    @Override
+    public String getShortName() {
+      return "lsh-forest";
+    }
+
+    @Override
+    public void initialize() {
+      depth = hashfunctions.get(0).getNumberOfProjections();
+      final int numtrees = hashfunctions.size();
+      trees = new ArrayList<>(numtrees);
+      FiniteProgress progress = LOG.isVerbose() ? new FiniteProgress("Building LSH forest", numtrees, LOG) : null;
+      for(int i = 0; i < numtrees; i++) {
+        trees.add(new PrefixTree(getHashFunction(i)));
+        LOG.incrementProcessed(progress);
+      }
+      LOG.ensureCompleted(progress);
+    }
+
+    /**
+     * Get the hash function of a tree.
+     *
+     * @param i Tree number
+     * @return Hash function
+     */
+    @SuppressWarnings("unchecked")
+    private MultiProbeLocalitySensitiveHashFunction<? super V> getHashFunction(int i) {
+      return (MultiProbeLocalitySensitiveHashFunction<? super V>) hashfunctions.get(i);
+    }
+
+    @Override
+    public Logging getLogger() {
+      return LOG;
+    }
+
+    @Override
+    public KNNQuery<V> getKNNQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+      for(Object hint : hints) {
+        if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+          return null;
+        }
+      }
+      DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+      if(!family.isCompatible(df)) {
+        return null;
+      }
+      return new LSHForestKNNQuery(distanceQuery);
+    }
+
+    @Override
+    public RangeQuery<V> getRangeQuery(DistanceQuery<V> distanceQuery, Object... hints) {
+      for(Object hint : hints) {
+        if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+          return null;
+        }
+      }
+      DistanceFunction<? super V> df = distanceQuery.getDistanceFunction();
+      if(!family.isCompatible(df)) {
+        return null;
+      }
+      return new LSHForestRangeQuery(distanceQuery);
+    }
+
+    /**
+     * A single prefix tree, stored as sorted array.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     */
+    class PrefixTree {
+      /**
+       * Objects, sorted by their labels.
+       */
+      ArrayModifiableDBIDs ids;
+
+      /**
+       * Labels of the objects, {@code depth} values each.
+       */
+      int[] labels;
+
+      /**
+       * Common prefix length of each object with its predecessor.
+       */
+      int[] lcp;
+
+      /**
+       * Constructor.
+       *
+       * @param hashfunc Hash function
+       */
+      PrefixTree(MultiProbeLocalitySensitiveHashFunction<? super V> hashfunc) {
+        final int size = relation.size(), depth = Instance.this.depth;
+        ArrayDBIDs all = DBIDUtil.ensureArray(relation.getDBIDs());
+        final int[] raw = new int[size * depth];
+        double[] buf = new double[depth];
+        int[] lab = new int[depth];
+        for(DBIDArrayIter it = all.iter(); it.valid(); it.advance()) {
+          hashfunc.labelObject(relation.get(it), buf, lab, null);
+          System.arraycopy(lab, 0, raw, it.getOffset() * depth, depth);
+        }
+        int[] order = MathUtil.sequence(0, size);
+        IntegerArrayQuickSort.sort(order, new IntComparator() {
+          @Override
+          public int compare(int a, int b) {
+            return compareLabels(raw, a * depth, raw, b * depth, depth);
+          }
+        });
+        ids = DBIDUtil.newArray(size);
+        labels = new int[size * depth];
+        lcp = new int[size];
+        DBIDArrayIter it = all.iter();
+        for(int j = 0; j < size; j++) {
+          ids.add(it.seek(order[j]));
+          System.arraycopy(raw, order[j] * depth, labels, j * depth, depth);
+          lcp[j] = j > 0 ? prefixLength(labels, (j - 1) * depth, labels, j * depth, depth) : 0;
+        }
+      }
+
+      /**
+       * Find the first position not smaller than the query labels.
+       *
+       * @param q Query labels
+       * @return Insertion position
+       */
+      int find(int[] q) {
+        int lo = 0, hi = lcp.length;
+        while(lo < hi) {
+          final int mid = (lo + hi) >>> 1;
+          if(compareLabels(labels, mid * depth, q, 0, depth) < 0) {
+            lo = mid + 1;
+          }
+          else {
+            hi = mid;
+          }
+        }
+        return lo;
+      }
+    }
+
+    /**
+     * Synchronous ascent in all trees, collecting the objects with decreasing
+     * common prefix length.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     */
+    class Ascent {
+      /**
+       * Next positions to the left (exclusive) and right (inclusive).
+       */
+      int[] lo, hi;
+
+      /**
+       * Common prefix length of the query with the next objects.
+       */
+      int[] lpre, rpre;
+
+      /**
+       * Current level.
+       */
+      int level = -1;
+
+      /**
+       * Objects already seen.
+       */
+      HashSetModifiableDBIDs seen = DBIDUtil.newHashSet();
+
+      /**
+       * Constructor, descending into the trees.
+       *
+       * @param obj Query object
+       */
+      Ascent(V obj) {
+        final int numtrees = trees.size();
+        lo = new int[numtrees];
+        hi = new int[numtrees];
+        lpre = new int[numtrees];
+        rpre = new int[numtrees];
+        double[] buf = new double[depth];
+        int[] q = new int[depth];
+        for(int t = 0; t < numtrees; t++) {
+          final PrefixTree tree = trees.get(t);
+          getHashFunction(t).labelObject(obj, buf, q, null);
+          final int p = tree.find(q), size = tree.lcp.length;
+          lo[t] = hi[t] = p;
+          lpre[t] = p > 0 ? prefixLength(q, 0, tree.labels, (p - 1) * depth, depth) : -1;
+          rpre[t] = p < size ? prefixLength(q, 0, tree.labels, p * depth, depth) : -1;
+          level = Math.max(level, Math.max(lpre[t], rpre[t]));
+        }
+      }
+
+      /**
+       * Collect the objects of the next level in all trees.
+       *
+       * @param added Output: objects not seen before
+       * @return {@code false} if all objects have been seen.
+       */
+      boolean next(ArrayModifiableDBIDs added) {
+        if(level < 0) {
+          return false;
+        }
+        for(int t = 0; t < trees.size(); t++) {
+          final PrefixTree tree = trees.get(t);
+          final DBIDArrayIter it = tree.ids.iter();
+          while(lpre[t] >= level) {
+            if(seen.add(it.seek(--lo[t]))) {
+              added.add(it);
+            }
+            lpre[t] = lo[t] > 0 ? Math.min(lpre[t], tree.lcp[lo[t]]) : -1;
+          }
+          while(rpre[t] >= level) {
+            if(seen.add(it.seek(hi[t]++))) {
+              added.add(it);
+            }
+            rpre[t] = hi[t] < tree.lcp.length ? Math.min(rpre[t], tree.lcp[hi[t]]) : -1;
+          }
+        }
+        --level;
+        return true;
+      }
+    }
+
+    /**
+     * Class for handling kNN queries against the LSH forest.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     */
+    protected class LSHForestKNNQuery extends AbstractKNNQuery {
+      /**
+       * Constructor.
+       *
+       * @param distanceQuery Distance query
+       */
+      public LSHForestKNNQuery(DistanceQuery<V> distanceQuery) {
+        super(distanceQuery);
+      }
+
+      @Override
+      public KNNList getKNNForObject(V obj, int k) {
+        final int m = c * trees.size() * k;
+        Ascent ascent = new Ascent(obj);
+        ArrayModifiableDBIDs added = DBIDUtil.newArray();
+        KNNHeap heap = DBIDUtil.newHeap(k);
+        while(ascent.seen.size() < m && ascent.next(added)) {
+          for(DBIDIter iter = added.iter(); iter.valid(); iter.advance()) {
+            heap.insert(refine(iter, obj), iter);
+          }
+          added.clear();
+        }
+        return heap.toKNNList();
+      }
+    }
+
+    /**
+     * Class for handling range queries against the LSH forest. The ascent
+     * continues until sufficiently many candidates were seen, and the last
+     * level did not contain any additional result.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     */
+    protected class LSHForestRangeQuery extends AbstractRangeQuery {
+      /**
+       * Constructor.
+       *
+       * @param distanceQuery Distance query
+       */
+      public LSHForestRangeQuery(DistanceQuery<V> distanceQuery) {
+        super(distanceQuery);
+      }
+
+      @Override
+      public void getRangeForObject(V obj, double range, ModifiableDoubleDBIDList result) {
+        final int m = c * trees.size();
+        Ascent ascent = new Ascent(obj);
+        ArrayModifiableDBIDs added = DBIDUtil.newArray();
+        boolean found = true;
+        while((found || ascent.seen.size() < m) && ascent.next(added)) {
+          found = false;
+          for(DBIDIter iter = added.iter(); iter.valid(); iter.advance()) {
+            final double dist = refine(iter, obj);
+            if(dist <= range) {
+              result.add(dist, iter);
+              found = true;
+            }
+          }
+          added.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<V> extends AbstractParameterizer {
+    /**
+     * Hash function family parameter.
+     */
+    public static final OptionID FAMILY_ID = new OptionID("lshforest.family", "Hash function family to use for the LSH forest.");
+
+    /**
+     * Number of trees to use.
+     */
+    public static final OptionID TREES_ID = new OptionID("lshforest.trees", "Number of prefix trees to use.");
+
+    /**
+     * Candidate multiplier.
+     */
+    public static final OptionID CANDIDATES_ID = new OptionID("lshforest.candidates", "Candidate multiplier: at least c*l*k candidates are refined for kNN queries, and c*l for range queries.");
+
+    /**
+     * LSH hash function family to use.
+     */
+    LocalitySensitiveHashFunctionFamily<? super V> family;
+
+    /**
+     * Number of trees.
+     */
+    int l;
+
+    /**
+     * Candidate multiplier.
+     */
+    int c;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      ObjectParameter<LocalitySensitiveHashFunctionFamily<? super V>> familyP = new ObjectParameter<>(FAMILY_ID, LocalitySensitiveHashFunctionFamily.class);
+      if(config.grab(familyP)) {
+        family = familyP.instantiateClass(config);
+      }
+
+      IntParameter lP = new IntParameter(TREES_ID, 10) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(lP)) {
+        l = lP.intValue();
+      }
+
+      IntParameter cP = new IntParameter(CANDIDATES_ID, 10) //
+          .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+      if(config.grab(cP)) {
+        c = cP.intValue();
+      }
+    }
+
+    @Override
+    protected LSHForest<V> makeInstance() {
+      return new LSHForest<>(family, l, c);
+    }
+  }
+}
@@ -42,7 +42,7 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
     booktitle = "Proc. 34th ACM Symposium on Theory of Computing, STOC'02", //
     url = "https://doi.org/10.1145/509907.509965", //
     bibkey = "DBLP:conf/stoc/Charikar02")
-public class CosineLocalitySensitiveHashFunction implements LocalitySensitiveHashFunction<NumberVector> {
+public class CosineLocalitySensitiveHashFunction implements MultiProbeLocalitySensitiveHashFunction<NumberVector> {
   /**
    * Projection function.
    */
@@ -81,6 +81,31 @@ public class CosineLocalitySensitiveHashFunction implements LocalitySensitiveHas
     return hashValue;
   }
 
+  @Override
+  public void labelObject(NumberVector obj, double[] buf, int[] labels, double[] bounds) {
+    projection.project(obj, buf);
+    for(int i = 0; i < buf.length; i++) {
+      final boolean pos = buf[i] > 0;
+      labels[i] = pos ? 1 : 0;
+      if(bounds != null) {
+        // Only one of the two directions flips the bit:
+        bounds[i << 1] = pos ? buf[i] : Double.POSITIVE_INFINITY;
+        bounds[(i << 1) + 1] = pos ? Double.POSITIVE_INFINITY : -buf[i];
+      }
+    }
+  }
+
+  @Override
+  public int hashLabels(int[] labels) {
+    int hashValue = 0;
+    for(int i = 0, j = 1; i < labels.length; i++, j <<= 1) {
+      if(labels[i] > 0) {
+        hashValue = hashValue | j;
+      }
+    }
+    return hashValue;
+  }
+
   @Override
   public int getNumberOfProjections() {
     return projection.getOutputDimensionality();
@@ -0,0 +1,59 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.lsh.hashfunctions;
+
+/**
+ * Hash functions that combine several projections, each of which maps the
+ * object to an integer label. Exposing these labels, along with the distances
+ * to the neighboring buckets, allows probing nearby buckets (multi-probe LSH),
+ * and to use the labels as keys of prefix trees (LSH forest).
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <V> Data type to hash.
+ */
+public interface MultiProbeLocalitySensitiveHashFunction<V> extends LocalitySensitiveHashFunction<V> {
+  /**
+   * Compute the label of each projection, and the distances to the bucket
+   * boundaries.
+   * <p>
+   * The boundary distances are stored at {@code 2*i} for decrementing label
+   * {@code i}, and at {@code 2*i+1} for incrementing it, and are infinite if
+   * the label cannot be changed in this direction.
+   *
+   * @param obj Object to hash
+   * @param buf Buffer, sized according to the number of projections.
+   * @param labels Output labels, sized according to the number of projections.
+   * @param bounds Output boundary distances, twice the number of projections,
+   *        may be {@code null}.
+   */
+  void labelObject(V obj, double[] buf, int[] labels, double[] bounds);
+
+  /**
+   * Compute the hash value from the labels. For unmodified labels, this is the
+   * same value as {@link #hashObject}.
+   *
+   * @param labels Labels
+   * @return Hash value
+   */
+  int hashLabels(int[] labels);
+}
@@ -44,7 +44,7 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
     booktitle = "Proc. 20th Annual Symposium on Computational Geometry", //
     url = "https://doi.org/10.1145/997817.997857", //
     bibkey = "DBLP:conf/compgeom/DatarIIM04")
-public class MultipleProjectionsLocalitySensitiveHashFunction implements LocalitySensitiveHashFunction<NumberVector> {
+public class MultipleProjectionsLocalitySensitiveHashFunction implements MultiProbeLocalitySensitiveHashFunction<NumberVector> {
   /**
    * Projection matrix.
    */
@@ -118,6 +118,28 @@ public class MultipleProjectionsLocalitySensitiveHashFunction implements Localit
     return fastModPrime(t1sum);
   }
 
+  @Override
+  public void labelObject(NumberVector vec, double[] buf, int[] labels, double[] bounds) {
+    projection.project(vec, buf);
+    for(int i = 0; i < shift.length; i++) {
+      final double v = (buf[i] + shift[i]) * iwidth, f = Math.floor(v);
+      labels[i] = (int) f;
+      if(bounds != null) {
+        bounds[i << 1] = v - f; // In units of the bin width.
+        bounds[(i << 1) + 1] = 1. - (v - f);
+      }
+    }
+  }
+
+  @Override
+  public int hashLabels(int[] labels) {
+    long t1sum = 0L;
+    for(int i = 0; i < shift.length; i++) {
+      t1sum += (randoms1[i] & MASK32) * labels[i]; // unsigned math!
+    }
+    return fastModPrime(t1sum);
+  }
+
   /**
    * Fast modulo operation for the largest unsigned integer prime.
    *
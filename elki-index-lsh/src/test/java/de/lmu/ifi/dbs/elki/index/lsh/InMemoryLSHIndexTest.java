@@ -0,0 +1,127 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.lsh;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Unit test for the in-memory LSH index, with and without multi-probing.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class InMemoryLSHIndexTest {
+  @Test
+  public void testMultiProbe() {
+    Relation<NumberVector> rel = makeRelation();
+    EuclideanHashFunctionFamily family = new EuclideanHashFunctionFamily(RandomFactory.get(1L), 4., 6);
+    double plain = recall(new InMemoryLSHIndex<NumberVector>(family, 2, 7919).instantiate(rel), rel);
+    double probed = recall(new InMemoryLSHIndex<NumberVector>(family, 2, 7919, 30).instantiate(rel), rel);
+    double many = recall(new InMemoryLSHIndex<NumberVector>(family, 10, 7919).instantiate(rel), rel);
+    assertTrue("Multi-probing did not improve recall: " + plain + " " + probed, probed > plain + .2);
+    assertTrue("Multi-probing worse than more tables: " + probed + " " + many, probed > many);
+  }
+
+  /**
+   * Generate a clustered data set.
+   *
+   * @return Data relation
+   */
+  static Relation<NumberVector> makeRelation() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[2000][20];
+    for(int i = 0; i < data.length; i++) {
+      Random crnd = new Random(rnd.nextInt(20));
+      for(int j = 0; j < data[i].length; j++) {
+        data[i][j] = crnd.nextDouble() * 10 + rnd.nextGaussian();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Measure the recall of the 10 nearest neighbors of perturbed data points,
+   * and verify the range query results.
+   *
+   * @param index Index, not yet initialized
+   * @param rel Data relation
+   * @param <I> Index type
+   * @return Recall
+   */
+  static <I extends KNNIndex<NumberVector> & RangeIndex<NumberVector>> double recall(I index, Relation<NumberVector> rel) {
+    index.initialize();
+    DistanceQuery<NumberVector> dq = rel.getDistanceQuery(EuclideanDistanceFunction.STATIC);
+    KNNQuery<NumberVector> knnq = index.getKNNQuery(dq);
+    RangeQuery<NumberVector> rangeq = index.getRangeQuery(dq);
+    LinearScanDistanceKNNQuery<NumberVector> linq = new LinearScanDistanceKNNQuery<>(dq);
+    Random rnd = new Random(1L);
+    int found = 0, total = 0;
+    for(int i = 0; i < 100; i++) {
+      double[] q = rel.get(DBIDUtil.randomSample(rel.getDBIDs(), rnd)).toArray();
+      for(int j = 0; j < q.length; j++) {
+        q[j] += rnd.nextGaussian() * .3;
+      }
+      DoubleVector v = DoubleVector.wrap(q);
+      KNNList expect = linq.getKNNForObject(v, 10), knn = knnq.getKNNForObject(v, 10);
+      ModifiableDBIDs set = DBIDUtil.newHashSet(knn);
+      for(DBIDIter it = expect.iter(); it.valid(); it.advance(), total++) {
+        found += set.contains(it) ? 1 : 0;
+      }
+      // Range results must be exact, but may be incomplete:
+      DoubleDBIDList range = rangeq.getRangeForObject(v, expect.getKNNDistance());
+      for(DoubleDBIDListIter it = range.iter(); it.valid(); it.advance()) {
+        assertEquals("Wrong distance", dq.distance(v, it), it.doubleValue(), 0.);
+        assertTrue("Not in range", it.doubleValue() <= expect.getKNNDistance());
+      }
+    }
+    return found / (double) total;
+  }
+}
@@ -0,0 +1,48 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.lsh;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.index.lsh.hashfamilies.EuclideanHashFunctionFamily;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Unit test for the LSH forest.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class LSHForestTest {
+  @Test
+  public void testLSHForest() {
+    Relation<NumberVector> rel = InMemoryLSHIndexTest.makeRelation();
+    EuclideanHashFunctionFamily family = new EuclideanHashFunctionFamily(RandomFactory.get(1L), 4., 16);
+    double few = InMemoryLSHIndexTest.recall(new LSHForest<NumberVector>(family, 2, 2).instantiate(rel), rel);
+    double more = InMemoryLSHIndexTest.recall(new LSHForest<NumberVector>(family, 10, 2).instantiate(rel), rel);
+    assertTrue("Recall too low: " + more, more > .7);
+    assertTrue("More trees did not improve recall: " + few + " " + more, more > few);
+  }
+}
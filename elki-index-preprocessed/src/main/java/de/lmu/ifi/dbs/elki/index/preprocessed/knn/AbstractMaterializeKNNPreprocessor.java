@@ -20,10 +20,18 @@
  */
 package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
 
+import java.nio.ByteBuffer;
+
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
 import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
@@ -33,7 +41,9 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
 import de.lmu.ifi.dbs.elki.index.preprocessed.AbstractPreprocessorIndex;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -49,7 +59,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
  *
  * @param <O> Object type
  */
-public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPreprocessorIndex<O, KNNList> implements KNNIndex<O> {
+public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPreprocessorIndex<O, KNNList> implements KNNIndex<O>, SnapshotIndex {
   /**
    * The query k value.
    */
@@ -65,6 +75,11 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPrep
    */
   protected final DistanceQuery<O> distanceQuery;
 
+  /**
+   * Skip the next call of {@link #initialize()}.
+   */
+  private boolean skipInitialize = false;
+
   /**
    * Constructor.
    *
@@ -127,6 +142,10 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPrep
 
   @Override
   public void initialize() {
+    if(skipInitialize) {
+      skipInitialize = false; // Built or restored by the snapshot factory.
+      return;
+    }
     if(storage != null) {
       throw new UnsupportedOperationException("Preprocessor already ran.");
     }
@@ -135,6 +154,61 @@ public abstract class AbstractMaterializeKNNPreprocessor<O> extends AbstractPrep
     }
   }
 
+  @Override
+  public void skipNextInitialize() {
+    skipInitialize = true;
+  }
+
+  @Override
+  public long getSnapshotSize() {
+    long size = 8;
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      size += 8 + storage.get(iter).size() * (long) (ByteArrayUtil.SIZE_DOUBLE + ByteArrayUtil.SIZE_INT);
+    }
+    return size;
+  }
+
+  @Override
+  public void writeSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    buffer.putInt(k).putInt(relation.size());
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      KNNList knns = storage.get(iter);
+      buffer.putInt(ids.getOffset(iter)).putInt(knns.size());
+      for(DoubleDBIDListIter it = knns.iter(); it.valid(); it.advance()) {
+        buffer.putDouble(it.doubleValue()).putInt(ids.getOffset(it));
+      }
+    }
+  }
+
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    final int sk = buffer.getInt(), size = buffer.getInt();
+    if(sk != k || size != relation.size()) {
+      return false;
+    }
+    createStorage();
+    DBIDVar var = DBIDUtil.newVar();
+    for(int i = 0; i < size; i++) {
+      final int off = buffer.getInt(), len = buffer.getInt();
+      if(off < 0 || off >= ids.size()) {
+        storage = null;
+        return false;
+      }
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      for(int j = 0; j < len; j++) {
+        final double dist = buffer.getDouble();
+        final int noff = buffer.getInt();
+        if(noff < 0 || noff >= ids.size()) {
+          storage = null;
+          return false;
+        }
+        heap.insert(dist, ids.assignVar(noff, var));
+      }
+      storage.put(ids.assignVar(off, var), heap.toKNNList());
+    }
+    return true;
+  }
+
   @Override
   public KNNQuery<O> getKNNQuery(DistanceQuery<O> distQ, Object... hints) {
     if(distQ != distanceQuery && !distanceFunction.equals(distQ.getDistanceFunction())) {
@@ -20,6 +20,7 @@
  */
 package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
@@ -87,6 +88,24 @@ public class MaterializeKNNAndRKNNPreprocessor<O> extends MaterializeKNNPreproce
     materializeKNNAndRKNNs(DBIDUtil.ensureArray(relation.getDBIDs()), progress);
   }
 
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    if(!super.readSnapshot(buffer, ids)) {
+      return false;
+    }
+    // Rebuild the reverse kNN lists from the restored kNN lists:
+    materialized_RkNN = DataStoreUtil.makeStorage(relation.getDBIDs(), DataStoreFactory.HINT_HOT, TreeSet.class);
+    for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
+      materialized_RkNN.put(iter, new TreeSet<DoubleDBIDPair>());
+    }
+    for(DBIDIter id = relation.iterDBIDs(); id.valid(); id.advance()) {
+      for(DoubleDBIDListIter iter = storage.get(id).iter(); iter.valid(); iter.advance()) {
+        materialized_RkNN.get(iter).add(DBIDUtil.newPair(iter.doubleValue(), id));
+      }
+    }
+    return true;
+  }
+
   /**
    * Materializes the kNNs and RkNNs of the specified object IDs.
    *
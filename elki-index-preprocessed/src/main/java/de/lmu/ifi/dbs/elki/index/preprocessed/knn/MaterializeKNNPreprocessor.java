@@ -35,6 +35,7 @@ import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.ids.SetDBIDs;
 import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.LinearScanQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
@@ -73,11 +74,9 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
   private static final Logging LOG = Logging.getLogger(MaterializeKNNPreprocessor.class);
 
   /**
-   * Flag to use bulk operations.
-   *
-   * TODO: right now, bulk is not that good - so don't use
+   * Number of objects to process per bulk query, for progress logging.
    */
-  private static final boolean usebulk = false;
+  private static final int BULK_CHUNK = 4096;
 
   /**
    * KNNQuery instance to use.
@@ -116,15 +115,19 @@ public class MaterializeKNNPreprocessor<O> extends AbstractMaterializeKNNPreproc
     }
     Duration duration = log.isStatistics() ? log.newDuration(this.getClass().getName() + ".precomputation-time").begin() : null;
     FiniteProgress progress = getLogger().isVerbose() ? new FiniteProgress("Materializing k nearest neighbors (k=" + k + ")", ids.size(), getLogger()) : null;
-    // Try bulk
-    List<? extends KNNList> kNNList = null;
-    if(usebulk) {
-      kNNList = knnQuery.getKNNForBulkDBIDs(ids, k);
-      if(kNNList != null) {
+    // Use bulk queries for linear scans, which process blocks of the data
+    // for multiple queries at once, and thus have better cache locality.
+    if(knnQuery instanceof LinearScanQuery) {
+      final int size = ids.size();
+      for(int start = 0; start < size; start += BULK_CHUNK) {
+        ArrayDBIDs chunk = ids.slice(start, Math.min(start + BULK_CHUNK, size));
+        List<? extends KNNList> kNNList = knnQuery.getKNNForBulkDBIDs(chunk, k);
         int i = 0;
-        for(DBIDIter id = ids.iter(); id.valid(); id.advance(), i++) {
+        for(DBIDIter id = chunk.iter(); id.valid(); id.advance(), i++) {
           storage.put(id, kNNList.get(i));
-          log.incrementProcessed(progress);
+        }
+        if(progress != null) {
+          progress.setProcessed(start + chunk.size(), log);
         }
       }
     }
@@ -72,37 +72,37 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
   /**
    * Log prefix.
    */
-  private String prefix = getClass().getCanonicalName();
+  protected String prefix = getClass().getCanonicalName();
 
   /**
    * Random generator
    */
-  private final RandomFactory rnd;
+  protected final RandomFactory rnd;
 
   /**
    * early termination parameter
    */
-  private double delta = 0.001;
+  protected double delta = 0.001;
 
   /**
    * sample rate
    */
-  private double rho = 1.0;
+  protected double rho = 1.0;
 
   /**
    * maximum number of iterations
    */
-  private int iterations = 100;
+  protected int iterations = 100;
 
   /**
    * Do not use initial neighbors
    */
-  private boolean noInitialNeighbors;
+  protected boolean noInitialNeighbors;
 
   /**
    * store for neighbors
    */
-  private WritableDataStore<KNNHeap> store;
+  protected WritableDataStore<KNNHeap> store;
 
   /**
    * Constructor.
@@ -298,7 +298,7 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    * @param oldRev Old reverse neighbors
    * @return Number of new neighbors
    */
-  private int processNewNeighbors(WritableDataStore<HashSetModifiableDBIDs> flag, HashSetModifiableDBIDs newFwd, HashSetModifiableDBIDs oldFwd, HashSetModifiableDBIDs newRev, HashSetModifiableDBIDs oldRev) {
+  protected int processNewNeighbors(WritableDataStore<HashSetModifiableDBIDs> flag, HashSetModifiableDBIDs newFwd, HashSetModifiableDBIDs oldFwd, HashSetModifiableDBIDs newRev, HashSetModifiableDBIDs oldRev) {
     int counter = 0;
     // nn_new
     if(!newFwd.isEmpty()) {
@@ -384,7 +384,7 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
    * @param distance Distance
    * @return {@code true} if it was a new neighbor.
    */
-  private boolean add(DBIDRef cur, DBIDRef cand, double distance) {
+  protected boolean add(DBIDRef cur, DBIDRef cand, double distance) {
     KNNHeap neighbors = store.get(cur);
     if(neighbors.contains(cand)) {
       return false;
@@ -393,7 +393,14 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
     return (distance <= newKDistance);
   }
 
-  private void addpair(WritableDataStore<HashSetModifiableDBIDs> newNeighbors, DBIDRef o1, DBIDRef o2) {
+  /**
+   * Add a pair of objects to each others neighbors, if they are close enough.
+   *
+   * @param newNeighbors Flags to mark new neighbors
+   * @param o1 First object
+   * @param o2 Second object
+   */
+  protected void addpair(WritableDataStore<HashSetModifiableDBIDs> newNeighbors, DBIDRef o1, DBIDRef o2) {
     final double distance = distanceQuery.distance(o1, o2);
     if(add(o1, o2, distance)) {
       newNeighbors.get(o1).add(o2);
@@ -491,27 +498,27 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
     /**
      * Random generator
      */
-    private final RandomFactory rnd;
+    protected final RandomFactory rnd;
 
     /**
      * early termination parameter
      */
-    private final double delta;
+    protected final double delta;
 
     /**
      * sample rate
      */
-    private final double rho;
+    protected final double rho;
 
     /**
      * set initial neighbors?
      */
-    private final boolean noInitialNeighbors;
+    protected final boolean noInitialNeighbors;
 
     /**
      * maximum number of iterations
      */
-    private final int iterations;
+    protected final int iterations;
 
     /**
      * Constructor.
@@ -580,27 +587,27 @@ public class NNDescent<O> extends AbstractMaterializeKNNPreprocessor<O> {
       /**
        * Random generator
        */
-      private RandomFactory rnd;
+      protected RandomFactory rnd;
 
       /**
        * early termination parameter
        */
-      private double delta;
+      protected double delta;
 
       /**
        * sample rate
        */
-      private double rho;
+      protected double rho;
 
       /**
        * No initial neighbors
        */
-      private boolean noInitialNeighbors;
+      protected boolean noInitialNeighbors;
 
       /**
        * maximum number of iterations
        */
-      private int iterations;
+      protected int iterations;
 
       @Override
       protected void makeOptions(Parameterization config) {
@@ -0,0 +1,529 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.preprocessed.knn;
+
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.IndefiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.math.MathUtil;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Multi-threaded variant of {@link NNDescent}.
+ *
+ * All phases of an iteration (local join, sampling, and reversal of the
+ * neighbor lists) are processed in parallel. Updates of the neighbor heaps and
+ * flags of an object are guarded by striped locks, which are never nested.
+ * Each thread uses its own random generator for sampling, so results are not
+ * reproducible across runs, but of the same quality as the sequential
+ * version.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @param <O> Object type
+ */
+public class ParallelNNDescent<O> extends NNDescent<O> {
+  /**
+   * Logger
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelNNDescent.class);
+
+  /**
+   * Maximum number of lock stripes.
+   */
+  private static final int MAX_STRIPES = 1 << 12;
+
+  /**
+   * Striped locks for the neighbor heaps and flags.
+   */
+  private Object[] locks;
+
+  /**
+   * Bit mask for the lock stripes.
+   */
+  private int mask;
+
+  /**
+   * Number of successful neighbor updates.
+   */
+  private LongAdder updates = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param distanceFunction distance function
+   * @param k k
+   * @param rnd Random generator
+   * @param delta Delta threshold
+   * @param rho Rho threshold
+   * @param noInitialNeighbors Do not use initial neighbors
+   * @param iterations Maximum number of iterations
+   */
+  public ParallelNNDescent(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int k, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations) {
+    super(relation, distanceFunction, k, rnd, delta, rho, noInitialNeighbors, iterations);
+  }
+
+  @Override
+  protected void preprocess() {
+    final DBIDs ids = relation.getDBIDs();
+    final long starttime = System.currentTimeMillis();
+    IndefiniteProgress progress = LOG.isVerbose() ? new IndefiniteProgress("KNNGraph iteration", LOG) : null;
+
+    // to add query point itself in the end, internally (k-1) is used
+    final int internal_k = k - 1;
+    final int size = relation.size();
+
+    final int stripes = Math.min(MAX_STRIPES, MathUtil.nextPow2Int(Math.max(size, 1)));
+    locks = new Object[stripes];
+    for(int i = 0; i < stripes; i++) {
+      locks[i] = new Object();
+    }
+    mask = stripes - 1;
+
+    // All sets are allocated upfront, the parallel phases only modify them.
+    store = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP, KNNHeap.class);
+    Phase phase = new Phase(ids, (int) Math.ceil(rho * internal_k), rnd.getSingleThreadedRandom());
+    for(DBIDIter iditer = ids.iter(); iditer.valid(); iditer.advance()) {
+      store.put(iditer, DBIDUtil.newHeap(internal_k));
+      phase.newReverseNeighbors.put(iditer, DBIDUtil.newHashSet());
+      phase.oldReverseNeighbors.put(iditer, DBIDUtil.newHashSet());
+      phase.sampleNewNeighbors.put(iditer, DBIDUtil.newHashSet());
+      phase.flag.put(iditer, DBIDUtil.newHashSet());
+    }
+
+    // Initialize the neighbors by random sampling
+    long counter_all = phase.run(Mode.INIT);
+
+    double rate = 0.0;
+    int iter = 0;
+    for(; iter < iterations; iter++) {
+      updates.reset();
+      final long counter = phase.run(Mode.JOIN);
+      counter_all += counter;
+      if(LOG.isStatistics()) {
+        LOG.statistics(new LongStatistic(prefix + ".updates", updates.sum()));
+        LOG.statistics(new DoubleStatistic(prefix + ".scan-rate", counter_all * .5 / (size * (size - 1L))));
+      }
+
+      // t is the number of new neighbors
+      final long t = phase.run(Mode.SAMPLE);
+      phase.run(Mode.REVERSE);
+
+      rate = (double) t / (double) (internal_k * size);
+      if(LOG.isStatistics()) {
+        LOG.statistics(new DoubleStatistic(prefix + ".update-rate", rate));
+      }
+      if(counter < delta * internal_k * size) {
+        LOG.verbose("KNNGraph terminated because we performaned delta*k*size distance computations.");
+        break;
+      }
+      if(rate < delta) {
+        LOG.verbose("KNNGraph terminated because update rate got smaller than delta.");
+        break;
+      }
+      LOG.incrementProcessed(progress);
+    }
+    if(LOG.isVerbose() && iter == iterations) {
+      LOG.verbose("KNNGraph terminated because the maximum number of iterations was reached.");
+    }
+    LOG.setCompleted(progress);
+    phase.destroy();
+    locks = null;
+    // convert store to storage
+    storage = DataStoreFactory.FACTORY.makeStorage(ids, DataStoreFactory.HINT_DB, KNNList.class);
+    for(DBIDIter iditer = relation.iterDBIDs(); iditer.valid(); iditer.advance()) {
+      KNNHeap tempHeap = DBIDUtil.newHeap(k);
+      // Add query point and convert heap to list:
+      KNNHeap heap = store.get(iditer);
+      tempHeap.insert(0, iditer);
+      for(DoubleDBIDListIter heapiter = heap.unorderedIterator(); heapiter.valid(); heapiter.advance()) {
+        tempHeap.insert(heapiter.doubleValue(), heapiter);
+      }
+      storage.put(iditer, tempHeap.toKNNList());
+    }
+    store.destroy();
+    store = null;
+    final long end = System.currentTimeMillis();
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(prefix + ".construction-time.ms", end - starttime));
+    }
+  }
+
+  /**
+   * Get the lock for an object.
+   *
+   * @param id Object
+   * @return Lock object
+   */
+  private Object lock(DBIDRef id) {
+    return locks[DBIDUtil.asInteger(id) & mask];
+  }
+
+  @Override
+  protected void addpair(WritableDataStore<HashSetModifiableDBIDs> newNeighbors, DBIDRef o1, DBIDRef o2) {
+    final double distance = distanceQuery.distance(o1, o2);
+    synchronized(lock(o1)) {
+      if(add(o1, o2, distance)) {
+        newNeighbors.get(o1).add(o2);
+        updates.increment();
+      }
+    }
+    synchronized(lock(o2)) {
+      if(add(o2, o1, distance)) {
+        newNeighbors.get(o2).add(o1);
+        updates.increment();
+      }
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Phases of the algorithm.
+   *
+   * @author Erich Schubert
+   */
+  private enum Mode {
+    /** Random initialization */
+    INIT, //
+    /** Local join of the neighbors */
+    JOIN, //
+    /** Sampling of new neighbors */
+    SAMPLE, //
+    /** Computation of reverse neighbors */
+    REVERSE, //
+  }
+
+  /**
+   * Processor for one phase of an iteration over all objects.
+   *
+   * @author Erich Schubert
+   */
+  private class Phase implements Processor {
+    /**
+     * Object ids.
+     */
+    DBIDs ids;
+
+    /**
+     * Sampling size.
+     */
+    int items;
+
+    /**
+     * Random generator, to seed the worker generators.
+     */
+    Random random;
+
+    /**
+     * Current phase.
+     */
+    Mode mode;
+
+    /**
+     * Counter of the current phase.
+     */
+    long counter;
+
+    /**
+     * New reverse neighbors.
+     */
+    WritableDataStore<HashSetModifiableDBIDs> newReverseNeighbors;
+
+    /**
+     * Old reverse neighbors.
+     */
+    WritableDataStore<HashSetModifiableDBIDs> oldReverseNeighbors;
+
+    /**
+     * Sample of new forward neighbors.
+     */
+    WritableDataStore<HashSetModifiableDBIDs> sampleNewNeighbors;
+
+    /**
+     * Flags for new neighbors.
+     */
+    WritableDataStore<HashSetModifiableDBIDs> flag;
+
+    /**
+     * Constructor.
+     *
+     * @param ids Object ids
+     * @param items Sampling size
+     * @param random Random generator
+     */
+    Phase(DBIDs ids, int items, Random random) {
+      this.ids = ids;
+      this.items = items;
+      this.random = random;
+      final int hints = DataStoreFactory.HINT_HOT | DataStoreFactory.HINT_TEMP;
+      newReverseNeighbors = DataStoreFactory.FACTORY.makeStorage(ids, hints, HashSetModifiableDBIDs.class);
+      oldReverseNeighbors = DataStoreFactory.FACTORY.makeStorage(ids, hints, HashSetModifiableDBIDs.class);
+      sampleNewNeighbors = DataStoreFactory.FACTORY.makeStorage(ids, hints, HashSetModifiableDBIDs.class);
+      flag = DataStoreFactory.FACTORY.makeStorage(ids, hints, HashSetModifiableDBIDs.class);
+    }
+
+    /**
+     * Run one phase on all objects.
+     *
+     * @param mode Phase
+     * @return Counter of the phase
+     */
+    long run(Mode mode) {
+      this.mode = mode;
+      this.counter = 0;
+      ParallelExecutor.run(ids, this);
+      return counter;
+    }
+
+    /**
+     * Free the temporary storage.
+     */
+    void destroy() {
+      newReverseNeighbors.destroy();
+      oldReverseNeighbors.destroy();
+      sampleNewNeighbors.destroy();
+      flag.destroy();
+    }
+
+    @Override
+    public synchronized Worker instantiate(Executor executor) {
+      return new Worker(this, new Random(random.nextLong()));
+    }
+
+    @Override
+    public synchronized void cleanup(Processor.Instance inst) {
+      counter += ((ParallelNNDescent<?>.Worker) inst).counter;
+    }
+  }
+
+  /**
+   * Per-thread worker.
+   *
+   * @author Erich Schubert
+   */
+  private class Worker implements Processor.Instance {
+    /**
+     * Phase to process.
+     */
+    Phase phase;
+
+    /**
+     * Random generator of this thread.
+     */
+    Random random;
+
+    /**
+     * Counter.
+     */
+    long counter;
+
+    /**
+     * Constructor.
+     *
+     * @param phase Phase to process
+     * @param random Random generator
+     */
+    Worker(Phase phase, Random random) {
+      this.phase = phase;
+      this.random = random;
+    }
+
+    @Override
+    public void map(DBIDRef id) {
+      switch(phase.mode){
+      case INIT:
+        initialize(id);
+        break;
+      case JOIN:
+        join(id);
+        break;
+      case SAMPLE:
+        sample(id);
+        break;
+      case REVERSE:
+        reverse(id);
+        break;
+      }
+    }
+
+    /**
+     * Initialize the samples and neighbors of an object.
+     *
+     * @param id Object
+     */
+    private void initialize(DBIDRef id) {
+      ModifiableDBIDs sampleNew = DBIDUtil.randomSampleExcept(phase.ids, id, phase.items, random);
+      phase.sampleNewNeighbors.get(id).addDBIDs(sampleNew);
+      phase.newReverseNeighbors.get(id).addDBIDs(DBIDUtil.randomSampleExcept(phase.ids, id, phase.items, random));
+      if(!noInitialNeighbors) {
+        HashSetModifiableDBIDs flags = phase.flag.get(id);
+        for(DBIDIter siter = sampleNew.iter(); siter.valid(); siter.advance()) {
+          final double distance = distanceQuery.distance(id, siter);
+          synchronized(lock(id)) {
+            if(add(id, siter, distance)) {
+              flags.add(siter);
+            }
+          }
+        }
+        counter += sampleNew.size();
+      }
+    }
+
+    /**
+     * Local join of the neighbors of an object.
+     *
+     * @param id Object
+     */
+    private void join(DBIDRef id) {
+      // determine old neighbors
+      HashSetModifiableDBIDs oldNeighbors = DBIDUtil.newHashSet();
+      synchronized(lock(id)) {
+        HashSetModifiableDBIDs newNeighbors = phase.flag.get(id);
+        for(DoubleDBIDListIter heapiter = store.get(id).unorderedIterator(); heapiter.valid(); heapiter.advance()) {
+          if(!newNeighbors.contains(heapiter)) {
+            oldNeighbors.add(heapiter);
+          }
+        }
+      }
+      HashSetModifiableDBIDs sampleNew = phase.sampleNewNeighbors.get(id);
+      HashSetModifiableDBIDs newRev = phase.newReverseNeighbors.get(id);
+      newRev.removeDBIDs(sampleNew);
+      boundSize(newRev);
+      HashSetModifiableDBIDs oldRev = phase.oldReverseNeighbors.get(id);
+      oldRev.removeDBIDs(oldNeighbors);
+      boundSize(oldRev);
+      counter += processNewNeighbors(phase.flag, sampleNew, oldNeighbors, newRev, oldRev);
+    }
+
+    /**
+     * Sample new neighbors of an object, and clear its reverse neighbors.
+     *
+     * @param id Object
+     */
+    private void sample(DBIDRef id) {
+      HashSetModifiableDBIDs newNeighbors = phase.flag.get(id);
+      HashSetModifiableDBIDs realNewNeighbors = phase.sampleNewNeighbors.get(id);
+      realNewNeighbors.clear(); // Reuse
+      for(DoubleDBIDListIter heapiter = store.get(id).unorderedIterator(); heapiter.valid(); heapiter.advance()) {
+        if(newNeighbors.contains(heapiter)) {
+          realNewNeighbors.add(heapiter);
+          counter++;
+        }
+      }
+      boundSize(realNewNeighbors);
+      newNeighbors.removeDBIDs(realNewNeighbors);
+      phase.newReverseNeighbors.get(id).clear();
+      phase.oldReverseNeighbors.get(id).clear();
+    }
+
+    /**
+     * Add an object to the reverse neighbors of its neighbors.
+     *
+     * @param id Object
+     */
+    private void reverse(DBIDRef id) {
+      HashSetDBIDs newNeighbors = phase.sampleNewNeighbors.get(id);
+      for(DoubleDBIDListIter heapiter = store.get(id).unorderedIterator(); heapiter.valid(); heapiter.advance()) {
+        HashSetModifiableDBIDs rev = (newNeighbors.contains(heapiter) ? phase.newReverseNeighbors : phase.oldReverseNeighbors).get(heapiter);
+        synchronized(lock(heapiter)) {
+          rev.add(id);
+        }
+      }
+    }
+
+    /**
+     * Bound the size of a set by random sampling.
+     *
+     * @param set Set to process
+     */
+    private void boundSize(HashSetModifiableDBIDs set) {
+      if(set.size() > phase.items) {
+        DBIDs sample = DBIDUtil.randomSample(set, phase.items, random);
+        set.clear();
+        set.addDBIDs(sample);
+      }
+    }
+  }
+
+  /**
+   * Index factory.
+   *
+   * @author Erich Schubert
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> extends NNDescent.Factory<O> {
+    /**
+     * Constructor.
+     *
+     * @param k K
+     * @param distanceFunction distance function
+     * @param rnd Random generator
+     * @param delta Delta threshold
+     * @param rho Rho threshold
+     * @param noInitialNeighbors Do not use initial neighbors
+     * @param iterations Maximum number of iterations
+     */
+    public Factory(int k, DistanceFunction<? super O> distanceFunction, RandomFactory rnd, double delta, double rho, boolean noInitialNeighbors, int iterations) {
+      super(k, distanceFunction, rnd, delta, rho, noInitialNeighbors, iterations);
+    }
+
+    @Override
+    public ParallelNNDescent<O> instantiate(Relation<O> relation) {
+      return new ParallelNNDescent<>(relation, distanceFunction, k, rnd, delta, rho, noInitialNeighbors, iterations);
+    }
+
+    /**
+     * Parameterization class
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     *
+     * @param <O> Object type
+     */
+    public static class Parameterizer<O> extends NNDescent.Factory.Parameterizer<O> {
+      @Override
+      protected ParallelNNDescent.Factory<O> makeInstance() {
+        return new ParallelNNDescent.Factory<>(k, distanceFunction, rnd, delta, rho, noInitialNeighbors, iterations);
+      }
+    }
+  }
+}
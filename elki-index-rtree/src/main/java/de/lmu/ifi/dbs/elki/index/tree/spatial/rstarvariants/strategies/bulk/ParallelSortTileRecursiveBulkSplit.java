@@ -0,0 +1,243 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import de.lmu.ifi.dbs.elki.data.spatial.SpatialComparable;
+import de.lmu.ifi.dbs.elki.data.spatial.SpatialSingleMeanComparator;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.QuickSelect;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import net.jafama.FastMath;
+
+/**
+ * Parallel version of Sort-Tile-Recursive bulk loading.
+ * <p>
+ * The slab boundaries of each level are found by recursive quantile selection,
+ * where both halves are processed concurrently, and the slabs are then
+ * partitioned concurrently. Because quick select places exactly the objects of
+ * the same ranks into each slab, the resulting pages contain the same objects
+ * as with {@link SortTileRecursiveBulkSplit} (up to ties), only the order of
+ * objects within a page may differ. The directory levels are built bottom-up
+ * by the tree, using this split again.
+ * <p>
+ * Reference:
+ * <p>
+ * S. T. Leutenegger, M. A. Lopez, J. Edgington<br>
+ * STR: A simple and efficient algorithm for R-tree packing<br>
+ * Proc. 13th International Conference on Data Engineering (ICDE 1997)
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+@Reference(authors = "S. T. Leutenegger, M. A. Lopez, J. Edgington", //
+    title = "STR: A simple and efficient algorithm for R-tree packing", //
+    booktitle = "Proc. 13th International Conference on Data Engineering (ICDE 1997)", //
+    url = "https://doi.org/10.1109/ICDE.1997.582015", //
+    bibkey = "DBLP:conf/icde/LeuteneggerEL97")
+public class ParallelSortTileRecursiveBulkSplit extends SortTileRecursiveBulkSplit {
+  /**
+   * Static instance.
+   */
+  public static final ParallelSortTileRecursiveBulkSplit STATIC = new ParallelSortTileRecursiveBulkSplit();
+
+  /**
+   * Ranges smaller than this are processed sequentially.
+   */
+  private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
+  @Override
+  public <T extends SpatialComparable> List<List<T>> partition(List<T> spatialObjects, int minEntries, int maxEntries) {
+    final int size = spatialObjects.size();
+    if(size < SEQUENTIAL_THRESHOLD) {
+      return super.partition(spatialObjects, minEntries, maxEntries);
+    }
+    final int dims = spatialObjects.get(0).getDimensionality();
+    return ParallelCore.getCore().getForkJoinPool().invoke(new PartitionTask<>(spatialObjects, 0, size, 0, dims, maxEntries));
+  }
+
+  /**
+   * Task to partition a range of objects.
+   *
+   * @author Erich Schubert
+   *
+   * @param <T> Object type
+   */
+  private class PartitionTask<T extends SpatialComparable> extends RecursiveTask<List<List<T>>> {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Objects to partition.
+     */
+    private List<T> objs;
+
+    /**
+     * Range and recursion depth.
+     */
+    private int start, end, depth;
+
+    /**
+     * Dimensionality and page size.
+     */
+    private int dims, maxEntries;
+
+    /**
+     * Constructor.
+     *
+     * @param objs Object list
+     * @param start Subinterval start
+     * @param end Subinterval end
+     * @param depth Iteration depth (must be less than dimensionality!)
+     * @param dims Total number of dimensions
+     * @param maxEntries Maximum page size
+     */
+    public PartitionTask(List<T> objs, int start, int end, int depth, int dims, int maxEntries) {
+      this.objs = objs;
+      this.start = start;
+      this.end = end;
+      this.depth = depth;
+      this.dims = dims;
+      this.maxEntries = maxEntries;
+    }
+
+    @Override
+    protected List<List<T>> compute() {
+      final int p = (int) FastMath.ceil((end - start) / (double) maxEntries);
+      if(end - start < SEQUENTIAL_THRESHOLD) {
+        List<List<T>> ret = new ArrayList<>(p);
+        strPartition(objs, start, end, depth, dims, maxEntries, new SpatialSingleMeanComparator(0), ret);
+        return ret;
+      }
+      final int s = (int) FastMath.ceil(FastMath.pow(p, 1.0 / (dims - depth)));
+      // Slab boundaries, as in the sequential version.
+      final double len = end - start; // double intentional!
+      final int[] bounds = new int[s + 1];
+      for(int i = 0; i <= s; i++) {
+        bounds[i] = start + (int) ((i * len) / s);
+      }
+      new SelectTask<>(objs, bounds, 0, s, depth).invoke();
+      if(depth + 1 == dims) {
+        List<List<T>> ret = new ArrayList<>(s);
+        for(int i = 0; i < s; i++) {
+          ret.add(objs.subList(bounds[i], bounds[i + 1]));
+        }
+        return ret;
+      }
+      // Descend, concurrently.
+      List<PartitionTask<T>> tasks = new ArrayList<>(s);
+      for(int i = 0; i < s; i++) {
+        tasks.add(new PartitionTask<>(objs, bounds[i], bounds[i + 1], depth + 1, dims, maxEntries));
+      }
+      invokeAll(tasks);
+      List<List<T>> ret = new ArrayList<>(p);
+      for(PartitionTask<T> task : tasks) {
+        ret.addAll(task.join());
+      }
+      return ret;
+    }
+  }
+
+  /**
+   * Task to place the objects into slabs, by recursive quantile selection.
+   *
+   * @author Erich Schubert
+   *
+   * @param <T> Object type
+   */
+  private static class SelectTask<T extends SpatialComparable> extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Objects to partition.
+     */
+    private List<T> objs;
+
+    /**
+     * Slab boundaries.
+     */
+    private int[] bounds;
+
+    /**
+     * Range of slabs to process, and dimension.
+     */
+    private int lo, hi, dim;
+
+    /**
+     * Constructor.
+     *
+     * @param objs Objects
+     * @param bounds Slab boundaries
+     * @param lo First slab
+     * @param hi Last slab (exclusive)
+     * @param dim Dimension to split
+     */
+    public SelectTask(List<T> objs, int[] bounds, int lo, int hi, int dim) {
+      this.objs = objs;
+      this.bounds = bounds;
+      this.lo = lo;
+      this.hi = hi;
+      this.dim = dim;
+    }
+
+    @Override
+    protected void compute() {
+      if(hi - lo <= 1) {
+        return;
+      }
+      final int mid = (lo + hi) >>> 1;
+      QuickSelect.quickSelect(objs, new SpatialSingleMeanComparator(dim), bounds[lo], bounds[hi], bounds[mid]);
+      SelectTask<T> left = new SelectTask<>(objs, bounds, lo, mid, dim);
+      SelectTask<T> right = new SelectTask<>(objs, bounds, mid, hi, dim);
+      if(bounds[hi] - bounds[lo] < SEQUENTIAL_THRESHOLD) {
+        left.compute();
+        right.compute();
+      }
+      else {
+        invokeAll(left, right);
+      }
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer extends AbstractParameterizer {
+    @Override
+    protected ParallelSortTileRecursiveBulkSplit makeInstance() {
+      return STATIC;
+    }
+  }
+}
@@ -147,6 +147,21 @@ public class RStarTreeTest extends AbstractIndexStructureTest {
     testSinglePoint(factory, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
   }
 
+  /**
+   * Test {@link RStarTree} bulk loaded using
+   * {@link ParallelSortTileRecursiveBulkSplit}
+   */
+  @Test
+  public void testParallelSortTileRecursiveBulkSplit() {
+    RStarTreeFactory<NumberVector> factory = new ELKIBuilder<>(RStarTreeFactory.class) //
+        .with(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300) //
+        .with(RStarTreeFactory.Parameterizer.BULK_SPLIT_ID, ParallelSortTileRecursiveBulkSplit.class) //
+        .build();
+    testExactEuclidean(factory, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
+    testExactCosine(factory, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
+    testSinglePoint(factory, RStarTreeKNNQuery.class, RStarTreeRangeQuery.class);
+  }
+
   /**
    * Test {@link RStarTree} bulk loaded using {@link MaxExtensionBulkSplit}
    */
@@ -0,0 +1,66 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.strategies.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+
+/**
+ * Test the parallel STR bulk split against the sequential version.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ParallelSortTileRecursiveBulkSplitTest {
+  @Test
+  public void testSamePages() {
+    Random rnd = new Random(0L);
+    for(int dim = 2; dim <= 3; dim++) {
+      List<DoubleVector> data = new ArrayList<>();
+      for(int i = 0; i < 50000; i++) {
+        double[] v = new double[dim];
+        for(int d = 0; d < dim; d++) {
+          v[d] = rnd.nextDouble();
+        }
+        data.add(new DoubleVector(v));
+      }
+      List<List<DoubleVector>> seq = SortTileRecursiveBulkSplit.STATIC.partition(new ArrayList<>(data), 10, 20);
+      List<List<DoubleVector>> par = ParallelSortTileRecursiveBulkSplit.STATIC.partition(new ArrayList<>(data), 10, 20);
+      assertEquals("Number of pages differs.", seq.size(), par.size());
+      int total = 0;
+      for(int i = 0; i < seq.size(); i++) {
+        assertEquals("Page size differs.", seq.get(i).size(), par.get(i).size());
+        assertTrue("Page contents differ.", new HashSet<>(seq.get(i)).equals(new HashSet<>(par.get(i))));
+        total += par.get(i).size();
+      }
+      assertEquals("Objects lost.", data.size(), total);
+    }
+  }
+}
@@ -0,0 +1,948 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.graph;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.AbstractDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.AbstractDistanceRangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMaxHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerMinHeap;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.RandomParameter;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import net.jafama.FastMath;
+
+/**
+ * Hierarchical navigable small world graph (HNSW), an approximate index for
+ * nearest neighbor search with arbitrary distance functions.
+ * <p>
+ * Every object is assigned a random level with an exponentially decaying
+ * distribution, and is linked to (up to) {@code M} neighbors in every layer up
+ * to its level, and {@code 2M} neighbors in the bottom layer. Neighbors are
+ * chosen with the diversity heuristic of the original publication. Queries
+ * greedily descend from the top layer, then run a beam search with
+ * {@code efSearch} candidates in the bottom layer.
+ * <p>
+ * Range queries continue the beam search through all neighbors within the
+ * query radius. All returned results are exact distances, but results may be
+ * missing. Because the index is approximate, no queries are offered when the
+ * {@link DatabaseQuery#HINT_EXACT} hint is given, so the recall can be
+ * evaluated with the {@code ValidateApproximativeKNNIndex} benchmark.
+ * <p>
+ * The graph can be built in parallel in the fork-join pool of
+ * {@link ParallelCore}, by inserting objects concurrently and locking only the
+ * neighbor lists that are modified. The resulting graph then depends on the
+ * thread scheduling, and the distance computation statistics are approximate.
+ * <p>
+ * Reference:
+ * <p>
+ * Y. A. Malkov, D. A. Yashunin<br>
+ * Efficient and robust approximate nearest neighbor search using Hierarchical
+ * Navigable Small World graphs<br>
+ * IEEE Transactions on Pattern Analysis and Machine Intelligence
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has HNSWKNNQuery
+ * @apiviz.has HNSWRangeQuery
+ *
+ * @param <O> Object type
+ */
+@Reference(authors = "Y. A. Malkov, D. A. Yashunin", //
+    title = "Efficient and robust approximate nearest neighbor search using Hierarchical Navigable Small World graphs", //
+    booktitle = "IEEE Transactions on Pattern Analysis and Machine Intelligence", //
+    url = "https://doi.org/10.1109/TPAMI.2018.2889473", //
+    bibkey = "DBLP:journals/pami/MalkovY20")
+public class HNSW<O> extends AbstractIndex<O> implements KNNIndex<O>, RangeIndex<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(HNSW.class);
+
+  /**
+   * Number of insertions to perform in one fork-join task.
+   */
+  private static final int SEQUENTIAL_THRESHOLD = 1 << 8;
+
+  /**
+   * Distance function.
+   */
+  protected DistanceFunction<? super O> distanceFunction;
+
+  /**
+   * Distance query.
+   */
+  protected DistanceQuery<O> distanceQuery;
+
+  /**
+   * Number of neighbors per node in the upper layers.
+   */
+  protected int m;
+
+  /**
+   * Candidate list size during construction.
+   */
+  protected int efConstruction;
+
+  /**
+   * Candidate list size during search.
+   */
+  protected int efSearch;
+
+  /**
+   * Random generator for the level assignment.
+   */
+  protected RandomFactory random;
+
+  /**
+   * Build the graph in parallel.
+   */
+  protected boolean parallel;
+
+  /**
+   * Object ids, in node order.
+   */
+  private ArrayDBIDs ids;
+
+  /**
+   * Neighbor lists: links[node][layer] holds the number of neighbors, followed
+   * by the neighbor node numbers. The arrays are preallocated to the maximum
+   * size, and used as locks when building in parallel.
+   */
+  private int[][][] links;
+
+  /**
+   * Entry node of the top layer.
+   */
+  private int entry = -1;
+
+  /**
+   * Top layer of the graph.
+   */
+  private int top = -1;
+
+  /**
+   * Number of distance computations. Every search counts its own distance
+   * computations, and adds them when done.
+   */
+  private final LongAdder distComputations = new LongAdder();
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distanceFunction Distance function
+   * @param m Number of neighbors per node (twice in the bottom layer)
+   * @param efConstruction Candidate list size during construction
+   * @param efSearch Candidate list size during search
+   * @param random Random generator for the level assignment
+   * @param parallel Build the graph in parallel
+   */
+  public HNSW(Relation<O> relation, DistanceFunction<? super O> distanceFunction, int m, int efConstruction, int efSearch, RandomFactory random, boolean parallel) {
+    super(relation);
+    this.distanceFunction = distanceFunction;
+    this.m = m;
+    this.efConstruction = efConstruction;
+    this.efSearch = efSearch;
+    this.random = random;
+    this.parallel = parallel;
+  }
+
+  @Override
+  public void initialize() {
+    ids = DBIDUtil.ensureArray(relation.getDBIDs());
+    distanceQuery = distanceFunction.instantiate(relation);
+    final int size = ids.size();
+    links = new int[size][][];
+    Random rnd = random.getSingleThreadedRandom();
+    final double ml = 1. / FastMath.log(m);
+    for(int i = 0; i < size; i++) {
+      final int level = (int) (-FastMath.log(1. - rnd.nextDouble()) * ml);
+      int[][] node = links[i] = new int[level + 1][];
+      for(int l = 0; l <= level; l++) {
+        node[l] = new int[maxConnections(l) + 1];
+      }
+    }
+    entry = top = -1;
+    if(size == 0) {
+      return;
+    }
+    if(parallel) {
+      insert(0); // Entry point
+      ParallelCore.getCore().getForkJoinPool().invoke(new InsertTask(1, size));
+      return;
+    }
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Building HNSW graph", size, LOG) : null;
+    for(int i = 0; i < size; i++) {
+      insert(i);
+      LOG.incrementProcessed(prog);
+    }
+    LOG.ensureCompleted(prog);
+  }
+
+  /**
+   * Maximum number of neighbors in a layer.
+   *
+   * @param layer Layer
+   * @return Maximum number of neighbors
+   */
+  private int maxConnections(int layer) {
+    return layer == 0 ? m << 1 : m;
+  }
+
+  /**
+   * Insert a node into the graph.
+   *
+   * @param i Node number
+   */
+  private void insert(int i) {
+    final int level = links[i].length - 1;
+    final int maxlayer;
+    Search s = new Search(distanceQuery);
+    synchronized(this) {
+      if(entry < 0) {
+        entry = i;
+        top = level;
+        return;
+      }
+      s.ep = entry;
+      maxlayer = top;
+    }
+    final O obj = relation.get(s.a.seek(i));
+    s.epd = s.distance(obj, s.ep);
+    s.descend(obj, maxlayer, level, i);
+    for(int layer = Math.min(maxlayer, level); layer >= 0; layer--) {
+      DoubleIntegerMaxHeap res = s.search(obj, efConstruction, layer, i, Double.NEGATIVE_INFINITY, null);
+      // Sort the candidates by ascending distance:
+      final int cnt = res.size();
+      int[] cn = new int[cnt];
+      double[] cd = new double[cnt];
+      for(int j = cnt - 1; j >= 0; j--, res.poll()) {
+        cn[j] = res.peekValue();
+        cd[j] = res.peekKey();
+      }
+      s.ep = cn[0];
+      s.epd = cd[0];
+      final int sel = selectNeighbors(s, cn, cd, cnt, m);
+      int[] prev = null;
+      final int[] own = links[i][layer];
+      synchronized(own) {
+        // Concurrent insertions may have linked to us already.
+        if(own[0] > 0) {
+          prev = Arrays.copyOfRange(own, 1, own[0] + 1);
+        }
+        own[0] = sel;
+        System.arraycopy(cn, 0, own, 1, sel);
+      }
+      for(int j = 0; j < sel; j++) {
+        connect(s, cn[j], i, cd[j], layer);
+      }
+      if(prev != null) {
+        for(int k : prev) {
+          connect(s, i, k, s.distance(i, k), layer);
+        }
+      }
+    }
+    if(level > maxlayer) {
+      synchronized(this) {
+        if(level > top) {
+          entry = i;
+          top = level;
+        }
+      }
+    }
+    s.done();
+  }
+
+  /**
+   * Add a neighbor to a node, pruning the neighbor list if it is full.
+   * <p>
+   * The pruning is computed on a copy of the full list, without holding the
+   * lock; if the list was modified concurrently, the pruning is repeated.
+   *
+   * @param s Search state (for distance computations)
+   * @param node Node to modify
+   * @param nb New neighbor
+   * @param d Distance of node and new neighbor
+   * @param layer Layer
+   */
+  private void connect(Search s, int node, int nb, double d, int layer) {
+    final int[] list = links[node][layer];
+    while(true) {
+      final int[] old;
+      synchronized(list) {
+        final int cnt = list[0];
+        for(int j = 1; j <= cnt; j++) {
+          if(list[j] == nb) {
+            return;
+          }
+        }
+        if(cnt < list.length - 1) {
+          list[cnt + 1] = nb;
+          list[0] = cnt + 1;
+          return;
+        }
+        old = list.clone(); // Full list
+      }
+      // Insertion sort of the old neighbors and the new neighbor:
+      final int cnt = old[0];
+      int[] cn = new int[cnt + 1];
+      double[] cd = new double[cnt + 1];
+      for(int j = 0; j <= cnt; j++) {
+        int n = j < cnt ? old[j + 1] : nb;
+        double nd = j < cnt ? s.distance(node, n) : d;
+        int k = j;
+        for(; k > 0 && cd[k - 1] > nd; k--) {
+          cn[k] = cn[k - 1];
+          cd[k] = cd[k - 1];
+        }
+        cn[k] = n;
+        cd[k] = nd;
+      }
+      final int sel = selectNeighbors(s, cn, cd, cnt + 1, cnt);
+      synchronized(list) {
+        if(Arrays.equals(list, old)) {
+          list[0] = sel;
+          System.arraycopy(cn, 0, list, 1, sel);
+          return;
+        }
+      }
+      // Modified concurrently, retry.
+    }
+  }
+
+  /**
+   * Select neighbors with the diversity heuristic: a candidate is only kept,
+   * if it is closer to the query than to all previously kept candidates.
+   *
+   * @param s Search state (for distance computations)
+   * @param cn Candidate nodes, sorted by distance; the selected nodes are moved
+   *        to the front
+   * @param cd Candidate distances
+   * @param cnt Number of candidates
+   * @param max Maximum number of neighbors
+   * @return Number of neighbors selected
+   */
+  private int selectNeighbors(Search s, int[] cn, double[] cd, int cnt, int max) {
+    if(cnt <= max) {
+      return cnt;
+    }
+    int sel = 0;
+    for(int j = 0; j < cnt && sel < max; j++) {
+      boolean good = true;
+      for(int r = 0; r < sel; r++) {
+        if(s.distance(cn[r], cn[j]) < cd[j]) {
+          good = false;
+          break;
+        }
+      }
+      if(good) {
+        cn[sel] = cn[j];
+        cd[sel] = cd[j];
+        ++sel;
+      }
+    }
+    return sel;
+  }
+
+  /**
+   * State of a single graph search. Not thread-safe, but cheap to allocate.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class Search {
+    /**
+     * Distance query to use.
+     */
+    final DistanceQuery<O> dq;
+
+    /**
+     * Iterators for accessing the objects.
+     */
+    DBIDArrayIter a = ids.iter(), b = ids.iter();
+
+    /**
+     * Visited nodes.
+     */
+    IntOpenHashSet visited = new IntOpenHashSet();
+
+    /**
+     * Candidates to expand.
+     */
+    DoubleIntegerMinHeap candidates = new DoubleIntegerMinHeap();
+
+    /**
+     * Buffer for neighbor lists.
+     */
+    int[] buf = new int[maxConnections(0)];
+
+    /**
+     * Current entry point, and its distance.
+     */
+    int ep;
+
+    /**
+     * Distance of the current entry point.
+     */
+    double epd;
+
+    /**
+     * Number of distance computations of this search.
+     */
+    long distances;
+
+    /**
+     * Constructor.
+     *
+     * @param dq Distance query to use
+     */
+    Search(DistanceQuery<O> dq) {
+      this.dq = dq;
+    }
+
+    /**
+     * Compute the distance of an object to a node.
+     *
+     * @param obj Object
+     * @param j Node number
+     * @return Distance
+     */
+    double distance(O obj, int j) {
+      ++distances;
+      return dq.distance(obj, a.seek(j));
+    }
+
+    /**
+     * Compute the distance of two nodes.
+     *
+     * @param i First node
+     * @param j Second node
+     * @return Distance
+     */
+    double distance(int i, int j) {
+      ++distances;
+      return dq.distance(a.seek(i), b.seek(j));
+    }
+
+    /**
+     * Copy the neighbors of a node into the buffer.
+     *
+     * @param node Node
+     * @param layer Layer
+     * @return Number of neighbors
+     */
+    int neighbors(int node, int layer) {
+      final int[] list = links[node][layer];
+      synchronized(list) {
+        final int cnt = list[0];
+        System.arraycopy(list, 1, buf, 0, cnt);
+        return cnt;
+      }
+    }
+
+    /**
+     * Greedily descend to the closest node, starting at the entry point.
+     *
+     * @param obj Query object
+     * @param from Layer to start in
+     * @param to Layer to stop at (exclusive)
+     * @param self Node to ignore, or -1
+     */
+    void descend(O obj, int from, int to, int self) {
+      for(int layer = from; layer > to; layer--) {
+        DoubleIntegerMaxHeap res = search(obj, 1, layer, self, Double.NEGATIVE_INFINITY, null);
+        ep = res.peekValue();
+        epd = res.peekKey();
+      }
+    }
+
+    /**
+     * Beam search in a single layer, starting at the entry point.
+     *
+     * @param obj Query object
+     * @param ef Number of results to keep
+     * @param layer Layer
+     * @param self Node to ignore, or -1
+     * @param range Query radius; all neighbors within this radius are expanded
+     * @param result Output for objects within the query radius, may be null
+     * @return Heap of the {@code ef} closest nodes found
+     */
+    DoubleIntegerMaxHeap search(O obj, int ef, int layer, int self, double range, ModifiableDoubleDBIDList result) {
+      visited.clear();
+      candidates.clear();
+      if(self >= 0) {
+        visited.add(self);
+      }
+      visited.add(ep);
+      DoubleIntegerMaxHeap res = new DoubleIntegerMaxHeap(ef + 1);
+      candidates.add(epd, ep);
+      res.add(epd, ep);
+      if(result != null && epd <= range) {
+        result.add(epd, a.seek(ep));
+      }
+      while(!candidates.isEmpty()) {
+        final double cd = candidates.peekKey();
+        final int c = candidates.peekValue();
+        candidates.poll();
+        if(cd > res.peekKey() && cd > range) {
+          break;
+        }
+        for(int j = 0, cnt = neighbors(c, layer); j < cnt; j++) {
+          final int e = buf[j];
+          if(!visited.add(e)) {
+            continue;
+          }
+          final double d = distance(obj, e);
+          if(result != null && d <= range) {
+            result.add(d, a.seek(e));
+          }
+          if(res.size() < ef || d < res.peekKey()) {
+            candidates.add(d, e);
+            res.add(d, e);
+            if(res.size() > ef) {
+              res.poll();
+            }
+          }
+          else if(d <= range) {
+            candidates.add(d, e);
+          }
+        }
+      }
+      return res;
+    }
+
+    /**
+     * Find the entry point in the bottom layer for a query.
+     *
+     * @param obj Query object
+     * @return {@code false} if the graph is empty
+     */
+    boolean start(O obj) {
+      if(entry < 0) {
+        return false;
+      }
+      ep = entry;
+      epd = distance(obj, ep);
+      descend(obj, top, 0, -1);
+      return true;
+    }
+
+    /**
+     * Add the distance computations to the index statistics.
+     */
+    void done() {
+      distComputations.add(distances);
+      distances = 0;
+    }
+  }
+
+  /**
+   * Fork-join task to insert a range of nodes.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class InsertTask extends RecursiveAction {
+    /**
+     * Serialization version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Range of nodes to insert.
+     */
+    private final int start, end;
+
+    /**
+     * Constructor.
+     *
+     * @param start First node
+     * @param end End node (exclusive)
+     */
+    InsertTask(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - start <= SEQUENTIAL_THRESHOLD) {
+        for(int i = start; i < end; i++) {
+          insert(i);
+        }
+        return;
+      }
+      final int mid = (start + end) >>> 1;
+      invokeAll(new InsertTask(start, mid), new InsertTask(mid, end));
+    }
+  }
+
+  /**
+   * Check if the exact query hint was given.
+   *
+   * @param hints Query hints
+   * @return {@code true} if exact results were requested
+   */
+  private static boolean isExact(Object[] hints) {
+    for(Object hint : hints) {
+      if(DatabaseQuery.HINT_EXACT.equals(hint)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation || isExact(hints)) {
+      return null;
+    }
+    DistanceFunction<? super O> distanceFunction = (DistanceFunction<? super O>) distanceQuery.getDistanceFunction();
+    if(!this.distanceFunction.equals(distanceFunction)) {
+      LOG.debug("Distance function not supported by index - or 'equals' not implemented right!");
+      return null;
+    }
+    return new HNSWKNNQuery(distanceFunction.instantiate(relation));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    // Query on the relation we index
+    if(distanceQuery.getRelation() != relation || isExact(hints)) {
+      return null;
+    }
+    DistanceFunction<? super O> distanceFunction = (DistanceFunction<? super O>) distanceQuery.getDistanceFunction();
+    if(!this.distanceFunction.equals(distanceFunction)) {
+      LOG.debug("Distance function not supported by index - or 'equals' not implemented right!");
+      return null;
+    }
+    return new HNSWRangeQuery(distanceFunction.instantiate(relation));
+  }
+
+  @Override
+  public void logStatistics() {
+    LOG.statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations.sum()));
+  }
+
+  @Override
+  public String getLongName() {
+    return "Hierarchical Navigable Small World Graph";
+  }
+
+  @Override
+  public String getShortName() {
+    return "hnsw";
+  }
+
+  /**
+   * kNN query class.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWKNNQuery extends AbstractDistanceKNNQuery<O> {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public HNSWKNNQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      Search s = new Search(distanceQuery);
+      if(s.start(obj)) {
+        DoubleIntegerMaxHeap res = s.search(obj, Math.max(efSearch, k), 0, -1, Double.NEGATIVE_INFINITY, null);
+        for(DoubleIntegerHeap.UnsortedIter it = res.unsortedIter(); it.valid(); it.advance()) {
+          heap.insert(it.getKey(), s.a.seek(it.getValue()));
+        }
+      }
+      s.done();
+      return heap.toKNNList();
+    }
+  }
+
+  /**
+   * Range query class.
+   *
+   * @author Erich Schubert
+   */
+  public class HNSWRangeQuery extends AbstractDistanceRangeQuery<O> {
+    /**
+     * Constructor.
+     *
+     * @param distanceQuery Distance query
+     */
+    public HNSWRangeQuery(DistanceQuery<O> distanceQuery) {
+      super(distanceQuery);
+    }
+
+    @Override
+    public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList result) {
+      Search s = new Search(distanceQuery);
+      if(s.start(obj)) {
+        s.search(obj, efSearch, 0, -1, range, result);
+      }
+      s.done();
+    }
+  }
+
+  /**
+   * Index factory for HNSW graphs.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.has HNSW
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O> {
+    /**
+     * Distance function.
+     */
+    protected DistanceFunction<? super O> distanceFunction;
+
+    /**
+     * Number of neighbors per node in the upper layers.
+     */
+    protected int m;
+
+    /**
+     * Candidate list size during construction.
+     */
+    protected int efConstruction;
+
+    /**
+     * Candidate list size during search.
+     */
+    protected int efSearch;
+
+    /**
+     * Random generator for the level assignment.
+     */
+    protected RandomFactory random;
+
+    /**
+     * Build the graph in parallel.
+     */
+    protected boolean parallel;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param m Number of neighbors per node (twice in the bottom layer)
+     * @param efConstruction Candidate list size during construction
+     * @param efSearch Candidate list size during search
+     * @param random Random generator for the level assignment
+     * @param parallel Build the graph in parallel
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, int m, int efConstruction, int efSearch, RandomFactory random, boolean parallel) {
+      super();
+      this.distanceFunction = distanceFunction;
+      this.m = m;
+      this.efConstruction = efConstruction;
+      this.efSearch = efSearch;
+      this.random = random;
+      this.parallel = parallel;
+    }
+
+    @Override
+    public HNSW<O> instantiate(Relation<O> relation) {
+      return new HNSW<>(relation, distanceFunction, m, efConstruction, efSearch, random, parallel);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distanceFunction.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterization class.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     */
+    public static class Parameterizer<O> extends AbstractParameterizer {
+      /**
+       * Distance function to index.
+       * <p>
+       * Key: {@code -hnsw.distancefunction}
+       * </p>
+       */
+      public static final OptionID DISTANCE_FUNCTION_ID = new OptionID("hnsw.distancefunction", "Distance function to determine the distance between objects.");
+
+      /**
+       * Number of neighbors per node.
+       * <p>
+       * Key: {@code -hnsw.m}<br />
+       * Default: 16
+       * </p>
+       */
+      public static final OptionID M_ID = new OptionID("hnsw.m", "Number of neighbors per node in the upper layers, twice as many in the bottom layer.");
+
+      /**
+       * Candidate list size during construction.
+       * <p>
+       * Key: {@code -hnsw.efconstruction}<br />
+       * Default: 100
+       * </p>
+       */
+      public static final OptionID EF_CONSTRUCTION_ID = new OptionID("hnsw.efconstruction", "Number of candidates to search when inserting an object.");
+
+      /**
+       * Candidate list size during search.
+       * <p>
+       * Key: {@code -hnsw.efsearch}<br />
+       * Default: 50
+       * </p>
+       */
+      public static final OptionID EF_SEARCH_ID = new OptionID("hnsw.efsearch", "Number of candidates to search for queries, at least k for kNN queries.");
+
+      /**
+       * Random generator for the level assignment.
+       * <p>
+       * Key: {@code -hnsw.seed}
+       * </p>
+       */
+      public static final OptionID SEED_ID = new OptionID("hnsw.seed", "Random generator seed for the level assignment.");
+
+      /**
+       * Flag to build the graph in parallel.
+       * <p>
+       * Key: {@code -hnsw.parallel}
+       * </p>
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("hnsw.parallel", "Build the graph in parallel, using the fork-join pool. The graph then depends on the thread scheduling.");
+
+      /**
+       * Distance function.
+       */
+      protected DistanceFunction<? super O> distanceFunction;
+
+      /**
+       * Number of neighbors per node.
+       */
+      protected int m = 16;
+
+      /**
+       * Candidate list size during construction.
+       */
+      protected int efConstruction = 100;
+
+      /**
+       * Candidate list size during search.
+       */
+      protected int efSearch = 50;
+
+      /**
+       * Random generator.
+       */
+      protected RandomFactory random;
+
+      /**
+       * Build in parallel.
+       */
+      protected boolean parallel = false;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<DistanceFunction<? super O>> distanceFunctionP = new ObjectParameter<>(DISTANCE_FUNCTION_ID, DistanceFunction.class);
+        if(config.grab(distanceFunctionP)) {
+          distanceFunction = distanceFunctionP.instantiateClass(config);
+        }
+        IntParameter mP = new IntParameter(M_ID, 16) //
+            .addConstraint(CommonConstraints.GREATER_THAN_ONE_INT);
+        if(config.grab(mP)) {
+          m = mP.intValue();
+        }
+        IntParameter efConstructionP = new IntParameter(EF_CONSTRUCTION_ID, 100) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(efConstructionP)) {
+          efConstruction = efConstructionP.intValue();
+        }
+        IntParameter efSearchP = new IntParameter(EF_SEARCH_ID, 50) //
+            .addConstraint(CommonConstraints.GREATER_EQUAL_ONE_INT);
+        if(config.grab(efSearchP)) {
+          efSearch = efSearchP.intValue();
+        }
+        RandomParameter randomP = new RandomParameter(SEED_ID);
+        if(config.grab(randomP)) {
+          random = randomP.getValue();
+        }
+        Flag parallelF = new Flag(PARALLEL_ID);
+        if(config.grab(parallelF)) {
+          parallel = parallelF.isTrue();
+        }
+      }
+
+      @Override
+      protected Factory<O> makeInstance() {
+        return new Factory<>(distanceFunction, m, efConstruction, efSearch, random, parallel);
+      }
+    }
+  }
+}
@@ -20,16 +20,25 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.datastore.memory.MapIntegerDBIDStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBID;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndex;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.LoggingUtil;
@@ -39,19 +48,29 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.DoubleParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
 import net.jafama.FastMath;
 
 /**
  * Abstract base class for cover tree variants.
+ * <p>
+ * Deletions are lazy: removed objects are only marked, and remain in the tree
+ * (as routing objects, their values are retained) until a quarter of the data
+ * has been removed. Then only the affected subtrees are rebuilt.
+ * <p>
+ * The bulk load can be run in the fork-join pool of
+ * {@link de.lmu.ifi.dbs.elki.parallel.ParallelCore}: independent subtrees are
+ * built concurrently, and the distances to large candidate sets are computed
+ * concurrently. The resulting tree is identical to the sequential build.
  * 
  * @author Erich Schubert
  * @since 0.7.0
  *
  * @param <O> Object type
  */
-public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
+public abstract class AbstractCoverTree<O> extends AbstractIndex<O> implements DynamicIndex {
   /**
    * Constant expansion rate. 2 would be the intuitive value, but the original
    * version used 1.3, so we copy this. This means that in every level, the
@@ -80,15 +99,37 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
   private DistanceQuery<O> distanceQuery;
 
   /**
-   * Distance computations performed.
+   * Distance computations performed. A {@link LongAdder}, because the
+   * parallel bulk load computes distances from multiple threads.
    */
-  protected long distComputations = 0L;
+  protected final LongAdder distComputations = new LongAdder();
 
   /**
    * Stop refining the tree at this size, but build a leaf.
    */
   protected int truncate = 10;
 
+  /**
+   * Objects removed, but not yet purged from the tree. As they may still be
+   * used for routing, we need to keep their values.
+   */
+  private MapIntegerDBIDStore<O> removed = new MapIntegerDBIDStore<>();
+
+  /**
+   * Number of removed objects not yet purged.
+   */
+  protected int numRemoved = 0;
+
+  /**
+   * Build the tree in parallel.
+   */
+  protected boolean parallel = false;
+
+  /**
+   * Candidate sets and subtrees smaller than this are processed sequentially.
+   */
+  protected static final int SEQUENTIAL_THRESHOLD = 1 << 12;
+
   /**
    * Constructor.
    *
@@ -98,7 +139,21 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
    * @param truncate Truncate branches with less than this number of instances.
    */
   public AbstractCoverTree(Relation<O> relation, DistanceFunction<? super O> distanceFunction, double expansion, int truncate) {
+    this(relation, distanceFunction, expansion, truncate, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param distanceFunction Distance function
+   * @param expansion Expansion rate
+   * @param truncate Truncate branches with less than this number of instances.
+   * @param parallel Build the tree in parallel
+   */
+  public AbstractCoverTree(Relation<O> relation, DistanceFunction<? super O> distanceFunction, double expansion, int truncate, boolean parallel) {
     super(relation);
+    this.parallel = parallel;
     this.distanceFunction = distanceFunction;
     this.distanceQuery = distanceFunction.instantiate(relation);
     this.truncate = truncate;
@@ -150,7 +205,7 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
    * @return Distance
    */
   protected double distance(DBIDRef a, DBIDRef b) {
-    ++distComputations;
+    distComputations.increment();
     return distanceQuery.distance(a, b);
   }
 
@@ -162,10 +217,106 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
    * @return Distance
    */
   protected double distance(O a, DBIDRef b) {
-    ++distComputations;
+    distComputations.increment();
+    if(numRemoved > 0) {
+      final O ob = removed.get(b);
+      if(ob != null) {
+        return distanceQuery.distance(a, ob);
+      }
+    }
     return distanceQuery.distance(a, b);
   }
 
+  /**
+   * Child cover radius used when inserting into a node, consistent with the
+   * scales chosen by the bulk load.
+   *
+   * @param maxDist Maximum distance of the node
+   * @return Cover radius of its children
+   */
+  protected double childCover(double maxDist) {
+    return maxDist > 0 ? scaleToDist(distToScale(maxDist) - 2) : 0.;
+  }
+
+  /**
+   * Test whether an object has been removed, but not yet been purged.
+   *
+   * @param id Object
+   * @return {@code true} when removed
+   */
+  protected boolean isRemoved(DBIDRef id) {
+    return numRemoved > 0 && removed.get(id) != null;
+  }
+
+  /**
+   * Mark an object as removed.
+   *
+   * @param id Object
+   * @return {@code false} if the object was not indexed
+   */
+  private boolean markRemoved(DBIDRef id) {
+    if(isRemoved(id)) {
+      return false;
+    }
+    final O obj = relation.get(id);
+    if(obj == null) {
+      return false;
+    }
+    removed.put(id, obj);
+    ++numRemoved;
+    return true;
+  }
+
+  /**
+   * Purge the removed objects from the tree, if sufficiently many accumulated.
+   */
+  private void purgeIfNeeded() {
+    if(numRemoved > (relation.size() >> 2)) {
+      purgeAll();
+    }
+  }
+
+  /**
+   * Remove all objects marked as removed from the tree, rebuilding the
+   * subtrees whose routing object was removed.
+   */
+  protected abstract void purge();
+
+  /**
+   * Purge all removed objects from the tree.
+   */
+  protected void purgeAll() {
+    if(numRemoved > 0) {
+      purge();
+      removed.clear();
+      numRemoved = 0;
+    }
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    if(!markRemoved(id)) {
+      return false;
+    }
+    purgeIfNeeded();
+    return true;
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      markRemoved(iter);
+    }
+    purgeIfNeeded();
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      insert(iter);
+    }
+  }
+
   /**
    * Retain all elements within the current cover.
    * 
@@ -195,6 +346,10 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
    */
   protected void collectByCover(DBIDRef cur, ModifiableDoubleDBIDList candidates, double fmax, ModifiableDoubleDBIDList collect) {
     assert(collect.size() == 0) : "Not empty";
+    if(parallel && candidates.size() > SEQUENTIAL_THRESHOLD && ForkJoinTask.inForkJoinPool()) {
+      collectByCoverParallel(cur, candidates, fmax, collect);
+      return;
+    }
     DoubleDBIDListIter it = candidates.iter().advance(); // Except first = cur!
     while(it.valid()) {
       assert(!DBIDUtil.equal(cur, it));
@@ -209,9 +364,99 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
     }
   }
 
+  /**
+   * Collect all elements with respect to a new routing object, computing the
+   * distances concurrently. The result is the same as with the sequential
+   * version, including the order of the remaining candidates.
+   * 
+   * @param cur Routing object
+   * @param candidates Candidate list
+   * @param fmax Maximum distance
+   * @param collect Output list
+   */
+  private void collectByCoverParallel(DBIDRef cur, ModifiableDoubleDBIDList candidates, double fmax, ModifiableDoubleDBIDList collect) {
+    final double[] dists = new double[candidates.size()];
+    new DistanceTask(DBIDUtil.deref(cur), candidates, dists, 1, dists.length).invoke();
+    DoubleDBIDListIter it = candidates.iter().advance(); // Except first = cur!
+    while(it.valid()) {
+      final int off = it.getOffset();
+      if(dists[off] <= fmax) { // Collect
+        collect.add(dists[off], it);
+        candidates.removeSwap(off);
+        dists[off] = dists[candidates.size()]; // Mirror the swap.
+      }
+      else {
+        it.advance(); // Keep in candidates, outside cover radius.
+      }
+    }
+  }
+
+  /**
+   * Task to compute the distances from one object to a range of a list.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  protected class DistanceTask extends RecursiveAction {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Reference object.
+     */
+    private DBID ref;
+
+    /**
+     * Objects to compute the distances to.
+     */
+    private DoubleDBIDList list;
+
+    /**
+     * Output distances, by offset in the list.
+     */
+    private double[] dists;
+
+    /**
+     * Range to process.
+     */
+    private int start, end;
+
+    /**
+     * Constructor.
+     *
+     * @param ref Reference object
+     * @param list Objects to compute the distances to
+     * @param dists Output distances, by offset in the list
+     * @param start Range start
+     * @param end Range end (exclusive)
+     */
+    public DistanceTask(DBID ref, DoubleDBIDList list, double[] dists, int start, int end) {
+      this.ref = ref;
+      this.list = list;
+      this.dists = dists;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if(end - start < SEQUENTIAL_THRESHOLD) {
+        for(DoubleDBIDListIter it = list.iter().seek(start); it.getOffset() < end; it.advance()) {
+          dists[it.getOffset()] = distance(ref, it);
+        }
+        return;
+      }
+      final int mid = (start + end) >>> 1;
+      invokeAll(new DistanceTask(ref, list, dists, start, mid), new DistanceTask(ref, list, dists, mid, end));
+    }
+  }
+
   @Override
   public void logStatistics() {
-    getLogger().statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations));
+    getLogger().statistics(new LongStatistic(this.getClass().getName() + ".distance-computations", distComputations.sum()));
   }
 
   /**
@@ -256,6 +501,11 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
      */
     protected int truncate;
 
+    /**
+     * Build the tree in parallel.
+     */
+    protected boolean parallel;
+
     /**
      * Constructor.
      *
@@ -265,10 +515,24 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
      *        instances.
      */
     public Factory(DistanceFunction<? super O> distanceFunction, double expansion, int truncate) {
+      this(distanceFunction, expansion, truncate, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param expansion Expansion rate
+     * @param truncate Truncate branches with less than this number of
+     *        instances.
+     * @param parallel Build the tree in parallel
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, double expansion, int truncate, boolean parallel) {
       super();
       this.distanceFunction = distanceFunction;
       this.expansion = expansion;
       this.truncate = truncate;
+      this.parallel = parallel;
     }
 
     @Override
@@ -311,6 +575,14 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
        */
       public static final OptionID EXPANSION_ID = new OptionID("covertree.expansionrate", "Expansion rate of the tree (Default: 1.3).");
 
+      /**
+       * Flag to build the tree in parallel.
+       * <p>
+       * Key: {@code -covertree.parallel}
+       * </p>
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("covertree.parallel", "Build the tree in parallel, using the fork-join pool. The tree is the same as with the sequential build.");
+
       /**
        * Holds the instance of the trees distance function.
        */
@@ -326,6 +598,11 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
        */
       protected double expansion = 1.3;
 
+      /**
+       * Build in parallel.
+       */
+      protected boolean parallel = false;
+
       @Override
       protected void makeOptions(Parameterization config) {
         super.makeOptions(config);
@@ -346,6 +623,10 @@ public abstract class AbstractCoverTree<O> extends AbstractIndex<O> {
         if(config.grab(expansionP)) {
           expansion = expansionP.doubleValue();
         }
+        Flag parallelF = new Flag(PARALLEL_ID);
+        if(config.grab(parallelF)) {
+          parallel = parallelF.isTrue();
+        }
       }
     }
   }
@@ -20,15 +20,24 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListMIter;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
@@ -41,9 +50,11 @@ import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 
@@ -63,7 +74,8 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
  * parent nodes. It thus needs more than twice the memory of
  * {@link SimplifiedCoverTree}, but computes fewer distances.
  * <p>
- * TODO: allow insertions and removals, as in the original publication.
+ * Insertions descend into the closest covering child, and only overfull leaves
+ * are rebuilt; deletions are lazy, see {@link AbstractCoverTree}.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -76,7 +88,7 @@ import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
     booktitle = "In Proc. 23rd Int. Conf. Machine Learning (ICML 2006)", //
     url = "https://doi.org/10.1145/1143844.1143857", //
     bibkey = "DBLP:conf/icml/BeygelzimerKL06")
-public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>, KNNIndex<O> {
+public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>, KNNIndex<O>, SnapshotIndex {
   /**
    * Class logger.
    */
@@ -87,6 +99,11 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
    */
   private Node root = null;
 
+  /**
+   * Skip the next call of {@link #initialize()}.
+   */
+  private boolean skipInitialize = false;
+
   /**
    * Constructor.
    *
@@ -99,6 +116,19 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     super(relation, distanceFunction, expansion, truncate);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param relation data relation
+   * @param distanceFunction distance function
+   * @param expansion Expansion rate
+   * @param truncate Truncate branches with less than this number of instances.
+   * @param parallel Build the tree in parallel
+   */
+  public CoverTree(Relation<O> relation, DistanceFunction<? super O> distanceFunction, double expansion, int truncate, boolean parallel) {
+    super(relation, distanceFunction, expansion, truncate, parallel);
+  }
+
   /**
    * Node object.
    *
@@ -147,6 +177,21 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
       this.parentDist = parentDist;
     }
 
+    /**
+     * Constructor for restoring a node.
+     *
+     * @param maxDist Maximum distance to any descendant.
+     * @param parentDist Distance from parent.
+     * @param singletons Singletons, including the routing object.
+     * @param children Child nodes, may be {@code null}
+     */
+    private Node(double maxDist, double parentDist, ModifiableDoubleDBIDList singletons, ArrayList<Node> children) {
+      this.singletons = singletons;
+      this.children = children;
+      this.maxDist = maxDist;
+      this.parentDist = parentDist;
+    }
+
     /**
      * Constructor for leaf node.
      *
@@ -179,8 +224,12 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
 
   @Override
   public void initialize() {
+    if(skipInitialize) {
+      skipInitialize = false; // Built or restored by the snapshot factory.
+      return;
+    }
     bulkLoad(relation.getDBIDs());
-    if(LOG.isVerbose()) {
+    if(root != null && LOG.isVerbose()) {
       int[] counts = new int[5];
       checkCoverTree(root, counts, 0);
       LOG.statistics(new LongStatistic(this.getClass().getName() + ".nodes", counts[0]));
@@ -191,6 +240,108 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     }
   }
 
+  @Override
+  public void skipNextInitialize() {
+    skipInitialize = true;
+  }
+
+  @Override
+  public long getSnapshotSize() {
+    purgeAll();
+    return 4 + (root != null ? snapshotSize(root) : 0);
+  }
+
+  /**
+   * Compute the snapshot size of a subtree.
+   *
+   * @param node Subtree root
+   * @return Snapshot size
+   */
+  private long snapshotSize(Node node) {
+    long size = 8 + 8 + 4 + 4 + node.singletons.size() * (long) (8 + 4);
+    if(node.children != null) {
+      for(Node chi : node.children) {
+        size += snapshotSize(chi);
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public void writeSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    purgeAll();
+    buffer.putInt(root != null ? 1 : 0);
+    if(root != null) {
+      writeNode(buffer, ids, root);
+    }
+  }
+
+  /**
+   * Write a subtree, in pre-order.
+   *
+   * @param buffer Output buffer
+   * @param ids DBID range
+   * @param node Subtree root
+   */
+  private void writeNode(ByteBuffer buffer, DBIDRange ids, Node node) {
+    buffer.putDouble(node.maxDist).putDouble(node.parentDist);
+    buffer.putInt(node.singletons.size());
+    for(DoubleDBIDListIter it = node.singletons.iter(); it.valid(); it.advance()) {
+      buffer.putDouble(it.doubleValue()).putInt(ids.getOffset(it));
+    }
+    buffer.putInt(node.children != null ? node.children.size() : -1);
+    if(node.children != null) {
+      for(Node chi : node.children) {
+        writeNode(buffer, ids, chi);
+      }
+    }
+  }
+
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    if(buffer.getInt() == 0) {
+      return relation.size() == 0;
+    }
+    Node r = readNode(buffer, ids, DBIDUtil.newVar());
+    if(r == null) {
+      return false;
+    }
+    root = r;
+    return true;
+  }
+
+  /**
+   * Read a subtree.
+   *
+   * @param buffer Input buffer
+   * @param ids DBID range
+   * @param var Variable for assigning DBIDs
+   * @return Subtree root, or {@code null} on invalid data.
+   */
+  private Node readNode(ByteBuffer buffer, DBIDRange ids, DBIDVar var) {
+    final double maxDist = buffer.getDouble(), parentDist = buffer.getDouble();
+    final int size = buffer.getInt();
+    ModifiableDoubleDBIDList singletons = DBIDUtil.newDistanceDBIDList(size);
+    for(int i = 0; i < size; i++) {
+      final double dist = buffer.getDouble();
+      final int off = buffer.getInt();
+      if(off < 0 || off >= ids.size()) {
+        return null;
+      }
+      singletons.add(dist, ids.assignVar(off, var));
+    }
+    final int numchildren = buffer.getInt();
+    ArrayList<Node> children = numchildren >= 0 ? new ArrayList<Node>(numchildren) : null;
+    for(int i = 0; i < numchildren; i++) {
+      Node chi = readNode(buffer, ids, var);
+      if(chi == null) {
+        return null;
+      }
+      children.add(chi);
+    }
+    return new Node(maxDist, parentDist, singletons, children);
+  }
+
   /**
    * Bulk-load the index.
    *
@@ -203,6 +354,21 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     assert (root == null) : "Tree already initialized.";
     DBIDIter it = ids.iter();
     DBID first = DBIDUtil.deref(it);
+    if(parallel && ids.size() > SEQUENTIAL_THRESHOLD) {
+      ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList(ids.size() - 1);
+      for(it.advance(); it.valid(); it.advance()) {
+        candidates.add(0., it);
+      }
+      // Compute distances to all neighbors concurrently:
+      ForkJoinPool pool = ParallelCore.getCore().getForkJoinPool();
+      final double[] dists = new double[candidates.size()];
+      pool.invoke(new DistanceTask(first, candidates, dists, 0, dists.length));
+      for(DoubleDBIDListMIter it2 = candidates.iter(); it2.valid(); it2.advance()) {
+        it2.setDouble(dists[it2.getOffset()]);
+      }
+      root = pool.invoke(new BulkConstructTask(first, Integer.MAX_VALUE, 0., candidates));
+      return;
+    }
     // Compute distances to all neighbors:
     ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList(ids.size() - 1);
     for(it.advance(); it.valid(); it.advance()) {
@@ -242,11 +408,13 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     }
     // We will have at least one other child, so build the parent:
     Node node = new Node(cur, max, parentDist);
+    // Subtrees to build concurrently, when running in the fork-join pool:
+    List<BulkConstructTask> tasks = parallel && ForkJoinTask.inForkJoinPool() ? new ArrayList<BulkConstructTask>() : null;
     // Routing element now is a singleton:
     final boolean curSingleton = elems.size() == 0;
     if(!curSingleton) {
       // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, 0, elems));
+      elems = addChild(node, tasks, cur, nextScale, 0, elems);
     }
     final double fmax = scaleToDist(nextScale);
     // Build additional cover nodes:
@@ -261,11 +429,17 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
       }
       else {
         // Build a full child node:
-        node.children.add(bulkConstruct(it, nextScale, it.doubleValue(), elems));
+        elems = addChild(node, tasks, it, nextScale, it.doubleValue(), elems);
       }
       candidates.removeSwap(0);
     }
     assert (candidates.size() == 0);
+    if(tasks != null && !tasks.isEmpty()) {
+      ForkJoinTask.invokeAll(tasks);
+      for(BulkConstructTask task : tasks) {
+        node.children.set(task.index, task.join());
+      }
+    }
     // Routing object is not yet handled:
     if(curSingleton) {
       if(node.isLeaf()) {
@@ -279,6 +453,261 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     return node;
   }
 
+  /**
+   * Add a child node, either built immediately, or as a concurrent task.
+   *
+   * @param node Parent node
+   * @param tasks Task list, {@code null} when building sequentially
+   * @param cur Routing object of the child
+   * @param maxScale Maximum scale
+   * @param parentDist Distance to the parent
+   * @param elems Candidates
+   * @return List to use for the next candidates
+   */
+  private ModifiableDoubleDBIDList addChild(Node node, List<BulkConstructTask> tasks, DBIDRef cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems) {
+    if(tasks == null || elems.size() < SEQUENTIAL_THRESHOLD) {
+      node.children.add(bulkConstruct(cur, maxScale, parentDist, elems));
+      return elems; // Recycle.
+    }
+    // Placeholder, replaced once the task has completed:
+    tasks.add(new BulkConstructTask(node.children.size(), DBIDUtil.deref(cur), maxScale, parentDist, elems));
+    node.children.add(null);
+    return DBIDUtil.newDistanceDBIDList();
+  }
+
+  /**
+   * Task to bulk-load a subtree.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class BulkConstructTask extends RecursiveTask<Node> {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Position in the parents child list.
+     */
+    int index;
+
+    /**
+     * Routing object.
+     */
+    private DBID cur;
+
+    /**
+     * Maximum scale.
+     */
+    private int maxScale;
+
+    /**
+     * Distance to the parent.
+     */
+    private double parentDist;
+
+    /**
+     * Candidates.
+     */
+    private ModifiableDoubleDBIDList elems;
+
+    /**
+     * Constructor.
+     *
+     * @param index Position in the parents child list
+     * @param cur Routing object
+     * @param maxScale Maximum scale
+     * @param parentDist Distance to the parent
+     * @param elems Candidates
+     */
+    public BulkConstructTask(int index, DBID cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems) {
+      this.index = index;
+      this.cur = cur;
+      this.maxScale = maxScale;
+      this.parentDist = parentDist;
+      this.elems = elems;
+    }
+
+    /**
+     * Constructor for the root.
+     *
+     * @param cur Routing object
+     * @param maxScale Maximum scale
+     * @param parentDist Distance to the parent
+     * @param elems Candidates
+     */
+    public BulkConstructTask(DBID cur, int maxScale, double parentDist, ModifiableDoubleDBIDList elems) {
+      this(-1, cur, maxScale, parentDist, elems);
+    }
+
+    @Override
+    protected Node compute() {
+      return bulkConstruct(cur, maxScale, parentDist, elems);
+    }
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    if(isRemoved(id)) {
+      purgeAll(); // Reused DBID, remove the stale entry first.
+    }
+    if(root == null) {
+      root = new Node(id, 0., 0.);
+      root.children = null;
+      return;
+    }
+    final O obj = relation.get(id);
+    root = insert(root, obj, id, distance(obj, root.singletons.iter()));
+  }
+
+  /**
+   * Insert an object into a subtree.
+   *
+   * @param cur Subtree root
+   * @param obj Object
+   * @param id Object id
+   * @param d Distance to the routing object of the subtree
+   * @return New subtree root
+   */
+  private Node insert(Node cur, O obj, DBIDRef id, double d) {
+    cur.maxDist = d > cur.maxDist ? d : cur.maxDist;
+    if(cur.isLeaf()) {
+      cur.singletons.add(d, id);
+      final int size = cur.singletons.size();
+      // Split overfull leaves, but only at doubling sizes: points may coincide.
+      if(size > truncate << 1 && (size & (size - 1)) == 0 && !isRemoved(cur.singletons.iter())) {
+        return rebuild(cur, null);
+      }
+      return cur;
+    }
+    // Find the closest child covering the new object:
+    final DoubleDBIDListIter it = cur.singletons.iter();
+    final double cover = childCover(cur.maxDist);
+    int best = -1;
+    double bestd = Double.POSITIVE_INFINITY;
+    for(int i = 0, l = cur.children.size(); i < l; i++) {
+      final Node c = cur.children.get(i);
+      final double radius = c.maxDist > cover ? c.maxDist : cover;
+      final double lower = Math.abs(d - c.parentDist);
+      if(lower > radius || lower >= bestd) {
+        continue; // Pruned by triangle inequality.
+      }
+      final DoubleDBIDListIter f = c.singletons.iter();
+      final double dist = DBIDUtil.equal(f, it) ? d : distance(obj, f);
+      if(dist <= radius && dist < bestd) {
+        best = i;
+        bestd = dist;
+      }
+    }
+    if(best >= 0) {
+      cur.children.set(best, insert(cur.children.get(best), obj, id, bestd));
+      return cur;
+    }
+    // Not covered by any child: new leaf.
+    Node leaf = new Node(id, 0., d);
+    leaf.children = null;
+    cur.children.add(leaf);
+    return cur;
+  }
+
+  @Override
+  protected void purge() {
+    if(root != null) {
+      root = purge(root, null);
+    }
+  }
+
+  /**
+   * Purge removed objects from a subtree.
+   *
+   * @param cur Subtree root
+   * @param parent Routing object of the parent, may be {@code null}
+   * @return New subtree root, may be {@code null} if empty
+   */
+  private Node purge(Node cur, DBIDRef parent) {
+    final DoubleDBIDListIter it = cur.singletons.iter();
+    if(isRemoved(it)) {
+      return rebuild(cur, parent);
+    }
+    for(it.advance(); it.valid();) {
+      if(isRemoved(it)) {
+        cur.singletons.removeSwap(it.getOffset());
+      }
+      else {
+        it.advance();
+      }
+    }
+    if(cur.children == null) {
+      return cur;
+    }
+    final DBIDRef r = it.seek(0);
+    for(int i = 0; i < cur.children.size();) {
+      final Node c = purge(cur.children.get(i), r);
+      if(c != null) {
+        cur.children.set(i++, c);
+        continue;
+      }
+      // Remove child, by moving the last child:
+      final Node last = cur.children.remove(cur.children.size() - 1);
+      if(i < cur.children.size()) {
+        cur.children.set(i, last);
+      }
+    }
+    return cur.children.isEmpty() ? rebuild(cur, parent) : cur;
+  }
+
+  /**
+   * Rebuild a subtree from its objects that have not been removed.
+   *
+   * @param cur Subtree root
+   * @param parent Routing object of the parent, may be {@code null}
+   * @return New subtree root, may be {@code null} if empty
+   */
+  private Node rebuild(Node cur, DBIDRef parent) {
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray();
+    collect(cur, ids);
+    if(ids.isEmpty()) {
+      return null;
+    }
+    // Keep the routing object, unless it was removed:
+    final DBIDRef r = cur.singletons.iter();
+    final DBID first = DBIDUtil.deref(isRemoved(r) ? ids.iter() : r);
+    ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(ids.size() - 1);
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      if(!DBIDUtil.equal(first, iter)) {
+        elems.add(distance(first, iter), iter);
+      }
+    }
+    final double parentDist = DBIDUtil.equal(first, r) ? cur.parentDist : //
+        parent != null ? distance(relation.get(first), parent) : 0.;
+    return bulkConstruct(first, Integer.MAX_VALUE, parentDist, elems);
+  }
+
+  /**
+   * Collect all objects of a subtree that have not been removed.
+   *
+   * @param cur Subtree root
+   * @param ids Output
+   */
+  private void collect(Node cur, ArrayModifiableDBIDs ids) {
+    final DoubleDBIDListIter it = cur.singletons.iter();
+    if(!cur.isLeaf()) {
+      it.advance(); // Routing object is also contained in a child.
+    }
+    for(; it.valid(); it.advance()) {
+      if(!isRemoved(it)) {
+        ids.add(it);
+      }
+    }
+    if(cur.children != null) {
+      for(Node chi : cur.children) {
+        collect(chi, ids);
+      }
+    }
+  }
+
   /**
    * Collect some statistics on the tree.
    *
@@ -353,6 +782,9 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
 
     @Override
     public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList ret) {
+      if(root == null) {
+        return;
+      }
       ArrayList<Node> open = new ArrayList<Node>(); // LIFO stack
       open.add(root);
       while(!open.isEmpty()) {
@@ -374,14 +806,14 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
         }
         else { // Leaf node
           // Consider routing object, too:
-          if(d <= range) {
+          if(d <= range && !isRemoved(it)) {
             ret.add(d, it); // First element is a candidate now
           }
         }
         it.advance(); // Skip routing object.
         // For remaining singletons, compute the distances:
         while(it.valid()) {
-          if(d - it.doubleValue() <= range) {
+          if(d - it.doubleValue() <= range && !isRemoved(it)) {
             final double d2 = distance(obj, it);
             if(d2 <= range) {
               ret.add(d2, it);
@@ -416,6 +848,9 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
 
       KNNHeap knnList = DBIDUtil.newHeap(k);
       double d_k = Double.POSITIVE_INFINITY;
+      if(root == null) {
+        return knnList.toKNNList();
+      }
 
       final DoubleObjectMinHeap<Node> pq = new DoubleObjectMinHeap<>();
 
@@ -451,14 +886,14 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
         }
         else { // Leaf node
           // Consider routing object, too:
-          if(d <= d_k) {
+          if(d <= d_k && !isRemoved(it)) {
             d_k = knnList.insert(d, it); // First element is a candidate now
           }
         }
         it.advance(); // Skip routing object.
         // For remaining singletons, compute the distances:
         while(it.valid()) {
-          if(d - it.doubleValue() <= d_k) {
+          if(d - it.doubleValue() <= d_k && !isRemoved(it)) {
             final double d2 = distance(obj, it);
             if(d2 <= d_k) {
               d_k = knnList.insert(d2, it);
@@ -493,9 +928,22 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
       super(distanceFunction, expansion, truncate);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param expansion Expansion rate
+     * @param truncate Truncate branches with less than this number of
+     *        instances.
+     * @param parallel Build the tree in parallel
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, double expansion, int truncate, boolean parallel) {
+      super(distanceFunction, expansion, truncate, parallel);
+    }
+
     @Override
     public CoverTree<O> instantiate(Relation<O> relation) {
-      return new CoverTree<O>(relation, distanceFunction, expansion, truncate);
+      return new CoverTree<O>(relation, distanceFunction, expansion, truncate, parallel);
     }
 
     /**
@@ -508,7 +956,7 @@ public class CoverTree<O> extends AbstractCoverTree<O> implements RangeIndex<O>,
     public static class Parameterizer<O> extends AbstractCoverTree.Factory.Parameterizer<O> {
       @Override
       protected CoverTree.Factory<O> makeInstance() {
-        return new CoverTree.Factory<>(distanceFunction, expansion, truncate);
+        return new CoverTree.Factory<>(distanceFunction, expansion, truncate, parallel);
       }
     }
   }
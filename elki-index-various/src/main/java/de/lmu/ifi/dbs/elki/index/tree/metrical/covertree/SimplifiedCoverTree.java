@@ -20,17 +20,25 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
 
 import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DBID;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDVar;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
 import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListMIter;
 import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
 import de.lmu.ifi.dbs.elki.database.ids.KNNList;
 import de.lmu.ifi.dbs.elki.database.ids.ModifiableDoubleDBIDList;
@@ -43,9 +51,11 @@ import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
 
@@ -66,7 +76,8 @@ import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
  * In Proc. 23rd International Conference on Machine Learning (ICML).
  * </p>
  *
- * TODO: allow insertions and removals, as in the original publication.
+ * Insertions descend into the closest covering child, and only overfull leaves
+ * are rebuilt; deletions are lazy, see {@link AbstractCoverTree}.
  *
  * @author Erich Schubert
  * @since 0.7.0
@@ -75,7 +86,7 @@ import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleObjectMinHeap;
  * @apiviz.has CoverTreeKNNQuery
  */
 @Priority(Priority.RECOMMENDED)
-public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>, KNNIndex<O> {
+public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements RangeIndex<O>, KNNIndex<O>, SnapshotIndex {
   /**
    * Class logger.
    */
@@ -86,6 +97,11 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
    */
   private Node root = null;
 
+  /**
+   * Skip the next call of {@link #initialize()}.
+   */
+  private boolean skipInitialize = false;
+
   /**
    * Constructor.
    *
@@ -98,6 +114,19 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
     super(relation, distanceFunction, expansion, truncate);
   }
 
+  /**
+   * Constructor.
+   *
+   * @param relation data relation
+   * @param distanceFunction distance function
+   * @param expansion Expansion rate
+   * @param truncate Truncate branches with less than this number of instances.
+   * @param parallel Build the tree in parallel
+   */
+  public SimplifiedCoverTree(Relation<O> relation, DistanceFunction<? super O> distanceFunction, double expansion, int truncate, boolean parallel) {
+    super(relation, distanceFunction, expansion, truncate, parallel);
+  }
+
   /**
    * Node object.
    *
@@ -134,6 +163,19 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
       this.maxDist = maxDist;
     }
 
+    /**
+     * Constructor for restoring a node.
+     *
+     * @param maxDist Maximum distance to any descendant.
+     * @param singletons Singletons, including the routing object.
+     * @param children Child nodes, may be {@code null}
+     */
+    private Node(double maxDist, ArrayModifiableDBIDs singletons, ArrayList<Node> children) {
+      this.singletons = singletons;
+      this.children = children;
+      this.maxDist = maxDist;
+    }
+
     /**
      * Constructor for leaf node.
      *
@@ -162,8 +204,12 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
 
   @Override
   public void initialize() {
+    if(skipInitialize) {
+      skipInitialize = false; // Built or restored by the snapshot factory.
+      return;
+    }
     bulkLoad(relation.getDBIDs());
-    if(LOG.isVerbose()) {
+    if(root != null && LOG.isVerbose()) {
       int[] counts = new int[5];
       checkCoverTree(root, counts, 0);
       LOG.statistics(new LongStatistic(this.getClass().getName() + ".nodes", counts[0]));
@@ -174,6 +220,107 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
     }
   }
 
+  @Override
+  public void skipNextInitialize() {
+    skipInitialize = true;
+  }
+
+  @Override
+  public long getSnapshotSize() {
+    purgeAll();
+    return 4 + (root != null ? snapshotSize(root) : 0);
+  }
+
+  /**
+   * Compute the snapshot size of a subtree.
+   *
+   * @param node Subtree root
+   * @return Snapshot size
+   */
+  private long snapshotSize(Node node) {
+    long size = 8 + 4 + 4 + node.singletons.size() * 4L;
+    if(node.children != null) {
+      for(Node chi : node.children) {
+        size += snapshotSize(chi);
+      }
+    }
+    return size;
+  }
+
+  @Override
+  public void writeSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    purgeAll();
+    buffer.putInt(root != null ? 1 : 0);
+    if(root != null) {
+      writeNode(buffer, ids, root);
+    }
+  }
+
+  /**
+   * Write a subtree, in pre-order.
+   *
+   * @param buffer Output buffer
+   * @param ids DBID range
+   * @param node Subtree root
+   */
+  private void writeNode(ByteBuffer buffer, DBIDRange ids, Node node) {
+    buffer.putDouble(node.maxDist);
+    buffer.putInt(node.singletons.size());
+    for(DBIDIter it = node.singletons.iter(); it.valid(); it.advance()) {
+      buffer.putInt(ids.getOffset(it));
+    }
+    buffer.putInt(node.children != null ? node.children.size() : -1);
+    if(node.children != null) {
+      for(Node chi : node.children) {
+        writeNode(buffer, ids, chi);
+      }
+    }
+  }
+
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    if(buffer.getInt() == 0) {
+      return relation.size() == 0;
+    }
+    Node r = readNode(buffer, ids, DBIDUtil.newVar());
+    if(r == null) {
+      return false;
+    }
+    root = r;
+    return true;
+  }
+
+  /**
+   * Read a subtree.
+   *
+   * @param buffer Input buffer
+   * @param ids DBID range
+   * @param var Variable for assigning DBIDs
+   * @return Subtree root, or {@code null} on invalid data.
+   */
+  private Node readNode(ByteBuffer buffer, DBIDRange ids, DBIDVar var) {
+    final double maxDist = buffer.getDouble();
+    final int size = buffer.getInt();
+    ArrayModifiableDBIDs singletons = DBIDUtil.newArray(size);
+    for(int i = 0; i < size; i++) {
+      final int off = buffer.getInt();
+      if(off < 0 || off >= ids.size()) {
+        return null;
+      }
+      singletons.add(ids.assignVar(off, var));
+    }
+    final int numchildren = buffer.getInt();
+    ArrayList<Node> children = numchildren >= 0 ? new ArrayList<Node>(numchildren) : null;
+    for(int i = 0; i < numchildren; i++) {
+      Node chi = readNode(buffer, ids, var);
+      if(chi == null) {
+        return null;
+      }
+      children.add(chi);
+    }
+    return new Node(maxDist, singletons, children);
+  }
+
   /**
    * Bulk-load the index.
    *
@@ -186,6 +333,21 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
     assert(root == null) : "Tree already initialized.";
     DBIDIter it = ids.iter();
     DBID first = DBIDUtil.deref(it);
+    if(parallel && ids.size() > SEQUENTIAL_THRESHOLD) {
+      ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList(ids.size() - 1);
+      for(it.advance(); it.valid(); it.advance()) {
+        candidates.add(0., it);
+      }
+      // Compute distances to all neighbors concurrently:
+      ForkJoinPool pool = ParallelCore.getCore().getForkJoinPool();
+      final double[] dists = new double[candidates.size()];
+      pool.invoke(new DistanceTask(first, candidates, dists, 0, dists.length));
+      for(DoubleDBIDListMIter it2 = candidates.iter(); it2.valid(); it2.advance()) {
+        it2.setDouble(dists[it2.getOffset()]);
+      }
+      root = pool.invoke(new BulkConstructTask(first, Integer.MAX_VALUE, candidates));
+      return;
+    }
     // Compute distances to all neighbors:
     ModifiableDoubleDBIDList candidates = DBIDUtil.newDistanceDBIDList(ids.size() - 1);
     for(it.advance(); it.valid(); it.advance()) {
@@ -225,11 +387,13 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
     }
     // We will have at least one other child, so build the parent:
     Node node = new Node(cur, max);
+    // Subtrees to build concurrently, when running in the fork-join pool:
+    List<BulkConstructTask> tasks = parallel && ForkJoinTask.inForkJoinPool() ? new ArrayList<BulkConstructTask>() : null;
     // Routing element now is a singleton:
     final boolean curSingleton = elems.size() == 0;
     if(!curSingleton) {
       // Add node for the routing object:
-      node.children.add(bulkConstruct(cur, nextScale, elems));
+      elems = addChild(node, tasks, cur, nextScale, elems);
     }
     final double fmax = scaleToDist(nextScale);
     // Build additional cover nodes:
@@ -244,11 +408,17 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
       }
       else {
         // Build a full child node:
-        node.children.add(bulkConstruct(it, nextScale, elems));
+        elems = addChild(node, tasks, it, nextScale, elems);
       }
       candidates.removeSwap(0);
     }
     assert(candidates.size() == 0);
+    if(tasks != null && !tasks.isEmpty()) {
+      ForkJoinTask.invokeAll(tasks);
+      for(BulkConstructTask task : tasks) {
+        node.children.set(task.index, task.join());
+      }
+    }
     // Routing object is not yet handled:
     if(curSingleton) {
       if(node.isLeaf()) {
@@ -262,6 +432,243 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
     return node;
   }
 
+  /**
+   * Add a child node, either built immediately, or as a concurrent task.
+   *
+   * @param node Parent node
+   * @param tasks Task list, {@code null} when building sequentially
+   * @param cur Routing object of the child
+   * @param maxScale Maximum scale
+   * @param elems Candidates
+   * @return List to use for the next candidates
+   */
+  private ModifiableDoubleDBIDList addChild(Node node, List<BulkConstructTask> tasks, DBIDRef cur, int maxScale, ModifiableDoubleDBIDList elems) {
+    if(tasks == null || elems.size() < SEQUENTIAL_THRESHOLD) {
+      node.children.add(bulkConstruct(cur, maxScale, elems));
+      return elems; // Recycle.
+    }
+    // Placeholder, replaced once the task has completed:
+    tasks.add(new BulkConstructTask(node.children.size(), DBIDUtil.deref(cur), maxScale, elems));
+    node.children.add(null);
+    return DBIDUtil.newDistanceDBIDList();
+  }
+
+  /**
+   * Task to bulk-load a subtree.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class BulkConstructTask extends RecursiveTask<Node> {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Position in the parents child list.
+     */
+    int index;
+
+    /**
+     * Routing object.
+     */
+    private DBID cur;
+
+    /**
+     * Maximum scale.
+     */
+    private int maxScale;
+
+    /**
+     * Candidates.
+     */
+    private ModifiableDoubleDBIDList elems;
+
+    /**
+     * Constructor.
+     *
+     * @param index Position in the parents child list
+     * @param cur Routing object
+     * @param maxScale Maximum scale
+     * @param elems Candidates
+     */
+    public BulkConstructTask(int index, DBID cur, int maxScale, ModifiableDoubleDBIDList elems) {
+      this.index = index;
+      this.cur = cur;
+      this.maxScale = maxScale;
+      this.elems = elems;
+    }
+
+    /**
+     * Constructor for the root.
+     *
+     * @param cur Routing object
+     * @param maxScale Maximum scale
+     * @param elems Candidates
+     */
+    public BulkConstructTask(DBID cur, int maxScale, ModifiableDoubleDBIDList elems) {
+      this(-1, cur, maxScale, elems);
+    }
+
+    @Override
+    protected Node compute() {
+      return bulkConstruct(cur, maxScale, elems);
+    }
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    if(isRemoved(id)) {
+      purgeAll(); // Reused DBID, remove the stale entry first.
+    }
+    if(root == null) {
+      root = new Node(id, 0.);
+      root.children = null;
+      return;
+    }
+    final O obj = relation.get(id);
+    root = insert(root, obj, id, distance(obj, root.singletons.iter()));
+  }
+
+  /**
+   * Insert an object into a subtree.
+   *
+   * @param cur Subtree root
+   * @param obj Object
+   * @param id Object id
+   * @param d Distance to the routing object of the subtree
+   * @return New subtree root
+   */
+  private Node insert(Node cur, O obj, DBIDRef id, double d) {
+    cur.maxDist = d > cur.maxDist ? d : cur.maxDist;
+    if(cur.isLeaf()) {
+      cur.singletons.add(id);
+      final int size = cur.singletons.size();
+      // Split overfull leaves, but only at doubling sizes: points may coincide.
+      if(size > truncate << 1 && (size & (size - 1)) == 0 && !isRemoved(cur.singletons.iter())) {
+        return rebuild(cur);
+      }
+      return cur;
+    }
+    // Find the closest child covering the new object:
+    final DBIDIter it = cur.singletons.iter();
+    final double cover = childCover(cur.maxDist);
+    int best = -1;
+    double bestd = Double.POSITIVE_INFINITY;
+    for(int i = 0, l = cur.children.size(); i < l; i++) {
+      final Node c = cur.children.get(i);
+      final DBIDIter f = c.singletons.iter();
+      final double dist = DBIDUtil.equal(f, it) ? d : distance(obj, f);
+      if(dist <= (c.maxDist > cover ? c.maxDist : cover) && dist < bestd) {
+        best = i;
+        bestd = dist;
+      }
+    }
+    if(best >= 0) {
+      cur.children.set(best, insert(cur.children.get(best), obj, id, bestd));
+      return cur;
+    }
+    // Not covered by any child: new leaf.
+    Node leaf = new Node(id, 0.);
+    leaf.children = null;
+    cur.children.add(leaf);
+    return cur;
+  }
+
+  @Override
+  protected void purge() {
+    if(root != null) {
+      root = purge(root);
+    }
+  }
+
+  /**
+   * Purge removed objects from a subtree.
+   *
+   * @param cur Subtree root
+   * @return New subtree root, may be {@code null} if empty
+   */
+  private Node purge(Node cur) {
+    final DBIDArrayIter it = cur.singletons.iter();
+    if(isRemoved(it)) {
+      return rebuild(cur);
+    }
+    for(it.advance(); it.valid();) {
+      if(isRemoved(it)) {
+        cur.singletons.swap(it.getOffset(), cur.singletons.size() - 1);
+        cur.singletons.remove(cur.singletons.size() - 1);
+      }
+      else {
+        it.advance();
+      }
+    }
+    if(cur.children == null) {
+      return cur;
+    }
+    for(int i = 0; i < cur.children.size();) {
+      final Node c = purge(cur.children.get(i));
+      if(c != null) {
+        cur.children.set(i++, c);
+        continue;
+      }
+      // Remove child, by moving the last child:
+      final Node last = cur.children.remove(cur.children.size() - 1);
+      if(i < cur.children.size()) {
+        cur.children.set(i, last);
+      }
+    }
+    return cur.children.isEmpty() ? rebuild(cur) : cur;
+  }
+
+  /**
+   * Rebuild a subtree from its objects that have not been removed.
+   *
+   * @param cur Subtree root
+   * @return New subtree root, may be {@code null} if empty
+   */
+  private Node rebuild(Node cur) {
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray();
+    collect(cur, ids);
+    if(ids.isEmpty()) {
+      return null;
+    }
+    // Keep the routing object, unless it was removed:
+    final DBIDRef r = cur.singletons.iter();
+    final DBID first = DBIDUtil.deref(isRemoved(r) ? ids.iter() : r);
+    ModifiableDoubleDBIDList elems = DBIDUtil.newDistanceDBIDList(ids.size() - 1);
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      if(!DBIDUtil.equal(first, iter)) {
+        elems.add(distance(first, iter), iter);
+      }
+    }
+    return bulkConstruct(first, Integer.MAX_VALUE, elems);
+  }
+
+  /**
+   * Collect all objects of a subtree that have not been removed.
+   *
+   * @param cur Subtree root
+   * @param ids Output
+   */
+  private void collect(Node cur, ArrayModifiableDBIDs ids) {
+    final DBIDIter it = cur.singletons.iter();
+    if(!cur.isLeaf()) {
+      it.advance(); // Routing object is also contained in a child.
+    }
+    for(; it.valid(); it.advance()) {
+      if(!isRemoved(it)) {
+        ids.add(it);
+      }
+    }
+    if(cur.children != null) {
+      for(Node chi : cur.children) {
+        collect(chi, ids);
+      }
+    }
+  }
+
   /**
    * Collect some statistics on the tree.
    *
@@ -335,6 +742,9 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
 
     @Override
     public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList ret) {
+      if(root == null) {
+        return;
+      }
       ArrayList<Node> open = new ArrayList<Node>(); // LIFO stack
       open.add(root);
       DBIDVar r = DBIDUtil.newVar();
@@ -353,13 +763,16 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
         }
         else { // Leaf node
           // Consider routing object, too:
-          if(d <= range) {
+          if(d <= range && !isRemoved(r)) {
             ret.add(d, r); // First element is a candidate now
           }
         }
         // For remaining singletons, compute the distances:
         for(int i = 1, l = cur.singletons.size(); i < l; i++) {
           cur.singletons.assignVar(i, r);
+          if(isRemoved(r)) {
+            continue;
+          }
           final double d2 = distance(obj, r);
           if(d2 <= range) {
             ret.add(d2, r);
@@ -392,6 +805,9 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
 
       KNNHeap knnList = DBIDUtil.newHeap(k);
       double d_k = Double.POSITIVE_INFINITY;
+      if(root == null) {
+        return knnList.toKNNList();
+      }
 
       final DoubleObjectMinHeap<Node> pq = new DoubleObjectMinHeap<>();
 
@@ -424,18 +840,20 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
         }
         else { // Leaf node
           // Consider routing object, too:
-          if(d <= d_k) {
+          if(d <= d_k && !isRemoved(it)) {
             d_k = knnList.insert(d, it); // First element is a candidate now
           }
         }
         it.advance(); // Skip routing object.
         // For remaining singletons, compute the distances:
-        while(it.valid()) {
+        for(; it.valid(); it.advance()) {
+          if(isRemoved(it)) {
+            continue;
+          }
           final double d2 = distance(obj, it);
           if(d2 <= d_k) {
             d_k = knnList.insert(d2, it);
           }
-          it.advance();
         }
       }
       return knnList.toKNNList();
@@ -464,9 +882,22 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
       super(distanceFunction, expansion, truncate);
     }
 
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param expansion Expansion rate
+     * @param truncate Truncate branches with less than this number of
+     *        instances.
+     * @param parallel Build the tree in parallel
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, double expansion, int truncate, boolean parallel) {
+      super(distanceFunction, expansion, truncate, parallel);
+    }
+
     @Override
     public SimplifiedCoverTree<O> instantiate(Relation<O> relation) {
-      return new SimplifiedCoverTree<O>(relation, distanceFunction, expansion, truncate);
+      return new SimplifiedCoverTree<O>(relation, distanceFunction, expansion, truncate, parallel);
     }
 
     /**
@@ -479,7 +910,7 @@ public class SimplifiedCoverTree<O> extends AbstractCoverTree<O>implements Range
     public static class Parameterizer<O> extends AbstractCoverTree.Factory.Parameterizer<O> {
       @Override
       protected SimplifiedCoverTree.Factory<O> makeInstance() {
-        return new SimplifiedCoverTree.Factory<>(distanceFunction, expansion, truncate);
+        return new SimplifiedCoverTree.Factory<>(distanceFunction, expansion, truncate, parallel);
       }
     }
   }
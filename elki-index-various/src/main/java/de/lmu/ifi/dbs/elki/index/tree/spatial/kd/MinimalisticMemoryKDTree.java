@@ -20,11 +20,14 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
 
+import java.util.Arrays;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.VectorUtil;
 import de.lmu.ifi.dbs.elki.data.VectorUtil.SortDBIDsBySingleDimension;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.memory.MapIntegerDBIDStore;
 import de.lmu.ifi.dbs.elki.database.ids.*;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.AbstractDistanceKNNQuery;
@@ -39,6 +42,7 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFun
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SparseLPNormDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndex;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
@@ -53,10 +57,13 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameteriz
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 
 /**
- * Simple implementation of a static in-memory K-D-tree. Does not support
- * dynamic updates or anything, but also is very simple and memory efficient:
- * all it uses is one {@link ArrayModifiableDBIDs} to sort the data in a
- * serialized tree.
+ * Simple implementation of an in-memory K-D-tree. It is very simple and memory
+ * efficient: all it uses is one {@link ArrayModifiableDBIDs} to sort the data
+ * in a serialized tree.
+ * <p>
+ * Insertions use the logarithmic method, as in {@link SmallMemoryKDTree}.
+ * Deletions are lazy; as the split values are not stored, removed objects are
+ * retained until they are purged.
  * <p>
  * Reference:
  * <p>
@@ -83,7 +90,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
     booktitle = "Communications of the ACM 18(9)", //
     url = "https://doi.org/10.1145/361002.361007", //
     bibkey = "DBLP:journals/cacm/Bentley75")
-public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIndex<O> implements KNNIndex<O>, RangeIndex<O> {
+public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIndex<O> implements KNNIndex<O>, RangeIndex<O>, DynamicIndex {
   /**
    * Class logger
    */
@@ -94,6 +101,27 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
    */
   ArrayModifiableDBIDs sorted = null;
 
+  /**
+   * End offsets of the individual trees in the sorted array.
+   */
+  int[] treeEnds = new int[8];
+
+  /**
+   * Number of trees.
+   */
+  int numTrees = 0;
+
+  /**
+   * Objects removed, but not yet purged from the trees. As they are still used
+   * for routing, we need to keep their values.
+   */
+  MapIntegerDBIDStore<O> removed = new MapIntegerDBIDStore<>();
+
+  /**
+   * Number of removed objects not yet purged.
+   */
+  int numRemoved = 0;
+
   /**
    * The number of dimensions.
    */
@@ -139,14 +167,175 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
   public void initialize() {
     sorted = DBIDUtil.newArray(relation.getDBIDs());
     dims = RelationUtil.dimensionality(relation);
-    final VectorUtil.SortDBIDsBySingleDimension comp;
-    if(objaccess != null) {
-      comp = new CountSortAccesses(objaccess, relation);
+    numTrees = 0;
+    rebuildTrees(0);
+  }
+
+  /**
+   * Make a comparator for building the tree.
+   *
+   * @return Comparator
+   */
+  private SortDBIDsBySingleDimension makeComparator() {
+    return objaccess != null ? new CountSortAccesses(objaccess, relation) : new VectorUtil.SortDBIDsBySingleDimension(relation);
+  }
+
+  /**
+   * Merge all trees starting with the given tree into a single new tree,
+   * dropping removed objects.
+   *
+   * @param first First tree to merge
+   */
+  private void rebuildTrees(int first) {
+    final int start = first > 0 ? treeEnds[first - 1] : 0;
+    int end = start;
+    for(DBIDArrayIter src = sorted.iter().seek(start); src.valid(); src.advance()) {
+      if(!isRemoved(src)) {
+        sorted.set(end++, src);
+      }
+      else {
+        removed.delete(src);
+        --numRemoved;
+      }
     }
-    else {
-      comp = new VectorUtil.SortDBIDsBySingleDimension(relation);
+    truncate(end);
+    numTrees = first;
+    if(end > start) {
+      buildTree(start, end, 0, makeComparator());
+      addTree(end);
+    }
+  }
+
+  /**
+   * Purge removed objects, rebuilding only the trees that contained them.
+   */
+  private void purge() {
+    DBIDArrayIter src = sorted.iter();
+    SortDBIDsBySingleDimension comp = null;
+    int end = 0, nt = 0;
+    for(int t = 0; t < numTrees; t++) {
+      final int start = end;
+      boolean changed = false;
+      for(; src.getOffset() < treeEnds[t]; src.advance()) {
+        if(isRemoved(src)) {
+          changed = true;
+          continue;
+        }
+        if(end != src.getOffset()) {
+          sorted.set(end, src); // Moving a tree does not change its structure.
+        }
+        ++end;
+      }
+      if(end > start) {
+        if(changed) {
+          buildTree(start, end, 0, comp != null ? comp : (comp = makeComparator()));
+        }
+        treeEnds[nt++] = end;
+      }
+    }
+    truncate(end);
+    numTrees = nt;
+    removed.clear();
+    numRemoved = 0;
+  }
+
+  /**
+   * Truncate the sorted array.
+   *
+   * @param size New size
+   */
+  private void truncate(int size) {
+    for(int i = sorted.size() - 1; i >= size; i--) {
+      sorted.remove(i);
+    }
+  }
+
+  /**
+   * Append a tree.
+   *
+   * @param end End offset of the new tree
+   */
+  private void addTree(int end) {
+    if(numTrees == treeEnds.length) {
+      treeEnds = Arrays.copyOf(treeEnds, numTrees << 1);
+    }
+    treeEnds[numTrees++] = end;
+  }
+
+  /**
+   * Test whether an object was removed, but is not yet purged.
+   *
+   * @param id Object
+   * @return {@code true} if removed
+   */
+  boolean isRemoved(DBIDRef id) {
+    return numRemoved > 0 && removed.get(id) != null;
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    if(isRemoved(id)) {
+      purge(); // Reused DBID, remove the stale entry first.
+    }
+    sorted.add(id);
+    mergeTrees();
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      if(isRemoved(iter)) {
+        purge(); // Reused DBIDs, remove the stale entries first.
+        break;
+      }
+    }
+    sorted.addDBIDs(ids);
+    mergeTrees();
+  }
+
+  /**
+   * Build a tree from the newly appended objects, merged with all preceding
+   * trees that are not larger.
+   */
+  private void mergeTrees() {
+    final int size = sorted.size();
+    int first = numTrees;
+    while(first > 0 && size - treeEnds[first - 1] >= treeEnds[first - 1] - (first > 1 ? treeEnds[first - 2] : 0)) {
+      --first;
+    }
+    if(first < numTrees || size > (numTrees > 0 ? treeEnds[numTrees - 1] : 0)) {
+      rebuildTrees(first);
+    }
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    if(isRemoved(id)) {
+      return false;
+    }
+    final O obj = relation.get(id);
+    if(obj == null) {
+      return false;
+    }
+    removed.put(id, obj);
+    if(++numRemoved > (relation.size() >> 2)) {
+      purge();
+    }
+    return true;
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      final O obj = relation.get(iter);
+      if(obj != null && !isRemoved(iter)) {
+        removed.put(iter, obj);
+        ++numRemoved;
+      }
+    }
+    if(numRemoved > (relation.size() >> 2)) {
+      purge();
     }
-    buildTree(0, sorted.size(), 0, comp);
   }
 
   /**
@@ -300,7 +489,11 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
     @Override
     public KNNList getKNNForObject(O obj, int k) {
       final KNNHeap knns = DBIDUtil.newHeap(k);
-      kdKNNSearch(0, sorted.size(), 0, obj, knns, sorted.iter(), Double.POSITIVE_INFINITY);
+      final DBIDArrayIter iter = sorted.iter();
+      double maxdist = Double.POSITIVE_INFINITY;
+      for(int t = 0; t < numTrees; t++) {
+        maxdist = kdKNNSearch(t > 0 ? treeEnds[t - 1] : 0, treeEnds[t], 0, obj, knns, iter, maxdist);
+      }
       return knns.toKNNList();
     }
 
@@ -319,6 +512,9 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
     private double kdKNNSearch(int left, int right, int axis, O query, KNNHeap knns, DBIDArrayIter iter, double maxdist) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+          if(isRemoved(iter)) {
+            continue;
+          }
           double dist = norm.distance(query, relation.get(iter));
           countObjectAccess();
           countDistanceComputation();
@@ -331,7 +527,8 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
       }
       // Look at current node:
       final int middle = (left + right) >>> 1;
-      O split = relation.get(iter.seek(middle));
+      final boolean live = !isRemoved(iter.seek(middle));
+      O split = live ? relation.get(iter) : removed.get(iter);
       countObjectAccess();
 
       // Distance to axis:
@@ -345,12 +542,14 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
       // Exact match chance (delta == 0)!
       // process first, then descend both sides.
       if(onleft && onright) {
-        double dist = norm.distance(query, split);
-        countDistanceComputation();
-        if(dist <= maxdist) {
-          assert (iter.getOffset() == middle);
-          knns.insert(dist, iter /* .seek(middle) */);
-          maxdist = knns.getKNNDistance();
+        if(live) {
+          double dist = norm.distance(query, split);
+          countDistanceComputation();
+          if(dist <= maxdist) {
+            assert (iter.getOffset() == middle);
+            knns.insert(dist, iter /* .seek(middle) */);
+            maxdist = knns.getKNNDistance();
+          }
         }
         if(left < middle) {
           maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
@@ -365,7 +564,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
             maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(Math.abs(delta) <= maxdist) {
+          if(Math.abs(delta) <= maxdist && live) {
             double dist = norm.distance(query, split);
             countDistanceComputation();
             if(dist <= maxdist) {
@@ -382,7 +581,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
             maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(Math.abs(delta) <= maxdist) {
+          if(Math.abs(delta) <= maxdist && live) {
             double dist = norm.distance(query, split);
             countDistanceComputation();
             if(dist <= maxdist) {
@@ -423,7 +622,10 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
 
     @Override
     public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList result) {
-      kdRangeSearch(0, sorted.size(), 0, obj, result, sorted.iter(), range);
+      final DBIDArrayIter iter = sorted.iter();
+      for(int t = 0; t < numTrees; t++) {
+        kdRangeSearch(t > 0 ? treeEnds[t - 1] : 0, treeEnds[t], 0, obj, result, iter, range);
+      }
     }
 
     /**
@@ -440,6 +642,9 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
     private void kdRangeSearch(int left, int right, int axis, O query, ModifiableDoubleDBIDList res, DBIDArrayIter iter, double radius) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+          if(isRemoved(iter)) {
+            continue;
+          }
           double dist = norm.distance(query, relation.get(iter));
           countObjectAccess();
           countDistanceComputation();
@@ -451,7 +656,8 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
       }
       // Look at current node:
       final int middle = (left + right) >>> 1;
-      O split = relation.get(iter.seek(middle));
+      final boolean live = !isRemoved(iter.seek(middle));
+      O split = live ? relation.get(iter) : removed.get(iter);
       countObjectAccess();
 
       // Distance to axis:
@@ -464,7 +670,7 @@ public class MinimalisticMemoryKDTree<O extends NumberVector> extends AbstractIn
       final int next = (axis + 1) % dims;
 
       // Current object:
-      if(close) {
+      if(close && live) {
         double dist = norm.distance(query, split);
         countDistanceComputation();
         if(dist <= radius) {
@@ -20,6 +20,10 @@
  */
 package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveTask;
+
 import de.lmu.ifi.dbs.elki.data.NumberVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
@@ -37,23 +41,38 @@ import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFun
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SparseLPNormDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndex;
+import de.lmu.ifi.dbs.elki.index.DynamicIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
 
 /**
- * Simple implementation of a static in-memory K-D-tree. Does not support
- * dynamic updates or anything, but also is very simple and memory efficient:
- * all it uses is one {@link ModifiableDoubleDBIDList} to sort the data in a
- * serialized tree and store the current attribute value.
+ * Simple implementation of an in-memory K-D-tree. It is very simple and memory
+ * efficient: all it uses is one {@link ModifiableDoubleDBIDList} to sort the
+ * data in a serialized tree and store the current attribute value.
+ * <p>
+ * Insertions use the logarithmic method: the list contains a sequence of
+ * independent trees of decreasing size, and new objects are appended as a new
+ * tree, which is merged with its predecessors when it has reached their size.
+ * Deletions are lazy, and removed objects are only purged when a quarter of the
+ * data has been removed. Only the affected trees are rebuilt then.
+ * <p>
+ * Optionally, the two halves of each split are built concurrently in the
+ * fork-join pool of {@link ParallelCore}. As the partitioning is
+ * deterministic, this yields the same tree as the sequential build.
  * <p>
  * It needs about 3 times as much memory as {@link MinimalisticMemoryKDTree} but
  * it is also considerably faster because it does not need to lookup this value
@@ -79,7 +98,7 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.IntParameter;
     booktitle = "Communications of the ACM 18(9)", //
     url = "https://doi.org/10.1145/361002.361007", //
     bibkey = "DBLP:journals/cacm/Bentley75")
-public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O> implements KNNIndex<O>, RangeIndex<O> {
+public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O> implements KNNIndex<O>, RangeIndex<O>, DynamicIndex, SnapshotIndex {
   /**
    * Class logger
    */
@@ -90,6 +109,21 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
    */
   ModifiableDoubleDBIDList sorted = null;
 
+  /**
+   * End offsets of the individual trees in the sorted array.
+   */
+  int[] treeEnds = new int[8];
+
+  /**
+   * Number of trees.
+   */
+  int numTrees = 0;
+
+  /**
+   * Objects removed, but not yet purged from the trees.
+   */
+  HashSetModifiableDBIDs removed = DBIDUtil.newHashSet();
+
   /**
    * The number of dimensions.
    */
@@ -100,6 +134,16 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
    */
   int leafsize;
 
+  /**
+   * Build the trees in parallel.
+   */
+  boolean parallel;
+
+  /**
+   * Ranges smaller than this are built sequentially.
+   */
+  private static final int SEQUENTIAL_THRESHOLD = 1 << 13;
+
   /**
    * Counter for comparisons.
    */
@@ -110,6 +154,11 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
    */
   final Counter distcalc;
 
+  /**
+   * Skip the next call of {@link #initialize()}.
+   */
+  private boolean skipInitialize = false;
+
   /**
    * Constructor.
    *
@@ -117,8 +166,20 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
    * @param leafsize Maximum size of leaf nodes
    */
   public SmallMemoryKDTree(Relation<O> relation, int leafsize) {
+    this(relation, leafsize, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param relation Relation to index
+   * @param leafsize Maximum size of leaf nodes
+   * @param parallel Build the trees in parallel
+   */
+  public SmallMemoryKDTree(Relation<O> relation, int leafsize, boolean parallel) {
     super(relation);
     this.leafsize = leafsize;
+    this.parallel = parallel;
     assert (leafsize >= 1);
     if(LOG.isStatistics()) {
       String prefix = this.getClass().getName();
@@ -133,12 +194,182 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
 
   @Override
   public void initialize() {
+    if(skipInitialize) {
+      skipInitialize = false; // Built or restored by the snapshot factory.
+      return;
+    }
     sorted = DBIDUtil.newDistanceDBIDList(relation.size());
     dims = RelationUtil.dimensionality(relation);
     for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
       sorted.add(Double.NaN, it);
     }
-    buildTree(0, sorted.size(), 0, sorted.iter());
+    rebuildTrees(0);
+  }
+
+  /**
+   * Merge all trees starting with the given tree into a single new tree,
+   * dropping removed objects.
+   *
+   * @param first First tree to merge
+   */
+  private void rebuildTrees(int first) {
+    final int start = first > 0 ? treeEnds[first - 1] : 0;
+    int end = start;
+    DoubleDBIDListMIter dst = sorted.iter();
+    for(DoubleDBIDListIter src = sorted.iter().seek(start); src.valid(); src.advance()) {
+      if(removed.isEmpty() || !removed.remove(src)) {
+        dst.seek(end++).setDBID(src);
+      }
+    }
+    truncate(end);
+    numTrees = first;
+    if(end > start) {
+      build(start, end, dst);
+      addTree(end);
+    }
+  }
+
+  /**
+   * Purge removed objects, rebuilding only the trees that contained them.
+   */
+  private void purge() {
+    DoubleDBIDListMIter src = sorted.iter(), dst = sorted.iter();
+    int end = 0, nt = 0;
+    for(int t = 0; t < numTrees; t++) {
+      final int start = end;
+      boolean changed = false;
+      for(; src.getOffset() < treeEnds[t]; src.advance()) {
+        if(removed.contains(src)) {
+          changed = true;
+          continue;
+        }
+        if(end != src.getOffset()) {
+          final double v = src.doubleValue();
+          dst.seek(end).setDBID(src);
+          dst.setDouble(v); // Moving a tree does not change its structure.
+        }
+        ++end;
+      }
+      if(end > start) {
+        if(changed) {
+          build(start, end, dst);
+        }
+        treeEnds[nt++] = end;
+      }
+    }
+    truncate(end);
+    numTrees = nt;
+    removed.clear();
+  }
+
+  /**
+   * Truncate the sorted array.
+   *
+   * @param size New size
+   */
+  private void truncate(int size) {
+    for(int i = sorted.size() - 1; i >= size; i--) {
+      sorted.remove(i);
+    }
+  }
+
+  /**
+   * Append a tree.
+   *
+   * @param end End offset of the new tree
+   */
+  private void addTree(int end) {
+    if(numTrees == treeEnds.length) {
+      treeEnds = Arrays.copyOf(treeEnds, numTrees << 1);
+    }
+    treeEnds[numTrees++] = end;
+  }
+
+  /**
+   * Test whether an object was removed, but is not yet purged.
+   *
+   * @param id Object
+   * @return {@code true} if removed
+   */
+  boolean isRemoved(DBIDRef id) {
+    return !removed.isEmpty() && removed.contains(id);
+  }
+
+  @Override
+  public void insert(DBIDRef id) {
+    if(isRemoved(id)) {
+      purge(); // Reused DBID, remove the stale entry first.
+    }
+    sorted.add(Double.NaN, id);
+    mergeTrees();
+  }
+
+  @Override
+  public void insertAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      if(isRemoved(iter)) {
+        purge(); // Reused DBIDs, remove the stale entries first.
+        break;
+      }
+    }
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      sorted.add(Double.NaN, iter);
+    }
+    mergeTrees();
+  }
+
+  /**
+   * Build a tree from the newly appended objects, merged with all preceding
+   * trees that are not larger.
+   */
+  private void mergeTrees() {
+    final int size = sorted.size();
+    int first = numTrees;
+    while(first > 0 && size - treeEnds[first - 1] >= treeEnds[first - 1] - (first > 1 ? treeEnds[first - 2] : 0)) {
+      --first;
+    }
+    if(first < numTrees || size > (numTrees > 0 ? treeEnds[numTrees - 1] : 0)) {
+      rebuildTrees(first);
+    }
+  }
+
+  @Override
+  public boolean delete(DBIDRef id) {
+    if(relation.get(id) == null || !removed.add(id)) {
+      return false;
+    }
+    if(removed.size() > (relation.size() >> 2)) {
+      purge();
+    }
+    return true;
+  }
+
+  @Override
+  public void deleteAll(DBIDs ids) {
+    for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+      if(relation.get(iter) != null) {
+        removed.add(iter);
+      }
+    }
+    if(removed.size() > (relation.size() >> 2)) {
+      purge();
+    }
+  }
+
+  /**
+   * Build a tree, in parallel if enabled and sufficiently large.
+   *
+   * @param left Interval minimum
+   * @param right Interval maximum
+   * @param iter Iterator
+   */
+  private void build(int left, int right, DoubleDBIDListMIter iter) {
+    final long accesses = parallel && right - left > SEQUENTIAL_THRESHOLD ? //
+        ParallelCore.getCore().getForkJoinPool().invoke(new BuildTask(left, right, 0)) : //
+        buildTree(left, right, 0, iter);
+    if(objaccess != null) {
+      objaccess.increment(accesses);
+    }
   }
 
   /**
@@ -150,29 +381,146 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
    * @param right Interval maximum
    * @param axis Current splitting axis
    * @param iter Iterator
+   * @return Number of object accesses
    */
-  private void buildTree(int left, int right, int axis, DoubleDBIDListMIter iter) {
+  private long buildTree(int left, int right, int axis, DoubleDBIDListMIter iter) {
     assert (left < right);
+    int middle = partition(left, right, axis, iter);
+    long accesses = right - left;
+    if(middle < 0) {
+      return accesses;
+    }
+    final int next = (axis + 1) % dims;
+    if(left < middle) {
+      accesses += buildTree(left, middle, next, iter);
+    }
+    ++middle;
+    if(middle < right) {
+      accesses += buildTree(middle, right, next, iter);
+    }
+    return accesses;
+  }
+
+  /**
+   * Load the values of the splitting axis, and partition the interval at its
+   * median. Uses {@code right - left} object accesses.
+   *
+   * @param left Interval minimum
+   * @param right Interval maximum
+   * @param axis Current splitting axis
+   * @param iter Iterator
+   * @return Position of the median, or -1 if the interval is a leaf
+   */
+  private int partition(int left, int right, int axis, DoubleDBIDListMIter iter) {
     for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
       iter.setDouble(relation.get(iter).doubleValue(axis));
-      countObjectAccess();
     }
     if(right - left <= leafsize) {
-      return;
+      return -1;
     }
-
-    int middle = (left + right) >>> 1;
+    final int middle = (left + right) >>> 1;
     QuickSelectDBIDs.quickSelect(sorted, left, right, middle);
-    final int next = (axis + 1) % dims;
-    if(left < middle) {
-      buildTree(left, middle, next, iter);
+    return middle;
+  }
+
+  /**
+   * Task to build a subtree, building both halves concurrently.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class BuildTask extends RecursiveTask<Long> {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Interval and splitting axis.
+     */
+    private int left, right, axis;
+
+    /**
+     * Constructor.
+     *
+     * @param left Interval minimum
+     * @param right Interval maximum
+     * @param axis Current splitting axis
+     */
+    public BuildTask(int left, int right, int axis) {
+      this.left = left;
+      this.right = right;
+      this.axis = axis;
     }
-    ++middle;
-    if(middle < right) {
-      buildTree(middle, right, next, iter);
+
+    @Override
+    protected Long compute() {
+      if(right - left <= SEQUENTIAL_THRESHOLD) {
+        return buildTree(left, right, axis, sorted.iter());
+      }
+      final int middle = partition(left, right, axis, sorted.iter());
+      if(middle < 0) {
+        return (long) (right - left);
+      }
+      final int next = (axis + 1) % dims;
+      // Both halves are non-empty, as the interval is larger than the threshold.
+      BuildTask lower = new BuildTask(left, middle, next);
+      BuildTask upper = new BuildTask(middle + 1, right, next);
+      invokeAll(lower, upper);
+      return right - left + lower.join() + upper.join();
     }
   }
 
+  @Override
+  public void skipNextInitialize() {
+    skipInitialize = true;
+  }
+
+  @Override
+  public long getSnapshotSize() {
+    if(numTrees > 1 || !removed.isEmpty()) {
+      rebuildTrees(0); // Snapshots store a single tree.
+    }
+    return 8 + sorted.size() * (long) (ByteArrayUtil.SIZE_DOUBLE + ByteArrayUtil.SIZE_INT);
+  }
+
+  @Override
+  public void writeSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    if(numTrees > 1 || !removed.isEmpty()) {
+      rebuildTrees(0); // Snapshots store a single tree.
+    }
+    buffer.putInt(dims).putInt(sorted.size());
+    for(DoubleDBIDListIter it = sorted.iter(); it.valid(); it.advance()) {
+      buffer.putDouble(it.doubleValue()).putInt(ids.getOffset(it));
+    }
+  }
+
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    final int d = buffer.getInt(), size = buffer.getInt();
+    if(d != RelationUtil.dimensionality(relation) || size != relation.size()) {
+      return false;
+    }
+    ModifiableDoubleDBIDList list = DBIDUtil.newDistanceDBIDList(size);
+    DBIDVar var = DBIDUtil.newVar();
+    for(int i = 0; i < size; i++) {
+      final double v = buffer.getDouble();
+      final int off = buffer.getInt();
+      if(off < 0 || off >= ids.size()) {
+        return false;
+      }
+      list.add(v, ids.assignVar(off, var));
+    }
+    dims = d;
+    sorted = list;
+    numTrees = 0;
+    if(size > 0) {
+      addTree(size);
+    }
+    return true;
+  }
+
   @Override
   public String getLongName() {
     return "kd-tree";
@@ -268,7 +616,11 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
     @Override
     public KNNList getKNNForObject(O obj, int k) {
       final KNNHeap knns = DBIDUtil.newHeap(k);
-      kdKNNSearch(0, sorted.size(), 0, obj, knns, sorted.iter(), Double.POSITIVE_INFINITY);
+      final DoubleDBIDListIter iter = sorted.iter();
+      double maxdist = Double.POSITIVE_INFINITY;
+      for(int t = 0; t < numTrees; t++) {
+        maxdist = kdKNNSearch(t > 0 ? treeEnds[t - 1] : 0, treeEnds[t], 0, obj, knns, iter, maxdist);
+      }
       return knns.toKNNList();
     }
 
@@ -287,6 +639,9 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
     private double kdKNNSearch(int left, int right, int axis, O query, KNNHeap knns, DoubleDBIDListIter iter, double maxdist) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+          if(isRemoved(iter)) {
+            continue;
+          }
           double dist = norm.distance(query, relation.get(iter));
           countObjectAccess();
           countDistanceComputation();
@@ -302,7 +657,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
 
       // Distance to axis:
       final double delta = iter.seek(middle).doubleValue() - query.doubleValue(axis);
-      assert (iter.doubleValue() == relation.get(iter).doubleValue(axis)) : "Tree inconsistent " + left + " < " + middle + " < " + right + ": " + iter.doubleValue() + " != " + relation.get(iter).doubleValue(axis) + " " + relation.get(iter);
+      assert (isRemoved(iter) || iter.doubleValue() == relation.get(iter).doubleValue(axis)) : "Tree inconsistent " + left + " < " + middle + " < " + right + ": " + iter.doubleValue() + " != " + relation.get(iter).doubleValue(axis) + " " + relation.get(iter);
       final boolean onleft = (delta >= 0);
       final boolean onright = (delta <= 0);
 
@@ -312,14 +667,16 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
       // Exact match chance (delta == 0)!
       // process first, then descend both sides.
       if(onleft && onright) {
-        O split = relation.get(iter.seek(middle));
-        countObjectAccess();
-        double dist = norm.distance(query, split);
-        countDistanceComputation();
-        if(dist <= maxdist) {
-          assert (iter.getOffset() == middle);
-          knns.insert(dist, iter /* .seek(middle) */);
-          maxdist = knns.getKNNDistance();
+        if(!isRemoved(iter)) {
+          O split = relation.get(iter.seek(middle));
+          countObjectAccess();
+          double dist = norm.distance(query, split);
+          countDistanceComputation();
+          if(dist <= maxdist) {
+            assert (iter.getOffset() == middle);
+            knns.insert(dist, iter /* .seek(middle) */);
+            maxdist = knns.getKNNDistance();
+          }
         }
         if(left < middle) {
           maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
@@ -334,7 +691,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
             maxdist = kdKNNSearch(left, middle, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(Math.abs(delta) <= maxdist) {
+          if(Math.abs(delta) <= maxdist && !isRemoved(iter.seek(middle))) {
             O split = relation.get(iter.seek(middle));
             countObjectAccess();
             double dist = norm.distance(query, split);
@@ -354,7 +711,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
             maxdist = kdKNNSearch(middle + 1, right, next, query, knns, iter, maxdist);
           }
           // Look at splitting element (unless already above):
-          if(Math.abs(delta) <= maxdist) {
+          if(Math.abs(delta) <= maxdist && !isRemoved(iter.seek(middle))) {
             O split = relation.get(iter.seek(middle));
             countObjectAccess();
             double dist = norm.distance(query, split);
@@ -398,7 +755,10 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
 
     @Override
     public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList result) {
-      kdRangeSearch(0, sorted.size(), 0, obj, result, sorted.iter(), range);
+      final DoubleDBIDListIter iter = sorted.iter();
+      for(int t = 0; t < numTrees; t++) {
+        kdRangeSearch(t > 0 ? treeEnds[t - 1] : 0, treeEnds[t], 0, obj, result, iter, range);
+      }
     }
 
     /**
@@ -415,6 +775,9 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
     private void kdRangeSearch(int left, int right, int axis, O query, ModifiableDoubleDBIDList res, DoubleDBIDListIter iter, double radius) {
       if(right - left <= leafsize) {
         for(iter.seek(left); iter.getOffset() < right; iter.advance()) {
+          if(isRemoved(iter)) {
+            continue;
+          }
           double dist = norm.distance(query, relation.get(iter));
           countObjectAccess();
           countDistanceComputation();
@@ -437,7 +800,7 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
       final int next = (axis + 1) % dims;
 
       // Current object:
-      if(close) {
+      if(close && !isRemoved(iter)) {
         O split = relation.get(iter.seek(middle));
         countObjectAccess();
         double dist = norm.distance(query, split);
@@ -473,6 +836,11 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
      */
     int leafsize;
 
+    /**
+     * Build the trees in parallel.
+     */
+    boolean parallel;
+
     /**
      * Constructor.
      */
@@ -486,13 +854,24 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
      * @param leafsize Maximum size of leaf nodes.
      */
     public Factory(int leafsize) {
+      this(leafsize, false);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param leafsize Maximum size of leaf nodes.
+     * @param parallel Build the trees in parallel
+     */
+    public Factory(int leafsize, boolean parallel) {
       super();
       this.leafsize = leafsize;
+      this.parallel = parallel;
     }
 
     @Override
     public SmallMemoryKDTree<O> instantiate(Relation<O> relation) {
-      return new SmallMemoryKDTree<>(relation, leafsize);
+      return new SmallMemoryKDTree<>(relation, leafsize, parallel);
     }
 
     @Override
@@ -508,11 +887,21 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
      * @apiviz.exclude
      */
     public static class Parameterizer<O extends NumberVector> extends AbstractParameterizer {
+      /**
+       * Flag to build the tree in parallel.
+       */
+      public static final OptionID PARALLEL_ID = new OptionID("kd.parallel", "Build the tree in parallel, using the fork-join pool. The tree is the same as with the sequential build.");
+
       /**
        * Maximum size of leaf nodes.
        */
       int leafsize;
 
+      /**
+       * Build in parallel.
+       */
+      boolean parallel;
+
       @Override
       protected void makeOptions(Parameterization config) {
         super.makeOptions(config);
@@ -521,11 +910,15 @@ public class SmallMemoryKDTree<O extends NumberVector> extends AbstractIndex<O>
         if(config.grab(leafP)) {
           leafsize = leafP.intValue();
         }
+        Flag parallelF = new Flag(PARALLEL_ID);
+        if(config.grab(parallelF)) {
+          parallel = parallelF.isTrue();
+        }
       }
 
       @Override
       protected Factory<O> makeInstance() {
-        return new Factory<>(leafsize);
+        return new Factory<>(leafsize, parallel);
       }
     }
   }
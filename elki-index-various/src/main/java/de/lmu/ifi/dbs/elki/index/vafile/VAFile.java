@@ -20,6 +20,7 @@
  */
 package de.lmu.ifi.dbs.elki.index.vafile;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -39,11 +40,13 @@ import de.lmu.ifi.dbs.elki.index.AbstractRefiningIndex;
 import de.lmu.ifi.dbs.elki.index.IndexFactory;
 import de.lmu.ifi.dbs.elki.index.KNNIndex;
 import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.index.SnapshotIndex;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.persistent.AbstractPageFileFactory;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleMaxHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -80,7 +83,7 @@ import net.jafama.FastMath;
     booktitle = "Report TR1997b, ETH Zentrum, Zurich, Switzerland", //
     url = "http://citeseerx.ist.psu.edu/viewdoc/download?doi=10.1.1.40.480&rep=rep1&type=pdf", //
     bibkey = "tr/ethz/WeberS97")
-public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V> {
+public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> implements KNNIndex<V>, RangeIndex<V>, SnapshotIndex {
   /**
    * Logging class.
    */
@@ -111,6 +114,11 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
    */
   int scans;
 
+  /**
+   * Skip the next call of {@link #initialize()}.
+   */
+  private boolean skipInitialize = false;
+
   /**
    * Constructor.
    * 
@@ -128,6 +136,10 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
 
   @Override
   public void initialize() {
+    if(skipInitialize) {
+      skipInitialize = false; // Built or restored by the snapshot factory.
+      return;
+    }
     setPartitions(relation);
     for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
       DBID id = DBIDUtil.deref(iter);
@@ -135,6 +147,70 @@ public class VAFile<V extends NumberVector> extends AbstractRefiningIndex<V> imp
     }
   }
 
+  @Override
+  public void skipNextInitialize() {
+    skipInitialize = true;
+  }
+
+  @Override
+  public long getSnapshotSize() {
+    final int dims = splitPositions.length;
+    return 8 + dims * (partitions + 1L) * ByteArrayUtil.SIZE_DOUBLE //
+        + 4 + vectorApprox.size() * (dims + 1L) * ByteArrayUtil.SIZE_INT;
+  }
+
+  @Override
+  public void writeSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    final int dims = splitPositions.length;
+    buffer.putInt(dims).putInt(partitions);
+    for(int d = 0; d < dims; d++) {
+      for(int b = 0; b <= partitions; b++) {
+        buffer.putDouble(splitPositions[d][b]);
+      }
+    }
+    buffer.putInt(vectorApprox.size());
+    for(VectorApproximation va : vectorApprox) {
+      buffer.putInt(ids.getOffset(va.getId()));
+      for(int d = 0; d < dims; d++) {
+        buffer.putInt(va.getApproximation(d));
+      }
+    }
+  }
+
+  @Override
+  public boolean readSnapshot(ByteBuffer buffer, DBIDRange ids) {
+    final int dims = buffer.getInt();
+    if(dims != RelationUtil.dimensionality(relation) || buffer.getInt() != partitions) {
+      return false;
+    }
+    double[][] splits = new double[dims][partitions + 1];
+    for(int d = 0; d < dims; d++) {
+      for(int b = 0; b <= partitions; b++) {
+        splits[d][b] = buffer.getDouble();
+      }
+    }
+    final int size = buffer.getInt();
+    if(size != relation.size()) {
+      return false;
+    }
+    List<VectorApproximation> approx = new ArrayList<>(size);
+    DBIDVar var = DBIDUtil.newVar();
+    for(int i = 0; i < size; i++) {
+      final int off = buffer.getInt();
+      if(off < 0 || off >= ids.size()) {
+        return false;
+      }
+      int[] a = new int[dims];
+      for(int d = 0; d < dims; d++) {
+        a[d] = buffer.getInt();
+      }
+      approx.add(new VectorApproximation(DBIDUtil.deref(ids.assignVar(off, var)), a));
+    }
+    splitPositions = splits;
+    vectorApprox = approx;
+    return true;
+  }
+
   /**
    * Initialize the data set grid by computing quantiles.
    * 
@@ -0,0 +1,172 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.preprocessed.knn.MaterializeKNNPreprocessor;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.covertree.CoverTree;
+import de.lmu.ifi.dbs.elki.index.tree.metrical.covertree.SimplifiedCoverTree;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.kd.SmallMemoryKDTree;
+import de.lmu.ifi.dbs.elki.index.vafile.VAFile;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Unit test for storing and restoring index snapshots.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class SnapshotIndexFactoryTest extends AbstractIndexStructureTest {
+  /**
+   * Temporary snapshot directory.
+   */
+  private File directory;
+
+  @Before
+  public void makeDirectory() throws IOException {
+    directory = Files.createTempDirectory("ELKIUnitTest").toFile();
+  }
+
+  @After
+  public void removeDirectory() {
+    for(File f : directory.listFiles()) {
+      f.delete();
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void testCoverTree() throws IOException {
+    SnapshotIndexFactory<?> factory = new ELKIBuilder<>(SnapshotIndexFactory.class) //
+        .with(SnapshotIndexFactory.Parameterizer.INDEX_ID, CoverTree.Factory.class) //
+        .with(CoverTree.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class) //
+        .with(SnapshotIndexFactory.Parameterizer.DIRECTORY_ID, directory).build();
+    testExactEuclidean(factory, CoverTree.CoverTreeKNNQuery.class, CoverTree.CoverTreeRangeQuery.class);
+    Object key = snapshotKey();
+    testExactEuclidean(factory, CoverTree.CoverTreeKNNQuery.class, CoverTree.CoverTreeRangeQuery.class);
+    assertEquals("Snapshot was rewritten.", key, snapshotKey());
+  }
+
+  @Test
+  public void testSimplifiedCoverTree() throws IOException {
+    SnapshotIndexFactory<?> factory = new ELKIBuilder<>(SnapshotIndexFactory.class) //
+        .with(SnapshotIndexFactory.Parameterizer.INDEX_ID, SimplifiedCoverTree.Factory.class) //
+        .with(CoverTree.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class) //
+        .with(SnapshotIndexFactory.Parameterizer.DIRECTORY_ID, directory).build();
+    testExactEuclidean(factory, SimplifiedCoverTree.CoverTreeKNNQuery.class, SimplifiedCoverTree.CoverTreeRangeQuery.class);
+    Object key = snapshotKey();
+    testExactEuclidean(factory, SimplifiedCoverTree.CoverTreeKNNQuery.class, SimplifiedCoverTree.CoverTreeRangeQuery.class);
+    assertEquals("Snapshot was rewritten.", key, snapshotKey());
+  }
+
+  @Test
+  public void testSmallMemoryKDTree() throws IOException {
+    SnapshotIndexFactory<?> factory = new ELKIBuilder<>(SnapshotIndexFactory.class) //
+        .with(SnapshotIndexFactory.Parameterizer.INDEX_ID, SmallMemoryKDTree.Factory.class) //
+        .with(SnapshotIndexFactory.Parameterizer.DIRECTORY_ID, directory).build();
+    testExactEuclidean(factory, SmallMemoryKDTree.KDTreeKNNQuery.class, SmallMemoryKDTree.KDTreeRangeQuery.class);
+    Object key = snapshotKey();
+    testExactEuclidean(factory, SmallMemoryKDTree.KDTreeKNNQuery.class, SmallMemoryKDTree.KDTreeRangeQuery.class);
+    assertEquals("Snapshot was rewritten.", key, snapshotKey());
+  }
+
+  @Test
+  public void testVAFile() throws IOException {
+    SnapshotIndexFactory<?> factory = new ELKIBuilder<>(SnapshotIndexFactory.class) //
+        .with(SnapshotIndexFactory.Parameterizer.INDEX_ID, VAFile.Factory.class) //
+        .with(VAFile.Factory.PARTITIONS_ID, 4) //
+        .with(SnapshotIndexFactory.Parameterizer.DIRECTORY_ID, directory).build();
+    testExactEuclidean(factory, VAFile.VAFileKNNQuery.class, VAFile.VAFileRangeQuery.class);
+    Object key = snapshotKey();
+    testExactEuclidean(factory, VAFile.VAFileKNNQuery.class, VAFile.VAFileRangeQuery.class);
+    assertEquals("Snapshot was rewritten.", key, snapshotKey());
+  }
+
+  @Test
+  public void testMaterializeKNN() throws IOException {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(dataset, shoulds);
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    SnapshotIndexFactory<DoubleVector> factory = new ELKIBuilder<SnapshotIndexFactory<DoubleVector>>(SnapshotIndexFactory.class) //
+        .with(SnapshotIndexFactory.Parameterizer.INDEX_ID, MaterializeKNNPreprocessor.Factory.class) //
+        .with(MaterializeKNNPreprocessor.Factory.K_ID, k) //
+        .with(MaterializeKNNPreprocessor.Factory.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class) //
+        .with(SnapshotIndexFactory.Parameterizer.DIRECTORY_ID, directory).build();
+    MaterializeKNNPreprocessor<?> built = (MaterializeKNNPreprocessor<?>) factory.instantiate(rel);
+    Object key = snapshotKey();
+    MaterializeKNNPreprocessor<?> restored = (MaterializeKNNPreprocessor<?>) factory.instantiate(rel);
+    assertEquals("Snapshot was rewritten.", key, snapshotKey());
+    // The database initializes the index, but it must not rebuild.
+    built.initialize();
+    restored.initialize();
+    try {
+      restored.initialize();
+      fail("Preprocessor ran twice.");
+    }
+    catch(UnsupportedOperationException e) {
+      // Expected, as for preprocessors not restored from snapshots.
+    }
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      KNNList a = built.get(it), b = restored.get(it);
+      assertEquals("kNN size differs.", a.size(), b.size());
+      for(DoubleDBIDListIter ia = a.iter(), ib = b.iter(); ia.valid(); ia.advance(), ib.advance()) {
+        assertEquals("Distance differs.", ia.doubleValue(), ib.doubleValue(), 0.);
+        assertTrue("Neighbor differs.", DBIDUtil.equal(ia, ib));
+      }
+    }
+  }
+
+  /**
+   * Get the file key of the (single) snapshot file.
+   *
+   * @return File key
+   */
+  private Object snapshotKey() throws IOException {
+    File[] files = directory.listFiles();
+    assertEquals("Expected exactly one snapshot file.", 1, files.length);
+    assertTrue("Not a snapshot file: " + files[0], files[0].getName().endsWith(".snapshot"));
+    Object key = Files.readAttributes(files[0].toPath(), BasicFileAttributes.class).fileKey();
+    assertNotNull(key);
+    return key;
+  }
+}
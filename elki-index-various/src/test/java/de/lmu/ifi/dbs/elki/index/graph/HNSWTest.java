@@ -0,0 +1,162 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDList;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.ids.ModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Unit test for the HNSW graph index.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class HNSWTest extends AbstractIndexStructureTest {
+  /**
+   * Test {@link HNSW} using a file based database connection.
+   */
+  @Test
+  public void testHNSW() {
+    HNSW.Factory<?> factory = new ELKIBuilder<>(HNSW.Factory.class) //
+        .with(HNSW.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class) //
+        .with(HNSW.Factory.Parameterizer.SEED_ID, 0L).build();
+    testExactEuclidean(factory, HNSW.HNSWKNNQuery.class, HNSW.HNSWRangeQuery.class);
+    testSinglePoint(factory, HNSW.HNSWKNNQuery.class, HNSW.HNSWRangeQuery.class);
+  }
+
+  /**
+   * Test the recall on a larger data set, with sequential and parallel build.
+   */
+  @Test
+  public void testRecall() {
+    Relation<NumberVector> rel = makeRelation();
+    double seq = recall(new HNSW.Factory<NumberVector>(EuclideanDistanceFunction.STATIC, 8, 50, 20, RandomFactory.get(0L), false), rel);
+    double par = recall(new HNSW.Factory<NumberVector>(EuclideanDistanceFunction.STATIC, 8, 50, 20, RandomFactory.get(0L), true), rel);
+    double wide = recall(new HNSW.Factory<NumberVector>(EuclideanDistanceFunction.STATIC, 8, 50, 100, RandomFactory.get(0L), false), rel);
+    assertTrue("Low recall: " + seq, seq > .9);
+    assertTrue("Low recall of parallel build: " + par, par > .9);
+    assertTrue("Larger efSearch did not improve recall: " + seq + " " + wide, wide >= seq && wide > .98);
+  }
+
+  /**
+   * Test that no index queries are used for exact queries, and that other
+   * distance functions are rejected.
+   */
+  @Test
+  public void testHints() {
+    Relation<NumberVector> rel = makeRelation();
+    HNSW<NumberVector> index = new HNSW.Factory<NumberVector>(EuclideanDistanceFunction.STATIC, 8, 50, 20, RandomFactory.get(0L), false).instantiate(rel);
+    index.initialize();
+    DistanceQuery<NumberVector> dq = rel.getDistanceQuery(EuclideanDistanceFunction.STATIC);
+    assertNull(index.getKNNQuery(dq, DatabaseQuery.HINT_EXACT));
+    assertNull(index.getRangeQuery(dq, DatabaseQuery.HINT_EXACT));
+    assertTrue(index.getKNNQuery(dq, DatabaseQuery.HINT_OPTIMIZED_ONLY) instanceof HNSW.HNSWKNNQuery);
+    assertNull(index.getKNNQuery(rel.getDistanceQuery(ManhattanDistanceFunction.STATIC)));
+  }
+
+  /**
+   * Generate a clustered data set.
+   *
+   * @return Data relation
+   */
+  private static Relation<NumberVector> makeRelation() {
+    Random rnd = new Random(0L);
+    double[][] data = new double[5000][20];
+    for(int i = 0; i < data.length; i++) {
+      Random crnd = new Random(rnd.nextInt(20));
+      for(int j = 0; j < data[i].length; j++) {
+        data[i][j] = crnd.nextDouble() * 10 + rnd.nextGaussian();
+      }
+    }
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(data), null);
+    db.initialize();
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Measure the recall of the 10 nearest neighbors of perturbed data points,
+   * and verify the range query results.
+   *
+   * @param factory Index factory
+   * @param rel Data relation
+   * @return Recall
+   */
+  private static double recall(HNSW.Factory<NumberVector> factory, Relation<NumberVector> rel) {
+    HNSW<NumberVector> index = factory.instantiate(rel);
+    index.initialize();
+    DistanceQuery<NumberVector> dq = rel.getDistanceQuery(EuclideanDistanceFunction.STATIC);
+    KNNQuery<NumberVector> knnq = index.getKNNQuery(dq);
+    RangeQuery<NumberVector> rangeq = index.getRangeQuery(dq);
+    LinearScanDistanceKNNQuery<NumberVector> linq = new LinearScanDistanceKNNQuery<>(dq);
+    Random rnd = new Random(1L);
+    int found = 0, total = 0;
+    for(int i = 0; i < 100; i++) {
+      double[] q = rel.get(DBIDUtil.randomSample(rel.getDBIDs(), rnd)).toArray();
+      for(int j = 0; j < q.length; j++) {
+        q[j] += rnd.nextGaussian() * .3;
+      }
+      DoubleVector v = DoubleVector.wrap(q);
+      KNNList expect = linq.getKNNForObject(v, 10), knn = knnq.getKNNForObject(v, 10);
+      assertEquals("Wrong number of results", 10, knn.size());
+      ModifiableDBIDs set = DBIDUtil.newHashSet(knn);
+      for(DBIDIter it = expect.iter(); it.valid(); it.advance(), total++) {
+        found += set.contains(it) ? 1 : 0;
+      }
+      // Range results must be exact, but may be incomplete:
+      DoubleDBIDList range = rangeq.getRangeForObject(v, expect.getKNNDistance());
+      assertTrue("Too many range results", range.size() <= expect.size());
+      for(DoubleDBIDListIter it = range.iter(); it.valid(); it.advance()) {
+        assertEquals("Wrong distance", dq.distance(v, it), it.doubleValue(), 0.);
+        assertTrue("Not in range", it.doubleValue() <= expect.getKNNDistance());
+      }
+    }
+    return found / (double) total;
+  }
+}
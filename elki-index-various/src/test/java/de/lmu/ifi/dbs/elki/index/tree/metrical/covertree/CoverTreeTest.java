@@ -22,6 +22,7 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
@@ -42,5 +43,17 @@ public class CoverTreeTest extends AbstractIndexStructureTest {
         .with(CoverTree.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class).build();
     testExactEuclidean(factory, CoverTree.CoverTreeKNNQuery.class, CoverTree.CoverTreeRangeQuery.class);
     testSinglePoint(factory, CoverTree.CoverTreeKNNQuery.class, CoverTree.CoverTreeRangeQuery.class);
+    testDynamic(factory, CoverTree.CoverTreeKNNQuery.class, CoverTree.CoverTreeRangeQuery.class);
+  }
+
+  /**
+   * Test that the parallel bulk load yields the same tree.
+   */
+  @Test
+  public void testParallelBuild() {
+    testParallelBuild(new CoverTree.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, 1.3, 10), //
+        new ELKIBuilder<CoverTree.Factory<DoubleVector>>(CoverTree.Factory.class) //
+            .with(CoverTree.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class) //
+            .with(CoverTree.Factory.Parameterizer.PARALLEL_ID).build());
   }
 }
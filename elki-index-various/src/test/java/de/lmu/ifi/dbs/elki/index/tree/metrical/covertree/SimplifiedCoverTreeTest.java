@@ -22,6 +22,7 @@ package de.lmu.ifi.dbs.elki.index.tree.metrical.covertree;
 
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
@@ -42,5 +43,17 @@ public class SimplifiedCoverTreeTest extends AbstractIndexStructureTest {
         .with(SimplifiedCoverTree.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class).build();
     testExactEuclidean(factory, SimplifiedCoverTree.CoverTreeKNNQuery.class, SimplifiedCoverTree.CoverTreeRangeQuery.class);
     testSinglePoint(factory, SimplifiedCoverTree.CoverTreeKNNQuery.class, SimplifiedCoverTree.CoverTreeRangeQuery.class);
+    testDynamic(factory, SimplifiedCoverTree.CoverTreeKNNQuery.class, SimplifiedCoverTree.CoverTreeRangeQuery.class);
+  }
+
+  /**
+   * Test that the parallel bulk load yields the same tree.
+   */
+  @Test
+  public void testParallelBuild() {
+    testParallelBuild(new SimplifiedCoverTree.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, 1.3, 10), //
+        new ELKIBuilder<SimplifiedCoverTree.Factory<DoubleVector>>(SimplifiedCoverTree.Factory.class) //
+            .with(SimplifiedCoverTree.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class) //
+            .with(SimplifiedCoverTree.Factory.Parameterizer.PARALLEL_ID).build());
   }
 }
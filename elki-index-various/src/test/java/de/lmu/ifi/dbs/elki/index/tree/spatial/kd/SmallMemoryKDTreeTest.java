@@ -22,6 +22,7 @@ package de.lmu.ifi.dbs.elki.index.tree.spatial.kd;
 
 import org.junit.Test;
 
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.index.AbstractIndexStructureTest;
 import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
 
@@ -40,5 +41,16 @@ public class SmallMemoryKDTreeTest extends AbstractIndexStructureTest {
     SmallMemoryKDTree.Factory<?> factory = new ELKIBuilder<>(SmallMemoryKDTree.Factory.class).build();
     testExactEuclidean(factory, SmallMemoryKDTree.KDTreeKNNQuery.class, SmallMemoryKDTree.KDTreeRangeQuery.class);
     testSinglePoint(factory, SmallMemoryKDTree.KDTreeKNNQuery.class, SmallMemoryKDTree.KDTreeRangeQuery.class);
+    testDynamic(factory, SmallMemoryKDTree.KDTreeKNNQuery.class, SmallMemoryKDTree.KDTreeRangeQuery.class);
+  }
+
+  /**
+   * Test that the parallel build yields the same tree.
+   */
+  @Test
+  public void testParallelBuild() {
+    testParallelBuild(new SmallMemoryKDTree.Factory<DoubleVector>(1), //
+        new ELKIBuilder<SmallMemoryKDTree.Factory<DoubleVector>>(SmallMemoryKDTree.Factory.class) //
+            .with(SmallMemoryKDTree.Factory.Parameterizer.PARALLEL_ID).build());
   }
 }
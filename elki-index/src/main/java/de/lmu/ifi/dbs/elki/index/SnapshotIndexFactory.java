@@ -0,0 +1,383 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.SparseNumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.TrackParameters;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.TrackedParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Parameter;
+
+/**
+ * Index factory that stores the indexes built by another factory in binary
+ * snapshot files, and restores them from these files in later runs instead of
+ * rebuilding them.
+ * <p>
+ * Snapshots are keyed by a hash of the index parameters and a hash of the
+ * indexed data, and are stored in one file per key in the snapshot directory.
+ * Snapshot files are read via memory-mapping, but the index structures are
+ * then restored on the Java heap, as the supported indexes use object-based
+ * nodes that cannot be backed by the file. This still avoids all distance
+ * computations of the index construction. Object references are stored
+ * relative to the DBID range of the relation, so snapshots can only be used
+ * with static databases (which is the default).
+ * <p>
+ * The wrapped index must implement {@link SnapshotIndex}, otherwise it is
+ * simply built as usual. A single snapshot is limited to 2 GB.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.composedOf IndexFactory
+ * @apiviz.uses SnapshotIndex
+ *
+ * @param <O> Object type
+ */
+public class SnapshotIndexFactory<O> implements IndexFactory<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(SnapshotIndexFactory.class);
+
+  /**
+   * Magic number of snapshot files.
+   */
+  private static final int MAGIC = 0x534E4150; // "SNAP"
+
+  /**
+   * Header size: magic, parameter hash, data hash, data size, payload size.
+   */
+  private static final int HEADER_SIZE = 4 + 8 + 8 + 4 + 8;
+
+  /**
+   * Inner index factory.
+   */
+  protected IndexFactory<O> inner;
+
+  /**
+   * Snapshot directory.
+   */
+  protected File directory;
+
+  /**
+   * Hash of the index parameters.
+   */
+  protected long parameterHash;
+
+  /**
+   * Constructor.
+   *
+   * @param inner Inner index factory
+   * @param directory Snapshot directory
+   * @param parameters Textual representation of the index parameters
+   */
+  public SnapshotIndexFactory(IndexFactory<O> inner, File directory, String parameters) {
+    super();
+    this.inner = inner;
+    this.directory = directory;
+    this.parameterHash = hashString(inner.getClass().getName() + " " + parameters);
+  }
+
+  @Override
+  public Index instantiate(Relation<O> relation) {
+    Index index = inner.instantiate(relation);
+    if(!(index instanceof SnapshotIndex)) {
+      LOG.warning("Index " + index.getClass().getName() + " does not support snapshots.");
+      return index;
+    }
+    if(!(relation.getDBIDs() instanceof DBIDRange)) {
+      LOG.warning("Index snapshots require a static database.");
+      return index;
+    }
+    DBIDRange ids = (DBIDRange) relation.getDBIDs();
+    final long dataHash = hashRelation(relation);
+    File file = new File(directory, String.format("%s-%016x-%016x.snapshot", //
+        index.getShortName().replaceAll("[^A-Za-z0-9._-]", "_"), parameterHash, dataHash));
+    if(file.exists()) {
+      if(readSnapshot((SnapshotIndex) index, file, ids, dataHash)) {
+        if(LOG.isVerbose()) {
+          LOG.verbose("Restored index snapshot from " + file);
+        }
+        ((SnapshotIndex) index).skipNextInitialize();
+        return index;
+      }
+      // Start over, with a clean index:
+      index = inner.instantiate(relation);
+    }
+    index.initialize();
+    writeSnapshot((SnapshotIndex) index, file, ids, dataHash);
+    ((SnapshotIndex) index).skipNextInitialize();
+    return index;
+  }
+
+  /**
+   * Restore an index from a snapshot file.
+   *
+   * @param index Index to restore
+   * @param file Snapshot file
+   * @param ids DBID range
+   * @param dataHash Hash of the data set
+   * @return {@code true} on success
+   */
+  private boolean readSnapshot(SnapshotIndex index, File file, DBIDRange ids, long dataHash) {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); //
+        FileChannel channel = raf.getChannel()) {
+      final long size = channel.size();
+      if(size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+        return false;
+      }
+      MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+      if(buffer.getInt() != MAGIC || buffer.getLong() != parameterHash //
+          || buffer.getLong() != dataHash || buffer.getInt() != ids.size() //
+          || buffer.getLong() != size - HEADER_SIZE) {
+        LOG.warning("Index snapshot " + file + " does not match, rebuilding.");
+        return false;
+      }
+      return index.readSnapshot(buffer.slice(), ids);
+    }
+    catch(IOException | BufferUnderflowException | IllegalArgumentException e) {
+      LOG.warning("Could not read index snapshot " + file + ": " + e.getMessage());
+      return false;
+    }
+  }
+
+  /**
+   * Write a snapshot file. Failures are logged, but not fatal.
+   *
+   * @param index Index to store
+   * @param file Snapshot file
+   * @param ids DBID range
+   * @param dataHash Hash of the data set
+   */
+  private void writeSnapshot(SnapshotIndex index, File file, DBIDRange ids, long dataHash) {
+    final long size = index.getSnapshotSize();
+    if(size + HEADER_SIZE > Integer.MAX_VALUE) {
+      LOG.warning("Index is too large for a snapshot: " + size + " bytes.");
+      return;
+    }
+    if(!directory.isDirectory() && !directory.mkdirs()) {
+      LOG.warning("Could not create snapshot directory " + directory);
+      return;
+    }
+    // Write to a temporary file first, to not leave incomplete snapshots.
+    File tmp = new File(directory, file.getName() + ".tmp");
+    try {
+      try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw"); //
+          FileChannel channel = raf.getChannel()) {
+        raf.setLength(size + HEADER_SIZE);
+        MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size + HEADER_SIZE);
+        buffer.putInt(MAGIC).putLong(parameterHash).putLong(dataHash) //
+            .putInt(ids.size()).putLong(size);
+        ByteBuffer payload = buffer.slice();
+        index.writeSnapshot(payload, ids);
+        if(payload.position() != size) {
+          throw new IOException("Snapshot size mismatch: " + payload.position() + " != " + size);
+        }
+        buffer.force();
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      if(LOG.isVerbose()) {
+        LOG.verbose("Stored index snapshot in " + file);
+      }
+    }
+    catch(IOException e) {
+      LOG.warning("Could not write index snapshot " + file + ": " + e.getMessage());
+      removeTemporary(tmp);
+    }
+    catch(BufferOverflowException e) {
+      removeTemporary(tmp);
+      throw new AbortException("Index " + index.getClass().getName() + " wrote more than its snapshot size of " + size + " bytes.", e);
+    }
+  }
+
+  /**
+   * Remove an incomplete snapshot file.
+   *
+   * @param tmp Temporary file
+   */
+  private static void removeTemporary(File tmp) {
+    if(tmp.exists() && !tmp.delete()) {
+      LOG.warning("Could not remove " + tmp);
+    }
+  }
+
+  /**
+   * Hash the contents of a relation.
+   *
+   * @param relation Relation
+   * @return Hash code
+   */
+  protected static long hashRelation(Relation<?> relation) {
+    long hash = mix(0L, relation.size());
+    for(DBIDIter it = relation.iterDBIDs(); it.valid(); it.advance()) {
+      final Object o = relation.get(it);
+      if(o instanceof SparseNumberVector) {
+        SparseNumberVector v = (SparseNumberVector) o;
+        hash = mix(hash, v.getDimensionality());
+        for(int iter = v.iter(); v.iterValid(iter); iter = v.iterAdvance(iter)) {
+          hash = mix(mix(hash, v.iterDim(iter)), Double.doubleToLongBits(v.iterDoubleValue(iter)));
+        }
+      }
+      else if(o instanceof NumberVector) {
+        NumberVector v = (NumberVector) o;
+        final int dim = v.getDimensionality();
+        hash = mix(hash, dim);
+        for(int d = 0; d < dim; d++) {
+          hash = mix(hash, Double.doubleToLongBits(v.doubleValue(d)));
+        }
+      }
+      else {
+        // Note: objects without a content-based string representation will
+        // never match a previous snapshot, which is safe.
+        hash = hashString(hash, String.valueOf(o));
+      }
+    }
+    return hash;
+  }
+
+  /**
+   * Hash a string.
+   *
+   * @param str String
+   * @return Hash code
+   */
+  protected static long hashString(String str) {
+    return hashString(0L, str);
+  }
+
+  /**
+   * Hash a string.
+   *
+   * @param hash Previous hash value
+   * @param str String
+   * @return Hash code
+   */
+  private static long hashString(long hash, String str) {
+    hash = mix(hash, str.length());
+    for(int i = 0; i < str.length(); i++) {
+      hash = mix(hash, str.charAt(i));
+    }
+    return hash;
+  }
+
+  /**
+   * Mix a value into a 64 bit hash code.
+   *
+   * @param hash Previous hash value
+   * @param v Value
+   * @return Hash code
+   */
+  private static long mix(long hash, long v) {
+    hash = Long.rotateLeft(hash ^ (v * 0x9E3779B97F4A7C15L), 27) * 0xBF58476D1CE4E5B9L;
+    return hash ^ (hash >>> 31);
+  }
+
+  @Override
+  public TypeInformation getInputTypeRestriction() {
+    return inner.getInputTypeRestriction();
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   *
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends AbstractParameterizer {
+    /**
+     * Index to store in snapshots.
+     */
+    public static final OptionID INDEX_ID = new OptionID("snapshot.index", "Index to store in snapshots, or restore from snapshots.");
+
+    /**
+     * Snapshot directory.
+     */
+    public static final OptionID DIRECTORY_ID = new OptionID("snapshot.dir", "Directory to store index snapshots in. Snapshots are keyed by the index parameters and a hash of the data, and are reused if both match.");
+
+    /**
+     * Inner index factory.
+     */
+    protected IndexFactory<O> inner;
+
+    /**
+     * Snapshot directory.
+     */
+    protected File directory;
+
+    /**
+     * Textual representation of the index parameters.
+     */
+    protected String parameters;
+
+    @Override
+    protected void makeOptions(Parameterization config) {
+      super.makeOptions(config);
+      TrackParameters track = new TrackParameters(config);
+      ObjectParameter<IndexFactory<O>> indexP = new ObjectParameter<>(INDEX_ID, IndexFactory.class);
+      if(track.grab(indexP)) {
+        inner = indexP.instantiateClass(track);
+      }
+      StringBuilder buf = new StringBuilder();
+      for(TrackedParameter p : track.getAllParameters()) {
+        Parameter<?> par = p.getParameter();
+        if(par.isDefined()) {
+          buf.append(par.getOptionID().getName()).append('=').append(par.getValueAsString()).append(' ');
+        }
+      }
+      parameters = buf.toString();
+      FileParameter directoryP = new FileParameter(DIRECTORY_ID, FileParameter.FileType.OUTPUT_FILE);
+      if(config.grab(directoryP)) {
+        directory = directoryP.getValue();
+      }
+    }
+
+    @Override
+    protected SnapshotIndexFactory<O> makeInstance() {
+      return new SnapshotIndexFactory<>(inner, directory, parameters);
+    }
+  }
+}
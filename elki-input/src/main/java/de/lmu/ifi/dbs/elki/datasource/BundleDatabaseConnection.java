@@ -27,6 +27,7 @@ import java.nio.channels.FileChannel;
 import java.util.List;
 
 import de.lmu.ifi.dbs.elki.datasource.bundle.BundleReader;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MappedBundleReader;
 import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.datasource.filter.ObjectFilter;
 import de.lmu.ifi.dbs.elki.logging.Logging;
@@ -34,6 +35,7 @@ import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 
 /**
  * Class to load a database from a bundle file.
@@ -41,11 +43,15 @@ import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
  * Bundle files are stored in a compact binary format along with metadata, so
  * that parsing should be simpler, albeit the focus was on using it in on-disk
  * indexes.
+ * <p>
+ * Optionally, dense double vector columns can be kept in the memory-mapped
+ * file instead of being loaded, using {@link MappedBundleReader}.
  *
  * @author Erich Schubert
  * @since 0.5.5
  *
  * @apiviz.composedOf BundleReader
+ * @apiviz.composedOf MappedBundleReader
  */
 public class BundleDatabaseConnection extends AbstractDatabaseConnection {
   /**
@@ -58,6 +64,11 @@ public class BundleDatabaseConnection extends AbstractDatabaseConnection {
    */
   private File infile;
 
+  /**
+   * Keep vector columns in the memory-mapped file.
+   */
+  private boolean mapped;
+
   /**
    * Constructor.
    *
@@ -65,8 +76,20 @@ public class BundleDatabaseConnection extends AbstractDatabaseConnection {
    * @param infile Input file
    */
   public BundleDatabaseConnection(List<ObjectFilter> filters, File infile) {
+    this(filters, infile, false);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param filters Filters
+   * @param infile Input file
+   * @param mapped Keep vector columns in the memory-mapped file
+   */
+  public BundleDatabaseConnection(List<ObjectFilter> filters, File infile, boolean mapped) {
     super(filters);
     this.infile = infile;
+    this.mapped = mapped;
   }
 
   @Override
@@ -74,7 +97,9 @@ public class BundleDatabaseConnection extends AbstractDatabaseConnection {
     try {
       FileInputStream fis = new FileInputStream(infile);
       FileChannel channel = fis.getChannel();
-      MultipleObjectsBundle bundle = invokeStreamFilters(new BundleReader(channel)).asMultipleObjectsBundle();
+      MultipleObjectsBundle bundle = mapped ? //
+          invokeBundleFilters(new MappedBundleReader(channel).readBundle()) : //
+          invokeStreamFilters(new BundleReader(channel)).asMultipleObjectsBundle();
       channel.close();
       fis.close();
       return bundle;
@@ -102,11 +127,21 @@ public class BundleDatabaseConnection extends AbstractDatabaseConnection {
      */
     private static final OptionID BUNDLE_ID = new OptionID("bundle.input", "Bundle file to load the data from.");
 
+    /**
+     * Flag to keep vector columns in the memory-mapped file.
+     */
+    public static final OptionID MAPPED_ID = new OptionID("bundle.mmap", "Keep dense double vector columns in the memory-mapped bundle file instead of loading them into memory.");
+
     /**
      * File to load.
      */
     private File infile;
 
+    /**
+     * Keep vector columns in the memory-mapped file.
+     */
+    private boolean mapped;
+
     @Override
     protected void makeOptions(Parameterization config) {
       super.makeOptions(config);
@@ -115,11 +150,15 @@ public class BundleDatabaseConnection extends AbstractDatabaseConnection {
       if(config.grab(infileP)) {
         infile = infileP.getValue();
       }
+      Flag mappedF = new Flag(MAPPED_ID);
+      if(config.grab(mappedF)) {
+        mapped = mappedF.isTrue();
+      }
     }
 
     @Override
     protected BundleDatabaseConnection makeInstance() {
-      return new BundleDatabaseConnection(filters, infile);
+      return new BundleDatabaseConnection(filters, infile, mapped);
     }
   }
 }
@@ -0,0 +1,248 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.datasource.bundle;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.MappedDoubleVector;
+import de.lmu.ifi.dbs.elki.data.OffsetDoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.SimpleTypeInformation;
+import de.lmu.ifi.dbs.elki.data.type.TypeInformationSerializer;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayModifiableDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBID;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteBufferSerializer;
+
+/**
+ * Read an ELKI bundle file, keeping the dense double vector columns in the
+ * memory-mapped file instead of loading them.
+ * <p>
+ * Vector columns of a fixed dimensionality written with one of the
+ * {@link DoubleVector} serializers are returned as {@link MappedVectorColumn},
+ * all other columns (e.g., labels) are deserialized as with
+ * {@link BundleReader}. No objects are allocated for the mapped vectors while
+ * loading; vector views are only created on access. Files larger than 2 GB
+ * are supported, but a single record must not exceed 16 MB.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.uses FileChannel - - «reads»
+ * @apiviz.has MappedVectorColumn - - «creates»
+ */
+public class MappedBundleReader {
+  /**
+   * Segment overlap, i.e., the maximum size of a record.
+   */
+  private static final int OVERLAP = 1 << 24;
+
+  /**
+   * Dimensionality header of the serializers.
+   */
+  private static final int HEADER_BYTE = 1, HEADER_SHORT = 2, HEADER_VARINT = 3;
+
+  /**
+   * Input channel.
+   */
+  private FileChannel input;
+
+  /**
+   * Constructor.
+   *
+   * @param input Input channel
+   */
+  public MappedBundleReader(FileChannel input) {
+    super();
+    this.input = input;
+  }
+
+  /**
+   * Read the bundle.
+   *
+   * @return Bundle, with vector columns backed by the mapped file.
+   */
+  public MultipleObjectsBundle readBundle() {
+    final ByteBuffer[] segments;
+    final long size;
+    try {
+      size = input.size();
+      final long segsize = 1L << MappedVectorColumn.SEGMENT_SHIFT;
+      segments = new ByteBuffer[(int) Math.max(1, (size + segsize - 1) >>> MappedVectorColumn.SEGMENT_SHIFT)];
+      for(int i = 0; i < segments.length; i++) {
+        final long start = i * segsize;
+        segments[i] = input.map(MapMode.READ_ONLY, start, Math.min(size - start, segsize + OVERLAP));
+      }
+    }
+    catch(IOException e) {
+      throw new AbortException("Cannot map input bundle.", e);
+    }
+    try {
+      return readBundle(segments, size);
+    }
+    catch(IOException e) {
+      throw new AbortException("IO error", e);
+    }
+    catch(UnsupportedOperationException e) {
+      throw new AbortException("Deserialization failed: " + e.getMessage(), e);
+    }
+    catch(BufferUnderflowException | IllegalArgumentException e) {
+      throw new AbortException("Truncated bundle, or a record is larger than " + OVERLAP + " bytes.", e);
+    }
+  }
+
+  /**
+   * Read the bundle from the mapped segments.
+   *
+   * @param segments Mapped segments
+   * @param size File size
+   * @return Bundle
+   * @throws IOException on deserialization errors
+   */
+  private MultipleObjectsBundle readBundle(ByteBuffer[] segments, long size) throws IOException {
+    ByteBuffer buffer = segments[0];
+    if(buffer.getInt() != BundleReader.MAGIC) {
+      throw new AbortException("File does not start with expected magic.");
+    }
+    final int nummeta = buffer.getInt();
+    assert (nummeta > 0) : "Empty bundle?";
+    ByteBufferSerializer<?>[] sers = new ByteBufferSerializer<?>[nummeta];
+    int[] headers = new int[nummeta];
+    MappedVectorColumn[] mapped = new MappedVectorColumn[nummeta];
+    List<?>[] columns = new List<?>[nummeta];
+    SimpleTypeInformation<?>[] types = new SimpleTypeInformation<?>[nummeta];
+    ArrayModifiableDBIDs ids = null;
+    for(int i = 0; i < nummeta; i++) {
+      SimpleTypeInformation<?> type = (SimpleTypeInformation<?>) TypeInformationSerializer.STATIC.fromByteBuffer(buffer);
+      sers[i] = type.getSerializer();
+      if(i == 0 && DBID.class.isAssignableFrom(type.getRestrictionClass())) {
+        ids = DBIDUtil.newArray();
+        continue;
+      }
+      headers[i] = getHeaderType(type);
+      if(headers[i] > 0) {
+        VectorFieldTypeInformation<?> vtype = (VectorFieldTypeInformation<?>) type;
+        mapped[i] = new MappedVectorColumn(segments, vtype.getDimensionality(), vtype.getLabels());
+        if(mapped[i].getVectorSize() > OVERLAP - 8) {
+          throw new AbortException("Vectors are too large to be memory-mapped.");
+        }
+        columns[i] = mapped[i];
+        types[i] = mapped[i].getDataTypeInformation();
+      }
+      else {
+        columns[i] = new ArrayList<>();
+        types[i] = type;
+      }
+    }
+    long pos = buffer.position();
+    while(pos < size) {
+      final int seg = (int) (pos >>> MappedVectorColumn.SEGMENT_SHIFT);
+      final long segstart = ((long) seg) << MappedVectorColumn.SEGMENT_SHIFT;
+      buffer = segments[seg];
+      buffer.position((int) (pos - segstart));
+      for(int i = 0; i < nummeta; i++) {
+        if(mapped[i] != null) {
+          final int dim = readDimensionality(buffer, headers[i]);
+          if(dim != mapped[i].getDimensionality()) {
+            throw new AbortException("Vector dimensionality does not match the bundle header: " + dim);
+          }
+          mapped[i].addPosition(segstart + buffer.position());
+          buffer.position(buffer.position() + dim * ByteArrayUtil.SIZE_DOUBLE);
+        }
+        else if(i == 0 && ids != null) {
+          ids.add((DBID) sers[i].fromByteBuffer(buffer));
+        }
+        else {
+          @SuppressWarnings("unchecked")
+          List<Object> col = (List<Object>) columns[i];
+          col.add(sers[i].fromByteBuffer(buffer));
+        }
+      }
+      pos = segstart + buffer.position();
+    }
+    MultipleObjectsBundle bundle = new MultipleObjectsBundle();
+    for(int i = ids != null ? 1 : 0; i < nummeta; i++) {
+      bundle.appendColumn(types[i], columns[i]);
+    }
+    if(ids != null) {
+      bundle.setDBIDs(ids);
+    }
+    return bundle;
+  }
+
+  /**
+   * Get the header type of a vector serializer.
+   *
+   * @param type Column type
+   * @return Header type, or 0 if the column cannot be mapped.
+   */
+  private static int getHeaderType(SimpleTypeInformation<?> type) {
+    if(!(type instanceof VectorFieldTypeInformation)) {
+      return 0;
+    }
+    // Only columns of a fixed dimensionality are mapped.
+    final VectorFieldTypeInformation<?> vtype = (VectorFieldTypeInformation<?>) type;
+    if(vtype.mindim() != vtype.maxdim()) {
+      return 0;
+    }
+    final ByteBufferSerializer<?> ser = type.getSerializer();
+    if(ser instanceof DoubleVector.SmallSerializer) {
+      return HEADER_BYTE;
+    }
+    if(ser instanceof DoubleVector.ShortSerializer) {
+      return HEADER_SHORT;
+    }
+    if(ser instanceof DoubleVector.VariableSerializer //
+        || ser instanceof OffsetDoubleVector.VariableSerializer //
+        || ser instanceof MappedDoubleVector.VariableSerializer) {
+      return HEADER_VARINT;
+    }
+    return 0;
+  }
+
+  /**
+   * Read the dimensionality header of a vector.
+   *
+   * @param buffer Buffer
+   * @param header Header type
+   * @return Dimensionality
+   * @throws IOException on invalid varint encoding
+   */
+  private static int readDimensionality(ByteBuffer buffer, int header) throws IOException {
+    switch(header){
+    case HEADER_BYTE:
+      return buffer.get();
+    case HEADER_SHORT:
+      return buffer.getShort();
+    default:
+      return ByteArrayUtil.readUnsignedVarint(buffer);
+    }
+  }
+}
@@ -0,0 +1,165 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.datasource.bundle;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+
+import de.lmu.ifi.dbs.elki.data.MappedDoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Bundle column of dense double vectors that remain in a memory-mapped file.
+ * <p>
+ * Only the file positions of the vectors are kept on the heap, and if the
+ * records have a constant size (as is the case for bundles without variable
+ * length columns such as labels), not even these. {@link #get} returns
+ * lightweight {@link MappedDoubleVector} views into the mapped file.
+ * <p>
+ * The file is mapped in segments of 1 GB, which overlap by the maximum record
+ * size, so that each vector is contained in the segment it starts in.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.has MappedDoubleVector
+ */
+public class MappedVectorColumn extends AbstractList<MappedDoubleVector> {
+  /**
+   * Bits of the segment offset.
+   */
+  static final int SEGMENT_SHIFT = 30;
+
+  /**
+   * Mapped file segments.
+   */
+  private final ByteBuffer[] segments;
+
+  /**
+   * Data type.
+   */
+  private final VectorFieldTypeInformation<MappedDoubleVector> type;
+
+  /**
+   * Dimensionality.
+   */
+  private final int dim;
+
+  /**
+   * Number of vectors.
+   */
+  private int size = 0;
+
+  /**
+   * File position of the first vector, and distance between vectors, for
+   * regular layouts.
+   */
+  private long first = -1L, stride = -1L;
+
+  /**
+   * File positions of all vectors, for irregular layouts; otherwise
+   * {@code null}.
+   */
+  private LongArrayList positions = null;
+
+  /**
+   * Constructor.
+   *
+   * @param segments Mapped file segments
+   * @param dim Dimensionality
+   * @param labels Column labels, may be {@code null}
+   */
+  MappedVectorColumn(ByteBuffer[] segments, int dim, String[] labels) {
+    super();
+    this.segments = segments;
+    this.dim = dim;
+    this.type = new VectorFieldTypeInformation<>(MappedDoubleVector.FACTORY, dim, labels);
+  }
+
+  /**
+   * Add the next vector.
+   *
+   * @param pos File position of the first value
+   */
+  void addPosition(long pos) {
+    if(positions == null) {
+      if(size == 0) {
+        first = pos;
+      }
+      else if(size == 1) {
+        stride = pos - first;
+      }
+      if(size < 2 || pos == first + size * stride) {
+        ++size;
+        return;
+      }
+      // Layout is not regular, store all positions.
+      positions = new LongArrayList(size << 1);
+      for(int i = 0; i < size; i++) {
+        positions.add(first + i * stride);
+      }
+    }
+    positions.add(pos);
+    ++size;
+  }
+
+  @Override
+  public MappedDoubleVector get(int index) {
+    final long pos = positions != null ? positions.getLong(index) : first + index * stride;
+    final int seg = (int) (pos >>> SEGMENT_SHIFT);
+    return new MappedDoubleVector(segments[seg], (int) (pos - ((long) seg << SEGMENT_SHIFT)), dim);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Get the dimensionality of the vectors.
+   *
+   * @return Dimensionality
+   */
+  public int getDimensionality() {
+    return dim;
+  }
+
+  /**
+   * Get the data type of this column.
+   *
+   * @return Type information
+   */
+  public VectorFieldTypeInformation<MappedDoubleVector> getDataTypeInformation() {
+    return type;
+  }
+
+  /**
+   * Number of bytes needed for a single vector.
+   *
+   * @return Size in bytes
+   */
+  long getVectorSize() {
+    return dim * (long) ByteArrayUtil.SIZE_DOUBLE;
+  }
+}
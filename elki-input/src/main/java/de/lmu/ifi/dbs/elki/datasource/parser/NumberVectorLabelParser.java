@@ -210,20 +210,7 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
     try {
       while(reader.nextLineExceptComments()) {
         if(parseLineInternal()) {
-          final int curdim = curvec.getDimensionality();
-          if(curdim > maxdim || mindim > curdim) {
-            mindim = (curdim < mindim) ? curdim : mindim;
-            maxdim = (curdim > maxdim) ? curdim : maxdim;
-            buildMeta();
-            nextevent = Event.NEXT_OBJECT;
-            return Event.META_CHANGED;
-          }
-          else if(curlbl != null && meta != null && haslabels && meta.size() == 1) {
-            buildMeta();
-            nextevent = Event.NEXT_OBJECT;
-            return Event.META_CHANGED;
-          }
-          return Event.NEXT_OBJECT;
+          return nextObjectEvent();
         }
       }
       if(maxdim == 0) {
@@ -236,6 +223,29 @@ public class NumberVectorLabelParser<V extends NumberVector> extends AbstractStr
     }
   }
 
+  /**
+   * Report the current object, preceded by a meta data change if the
+   * dimensionality range changed or labels appeared for the first time.
+   *
+   * @return Event to report
+   */
+  protected Event nextObjectEvent() {
+    final int curdim = curvec.getDimensionality();
+    if(curdim > maxdim || mindim > curdim) {
+      mindim = (curdim < mindim) ? curdim : mindim;
+      maxdim = (curdim > maxdim) ? curdim : maxdim;
+      buildMeta();
+      nextevent = Event.NEXT_OBJECT;
+      return Event.META_CHANGED;
+    }
+    else if(curlbl != null && meta != null && haslabels && meta.size() == 1) {
+      buildMeta();
+      nextevent = Event.NEXT_OBJECT;
+      return Event.META_CHANGED;
+    }
+    return Event.NEXT_OBJECT;
+  }
+
   @Override
   public void cleanup() {
     super.cleanup();
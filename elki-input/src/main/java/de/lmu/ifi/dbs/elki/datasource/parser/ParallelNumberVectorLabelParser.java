@@ -0,0 +1,503 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.datasource.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+
+import de.lmu.ifi.dbs.elki.data.LabelList;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.io.LineReader;
+import de.lmu.ifi.dbs.elki.utilities.io.ParseUtil;
+import de.lmu.ifi.dbs.elki.utilities.io.Tokenizer;
+
+/**
+ * Multi-threaded variant of {@link NumberVectorLabelParser}.
+ *
+ * A single reader thread reads (and thus decompresses) the input, and cuts it
+ * into chunks of whole lines. The chunks are tokenized and parsed concurrently
+ * on the shared fork-join pool, while the objects are still reported one at a
+ * time and in input order, so that streaming filters work as before.
+ *
+ * The input format is the same as for {@link NumberVectorLabelParser}; in
+ * particular a header row is only recognized before the first data row.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.uses ParallelCore
+ *
+ * @param <V> the type of NumberVector used
+ */
+public class ParallelNumberVectorLabelParser<V extends NumberVector> extends NumberVectorLabelParser<V> {
+  /**
+   * Logging class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelNumberVectorLabelParser.class);
+
+  /**
+   * Number of characters per chunk.
+   */
+  private static final int CHUNK_SIZE = 1 << 16;
+
+  /**
+   * Input format.
+   */
+  protected CSVReaderFormat format;
+
+  /**
+   * Line reader on the input stream.
+   */
+  private LineReader input;
+
+  /**
+   * Reader thread.
+   */
+  private Thread readerThread;
+
+  /**
+   * Chunks in input order, bounded to limit memory usage.
+   */
+  private BlockingQueue<Future<Chunk<V>>> queue;
+
+  /**
+   * Current chunk, and position within the chunk.
+   */
+  private Chunk<V> chunk;
+
+  /**
+   * Position within the current chunk.
+   */
+  private int pos;
+
+  /**
+   * Number of lines read so far.
+   */
+  private int lineNumber;
+
+  /**
+   * For String unification, shared by all workers.
+   */
+  private ConcurrentHashMap<String, String> labelcache = new ConcurrentHashMap<>();
+
+  /**
+   * Constructor.
+   *
+   * @param format Input format
+   * @param labelIndices Column indexes that are not numeric.
+   * @param factory Vector factory
+   */
+  public ParallelNumberVectorLabelParser(CSVReaderFormat format, long[] labelIndices, NumberVector.Factory<V> factory) {
+    super(format, labelIndices, factory);
+    this.format = format;
+  }
+
+  @Override
+  public void initStream(InputStream in) {
+    mindim = Integer.MAX_VALUE;
+    maxdim = 0;
+    columnnames = null;
+    haslabels = false;
+    nextevent = null;
+    curvec = null;
+    chunk = null;
+    pos = 0;
+    lineNumber = 0;
+    input = new LineReader(in);
+    ForkJoinPool pool = ParallelCore.getCore().getForkJoinPool();
+    queue = new ArrayBlockingQueue<>(pool.getParallelism() << 1);
+    readerThread = new Thread(new ChunkReader(input, pool, queue), "ELKI CSV reader");
+    readerThread.setDaemon(true);
+    readerThread.start();
+  }
+
+  @Override
+  public Event nextEvent() {
+    if(nextevent != null) {
+      Event ret = nextevent;
+      nextevent = null;
+      return ret;
+    }
+    while(chunk == null || pos >= chunk.size) {
+      if(chunk != null && chunk.last) {
+        if(maxdim == 0) {
+          throw new AbortException("No numeric data was read in line " + lineNumber + ". Verify the column separator; for textual data use other parsers.");
+        }
+        return Event.END_OF_STREAM;
+      }
+      chunk = nextChunk();
+      pos = 0;
+      lineNumber = chunk.lineNumber;
+      if(chunk.columnnames != null) {
+        columnnames = chunk.columnnames;
+      }
+    }
+    curvec = chunk.vecs[pos];
+    curlbl = chunk.lbls[pos];
+    chunk.vecs[pos] = null;
+    chunk.lbls[pos] = null;
+    ++pos;
+    haslabels |= curlbl.size() > 0;
+    return nextObjectEvent();
+  }
+
+  /**
+   * Wait for the next chunk to be parsed.
+   *
+   * @return Parsed chunk
+   */
+  private Chunk<V> nextChunk() {
+    try {
+      return queue.take().get();
+    }
+    catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new AbortException("Interrupted while parsing.", e);
+    }
+    catch(ExecutionException e) {
+      if(e.getCause() instanceof IOException) {
+        throw new IllegalArgumentException("Error while parsing line " + lineNumber + ".", e.getCause());
+      }
+      if(e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new AbortException("Parsing failed.", e.getCause());
+    }
+  }
+
+  /**
+   * Parse a chunk of lines.
+   *
+   * @param buf Character buffer
+   * @param ends End positions of the lines
+   * @param num Number of lines
+   * @param first First chunk of the input (may contain a header row)
+   * @param lineNumber Line number at the end of the chunk
+   * @return Parsed chunk
+   */
+  @SuppressWarnings("unchecked")
+  protected Chunk<V> parseChunk(CharSequence buf, int[] ends, int num, boolean first, int lineNumber) {
+    Chunk<V> c = new Chunk<>((V[]) new NumberVector[num], new LabelList[num], lineNumber);
+    Tokenizer tokenizer = new Tokenizer(format.colSep, format.quoteChars);
+    Matcher comment = format.comment != null ? format.comment.matcher(buf) : null;
+    DoubleArray attributes = new DoubleArray(11);
+    ArrayList<String> labels = new ArrayList<>();
+    for(int l = 0, start = 0; l < num; start = ends[l++]) {
+      if(comment != null && comment.region(start, ends[l]).matches()) {
+        continue;
+      }
+      tokenizer.initialize(buf, start, ends[l]);
+      for(int i = 0; tokenizer.valid(); tokenizer.advance(), i++) {
+        if(!isLabelColumn(i) && !tokenizer.isQuoted()) {
+          try {
+            attributes.add(tokenizer.getDouble());
+            continue;
+          }
+          catch(NumberFormatException e) {
+            if(!warnedPrecision && (e == ParseUtil.PRECISION_OVERFLOW || e == ParseUtil.EXPONENT_OVERFLOW)) {
+              getLogger().warning("Too many digits in what looked like a double number - treating as string: " + tokenizer.getSubstring());
+              warnedPrecision = true;
+            }
+          }
+        }
+        String lbl = tokenizer.getStrippedSubstring();
+        if(lbl.length() > 0) {
+          String prev = labelcache.putIfAbsent(lbl, lbl);
+          labels.add(prev != null ? prev : lbl);
+        }
+      }
+      // Label row before the first data row?
+      if(first && c.size == 0 && attributes.size == 0) {
+        c.columnnames = new ArrayList<>(labels);
+        labels.clear();
+        continue;
+      }
+      c.vecs[c.size] = factory.newNumberVector(attributes, attributes);
+      c.lbls[c.size] = LabelList.make(labels);
+      c.size++;
+      attributes.clear();
+      labels.clear();
+    }
+    tokenizer.cleanup();
+    return c;
+  }
+
+  @Override
+  public void cleanup() {
+    if(readerThread != null) {
+      readerThread.interrupt();
+      readerThread = null;
+    }
+    if(queue != null) {
+      for(Future<Chunk<V>> f : queue) {
+        f.cancel(false);
+      }
+      queue.clear();
+      queue = null;
+    }
+    if(input != null) {
+      try {
+        input.close();
+      }
+      catch(IOException e) {
+        getLogger().exception(e);
+      }
+      input = null;
+    }
+    chunk = null;
+    labelcache.clear();
+    super.cleanup();
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Block of parsed objects.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   *
+   * @param <V> Vector type
+   */
+  protected static class Chunk<V> {
+    /**
+     * Parsed vectors.
+     */
+    V[] vecs;
+
+    /**
+     * Parsed labels.
+     */
+    LabelList[] lbls;
+
+    /**
+     * Number of objects.
+     */
+    int size;
+
+    /**
+     * Line number at the end of the chunk.
+     */
+    int lineNumber;
+
+    /**
+     * Column names, if the chunk began with a header row.
+     */
+    ArrayList<String> columnnames;
+
+    /**
+     * Flag for the end of the input.
+     */
+    boolean last;
+
+    /**
+     * Constructor.
+     *
+     * @param vecs Vector storage
+     * @param lbls Label storage
+     * @param lineNumber Line number at the end of the chunk
+     */
+    Chunk(V[] vecs, LabelList[] lbls, int lineNumber) {
+      this.vecs = vecs;
+      this.lbls = lbls;
+      this.lineNumber = lineNumber;
+    }
+  }
+
+  /**
+   * Reader thread, splitting the input into chunks of lines.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class ChunkReader implements Runnable {
+    /**
+     * Input lines.
+     */
+    private LineReader input;
+
+    /**
+     * Pool to parse on.
+     */
+    private ForkJoinPool pool;
+
+    /**
+     * Output queue.
+     */
+    private BlockingQueue<Future<Chunk<V>>> queue;
+
+    /**
+     * Constructor.
+     *
+     * @param input Input lines
+     * @param pool Pool to parse on
+     * @param queue Output queue
+     */
+    ChunkReader(LineReader input, ForkJoinPool pool, BlockingQueue<Future<Chunk<V>>> queue) {
+      this.input = input;
+      this.pool = pool;
+      this.queue = queue;
+    }
+
+    @Override
+    public void run() {
+      try {
+        StringBuilder buf = new StringBuilder(CHUNK_SIZE + 1024);
+        int[] ends = new int[1024];
+        int num = 0, lines = 0;
+        boolean first = true;
+        while(!Thread.currentThread().isInterrupted()) {
+          final int start = buf.length();
+          if(!input.readLine(buf)) {
+            break;
+          }
+          ++lines;
+          if(buf.length() == start) {
+            continue; // Empty line.
+          }
+          if(num == ends.length) {
+            ends = Arrays.copyOf(ends, ends.length << 1);
+          }
+          ends[num++] = buf.length();
+          if(buf.length() >= CHUNK_SIZE) {
+            queue.put(pool.submit(new ParseTask(buf, ends, num, first, lines)));
+            buf = new StringBuilder(CHUNK_SIZE + 1024);
+            ends = new int[ends.length];
+            num = 0;
+            first = false;
+          }
+        }
+        if(num > 0) {
+          queue.put(pool.submit(new ParseTask(buf, ends, num, first, lines)));
+        }
+        Chunk<V> end = new Chunk<>(null, null, lines);
+        end.last = true;
+        CompletableFuture<Chunk<V>> f = new CompletableFuture<>();
+        f.complete(end);
+        queue.put(f);
+      }
+      catch(InterruptedException e) {
+        return; // Cleanup was called.
+      }
+      catch(Throwable t) {
+        // Pass on any failure, or the consumer would wait forever.
+        try {
+          CompletableFuture<Chunk<V>> f = new CompletableFuture<>();
+          f.completeExceptionally(t);
+          queue.put(f);
+        }
+        catch(InterruptedException e2) {
+          return; // Cleanup was called.
+        }
+      }
+    }
+  }
+
+  /**
+   * Task to parse one chunk.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class ParseTask implements Callable<Chunk<V>> {
+    /**
+     * Character buffer.
+     */
+    private CharSequence buf;
+
+    /**
+     * Line ends.
+     */
+    private int[] ends;
+
+    /**
+     * Number of lines.
+     */
+    private int num;
+
+    /**
+     * First chunk flag.
+     */
+    private boolean first;
+
+    /**
+     * Line number at the end of the chunk.
+     */
+    private int lineNumber;
+
+    /**
+     * Constructor.
+     *
+     * @param buf Character buffer
+     * @param ends Line ends
+     * @param num Number of lines
+     * @param first First chunk flag
+     * @param lineNumber Line number at the end of the chunk
+     */
+    ParseTask(CharSequence buf, int[] ends, int num, boolean first, int lineNumber) {
+      this.buf = buf;
+      this.ends = ends;
+      this.num = num;
+      this.first = first;
+      this.lineNumber = lineNumber;
+    }
+
+    @Override
+    public Chunk<V> call() {
+      return parseChunk(buf, ends, num, first, lineNumber);
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<V extends NumberVector> extends NumberVectorLabelParser.Parameterizer<V> {
+    @Override
+    protected ParallelNumberVectorLabelParser<V> makeInstance() {
+      return new ParallelNumberVectorLabelParser<>(format, labelIndices, factory);
+    }
+  }
+}
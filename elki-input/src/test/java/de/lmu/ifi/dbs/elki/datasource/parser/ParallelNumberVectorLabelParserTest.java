@@ -0,0 +1,125 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.datasource.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.datasource.AbstractDataSourceTest;
+import de.lmu.ifi.dbs.elki.datasource.InputStreamDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+import de.lmu.ifi.dbs.elki.datasource.filter.FixedDBIDsFilter;
+import de.lmu.ifi.dbs.elki.datasource.filter.ObjectFilter;
+
+/**
+ * Test the multi-threaded number vector parser against the sequential parser.
+ *
+ * @author Erich Schubert
+ */
+public class ParallelNumberVectorLabelParserTest extends AbstractDataSourceTest {
+  @Test
+  public void testGeneratedData() {
+    Random r = new Random(0L);
+    StringBuilder buf = new StringBuilder();
+    buf.append("# comment\n\na b c d\n");
+    for(int i = 0; i < 50000; i++) {
+      buf.append(r.nextDouble()).append(',').append(r.nextInt(1000)).append(',').append(r.nextGaussian());
+      buf.append(",label").append(r.nextInt(10));
+      if(i % 1000 == 999) {
+        buf.append("\n// comment");
+      }
+      buf.append(i % 777 == 0 ? "\r\n\n" : "\n");
+    }
+    // Variable dimensionality at the end:
+    buf.append("1,2,x\n1,2,3,4,5,y\n");
+    byte[] data = buf.toString().getBytes(StandardCharsets.UTF_8);
+
+    MultipleObjectsBundle expect = new NumberVectorLabelParser<>(DoubleVector.FACTORY).parse(new ByteArrayInputStream(data));
+    MultipleObjectsBundle bundle = new ParallelNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, DoubleVector.FACTORY).parse(new ByteArrayInputStream(data));
+    assertEquals("Length", 50002, bundle.dataLength());
+    assertTrue("Labels not detected", TypeUtil.LABELLIST.isAssignableFromType(bundle.meta(1)));
+    assertBundleEquals(expect, bundle);
+  }
+
+  @Test
+  public void testStreamingFilter() throws IOException {
+    String filename = UNITTEST + "dimensionality-test-1.csv";
+    MultipleObjectsBundle expect = readBundle(filename, new FixedDBIDsFilter(1));
+    Parser parser = new ParallelNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, DoubleVector.FACTORY);
+    MultipleObjectsBundle bundle;
+    try (InputStream is = open(filename);
+        InputStreamDatabaseConnection dbc = new InputStreamDatabaseConnection(is, Arrays.<ObjectFilter> asList(new FixedDBIDsFilter(1)), parser)) {
+      bundle = dbc.loadData();
+    }
+    assertBundleEquals(expect, bundle);
+  }
+
+  /**
+   * Unchecked exceptions of the reader thread must be passed on, not hang.
+   */
+  @Test(timeout = 10000, expected = IllegalStateException.class)
+  public void testReaderFailure() {
+    InputStream in = new InputStream() {
+      @Override
+      public int read() {
+        throw new IllegalStateException("Stream failure.");
+      }
+    };
+    new ParallelNumberVectorLabelParser<>(CSVReaderFormat.DEFAULT_FORMAT, null, DoubleVector.FACTORY).parse(in);
+  }
+
+  /**
+   * Compare two bundles.
+   *
+   * @param expect Expected bundle
+   * @param bundle Actual bundle
+   */
+  private static void assertBundleEquals(MultipleObjectsBundle expect, MultipleObjectsBundle bundle) {
+    assertEquals("Columns", expect.metaLength(), bundle.metaLength());
+    assertEquals("Length", expect.dataLength(), bundle.dataLength());
+    for(int c = 0; c < expect.metaLength(); c++) {
+      assertEquals("Column type", expect.meta(c).toString(), bundle.meta(c).toString());
+    }
+    for(int i = 0; i < expect.dataLength(); i++) {
+      for(int c = 0; c < expect.metaLength(); c++) {
+        Object e = expect.data(i, c), o = bundle.data(i, c);
+        if(e instanceof NumberVector) {
+          assertTrue("Vectors differ in row " + i, Arrays.equals(((NumberVector) e).toArray(), ((NumberVector) o).toArray()));
+        }
+        else {
+          assertEquals("Data differs in row " + i, String.valueOf(e), String.valueOf(o));
+        }
+      }
+    }
+  }
+}
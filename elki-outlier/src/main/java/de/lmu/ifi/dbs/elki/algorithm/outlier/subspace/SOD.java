@@ -52,8 +52,7 @@ import de.lmu.ifi.dbs.elki.result.textwriter.TextWriteable;
 import de.lmu.ifi.dbs.elki.result.textwriter.TextWriterStream;
 import de.lmu.ifi.dbs.elki.utilities.Alias;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.BitsUtil;
-import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.Heap;
-import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.TiedTopBoundedHeap;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.heap.DoubleIntegerTiedTopBoundedMinHeap;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
@@ -207,20 +206,22 @@ public class SOD<V extends NumberVector> extends AbstractAlgorithm<OutlierResult
    *         distance without the query object
    */
   private DBIDs getNearestNeighbors(Relation<V> relation, SimilarityQuery<V> simQ, DBIDRef queryObject) {
-    Heap<DoubleDBIDPair> nearestNeighbors = new TiedTopBoundedHeap<>(knn);
+    DoubleIntegerTiedTopBoundedMinHeap nearestNeighbors = new DoubleIntegerTiedTopBoundedMinHeap(knn);
     for(DBIDIter iter = relation.iterDBIDs(); iter.valid(); iter.advance()) {
       if(DBIDUtil.equal(iter, queryObject)) {
         continue;
       }
       double sim = simQ.similarity(queryObject, iter);
       if(sim > 0.) {
-        nearestNeighbors.add(DBIDUtil.newPair(sim, iter));
+        nearestNeighbors.add(sim, DBIDUtil.asInteger(iter));
       }
     }
     // Collect DBIDs
     ArrayModifiableDBIDs dbids = DBIDUtil.newArray(nearestNeighbors.size());
+    DBIDVar var = DBIDUtil.newVar();
     while(nearestNeighbors.size() > 0) {
-      dbids.add(nearestNeighbors.poll());
+      dbids.add(DBIDUtil.importInteger(var, nearestNeighbors.peekValue()));
+      nearestNeighbors.poll();
     }
     return dbids;
   }
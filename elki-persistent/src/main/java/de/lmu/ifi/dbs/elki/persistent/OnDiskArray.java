@@ -37,13 +37,15 @@ import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
  * structures. The file format is designed to have a fixed-size header followed
  * by the actual data.
  * 
+ * Because a single memory map is limited to 2 GB, the data is mapped in
+ * multiple segments, each containing a whole number of records. Thus the file
+ * size is only limited by the number of records fitting into an integer.
+ * 
  * @author Erich Schubert
  * @since 0.2
  * 
  * @apiviz.composedOf RandomAccessFile
  */
-// TODO: ensure file doesn't become to big - check for overflows in recordsize *
-// numrecs + headersize
 public class OnDiskArray implements AutoCloseable {
   /**
    * Serial version.
@@ -96,9 +98,14 @@ public class OnDiskArray implements AutoCloseable {
   private boolean writable;
 
   /**
-   * The memory mapped buffer.
+   * The memory mapped buffers, one per segment.
    */
-  private MappedByteBuffer map;
+  private MappedByteBuffer[] maps;
+
+  /**
+   * Number of records per mapped segment.
+   */
+  private int segmentrecs;
 
   /**
    * Size of the classes header size.
@@ -232,12 +239,27 @@ public class OnDiskArray implements AutoCloseable {
    * @throws IOException on mapping error.
    */
   private synchronized void mapArray() throws IOException {
-    if (map != null) {
-      ByteArrayUtil.unmapByteBuffer(map);
-      map = null;
-    }
+    unmapArray();
     MapMode mode = writable ? MapMode.READ_WRITE : MapMode.READ_ONLY;
-    map = file.getChannel().map(mode, headersize, recordsize * numrecs);
+    segmentrecs = Math.max(1, Integer.MAX_VALUE / recordsize);
+    final int numsegs = (int) ((numrecs + (long) segmentrecs - 1) / segmentrecs);
+    maps = new MappedByteBuffer[numsegs > 0 ? numsegs : 1];
+    for (int i = 0; i < maps.length; i++) {
+      final int recs = Math.min(segmentrecs, numrecs - i * segmentrecs);
+      maps[i] = file.getChannel().map(mode, indexToFileposition(i * (long) segmentrecs), recordsize * (long) recs);
+    }
+  }
+
+  /**
+   * Release the memory mapped buffers.
+   */
+  private void unmapArray() {
+    if (maps != null) {
+      for (MappedByteBuffer map : maps) {
+        ByteArrayUtil.unmapByteBuffer(map);
+      }
+      maps = null;
+    }
   }
 
   /**
@@ -346,14 +368,68 @@ public class OnDiskArray implements AutoCloseable {
     if (index < 0 || index >= numrecs) {
       throw new IOException("Access beyond end of file.");
     }
+    final MappedByteBuffer map = maps[index / segmentrecs];
+    final int off = recordsize * (index % segmentrecs);
     // Adjust buffer view
     synchronized (map) {
-      map.limit(recordsize * (index + 1));
-      map.position(recordsize * index);
+      map.limit(off + recordsize);
+      map.position(off);
       return map.slice();
     }
   }
 
+  /**
+   * Read a float value from a record, without creating a buffer view.
+   * 
+   * Absolute reads do not modify the buffer state, so this method does not
+   * need to synchronize. No bounds checking is performed beyond that of the
+   * underlying buffer.
+   * 
+   * @param index Record number
+   * @param offset Byte offset within the record
+   * @return Value
+   */
+  public float getFloat(int index, int offset) {
+    return maps[index / segmentrecs].getFloat(recordsize * (index % segmentrecs) + offset);
+  }
+
+  /**
+   * Write a float value into a record, without creating a buffer view.
+   * 
+   * @param index Record number
+   * @param offset Byte offset within the record
+   * @param value Value to write
+   */
+  public void putFloat(int index, int offset, float value) {
+    maps[index / segmentrecs].putFloat(recordsize * (index % segmentrecs) + offset, value);
+  }
+
+  /**
+   * Read a double value from a record, without creating a buffer view.
+   * 
+   * Absolute reads do not modify the buffer state, so this method does not
+   * need to synchronize. No bounds checking is performed beyond that of the
+   * underlying buffer.
+   * 
+   * @param index Record number
+   * @param offset Byte offset within the record
+   * @return Value
+   */
+  public double getDouble(int index, int offset) {
+    return maps[index / segmentrecs].getDouble(recordsize * (index % segmentrecs) + offset);
+  }
+
+  /**
+   * Write a double value into a record, without creating a buffer view.
+   * 
+   * @param index Record number
+   * @param offset Byte offset within the record
+   * @param value Value to write
+   */
+  public void putDouble(int index, int offset, double value) {
+    maps[index / segmentrecs].putDouble(recordsize * (index % segmentrecs) + offset, value);
+  }
+
   /**
    * Return the size of the extra header. Accessor.
    * 
@@ -410,10 +486,7 @@ public class OnDiskArray implements AutoCloseable {
    */
   public synchronized void close() throws IOException {
     writable = false;
-    if (map != null) {
-      ByteArrayUtil.unmapByteBuffer(map);
-      map = null;
-    }
+    unmapArray();
     if (lock != null) {
       lock.release();
       lock = null;
@@ -0,0 +1,688 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.distancematrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
+import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.index.DistanceIndex;
+import de.lmu.ifi.dbs.elki.index.IndexFactory;
+import de.lmu.ifi.dbs.elki.index.KNNIndex;
+import de.lmu.ifi.dbs.elki.index.RangeIndex;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.persistent.OnDiskArray;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.io.ByteArrayUtil;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.FileParameter;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectParameter;
+
+/**
+ * Distance matrix stored in a memory-mapped file, for data sets too large for
+ * {@link PrecomputedDistanceMatrix}.
+ * <p>
+ * The same linear memory layout of the lower triangle matrix is used, but the
+ * values are stored off-heap in an {@link OnDiskArray}, with fixed-size blocks
+ * of values as records. Because the array is mapped in multiple segments, the
+ * matrix is not bound by the 2 GB limit of Java arrays; the practical limit is
+ * the available address space and disk. Values can be stored in single
+ * precision to halve the storage cost.
+ * <p>
+ * The matrix is computed in parallel (row-wise, with work-stealing, as the
+ * rows have different length) into a temporary file, which is renamed only
+ * once it is complete. If the file already exists, it is reused instead of
+ * being recomputed, if it was computed for the same data set size, precision,
+ * and distance function class, and a sample of the stored distances matches
+ * the recomputed distances. The sample detects different data sets and
+ * distance function parameters, but cannot rule them out completely. A file
+ * that does not match aborts the run, and is never overwritten.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.composedOf OnDiskArray
+ * @apiviz.has OnDiskDistanceQuery
+ * @apiviz.has OnDiskKNNQuery
+ * @apiviz.has OnDiskRangeQuery
+ *
+ * @param <O> Object type
+ */
+public class OnDiskDistanceMatrix<O> implements DistanceIndex<O>, RangeIndex<O>, KNNIndex<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(OnDiskDistanceMatrix.class);
+
+  /**
+   * Magic number for the matrix files.
+   */
+  public static final int MATRIX_MAGIC = 0x4d61_7478;
+
+  /**
+   * Extra header: matrix size, value size, distance function hash.
+   */
+  private static final int EXTRA_HEADER_SIZE = 3 * ByteArrayUtil.SIZE_INT;
+
+  /**
+   * Number of values per record, as power of 2.
+   */
+  private static final int BLOCKSHIFT = 12;
+
+  /**
+   * Mask to get the position within a record.
+   */
+  private static final int BLOCKMASK = (1 << BLOCKSHIFT) - 1;
+
+  /**
+   * Number of distances to recompute when reusing an existing file.
+   */
+  private static final int VALIDATION_SAMPLES = 100;
+
+  /**
+   * Data relation.
+   */
+  protected final Relation<O> relation;
+
+  /**
+   * Nested distance function.
+   */
+  protected final DistanceFunction<? super O> distanceFunction;
+
+  /**
+   * Nested distance query.
+   */
+  protected DistanceQuery<O> distanceQuery;
+
+  /**
+   * Matrix file, may be {@code null} to use a temporary file.
+   */
+  private File filename;
+
+  /**
+   * Use single precision.
+   */
+  private boolean singlePrecision;
+
+  /**
+   * Size of a single value in bytes.
+   */
+  private int valuesize;
+
+  /**
+   * Distance matrix storage.
+   */
+  private OnDiskArray array = null;
+
+  /**
+   * DBID range.
+   */
+  private DBIDRange ids;
+
+  /**
+   * Size of DBID range.
+   */
+  private int size;
+
+  /**
+   * Constructor.
+   *
+   * @param relation Data relation
+   * @param range DBID range
+   * @param distanceFunction Distance function
+   * @param filename Matrix file, may be {@code null}
+   * @param singlePrecision Store values with float precision only
+   */
+  public OnDiskDistanceMatrix(Relation<O> relation, DBIDRange range, DistanceFunction<? super O> distanceFunction, File filename, boolean singlePrecision) {
+    super();
+    this.relation = relation;
+    this.ids = range;
+    this.distanceFunction = distanceFunction;
+    this.filename = filename;
+    this.singlePrecision = singlePrecision;
+    this.valuesize = singlePrecision ? ByteArrayUtil.SIZE_FLOAT : ByteArrayUtil.SIZE_DOUBLE;
+
+    if(!distanceFunction.isSymmetric()) {
+      throw new AbortException("Distance matrixes currently only support symmetric distance functions (Patches welcome).");
+    }
+  }
+
+  @Override
+  public void initialize() {
+    size = ids.size();
+    distanceQuery = distanceFunction.instantiate(relation);
+    final long msize = triangleSize(size);
+    final long numrecs = (msize + BLOCKMASK) >>> BLOCKSHIFT;
+    if(numrecs > Integer.MAX_VALUE) {
+      throw new AbortException("Distance matrix too large for an on-disk array of " + Integer.MAX_VALUE + " blocks.");
+    }
+    try {
+      if(filename != null && filename.exists() && filename.length() > 0) {
+        openExisting((int) numrecs);
+        return;
+      }
+      if(filename == null) {
+        filename = File.createTempFile("elki-distancematrix", ".bin");
+        filename.deleteOnExit();
+      }
+      // Build in a temporary file, and only rename it when complete, so an
+      // aborted run never leaves a partial matrix behind.
+      File tmp = File.createTempFile("elki-distancematrix", ".tmp", filename.getAbsoluteFile().getParentFile());
+      try {
+        array = new OnDiskArray(tmp, MATRIX_MAGIC, EXTRA_HEADER_SIZE, valuesize << BLOCKSHIFT, (int) numrecs);
+        ByteBuffer header = array.getExtraHeader();
+        header.putInt(size).putInt(valuesize).putInt(distanceHash());
+        computeMatrix();
+        array.close();
+        array = null;
+        Files.move(tmp.toPath(), filename.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      finally {
+        if(array != null) {
+          array.close();
+          array = null;
+        }
+        Files.deleteIfExists(tmp.toPath());
+      }
+      // Reopen read-only.
+      array = new OnDiskArray(filename, MATRIX_MAGIC, EXTRA_HEADER_SIZE, valuesize << BLOCKSHIFT, false);
+    }
+    catch(IOException e) {
+      throw new AbortException("Could not initialize the on-disk distance matrix.", e);
+    }
+  }
+
+  /**
+   * Open an existing matrix file, and validate its header and contents.
+   *
+   * @param numrecs Expected number of records
+   * @throws IOException on IO errors
+   */
+  private void openExisting(int numrecs) throws IOException {
+    array = new OnDiskArray(filename, MATRIX_MAGIC, EXTRA_HEADER_SIZE, valuesize << BLOCKSHIFT, false);
+    ByteBuffer header = array.getExtraHeader();
+    final int fsize = header.getInt(), fvaluesize = header.getInt(),
+        fhash = header.getInt();
+    if(fsize != size || fvaluesize != valuesize || fhash != distanceHash() || array.getNumRecords() != numrecs) {
+      array.close();
+      array = null;
+      throw new AbortException("Existing distance matrix file " + filename + " does not match the data size, precision, or distance function. Delete it to recompute the matrix.");
+    }
+    if(!validateSample()) {
+      array.close();
+      array = null;
+      throw new AbortException("Existing distance matrix file " + filename + " does not contain the distances of this data set and distance function. Delete it to recompute the matrix.");
+    }
+    if(LOG.isVerbose()) {
+      LOG.verbose("Reusing existing distance matrix file " + filename);
+    }
+  }
+
+  /**
+   * Compare a sample of the stored distances to recomputed distances. This
+   * detects files computed for different data, or for different parameters of
+   * the distance function.
+   *
+   * @return {@code true} if all sampled distances match
+   */
+  private boolean validateSample() {
+    if(size < 2) {
+      return true;
+    }
+    Random rnd = new Random(size);
+    DBIDArrayIter ix = ids.iter(), iy = ids.iter();
+    for(int i = 0; i < VALIDATION_SAMPLES; i++) {
+      final int x = 1 + rnd.nextInt(size - 1), y = rnd.nextInt(x);
+      final double d = distanceQuery.distance(ix.seek(x), iy.seek(y));
+      final double expect = singlePrecision ? (float) d : d;
+      if(Double.compare(get(getOffset(x, y)), expect) != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Compute the matrix contents, in parallel.
+   */
+  private void computeMatrix() {
+    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Precomputing distance matrix", size, LOG) : null;
+    // Rows have very different length, so use work stealing.
+    ParallelExecutor.run(ids, ParallelExecutor.Scheduling.WORK_STEALING, new RowProcessor(prog));
+    LOG.ensureCompleted(prog);
+  }
+
+  /**
+   * Hash code to identify the distance function.
+   *
+   * @return Hash code
+   */
+  private int distanceHash() {
+    return distanceFunction.getClass().getName().hashCode();
+  }
+
+  /**
+   * Compute the size of a complete x by x triangle (minus diagonal)
+   *
+   * @param x Offset
+   * @return Size of complete triangle
+   */
+  protected static long triangleSize(int x) {
+    return (x * (long) (x - 1)) >>> 1;
+  }
+
+  /**
+   * Array offset computation.
+   *
+   * @param x X parameter
+   * @param y Y parameter
+   * @return Array offset
+   */
+  private static long getOffset(int x, int y) {
+    return (y < x) ? (triangleSize(x) + y) : (triangleSize(y) + x);
+  }
+
+  /**
+   * Read a value from the matrix.
+   *
+   * @param off Linear offset
+   * @return Value
+   */
+  private double get(long off) {
+    final int rec = (int) (off >>> BLOCKSHIFT), pos = ((int) off & BLOCKMASK) * valuesize;
+    return singlePrecision ? array.getFloat(rec, pos) : array.getDouble(rec, pos);
+  }
+
+  /**
+   * Write a value to the matrix.
+   *
+   * @param off Linear offset
+   * @param val Value
+   */
+  private void put(long off, double val) {
+    final int rec = (int) (off >>> BLOCKSHIFT), pos = ((int) off & BLOCKMASK) * valuesize;
+    if(singlePrecision) {
+      array.putFloat(rec, pos, (float) val);
+    }
+    else {
+      array.putDouble(rec, pos, val);
+    }
+  }
+
+  @Override
+  public void logStatistics() {
+    if(array != null) {
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".matrix-size", triangleSize(size)));
+      LOG.statistics(new LongStatistic(this.getClass().getName() + ".file-size", filename.length()));
+    }
+  }
+
+  @Override
+  public String getLongName() {
+    return "On-Disk Distance Matrix";
+  }
+
+  @Override
+  public String getShortName() {
+    return "ondisk-distance-matrix";
+  }
+
+  @Override
+  public DistanceQuery<O> getDistanceQuery(DistanceFunction<? super O> distanceFunction, Object... hints) {
+    if(this.distanceFunction.equals(distanceFunction)) {
+      return new OnDiskDistanceQuery();
+    }
+    return null;
+  }
+
+  @Override
+  public KNNQuery<O> getKNNQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    if(this.distanceFunction.equals(distanceQuery.getDistanceFunction())) {
+      return new OnDiskKNNQuery();
+    }
+    return null;
+  }
+
+  @Override
+  public RangeQuery<O> getRangeQuery(DistanceQuery<O> distanceQuery, Object... hints) {
+    if(this.distanceFunction.equals(distanceQuery.getDistanceFunction())) {
+      return new OnDiskRangeQuery();
+    }
+    return null;
+  }
+
+  /**
+   * Processor to compute one row of the matrix.
+   *
+   * @author Erich Schubert
+   */
+  private class RowProcessor implements Processor {
+    /**
+     * Progress, may be {@code null}.
+     */
+    private FiniteProgress prog;
+
+    /**
+     * Constructor.
+     *
+     * @param prog Progress, may be {@code null}.
+     */
+    public RowProcessor(FiniteProgress prog) {
+      this.prog = prog;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      final DBIDArrayIter iy = ids.iter();
+      return new Instance() {
+        @Override
+        public void map(DBIDRef id) {
+          final int x = ids.getOffset(id);
+          // y < x -- must match {@link #getOffset}!
+          long pos = triangleSize(x);
+          for(iy.seek(0); iy.getOffset() < x; iy.advance()) {
+            put(pos++, distanceQuery.distance(id, iy));
+          }
+          LOG.incrementProcessed(prog);
+        }
+      };
+    }
+
+    @Override
+    public void cleanup(Instance inst) {
+      // Nothing to do.
+    }
+  }
+
+  /**
+   * Distance query using the on-disk matrix.
+   *
+   * @author Erich Schubert
+   */
+  private class OnDiskDistanceQuery implements DistanceQuery<O> {
+    @Override
+    public double distance(DBIDRef id1, DBIDRef id2) {
+      final int x = ids.getOffset(id1), y = ids.getOffset(id2);
+      return (x != y) ? get(getOffset(x, y)) : 0.;
+    }
+
+    @Override
+    public double distance(O o1, DBIDRef id2) {
+      return distanceQuery.distance(o1, id2);
+    }
+
+    @Override
+    public double distance(DBIDRef id1, O o2) {
+      return distanceQuery.distance(id1, o2);
+    }
+
+    @Override
+    public double distance(O o1, O o2) {
+      return distanceQuery.distance(o1, o2);
+    }
+
+    @Override
+    public DistanceFunction<? super O> getDistanceFunction() {
+      return distanceQuery.getDistanceFunction();
+    }
+
+    @Override
+    public Relation<? extends O> getRelation() {
+      return relation;
+    }
+  }
+
+  /**
+   * Range query using the on-disk matrix.
+   *
+   * @author Erich Schubert
+   */
+  private class OnDiskRangeQuery implements RangeQuery<O> {
+    @Override
+    public DoubleDBIDList getRangeForDBID(DBIDRef id, double range) {
+      ModifiableDoubleDBIDList ret = DBIDUtil.newDistanceDBIDList();
+      getRangeForDBID(id, range, ret);
+      ret.sort();
+      return ret;
+    }
+
+    @Override
+    public void getRangeForDBID(DBIDRef id, double range, ModifiableDoubleDBIDList result) {
+      result.add(0., id);
+      DBIDArrayIter it = ids.iter();
+
+      final int x = ids.getOffset(id);
+      // Case y < x: triangleSize(x) + y
+      long pos = triangleSize(x);
+      for(int y = 0; y < x; y++) {
+        final double dist = get(pos);
+        if(dist <= range) {
+          result.add(dist, it.seek(y));
+        }
+        pos++;
+      }
+      assert (pos == triangleSize(x + 1));
+      // Case y > x: triangleSize(y) + x
+      pos = triangleSize(x + 1) + x;
+      for(int y = x + 1; y < size; y++) {
+        final double dist = get(pos);
+        if(dist <= range) {
+          result.add(dist, it.seek(y));
+        }
+        pos += y;
+      }
+    }
+
+    @Override
+    public DoubleDBIDList getRangeForObject(O obj, double range) {
+      throw new AbortException("Preprocessor KNN query only supports ID queries.");
+    }
+
+    @Override
+    public void getRangeForObject(O obj, double range, ModifiableDoubleDBIDList result) {
+      throw new AbortException("Preprocessor KNN query only supports ID queries.");
+    }
+  }
+
+  /**
+   * kNN query using the on-disk matrix.
+   *
+   * @author Erich Schubert
+   */
+  private class OnDiskKNNQuery implements KNNQuery<O> {
+    @Override
+    public KNNList getKNNForDBID(DBIDRef id, int k) {
+      KNNHeap heap = DBIDUtil.newHeap(k);
+      heap.insert(0., id);
+      DBIDArrayIter it = ids.iter();
+      double max = Double.POSITIVE_INFINITY;
+      final int x = ids.getOffset(id);
+      // Case y < x: triangleSize(x) + y
+      long pos = triangleSize(x);
+      for(int y = 0; y < x; y++) {
+        final double dist = get(pos);
+        if(dist <= max) {
+          max = heap.insert(dist, it.seek(y));
+        }
+        pos++;
+      }
+      assert (pos == triangleSize(x + 1));
+      // Case y > x: triangleSize(y) + x
+      pos = triangleSize(x + 1) + x;
+      for(int y = x + 1; y < size; y++) {
+        final double dist = get(pos);
+        if(dist <= max) {
+          max = heap.insert(dist, it.seek(y));
+        }
+        pos += y;
+      }
+      return heap.toKNNList();
+    }
+
+    @Override
+    public List<? extends KNNList> getKNNForBulkDBIDs(ArrayDBIDs ids, int k) {
+      List<KNNList> ret = new ArrayList<>(ids.size());
+      for(DBIDIter iter = ids.iter(); iter.valid(); iter.advance()) {
+        ret.add(getKNNForDBID(iter, k));
+      }
+      return ret;
+    }
+
+    @Override
+    public KNNList getKNNForObject(O obj, int k) {
+      throw new AbortException("Preprocessor KNN query only supports ID queries.");
+    }
+  }
+
+  /**
+   * Factory for the index.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.has OnDiskDistanceMatrix
+   *
+   * @param <O> Object type
+   */
+  public static class Factory<O> implements IndexFactory<O> {
+    /**
+     * Nested distance function.
+     */
+    final protected DistanceFunction<? super O> distanceFunction;
+
+    /**
+     * Matrix file, may be {@code null}.
+     */
+    final protected File filename;
+
+    /**
+     * Use single precision.
+     */
+    final protected boolean singlePrecision;
+
+    /**
+     * Constructor.
+     *
+     * @param distanceFunction Distance function
+     * @param filename Matrix file, {@code null} for a temporary file
+     * @param singlePrecision Store values with float precision only
+     */
+    public Factory(DistanceFunction<? super O> distanceFunction, File filename, boolean singlePrecision) {
+      super();
+      this.distanceFunction = distanceFunction;
+      this.filename = filename;
+      this.singlePrecision = singlePrecision;
+    }
+
+    @Override
+    public OnDiskDistanceMatrix<O> instantiate(Relation<O> relation) {
+      DBIDs rids = relation.getDBIDs();
+      if(!(rids instanceof DBIDRange)) {
+        throw new AbortException("Distance matrixes are currently only supported for DBID ranges (as used by static databases; not on modifiable databases) for performance reasons (Patches welcome).");
+      }
+      return new OnDiskDistanceMatrix<>(relation, (DBIDRange) rids, distanceFunction, filename, singlePrecision);
+    }
+
+    @Override
+    public TypeInformation getInputTypeRestriction() {
+      return distanceFunction.getInputTypeRestriction();
+    }
+
+    /**
+     * Parameterizer.
+     *
+     * @author Erich Schubert
+     *
+     * @apiviz.exclude
+     *
+     * @param <O> Object type
+     */
+    public static class Parameterizer<O> extends AbstractParameterizer {
+      /**
+       * Option for the matrix file. If the file exists, it will be reused; if
+       * it does not match, the run is aborted rather than overwriting it.
+       */
+      public static final OptionID FILE_ID = new OptionID("matrix.file", "File to store the distance matrix in. An existing file will be reused. If it does not match the data, precision, and distance function, the run is aborted, and the file is not modified; delete it to recompute the matrix. If not set, a temporary file is used.");
+
+      /**
+       * Flag to store values in single precision.
+       */
+      public static final OptionID FLOAT_ID = new OptionID("matrix.float", "Store the distance values with single (float) precision only.");
+
+      /**
+       * Nested distance function.
+       */
+      protected DistanceFunction<? super O> distanceFunction;
+
+      /**
+       * Matrix file.
+       */
+      protected File filename;
+
+      /**
+       * Use single precision.
+       */
+      protected boolean singlePrecision;
+
+      @Override
+      protected void makeOptions(Parameterization config) {
+        super.makeOptions(config);
+        ObjectParameter<DistanceFunction<? super O>> distanceP = new ObjectParameter<>(PrecomputedDistanceMatrix.Factory.Parameterizer.DISTANCE_ID, DistanceFunction.class);
+        if(config.grab(distanceP)) {
+          distanceFunction = distanceP.instantiateClass(config);
+        }
+        FileParameter fileP = new FileParameter(FILE_ID, FileParameter.FileType.OUTPUT_FILE);
+        fileP.setOptional(true);
+        if(config.grab(fileP)) {
+          filename = fileP.getValue();
+        }
+        Flag floatF = new Flag(FLOAT_ID);
+        if(config.grab(floatF)) {
+          singlePrecision = floatF.isTrue();
+        }
+      }
+
+      @Override
+      protected Factory<O> makeInstance() {
+        return new Factory<>(distanceFunction, filename, singlePrecision);
+      }
+    }
+  }
+}
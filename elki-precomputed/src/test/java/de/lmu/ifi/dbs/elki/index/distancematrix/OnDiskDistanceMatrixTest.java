@@ -0,0 +1,158 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.index.distancematrix;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.*;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.LinearScanDistanceRangeQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.LPNormDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+
+/**
+ * Unit test for the on-disk distance matrix.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class OnDiskDistanceMatrixTest {
+  /**
+   * Test data set.
+   */
+  static final String DATASET = "elki/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  /**
+   * Size of the test data set.
+   */
+  static final int SIZE = 600;
+
+  @Test
+  public void testDoublePrecision() throws IOException {
+    File file = File.createTempFile("ELKIUnitTest", null);
+    file.deleteOnExit();
+    Relation<DoubleVector> rel = makeRelation();
+    OnDiskDistanceMatrix<DoubleVector> idx = new OnDiskDistanceMatrix.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, file, false).instantiate(rel);
+    idx.initialize();
+    assertQueries(rel, idx, 1e-15);
+
+    // Reopen the existing file.
+    OnDiskDistanceMatrix<DoubleVector> idx2 = new OnDiskDistanceMatrix.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, file, false).instantiate(rel);
+    idx2.initialize();
+    assertQueries(rel, idx2, 1e-15);
+  }
+
+  @Test
+  public void testSinglePrecision() {
+    Relation<DoubleVector> rel = makeRelation();
+    OnDiskDistanceMatrix<DoubleVector> idx = new OnDiskDistanceMatrix.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, null, true).instantiate(rel);
+    idx.initialize();
+    assertQueries(rel, idx, 1e-6);
+  }
+
+  @Test(expected = AbortException.class)
+  public void testMismatchingFile() throws IOException {
+    File file = File.createTempFile("ELKIUnitTest", null);
+    file.deleteOnExit();
+    Relation<DoubleVector> rel = makeRelation();
+    new OnDiskDistanceMatrix.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, file, false).instantiate(rel).initialize();
+    new OnDiskDistanceMatrix.Factory<DoubleVector>(ManhattanDistanceFunction.STATIC, file, false).instantiate(rel).initialize();
+  }
+
+  @Test(expected = AbortException.class)
+  public void testMismatchingParameters() throws IOException {
+    File file = File.createTempFile("ELKIUnitTest", null);
+    file.deleteOnExit();
+    Relation<DoubleVector> rel = makeRelation();
+    new OnDiskDistanceMatrix.Factory<DoubleVector>(new LPNormDistanceFunction(3.), file, false).instantiate(rel).initialize();
+    new OnDiskDistanceMatrix.Factory<DoubleVector>(new LPNormDistanceFunction(4.), file, false).instantiate(rel).initialize();
+  }
+
+  @Test(expected = AbortException.class)
+  public void testTruncatedFile() throws IOException {
+    File file = File.createTempFile("ELKIUnitTest", null);
+    file.deleteOnExit();
+    Relation<DoubleVector> rel = makeRelation();
+    new OnDiskDistanceMatrix.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, file, false).instantiate(rel).initialize();
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(raf.length() - 8);
+    }
+    new OnDiskDistanceMatrix.Factory<DoubleVector>(EuclideanDistanceFunction.STATIC, file, false).instantiate(rel).initialize();
+  }
+
+  /**
+   * Load the test data.
+   *
+   * @return Relation
+   */
+  private static Relation<DoubleVector> makeRelation() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(DATASET, SIZE);
+    return db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+  }
+
+  /**
+   * Compare the index queries to a linear scan.
+   *
+   * @param rel Relation
+   * @param idx Index
+   * @param delta Tolerance
+   */
+  private static void assertQueries(Relation<DoubleVector> rel, OnDiskDistanceMatrix<DoubleVector> idx, double delta) {
+    DistanceQuery<DoubleVector> dq = EuclideanDistanceFunction.STATIC.instantiate(rel);
+    DistanceQuery<DoubleVector> mdq = idx.getDistanceQuery(EuclideanDistanceFunction.STATIC);
+    KNNQuery<DoubleVector> knnq = idx.getKNNQuery(dq), lknnq = new LinearScanDistanceKNNQuery<>(dq);
+    RangeQuery<DoubleVector> rq = idx.getRangeQuery(dq), lrq = new LinearScanDistanceRangeQuery<>(dq);
+    for(DBIDIter a = rel.iterDBIDs(); a.valid(); a.advance()) {
+      for(DBIDIter b = rel.iterDBIDs(); b.valid(); b.advance()) {
+        assertEquals("Distance does not match.", dq.distance(a, b), mdq.distance(a, b), delta);
+      }
+    }
+    for(DBIDIter a = rel.iterDBIDs(); a.valid(); a.advance()) {
+      KNNList k1 = knnq.getKNNForDBID(a, 10), k2 = lknnq.getKNNForDBID(a, 10);
+      assertEquals("kNN size does not match.", k2.size(), k1.size());
+      for(DoubleDBIDListIter i1 = k1.iter(), i2 = k2.iter(); i1.valid(); i1.advance(), i2.advance()) {
+        assertEquals("kNN distance does not match.", i2.doubleValue(), i1.doubleValue(), delta);
+      }
+      // Allow for rounding at the boundary of the query radius.
+      double eps = k2.getKNNDistance();
+      int size = rq.getRangeForDBID(a, eps).size();
+      assertTrue("Range query result too small.", size >= lrq.getRangeForDBID(a, eps - delta).size());
+      assertTrue("Range query result too large.", size <= lrq.getRangeForDBID(a, eps + delta).size());
+    }
+  }
+}
@@ -20,23 +20,32 @@
  */
 package de.lmu.ifi.dbs.elki.index;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
 import de.lmu.ifi.dbs.elki.data.DoubleVector;
 import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
 import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.HashmapDatabase;
 import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
 import de.lmu.ifi.dbs.elki.database.ids.*;
 import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
 import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.range.LinearScanDistanceRangeQuery;
 import de.lmu.ifi.dbs.elki.database.query.range.RangeQuery;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.datasource.AbstractDatabaseConnection;
 import de.lmu.ifi.dbs.elki.datasource.ArrayAdapterDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
 import de.lmu.ifi.dbs.elki.datasource.filter.FixedDBIDsFilter;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.CosineDistanceFunction;
 import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
@@ -251,4 +260,126 @@ public abstract class AbstractIndexStructureTest {
       assertTrue("Wrong range result", DBIDUtil.equal(range.iter(), first));
     }
   }
+
+  /**
+   * Test dynamic index updates: build by insertion, then delete and insert
+   * objects, comparing to linear scans in every step.
+   *
+   * @param factory Index factory
+   * @param expectKNNQuery Expected kNN query class
+   * @param expectRangeQuery Expected range query class
+   */
+  protected void testDynamic(IndexFactory<?> factory, Class<?> expectKNNQuery, Class<?> expectRangeQuery) {
+    Random rnd = new Random(0L);
+    ArrayAdapterDatabaseConnection dbc = new ArrayAdapterDatabaseConnection(randomData(rnd, 500, 3));
+    HashmapDatabase db = new HashmapDatabase(dbc, Arrays.<IndexFactory<?>> asList(factory));
+    db.initialize();
+    Relation<DoubleVector> rep = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dist = db.getDistanceQuery(rep, EuclideanDistanceFunction.STATIC);
+    KNNQuery<DoubleVector> knnq = rep.getKNNQuery(dist);
+    RangeQuery<DoubleVector> rangeq = rep.getRangeQuery(dist);
+    assertTrue("Returned knn query is not of expected class: expected " + expectKNNQuery + " got " + knnq.getClass(), expectKNNQuery.isAssignableFrom(knnq.getClass()));
+    assertTrue("Returned range query is not of expected class: expected " + expectRangeQuery + " got " + rangeq.getClass(), expectRangeQuery.isAssignableFrom(rangeq.getClass()));
+    assertDynamicQueries(rep, dist, knnq, rangeq, rnd);
+
+    // Remove a few objects, below the purging threshold:
+    ArrayModifiableDBIDs ids = DBIDUtil.newArray(rep.getDBIDs());
+    DBIDUtil.randomShuffle(ids, rnd);
+    db.delete(DBIDUtil.newArray(ids.slice(0, 50)));
+    assertEquals("Wrong relation size", 450, rep.size());
+    assertDynamicQueries(rep, dist, knnq, rangeq, rnd);
+    // Remove many objects, this should purge the index:
+    db.delete(DBIDUtil.newArray(ids.slice(50, 250)));
+    assertDynamicQueries(rep, dist, knnq, rangeq, rnd);
+    // Insert new objects:
+    List<DoubleVector> vecs = new ArrayList<>();
+    for(double[] vec : randomData(rnd, 300, 3)) {
+      vecs.add(DoubleVector.wrap(vec));
+    }
+    db.insert(MultipleObjectsBundle.makeSimple(rep.getDataTypeInformation(), vecs));
+    assertEquals("Wrong relation size", 550, rep.size());
+    assertDynamicQueries(rep, dist, knnq, rangeq, rnd);
+    // Remove everything:
+    db.delete(DBIDUtil.newArray(rep.getDBIDs()));
+    assertEquals("Wrong number of knn results", 0, knnq.getKNNForObject(DoubleVector.wrap(querypoint), k).size());
+    assertEquals("Wrong number of range results", 0, rangeq.getRangeForObject(DoubleVector.wrap(querypoint), 1.).size());
+  }
+
+  /**
+   * Test that a parallel build yields the same index as the sequential build,
+   * by comparing their snapshots.
+   *
+   * @param sequential Index factory, sequential build
+   * @param parallel Index factory, parallel build
+   */
+  protected void testParallelBuild(IndexFactory<DoubleVector> sequential, IndexFactory<DoubleVector> parallel) {
+    Database db = new StaticArrayDatabase(new ArrayAdapterDatabaseConnection(randomData(new Random(0L), 20000, 3)), null);
+    db.initialize();
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    byte[] expect = snapshot(sequential.instantiate(rel), rel);
+    assertArrayEquals("Parallel build differs from sequential build.", expect, snapshot(parallel.instantiate(rel), rel));
+  }
+
+  /**
+   * Build an index, and serialize it.
+   *
+   * @param index Index
+   * @param rel Data relation
+   * @return Snapshot
+   */
+  private static byte[] snapshot(Index index, Relation<?> rel) {
+    index.initialize();
+    assertTrue("Not a snapshot index: " + index.getClass(), index instanceof SnapshotIndex);
+    SnapshotIndex sindex = (SnapshotIndex) index;
+    ByteBuffer buffer = ByteBuffer.allocate((int) sindex.getSnapshotSize());
+    sindex.writeSnapshot(buffer, DBIDUtil.assertRange(rel.getDBIDs()));
+    return buffer.array();
+  }
+
+  /**
+   * Compare kNN and range queries to linear scans.
+   *
+   * @param rep Data relation
+   * @param dist Distance query
+   * @param knnq kNN query to test
+   * @param rangeq Range query to test
+   * @param rnd Random generator
+   */
+  private void assertDynamicQueries(Relation<DoubleVector> rep, DistanceQuery<DoubleVector> dist, KNNQuery<DoubleVector> knnq, RangeQuery<DoubleVector> rangeq, Random rnd) {
+    LinearScanDistanceKNNQuery<DoubleVector> linknn = new LinearScanDistanceKNNQuery<>(dist);
+    LinearScanDistanceRangeQuery<DoubleVector> linrange = new LinearScanDistanceRangeQuery<>(dist);
+    for(double[] q : randomData(rnd, 20, 3)) {
+      DoubleVector dv = DoubleVector.wrap(q);
+      KNNList expect = linknn.getKNNForObject(dv, k), knn = knnq.getKNNForObject(dv, k);
+      assertEquals("Wrong number of knn results", expect.size(), knn.size());
+      for(DoubleDBIDListIter a = expect.iter(), b = knn.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("Expected distance doesn't match.", a.doubleValue(), b.doubleValue(), 1e-15);
+      }
+      final double eps = 0.2;
+      DoubleDBIDList erange = linrange.getRangeForObject(dv, eps), range = rangeq.getRangeForObject(dv, eps);
+      assertEquals("Wrong number of range results", erange.size(), range.size());
+      ModifiableDBIDs found = DBIDUtil.newHashSet(range);
+      for(DBIDIter it = erange.iter(); it.valid(); it.advance()) {
+        assertTrue("Range result missing", found.contains(it));
+      }
+    }
+  }
+
+  /**
+   * Generate uniform random data.
+   *
+   * @param rnd Random generator
+   * @param size Number of vectors
+   * @param dim Dimensionality
+   * @return Data
+   */
+  private static double[][] randomData(Random rnd, int size, int dim) {
+    double[][] data = new double[size][dim];
+    for(int i = 0; i < size; i++) {
+      for(int j = 0; j < dim; j++) {
+        data[i][j] = rnd.nextDouble();
+      }
+    }
+    return data;
+  }
 }
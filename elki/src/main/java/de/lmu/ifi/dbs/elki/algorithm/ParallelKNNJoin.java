@@ -0,0 +1,249 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreFactory;
+import de.lmu.ifi.dbs.elki.database.datastore.DataStoreUtil;
+import de.lmu.ifi.dbs.elki.database.datastore.WritableDataStore;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.KNNHeap;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.DistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.SpatialPrimitiveDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.tree.LeafEntry;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialEntry;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialIndexTree;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.SpatialNode;
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.LongStatistic;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.datastructures.arrays.DoubleIntegerArrayQuickSort;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Description;
+import de.lmu.ifi.dbs.elki.utilities.documentation.Title;
+
+/**
+ * Multi-threaded k-nearest neighbor join on a spatial index.
+ * <p>
+ * Every leaf page is processed by a separate task, which owns the kNN heaps of
+ * the objects on this page. The task joins its page with all other pages in
+ * order of increasing minimum distance of the page rectangles, until the
+ * minimum distance exceeds the current k-distance of the page. Because every
+ * heap is only ever updated by the task of its own page, the tasks are
+ * independent, and no locking is necessary. The price is that the distances of
+ * a page pair are computed twice, once for each direction, rather than updating
+ * both pages at once as done by the sequential {@link KNNJoin}.
+ * <p>
+ * All leaf nodes are loaded before the parallel phase, because page file
+ * access is not thread-safe.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.uses ParallelCore
+ *
+ * @param <V> the type of FeatureVector handled by this Algorithm
+ * @param <N> the type of node used in the spatial index structure
+ * @param <E> the type of entry used in the spatial node
+ */
+@Title("Parallel K-Nearest Neighbor Join")
+@Description("Multi-threaded algorithm to find the k-nearest neighbors of each object in a spatial database")
+public class ParallelKNNJoin<V extends NumberVector, N extends SpatialNode<N, E>, E extends SpatialEntry> extends KNNJoin<V, N, E> {
+  /**
+   * The logger for this class.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelKNNJoin.class);
+
+  /**
+   * Constructor.
+   *
+   * @param distanceFunction Distance function
+   * @param k k parameter
+   */
+  public ParallelKNNJoin(DistanceFunction<? super V> distanceFunction, int k) {
+    super(distanceFunction, k);
+  }
+
+  @Override
+  public WritableDataStore<KNNList> run(SpatialIndexTree<N, E> index, DBIDs ids) {
+    @SuppressWarnings("unchecked")
+    SpatialPrimitiveDistanceFunction<V> distFunction = (SpatialPrimitiveDistanceFunction<V>) getDistanceFunction();
+
+    // data pages
+    List<E> ps_candidates = new ArrayList<>(index.getLeaves());
+    final int size = ps_candidates.size();
+    // Load all leaves, as the page file is not thread-safe.
+    List<N> leaves = new ArrayList<>(size);
+    for(E entry : ps_candidates) {
+      leaves.add(index.getNode(entry));
+    }
+
+    FiniteProgress pageprog = LOG.isVerbose() ? new FiniteProgress("Number of processed data pages", size, LOG) : null;
+    List<PageTask> tasks = new ArrayList<>(size);
+    for(int i = 0; i < size; i++) {
+      tasks.add(new PageTask(distFunction, ps_candidates, leaves, i, pageprog));
+    }
+    WritableDataStore<KNNList> knnLists = DataStoreUtil.makeStorage(ids, DataStoreFactory.HINT_STATIC, KNNList.class);
+    long pairs = 0;
+    try {
+      for(Future<PageTask> fut : ParallelCore.getCore().getForkJoinPool().invokeAll(tasks)) {
+        PageTask task = fut.get();
+        // Store the results; data stores are not thread-safe.
+        N pr = leaves.get(task.page);
+        for(int j = 0; j < pr.getNumEntries(); j++) {
+          knnLists.put(((LeafEntry) pr.getEntry(j)).getDBID(), task.result[j]);
+        }
+        task.result = null;
+        pairs += task.pairs;
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("kNN join failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    LOG.ensureCompleted(pageprog);
+    if(LOG.isStatistics()) {
+      LOG.statistics(new LongStatistic(ParallelKNNJoin.class.getName() + ".page-pairs", pairs));
+    }
+    return knnLists;
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Task computing the kNN of all objects of a single leaf page.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  private class PageTask implements Callable<PageTask> {
+    /**
+     * Distance function.
+     */
+    private SpatialPrimitiveDistanceFunction<V> distFunction;
+
+    /**
+     * Leaf entries (for the page rectangles).
+     */
+    private List<E> entries;
+
+    /**
+     * Leaf nodes.
+     */
+    private List<N> leaves;
+
+    /**
+     * Page to process.
+     */
+    private int page;
+
+    /**
+     * Resulting kNN lists, in page order.
+     */
+    KNNList[] result;
+
+    /**
+     * Number of page pairs processed.
+     */
+    int pairs;
+
+    /**
+     * Progress, shared.
+     */
+    private FiniteProgress prog;
+
+    /**
+     * Constructor.
+     *
+     * @param distFunction Distance function
+     * @param entries Leaf entries
+     * @param leaves Leaf nodes
+     * @param page Page to process
+     * @param prog Progress (may be {@code null})
+     */
+    PageTask(SpatialPrimitiveDistanceFunction<V> distFunction, List<E> entries, List<N> leaves, int page, FiniteProgress prog) {
+      this.distFunction = distFunction;
+      this.entries = entries;
+      this.leaves = leaves;
+      this.page = page;
+      this.prog = prog;
+    }
+
+    @Override
+    public PageTask call() {
+      final int size = entries.size();
+      final E pr_entry = entries.get(page);
+      final N pr = leaves.get(page);
+      // Self-join first:
+      List<KNNHeap> pr_heaps = initHeaps(distFunction, pr);
+      // Order the other pages by their minimum distance:
+      double[] mindists = new double[size - 1];
+      int[] pages = new int[size - 1];
+      for(int j = 0, c = 0; j < size; j++) {
+        if(j != page) {
+          mindists[c] = distFunction.minDist(pr_entry, entries.get(j));
+          pages[c++] = j;
+        }
+      }
+      DoubleIntegerArrayQuickSort.sort(mindists, pages, size - 1);
+      double pr_knn_distance = computeStopDistance(pr_heaps);
+      for(int c = 0; c < size - 1 && mindists[c] <= pr_knn_distance; c++) {
+        processDataPages(distFunction, pr_heaps, null, pr, leaves.get(pages[c]));
+        pr_knn_distance = computeStopDistance(pr_heaps);
+        ++pairs;
+      }
+      // Finalize lists
+      result = new KNNList[pr_heaps.size()];
+      for(int j = 0; j < result.length; j++) {
+        result[j] = pr_heaps.get(j).toKNNList();
+      }
+      LOG.incrementProcessed(prog);
+      return this;
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   */
+  public static class Parameterizer<V extends NumberVector, N extends SpatialNode<N, E>, E extends SpatialEntry> extends KNNJoin.Parameterizer<V, N, E> {
+    @Override
+    protected ParallelKNNJoin<V, N, E> makeInstance() {
+      return new ParallelKNNJoin<>(distanceFunction, k);
+    }
+  }
+}
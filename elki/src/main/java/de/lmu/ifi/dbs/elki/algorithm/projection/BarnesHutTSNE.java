@@ -36,7 +36,9 @@ import de.lmu.ifi.dbs.elki.database.relation.MaterializedRelation;
 import de.lmu.ifi.dbs.elki.database.relation.Relation;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
+import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
+import de.lmu.ifi.dbs.elki.logging.statistics.UnsynchronizedLongCounter;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.utilities.Priority;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
@@ -175,8 +177,17 @@ public class BarnesHutTSNE<O> extends TSNE<O> {
     }
   }
 
-  private void computeGradient(AffinityMatrix pij, double[][] solution, double[] grad) {
+  /**
+   * Compute the gradients of all points.
+   *
+   * @param pij Sparse affinity matrix
+   * @param solution Current solution
+   * @param grad Metadata array; the gradient is stored in the first dim
+   *        entries of each point
+   */
+  protected void computeGradient(AffinityMatrix pij, double[][] solution, double[] grad) {
     final int dim3 = 3 * dim;
+    Counter dists = new UnsynchronizedLongCounter(projectedDistances.getKey());
     // Reset gradient / forces
     for(int off = 0; off < grad.length; off += dim3) {
       Arrays.fill(grad, off, off + dim, 0.);
@@ -185,7 +196,7 @@ public class BarnesHutTSNE<O> extends TSNE<O> {
     QuadTree tree = QuadTree.build(dim, solution);
     double z = 0.;
     for(int i = 0, off = 0; i < solution.length; i++, off += dim3) {
-      z -= computeRepulsiveForces(grad, off, solution[i], tree);
+      z -= computeRepulsiveForces(grad, off, solution[i], tree, dists);
     }
     // Normalize repulsive forces:
     double s = 1 / z; // Scaling factor
@@ -195,20 +206,30 @@ public class BarnesHutTSNE<O> extends TSNE<O> {
       }
     }
     // Compute attractive forces second
-    computeAttractiveForces(grad, pij, solution);
+    for(int i = 0, off = 0; off < grad.length; i++, off += dim3) {
+      computeAttractiveForces(grad, off, pij, solution, i, dists);
+    }
+    projectedDistances.increment(dists.getValue());
   }
 
-  private void computeAttractiveForces(double[] attr, AffinityMatrix pij, double[][] sol) {
-    final int dim3 = 3 * dim;
-    for(int i = 0, off = 0; off < attr.length; i++, off += dim3) {
-      final double[] sol_i = sol[i];
-      for(int offj = pij.iter(i); pij.iterValid(i, offj); offj = pij.iterAdvance(i, offj)) {
-        final double[] sol_j = sol[pij.iterDim(i, offj)];
-        final double pij_ij = pij.iterValue(i, offj);
-        final double a = pij_ij / (1. + sqDist(sol_i, sol_j));
-        for(int k = 0; k < dim; k++) {
-          attr[off + k] += a * (sol_i[k] - sol_j[k]);
-        }
+  /**
+   * Compute the attractive forces for a single point.
+   *
+   * @param attr Attractive forces array
+   * @param off Point offset
+   * @param pij Sparse affinity matrix
+   * @param sol Current solution
+   * @param i Point number
+   * @param dists Counter for distance computations
+   */
+  protected void computeAttractiveForces(double[] attr, int off, AffinityMatrix pij, double[][] sol, int i, Counter dists) {
+    final double[] sol_i = sol[i];
+    for(int offj = pij.iter(i); pij.iterValid(i, offj); offj = pij.iterAdvance(i, offj)) {
+      final double[] sol_j = sol[pij.iterDim(i, offj)];
+      final double pij_ij = pij.iterValue(i, offj);
+      final double a = pij_ij / (1. + sqDist(sol_i, sol_j, dists));
+      for(int k = 0; k < dim; k++) {
+        attr[off + k] += a * (sol_i[k] - sol_j[k]);
       }
     }
   }
@@ -220,11 +241,12 @@ public class BarnesHutTSNE<O> extends TSNE<O> {
    * @param off Point offset
    * @param sol_i Solution vector
    * @param node Quad tree
+   * @param dists Counter for distance computations
    * @return force strength
    */
-  private double computeRepulsiveForces(double[] rep_i, int off, double[] sol_i, QuadTree node) {
+  protected double computeRepulsiveForces(double[] rep_i, int off, double[] sol_i, QuadTree node, Counter dists) {
     final double[] center = node.center;
-    double dist = sqDist(sol_i, center);
+    double dist = sqDist(sol_i, center, dists);
     // Barnes-Hut approximation:
     if(node.weight == 1 || node.squareSize / dist < sqtheta) {
       double u = 1. / (1. + dist);
@@ -241,7 +263,7 @@ public class BarnesHutTSNE<O> extends TSNE<O> {
     // Aggregate points in this node:
     if(node.points != null) {
       for(double[] point : node.points) {
-        double pdist = sqDist(sol_i, point);
+        double pdist = sqDist(sol_i, point, dists);
         double pz = 1. / (1. + pdist);
         double a = pz * pz;
         for(int k = 0; k < dim; k++) {
@@ -253,12 +275,34 @@ public class BarnesHutTSNE<O> extends TSNE<O> {
     // Recurse into subtrees:
     if(node.children != null) {
       for(QuadTree child : node.children) {
-        z += computeRepulsiveForces(rep_i, off, sol_i, child);
+        z += computeRepulsiveForces(rep_i, off, sol_i, child, dists);
       }
     }
     return z;
   }
 
+  /**
+   * Squared distance, in projection space.
+   * <p>
+   * Unlike {@link TSNE#sqDist}, this uses the given counter instead of the
+   * shared statistics, so that it can be used by multiple threads.
+   *
+   * @param v1 First vector
+   * @param v2 Second vector
+   * @param dists Counter for distance computations
+   * @return Squared distance
+   */
+  protected static double sqDist(double[] v1, double[] v2, Counter dists) {
+    assert (v1.length == v2.length) : "Lengths do not agree: " + v1.length + " " + v2.length;
+    double sum = 0;
+    for(int i = 0; i < v1.length; i++) {
+      final double diff = v1[i] - v2[i];
+      sum += diff * diff;
+    }
+    dists.increment();
+    return sum;
+  }
+
   @Override
   public TypeInformation[] getInputTypeRestriction() {
     return TypeUtil.array(affinity.getInputTypeRestriction());
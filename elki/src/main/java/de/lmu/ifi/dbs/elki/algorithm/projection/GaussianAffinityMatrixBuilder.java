@@ -20,6 +20,12 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.projection;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 import de.lmu.ifi.dbs.elki.algorithm.AbstractDistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.algorithm.DistanceBasedAlgorithm;
 import de.lmu.ifi.dbs.elki.data.type.TypeInformation;
@@ -36,6 +42,7 @@ import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.constraints.CommonConstraints;
@@ -74,6 +81,16 @@ public class GaussianAffinityMatrixBuilder<O> implements AffinityMatrixBuilder<O
    */
   protected static final double MIN_PIJ = 1e-12;
 
+  /**
+   * Number of blocks per thread for parallel processing.
+   */
+  private static final int BLOCKS_PER_THREAD = 4;
+
+  /**
+   * Minimum number of rows per block for parallel processing.
+   */
+  private static final int MIN_BLOCKSIZE = 64;
+
   /**
    * Input distance function.
    */
@@ -112,24 +129,25 @@ public class GaussianAffinityMatrixBuilder<O> implements AffinityMatrixBuilder<O
    * @param dq Distance query
    * @return Distance matrix
    */
-  protected double[][] buildDistanceMatrix(ArrayDBIDs ids, DistanceQuery<?> dq) {
+  protected double[][] buildDistanceMatrix(final ArrayDBIDs ids, final DistanceQuery<?> dq) {
     final int size = ids.size();
-    double[][] dmat = new double[size][size];
+    final double[][] dmat = new double[size][size];
     final boolean square = !dq.getDistanceFunction().isSquared();
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing distance matrix", (size * (size - 1)) >>> 1, LOG) : null;
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing distance matrix", size, LOG) : null;
     Duration timer = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".runtime.distancematrix").begin() : null;
-    DBIDArrayIter ix = ids.iter(), iy = ids.iter();
-    for(ix.seek(0); ix.valid(); ix.advance()) {
-      double[] dmat_x = dmat[ix.getOffset()];
-      for(iy.seek(ix.getOffset() + 1); iy.valid(); iy.advance()) {
-        final double dist = dq.distance(ix, iy);
-        dmat[iy.getOffset()][ix.getOffset()] = dmat_x[iy.getOffset()] = square ? (dist * dist) : dist;
-      }
-      if(prog != null) {
-        int row = ix.getOffset() + 1;
-        prog.setProcessed(row * size - ((row * (row + 1)) >>> 1), LOG);
+    processRows(size, true, new RowProcessor() {
+      @Override
+      public double processRow(int i) {
+        final double[] dmat_i = dmat[i];
+        DBIDArrayIter ix = ids.iter().seek(i), iy = ids.iter();
+        for(; iy.getOffset() < i; iy.advance()) {
+          final double dist = dq.distance(iy, ix);
+          dmat[iy.getOffset()][i] = dmat_i[iy.getOffset()] = square ? (dist * dist) : dist;
+        }
+        LOG.incrementProcessed(prog);
+        return 0.;
       }
-    }
+    });
     LOG.ensureCompleted(prog);
     if(timer != null) {
       LOG.statistics(timer.end());
@@ -145,43 +163,157 @@ public class GaussianAffinityMatrixBuilder<O> implements AffinityMatrixBuilder<O
    * @param initialScale Initial scale
    * @return Affinity matrix pij
    */
-  protected static double[][] computePij(double[][] dist, double sigma, double initialScale) {
+  protected static double[][] computePij(final double[][] dist, double sigma, double initialScale) {
     final int size = dist.length;
     final double msigmasq = -.5 / (sigma * sigma);
-    double[][] pij = new double[size][size];
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing affinities", size, LOG) : null;
+    final double[][] pij = new double[size][size];
+    final double[] perp = new double[size];
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Computing affinities", size, LOG) : null;
     Duration timer = LOG.isStatistics() ? LOG.newDuration(GaussianAffinityMatrixBuilder.class.getName() + ".runtime.pijmatrix").begin() : null;
-    MeanVariance mv = LOG.isStatistics() ? new MeanVariance() : null;
-    for(int i = 0; i < size; i++) {
-      double logP = computeH(i, dist[i], pij[i], msigmasq);
-      if(mv != null) {
-        mv.put(FastMath.exp(logP));
+    processRows(size, false, new RowProcessor() {
+      @Override
+      public double processRow(int i) {
+        perp[i] = FastMath.exp(computeH(i, dist[i], pij[i], msigmasq));
+        LOG.incrementProcessed(prog);
+        return 0.;
       }
-      LOG.incrementProcessed(prog);
-    }
+    });
     LOG.ensureCompleted(prog);
-    if(LOG.isStatistics()) { // timer != null, mv != null
+    if(LOG.isStatistics()) { // timer != null
+      MeanVariance mv = new MeanVariance().put(perp);
       LOG.statistics(timer.end());
       LOG.statistics(new DoubleStatistic(GaussianAffinityMatrixBuilder.class.getName() + ".perplexity.average", mv.getMean()));
       LOG.statistics(new DoubleStatistic(GaussianAffinityMatrixBuilder.class.getName() + ".perplexity.stddev", mv.getSampleStddev()));
     }
-    // Scale pij to have the desired sum EARLY_EXAGGERATION
-    double sum = 0.;
-    for(int i = 1; i < size; i++) {
-      final double[] pij_i = pij[i];
-      for(int j = 0; j < i; j++) { // Nur über halbe Matrix!
-        sum += (pij_i[j] += pij[j][i]); // Symmetrie herstellen
+    symmetrize(pij, initialScale);
+    return pij;
+  }
+
+  /**
+   * Symmetrize a dense affinity matrix, and scale it to have the desired sum.
+   *
+   * @param pij Affinity matrix (will be modified)
+   * @param initialScale Initial scale
+   */
+  protected static void symmetrize(final double[][] pij, double initialScale) {
+    final int size = pij.length;
+    // Only the lower half is written; the upper half is read only.
+    final double sum = processRows(size, true, new RowProcessor() {
+      @Override
+      public double processRow(int i) {
+        final double[] pij_i = pij[i];
+        double sum = 0.;
+        for(int j = 0; j < i; j++) { // Nur über halbe Matrix!
+          sum += (pij_i[j] += pij[j][i]); // Symmetrie herstellen
+        }
+        return sum;
       }
-    }
+    });
     // Scaling taken from original tSNE code:
     final double scale = initialScale / (2. * sum);
-    for(int i = 1; i < size; i++) {
-      final double[] pij_i = pij[i];
-      for(int j = 0; j < i; j++) {
-        pij_i[j] = pij[j][i] = MathUtil.max(pij_i[j] * scale, MIN_PIJ);
+    processRows(size, true, new RowProcessor() {
+      @Override
+      public double processRow(int i) {
+        final double[] pij_i = pij[i];
+        for(int j = 0; j < i; j++) {
+          pij_i[j] = pij[j][i] = MathUtil.max(pij_i[j] * scale, MIN_PIJ);
+        }
+        return 0.;
+      }
+    });
+  }
+
+  /**
+   * Process all rows of a matrix in parallel, on the shared fork-join pool.
+   * <p>
+   * The rows are split into contiguous blocks. For triangular processing (where
+   * row i only processes the first i columns), the block boundaries are chosen
+   * such that each block has approximately the same number of cells.
+   *
+   * @param size Number of rows
+   * @param triangular Process the lower triangle only
+   * @param proc Row processor; must only write to disjoint cells
+   * @return Sum of the values returned by the processor, in row order
+   */
+  protected static double processRows(int size, boolean triangular, RowProcessor proc) {
+    final int numblocks = Math.max(1, Math.min(ParallelCore.getCore().getParallelism() * BLOCKS_PER_THREAD, size / MIN_BLOCKSIZE));
+    if(numblocks == 1) {
+      return new RowBlock(proc, 0, size).call();
+    }
+    List<RowBlock> blocks = new ArrayList<>(numblocks);
+    for(int i = 0, begin = 0; i < numblocks; i++) {
+      final double f = (i + 1) / (double) numblocks;
+      final int end = i + 1 == numblocks ? size : (int) (size * (triangular ? FastMath.sqrt(f) : f));
+      blocks.add(new RowBlock(proc, begin, end));
+      begin = end;
+    }
+    double sum = 0.;
+    try {
+      for(Future<Double> fut : ParallelCore.getCore().getForkJoinPool().invokeAll(blocks)) {
+        sum += fut.get();
       }
     }
-    return pij;
+    catch(ExecutionException e) {
+      throw new RuntimeException("Affinity matrix computation failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+    return sum;
+  }
+
+  /**
+   * Processor for a single matrix row.
+   *
+   * @author Erich Schubert
+   */
+  protected interface RowProcessor {
+    /**
+     * Process a single row.
+     *
+     * @param i Row number
+     * @return Value to aggregate, e.g., the row sum
+     */
+    double processRow(int i);
+  }
+
+  /**
+   * Block of contiguous rows.
+   *
+   * @author Erich Schubert
+   */
+  private static class RowBlock implements Callable<Double> {
+    /**
+     * Row processor.
+     */
+    private RowProcessor proc;
+
+    /**
+     * Block range.
+     */
+    private int begin, end;
+
+    /**
+     * Constructor.
+     *
+     * @param proc Row processor
+     * @param begin First row
+     * @param end End of range (exclusive)
+     */
+    RowBlock(RowProcessor proc, int begin, int end) {
+      this.proc = proc;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public Double call() {
+      double sum = 0.;
+      for(int i = begin; i < end; i++) {
+        sum += proc.processRow(i);
+      }
+      return sum;
+    }
   }
 
   /**
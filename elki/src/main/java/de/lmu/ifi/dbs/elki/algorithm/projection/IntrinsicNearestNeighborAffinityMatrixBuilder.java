@@ -20,7 +20,6 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.projection;
 
-import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -38,7 +37,6 @@ import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.math.Mean;
-import de.lmu.ifi.dbs.elki.math.MeanVariance;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.AggregatedHillEstimator;
 import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.IntrinsicDimensionalityEstimator;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
@@ -123,85 +121,76 @@ public class IntrinsicNearestNeighborAffinityMatrixBuilder<O> extends NearestNei
     return mat;
   }
 
-  /**
-   * Compute the sparse pij using the nearest neighbors only.
-   * 
-   * @param ids ID range
-   * @param knnq kNN query
-   * @param square Use squared distances
-   * @param numberOfNeighbours Number of neighbors to get
-   * @param pij Output of distances
-   * @param indices Output of indexes
-   * @param initialScale Initial scaling factor
-   */
+  @Override
   protected void computePij(DBIDRange ids, KNNQuery<?> knnq, boolean square, int numberOfNeighbours, double[][] pij, int[][] indices, double initialScale) {
     Duration timer = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".runtime.neighborspijmatrix").begin() : null;
-    final double logPerp = FastMath.log(perplexity);
-    // Scratch arrays, resizable
-    DoubleArray dists = new DoubleArray(numberOfNeighbours + 10);
-    IntegerArray inds = new IntegerArray(numberOfNeighbours + 10);
     // Compute nearest-neighbor sparse affinity matrix
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Finding neighbors and optimizing perplexity", ids.size(), LOG) : null;
-    MeanVariance mv = LOG.isStatistics() ? new MeanVariance() : null;
-    Mean mid = LOG.isStatistics() ? new Mean() : null;
-    for(DBIDArrayIter ix = ids.iter(); ix.valid(); ix.advance()) {
-      dists.clear();
-      inds.clear();
-      KNNList neighbours = knnq.getKNNForDBID(ix, numberOfNeighbours + 1);
-      convertNeighbors(ids, ix, square, neighbours, dists, inds, mid);
-      double beta = computeSigma(ix.getOffset(), dists, perplexity, logPerp, //
-          pij[ix.getOffset()] = new double[dists.size()]);
-      if(mv != null) {
-        mv.put(beta > 0 ? FastMath.sqrt(.5 / beta) : 0.); // Sigma
-      }
-      indices[ix.getOffset()] = inds.toArray();
-      LOG.incrementProcessed(prog);
-    }
+    CalibrationProcessor calib = computeNeighborAffinities(ids, knnq, square, numberOfNeighbours, pij, indices, prog);
     LOG.ensureCompleted(prog);
-    if(mid != null) {
-      LOG.statistics(new DoubleStatistic(getClass() + ".average-original-id", mid.getMean()));
+    if(LOG.isStatistics()) {
+      LOG.statistics(new DoubleStatistic(getClass() + ".average-original-id", calib.mean.getMean()));
+    }
+    symmetrize(pij, indices, initialScale);
+    if(LOG.isStatistics()) { // timer != null
+      LOG.statistics(timer.end());
+      LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.average", calib.sigmas.getMean()));
+      LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.stddev", calib.sigmas.getSampleStddev()));
     }
+  }
+
+  /**
+   * Symmetrize the sparse affinity matrix using the geometric mean, and scale
+   * it to the desired sum. Asymmetric neighbors are removed (set to zero).
+   *
+   * @param pij Affinity matrix (will be replaced)
+   * @param indices Neighbor indexes
+   * @param initialScale Initial scaling factor
+   */
+  @Override
+  protected void symmetrize(final double[][] pij, final int[][] indices, double initialScale) {
+    final int size = pij.length;
     // Sum of the sparse affinity matrix:
-    double sum = 0.;
-    for(int i = 0; i < pij.length; i++) {
-      final double[] pij_i = pij[i];
-      for(int offi = 0; offi < pij_i.length; offi++) {
-        int j = indices[i][offi];
-        if(j > i) {
-          continue; // Exploit symmetry.
-        }
-        assert (i != j);
-        int offj = containsIndex(indices[j], i);
-        if(offj >= 0) { // Found
-          sum += FastMath.sqrt(pij_i[offi] * pij[j][offj]);
+    final double sum = processRows(size, false, new RowProcessor() {
+      @Override
+      public double processRow(int i) {
+        final double[] pij_i = pij[i];
+        double sum = 0.;
+        for(int offi = 0; offi < pij_i.length; offi++) {
+          int j = indices[i][offi];
+          if(j > i) {
+            continue; // Exploit symmetry.
+          }
+          assert (i != j);
+          int offj = containsIndex(indices[j], i);
+          if(offj >= 0) { // Found
+            sum += FastMath.sqrt(pij_i[offi] * pij[j][offj]);
+          }
         }
+        return sum;
       }
-    }
+    });
     final double scale = initialScale / (2 * sum);
-    for(int i = 0; i < pij.length; i++) {
-      final double[] pij_i = pij[i];
-      for(int offi = 0; offi < pij_i.length; offi++) {
-        int j = indices[i][offi];
-        assert (i != j);
-        int offj = containsIndex(indices[j], i);
-        if(offj >= 0) { // Found
-          assert (indices[j][offj] == i);
-          // Exploit symmetry:
-          if(i < j) {
+    final double[][] sym = new double[size][];
+    processRows(size, false, new RowProcessor() {
+      @Override
+      public double processRow(int i) {
+        final double[] pij_i = pij[i], sym_i = sym[i] = new double[pij_i.length];
+        for(int offi = 0; offi < pij_i.length; offi++) {
+          int j = indices[i][offi];
+          assert (i != j);
+          int offj = containsIndex(indices[j], i);
+          if(offj >= 0) { // Found
+            assert (indices[j][offj] == i);
             final double val = FastMath.sqrt(pij_i[offi] * pij[j][offj]); // Symmetrize
-            pij_i[offi] = pij[j][offj] = MathUtil.max(val * scale, MIN_PIJ);
+            sym_i[offi] = MathUtil.max(val * scale, MIN_PIJ);
           }
+          // Not found, so zero.
         }
-        else { // Not found, so zero.
-          pij_i[offi] = 0;
-        }
+        return 0.;
       }
-    }
-    if(LOG.isStatistics()) { // timer != null, mv != null
-      LOG.statistics(timer.end());
-      LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.average", mv.getMean()));
-      LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.stddev", mv.getSampleStddev()));
-    }
+    });
+    System.arraycopy(sym, 0, pij, 0, size);
   }
 
   /**
@@ -219,6 +208,7 @@ public class IntrinsicNearestNeighborAffinityMatrixBuilder<O> extends NearestNei
    * @param ind Output index array
    * @param m Mean id, for statistics.
    */
+  @Override
   protected void convertNeighbors(DBIDRange ids, DBIDRef ix, boolean square, KNNList neighbours, DoubleArray dist, IntegerArray ind, Mean m) {
     for(DoubleDBIDListIter iter = neighbours.iter(); iter.valid(); iter.advance()) {
       if(DBIDUtil.equal(iter, ix)) {
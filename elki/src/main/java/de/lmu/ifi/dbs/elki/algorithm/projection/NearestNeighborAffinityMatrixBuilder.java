@@ -20,7 +20,6 @@
  */
 package de.lmu.ifi.dbs.elki.algorithm.projection;
 
-import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRange;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDRef;
 import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
@@ -36,7 +35,13 @@ import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
 import de.lmu.ifi.dbs.elki.math.MathUtil;
+import de.lmu.ifi.dbs.elki.math.Mean;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
+import de.lmu.ifi.dbs.elki.parallel.Executor;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
+import de.lmu.ifi.dbs.elki.parallel.processor.KNNProcessor;
+import de.lmu.ifi.dbs.elki.parallel.processor.Processor;
+import de.lmu.ifi.dbs.elki.parallel.variables.SharedObject;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.DoubleArray;
 import de.lmu.ifi.dbs.elki.utilities.datastructures.arraylike.IntegerArray;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
@@ -132,62 +137,95 @@ public class NearestNeighborAffinityMatrixBuilder<O> extends PerplexityAffinityM
    */
   protected void computePij(DBIDRange ids, KNNQuery<?> knnq, boolean square, int numberOfNeighbours, double[][] pij, int[][] indices, double initialScale) {
     Duration timer = LOG.isStatistics() ? LOG.newDuration(this.getClass().getName() + ".runtime.neighborspijmatrix").begin() : null;
-    final double logPerp = FastMath.log(perplexity);
-    // Scratch arrays, resizable
-    DoubleArray dists = new DoubleArray(numberOfNeighbours + 10);
-    IntegerArray inds = new IntegerArray(numberOfNeighbours + 10);
     // Compute nearest-neighbor sparse affinity matrix
     FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Finding neighbors and optimizing perplexity", ids.size(), LOG) : null;
-    MeanVariance mv = LOG.isStatistics() ? new MeanVariance() : null;
-    for(DBIDArrayIter ix = ids.iter(); ix.valid(); ix.advance()) {
-      dists.clear();
-      inds.clear();
-      KNNList neighbours = knnq.getKNNForDBID(ix, numberOfNeighbours + 1);
-      convertNeighbors(ids, ix, square, neighbours, dists, inds);
-      double beta = computeSigma(ix.getOffset(), dists, perplexity, logPerp, //
-          pij[ix.getOffset()] = new double[dists.size()]);
-      if(mv != null) {
-        mv.put(beta > 0 ? FastMath.sqrt(.5 / beta) : 0.); // Sigma
-      }
-      indices[ix.getOffset()] = inds.toArray();
-      LOG.incrementProcessed(prog);
-    }
+    CalibrationProcessor calib = computeNeighborAffinities(ids, knnq, square, numberOfNeighbours, pij, indices, prog);
     LOG.ensureCompleted(prog);
+    symmetrize(pij, indices, initialScale);
+    if(LOG.isStatistics()) { // timer != null
+      LOG.statistics(timer.end());
+      LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.average", calib.sigmas.getMean()));
+      LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.stddev", calib.sigmas.getSampleStddev()));
+    }
+  }
+
+  /**
+   * Find the nearest neighbors, and calibrate the (asymmetric) affinities, in
+   * parallel.
+   *
+   * @param ids ID range
+   * @param knnq kNN query
+   * @param square Use squared distances
+   * @param numberOfNeighbours Number of neighbors to get
+   * @param pij Output of distances
+   * @param indices Output of indexes
+   * @param prog Progress (may be {@code null})
+   * @return Calibration processor, for statistics
+   */
+  protected CalibrationProcessor computeNeighborAffinities(DBIDRange ids, KNNQuery<?> knnq, boolean square, int numberOfNeighbours, double[][] pij, int[][] indices, FiniteProgress prog) {
+    KNNProcessor<?> knnm = makeKNNProcessor(numberOfNeighbours + 1, knnq);
+    SharedObject<KNNList> knnv = new SharedObject<>();
+    knnm.connectKNNOutput(knnv);
+    CalibrationProcessor calib = new CalibrationProcessor(ids, square, numberOfNeighbours, pij, indices, prog);
+    calib.connectKNNInput(knnv);
+    ParallelExecutor.run(ids, knnm, calib);
+    return calib;
+  }
+
+  /**
+   * Make a kNN processor (helper to capture the type parameter).
+   *
+   * @param k Number of neighbors
+   * @param knnq kNN query
+   * @return kNN processor
+   */
+  private static <T> KNNProcessor<T> makeKNNProcessor(int k, KNNQuery<T> knnq) {
+    return new KNNProcessor<>(k, knnq);
+  }
+
+  /**
+   * Symmetrize the sparse affinity matrix, and scale it to the desired sum.
+   * <p>
+   * The output rows are built out-of-place and in parallel, such that every
+   * thread only reads the input rows, and writes its own output rows.
+   *
+   * @param pij Affinity matrix (will be replaced)
+   * @param indices Neighbor indexes
+   * @param initialScale Initial scaling factor
+   */
+  protected void symmetrize(final double[][] pij, final int[][] indices, double initialScale) {
+    final int size = pij.length;
     // Sum of the sparse affinity matrix:
-    double sum = 0.;
-    for(int i = 0; i < pij.length; i++) {
-      final double[] pij_i = pij[i];
-      for(int j = 0; j < pij_i.length; j++) {
-        sum += pij_i[j];
+    final double sum = processRows(size, false, new RowProcessor() {
+      @Override
+      public double processRow(int i) {
+        double sum = 0.;
+        for(double v : pij[i]) {
+          sum += v;
+        }
+        return sum;
       }
-    }
+    });
     final double scale = initialScale / (2 * sum);
-    for(int i = 0; i < pij.length; i++) {
-      final double[] pij_i = pij[i];
-      for(int offi = 0; offi < pij_i.length; offi++) {
-        int j = indices[i][offi];
-        assert (i != j);
-        int offj = containsIndex(indices[j], i);
-        if(offj >= 0) { // Found
-          assert (indices[j][offj] == i);
-          // Exploit symmetry:
-          if(i < j) {
-            final double val = pij_i[offi] + pij[j][offj]; // Symmetrize
-            pij_i[offi] = pij[j][offj] = MathUtil.max(val * scale, MIN_PIJ);
-          }
-        }
-        else { // Not found
-          // TODO: the original code produces a symmetric matrix
+    final double[][] sym = new double[size][];
+    processRows(size, false, new RowProcessor() {
+      @Override
+      public double processRow(int i) {
+        final double[] pij_i = pij[i], sym_i = sym[i] = new double[pij_i.length];
+        final int[] ind_i = indices[i];
+        for(int offi = 0; offi < pij_i.length; offi++) {
+          int j = ind_i[offi];
+          assert (i != j);
+          int offj = containsIndex(indices[j], i);
+          // TODO: if not found, the original code produces a symmetric matrix
           // And it will now not sum to EARLY_EXAGGERATION anymore.
-          pij_i[offi] = MathUtil.max(pij_i[offi] * scale, MIN_PIJ);
+          final double val = offj >= 0 ? pij_i[offi] + pij[j][offj] : pij_i[offi];
+          sym_i[offi] = MathUtil.max(val * scale, MIN_PIJ);
         }
+        return 0.;
       }
-    }
-    if(LOG.isStatistics()) { // timer != null, mv != null
-      LOG.statistics(timer.end());
-      LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.average", mv.getMean()));
-      LOG.statistics(new DoubleStatistic(NearestNeighborAffinityMatrixBuilder.class.getName() + ".sigma.stddev", mv.getSampleStddev()));
-    }
+    });
+    System.arraycopy(sym, 0, pij, 0, size);
   }
 
   /**
@@ -205,6 +243,23 @@ public class NearestNeighborAffinityMatrixBuilder<O> extends PerplexityAffinityM
    * @param ind Output index array
    */
   protected void convertNeighbors(DBIDRange ids, DBIDRef ix, boolean square, KNNList neighbours, DoubleArray dist, IntegerArray ind) {
+    convertNeighbors(ids, ix, square, neighbours, dist, ind, null);
+  }
+
+  /**
+   * Load a neighbor query result into a double and and integer array, also
+   * removing the query point, and collect additional statistics.
+   *
+   * @param ids Indexes
+   * @param ix Current Object
+   * @param square Use squared distances
+   * @param neighbours Neighbor list
+   * @param dist Output distance array
+   * @param ind Output index array
+   * @param m Mean, for additional statistics (unused here); may be
+   *        {@code null}
+   */
+  protected void convertNeighbors(DBIDRange ids, DBIDRef ix, boolean square, KNNList neighbours, DoubleArray dist, IntegerArray ind, Mean m) {
     for(DoubleDBIDListIter iter = neighbours.iter(); iter.valid(); iter.advance()) {
       if(DBIDUtil.equal(iter, ix)) {
         continue; // Skip query point
@@ -292,6 +347,160 @@ public class NearestNeighborAffinityMatrixBuilder<O> extends PerplexityAffinityM
     return -1;
   }
 
+  /**
+   * Processor to calibrate the affinities of each point to its neighbors.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.has Instance
+   */
+  protected class CalibrationProcessor implements Processor {
+    /**
+     * ID range.
+     */
+    private DBIDRange ids;
+
+    /**
+     * Use squared distances.
+     */
+    private boolean square;
+
+    /**
+     * Number of neighbors.
+     */
+    private int numberOfNeighbours;
+
+    /**
+     * Log of the desired perplexity.
+     */
+    private double logPerp;
+
+    /**
+     * Output affinities.
+     */
+    private double[][] pij;
+
+    /**
+     * Output indexes.
+     */
+    private int[][] indices;
+
+    /**
+     * Progress, shared.
+     */
+    private FiniteProgress prog;
+
+    /**
+     * kNN input channel.
+     */
+    private SharedObject<KNNList> input;
+
+    /**
+     * Statistics on the chosen kernel bandwidths.
+     */
+    protected MeanVariance sigmas = new MeanVariance();
+
+    /**
+     * Additional statistics collected by {@link #convertNeighbors}.
+     */
+    protected Mean mean = new Mean();
+
+    /**
+     * Constructor.
+     *
+     * @param ids ID range
+     * @param square Use squared distances
+     * @param numberOfNeighbours Number of neighbors
+     * @param pij Output affinities
+     * @param indices Output indexes
+     * @param prog Progress (may be {@code null})
+     */
+    protected CalibrationProcessor(DBIDRange ids, boolean square, int numberOfNeighbours, double[][] pij, int[][] indices, FiniteProgress prog) {
+      this.ids = ids;
+      this.square = square;
+      this.numberOfNeighbours = numberOfNeighbours;
+      this.logPerp = FastMath.log(perplexity);
+      this.pij = pij;
+      this.indices = indices;
+      this.prog = prog;
+    }
+
+    /**
+     * Connect the kNN input channel.
+     *
+     * @param input Input channel
+     */
+    public void connectKNNInput(SharedObject<KNNList> input) {
+      this.input = input;
+    }
+
+    @Override
+    public Instance instantiate(Executor executor) {
+      return new Instance(executor.getInstance(input));
+    }
+
+    @Override
+    public synchronized void cleanup(Processor.Instance inst) {
+      NearestNeighborAffinityMatrixBuilder<?>.CalibrationProcessor.Instance instance = (NearestNeighborAffinityMatrixBuilder<?>.CalibrationProcessor.Instance) inst;
+      sigmas.put(instance.sigmas);
+      mean.put(instance.mean);
+    }
+
+    /**
+     * Instance for a single thread.
+     *
+     * @author Erich Schubert
+     */
+    private class Instance implements Processor.Instance {
+      /**
+       * kNN input.
+       */
+      private SharedObject.Instance<KNNList> input;
+
+      /**
+       * Scratch arrays, resizable.
+       */
+      private DoubleArray dists = new DoubleArray(numberOfNeighbours + 10);
+
+      /**
+       * Scratch arrays, resizable.
+       */
+      private IntegerArray inds = new IntegerArray(numberOfNeighbours + 10);
+
+      /**
+       * Thread-local statistics.
+       */
+      private MeanVariance sigmas = new MeanVariance();
+
+      /**
+       * Thread-local statistics.
+       */
+      private Mean mean = new Mean();
+
+      /**
+       * Constructor.
+       *
+       * @param input kNN input
+       */
+      Instance(SharedObject.Instance<KNNList> input) {
+        this.input = input;
+      }
+
+      @Override
+      public void map(DBIDRef id) {
+        dists.clear();
+        inds.clear();
+        convertNeighbors(ids, id, square, input.get(), dists, inds, mean);
+        final int off = ids.getOffset(id);
+        double beta = computeSigma(off, dists, perplexity, logPerp, //
+            pij[off] = new double[dists.size()]);
+        sigmas.put(beta > 0 ? FastMath.sqrt(.5 / beta) : 0.); // Sigma
+        indices[off] = inds.toArray();
+        LOG.incrementProcessed(prog);
+      }
+    }
+  }
+
   /**
    * Parameterization class.
    *
@@ -0,0 +1,252 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.projection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
+import de.lmu.ifi.dbs.elki.logging.statistics.UnsynchronizedLongCounter;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.utilities.random.RandomFactory;
+
+/**
+ * Multi-threaded variant of tSNE using the Barnes-Hut-Approximation.
+ * <p>
+ * The points are split into blocks, which are processed on the shared
+ * fork-join pool. Each block computes the repulsive forces of its points by
+ * traversing the (shared, read-only) quad tree, and accumulates its own
+ * partial normalization sum Z. In a second pass, the repulsive forces are
+ * normalized, and the attractive forces are added from the sparse affinity
+ * matrix. Because every block only writes to the gradients of its own points,
+ * no synchronization is necessary within a pass.
+ * <p>
+ * The quad tree itself is still constructed on a single thread, but this is
+ * cheap compared to the tree traversal.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ *
+ * @apiviz.uses ParallelCore
+ *
+ * @param <O> Object type
+ */
+public class ParallelBarnesHutTSNE<O> extends BarnesHutTSNE<O> {
+  /**
+   * Class logger.
+   */
+  private static final Logging LOG = Logging.getLogger(ParallelBarnesHutTSNE.class);
+
+  /**
+   * Number of blocks per thread, to allow balancing the skewed tree traversal
+   * costs by work stealing.
+   */
+  private static final int BLOCKS_PER_THREAD = 8;
+
+  /**
+   * Minimum number of points per block.
+   */
+  private static final int MIN_BLOCKSIZE = 256;
+
+  /**
+   * Constructor.
+   *
+   * @param affinity Affinity matrix builder
+   * @param dim Output dimensionality
+   * @param finalMomentum Final momentum
+   * @param learningRate Learning rate
+   * @param maxIterations Maximum number of iterations
+   * @param random Random generator
+   * @param keep Keep the original data (or remove it)
+   * @param theta Theta parameter
+   */
+  public ParallelBarnesHutTSNE(AffinityMatrixBuilder<? super O> affinity, int dim, double finalMomentum, double learningRate, int maxIterations, RandomFactory random, boolean keep, double theta) {
+    super(affinity, dim, finalMomentum, learningRate, maxIterations, random, keep, theta);
+  }
+
+  @Override
+  protected void computeGradient(AffinityMatrix pij, double[][] solution, double[] grad) {
+    final QuadTree tree = QuadTree.build(dim, solution);
+    final int size = solution.length;
+    final int numblocks = Math.max(1, Math.min(ParallelCore.getCore().getParallelism() * BLOCKS_PER_THREAD, size / MIN_BLOCKSIZE));
+    List<GradientBlock> blocks = new ArrayList<>(numblocks);
+    for(int i = 0; i < numblocks; i++) {
+      final int begin = (int) (size * (long) i / numblocks);
+      final int end = (int) (size * (long) (i + 1) / numblocks);
+      blocks.add(new GradientBlock(pij, solution, grad, tree, begin, end));
+    }
+    // Compute repulsive forces first:
+    invokeAll(blocks);
+    // Aggregate partial sums in a fixed order, for reproducibility:
+    double z = 0.;
+    for(GradientBlock block : blocks) {
+      z += block.z;
+      block.tree = null; // Second pass
+    }
+    // Normalize repulsive forces, and add attractive forces:
+    final double s = 1 / z; // Scaling factor
+    for(GradientBlock block : blocks) {
+      block.scale = s;
+    }
+    invokeAll(blocks);
+    long distances = 0L;
+    for(GradientBlock block : blocks) {
+      distances += block.distances.getValue();
+    }
+    projectedDistances.increment(distances);
+  }
+
+  /**
+   * Run all blocks, and wait for their completion.
+   *
+   * @param blocks Blocks to process
+   */
+  private void invokeAll(List<GradientBlock> blocks) {
+    if(blocks.size() == 1) {
+      blocks.get(0).call();
+      return;
+    }
+    try {
+      for(Future<GradientBlock> fut : ParallelCore.getCore().getForkJoinPool().invokeAll(blocks)) {
+        fut.get();
+      }
+    }
+    catch(ExecutionException e) {
+      throw new RuntimeException("Gradient computation failed.", e);
+    }
+    catch(InterruptedException e) {
+      throw new RuntimeException("Parallel execution interrupted.");
+    }
+  }
+
+  @Override
+  protected Logging getLogger() {
+    return LOG;
+  }
+
+  /**
+   * Gradient computation for a contiguous block of points.
+   *
+   * @author Erich Schubert
+   */
+  private class GradientBlock implements Callable<GradientBlock> {
+    /**
+     * Affinity matrix.
+     */
+    private AffinityMatrix pij;
+
+    /**
+     * Current solution.
+     */
+    private double[][] sol;
+
+    /**
+     * Gradient output (metadata array).
+     */
+    private double[] grad;
+
+    /**
+     * Quad tree; {@code null} in the second (attractive) pass.
+     */
+    QuadTree tree;
+
+    /**
+     * Block range.
+     */
+    private int begin, end;
+
+    /**
+     * Partial sum of the normalization factor Z.
+     */
+    double z;
+
+    /**
+     * Normalization of the repulsive forces, for the second pass.
+     */
+    double scale;
+
+    /**
+     * Number of distance computations.
+     */
+    Counter distances = new UnsynchronizedLongCounter(projectedDistances.getKey());
+
+    /**
+     * Constructor.
+     *
+     * @param pij Affinity matrix
+     * @param sol Current solution
+     * @param grad Gradient output
+     * @param tree Quad tree
+     * @param begin First point
+     * @param end End of range (exclusive)
+     */
+    GradientBlock(AffinityMatrix pij, double[][] sol, double[] grad, QuadTree tree, int begin, int end) {
+      this.pij = pij;
+      this.sol = sol;
+      this.grad = grad;
+      this.tree = tree;
+      this.begin = begin;
+      this.end = end;
+    }
+
+    @Override
+    public GradientBlock call() {
+      final int dim3 = 3 * dim;
+      if(tree != null) {
+        double z = 0.;
+        for(int i = begin, off = begin * dim3; i < end; i++, off += dim3) {
+          Arrays.fill(grad, off, off + dim, 0.);
+          z -= computeRepulsiveForces(grad, off, sol[i], tree, distances);
+        }
+        this.z = z;
+        return this;
+      }
+      for(int i = begin, off = begin * dim3; i < end; i++, off += dim3) {
+        for(int k = 0; k < dim; k++) {
+          grad[off + k] *= scale;
+        }
+        computeAttractiveForces(grad, off, pij, sol, i, distances);
+      }
+      return this;
+    }
+  }
+
+  /**
+   * Parameterization class.
+   *
+   * @author Erich Schubert
+   *
+   * @apiviz.exclude
+   *
+   * @param <O> Object type
+   */
+  public static class Parameterizer<O> extends BarnesHutTSNE.Parameterizer<O> {
+    @Override
+    protected ParallelBarnesHutTSNE<O> makeInstance() {
+      return new ParallelBarnesHutTSNE<>(affinity, dim, finalMomentum, learningRate, iterations, random, keep, theta);
+    }
+  }
+}
@@ -33,7 +33,6 @@ import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.progress.FiniteProgress;
 import de.lmu.ifi.dbs.elki.logging.statistics.DoubleStatistic;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
-import de.lmu.ifi.dbs.elki.math.MathUtil;
 import de.lmu.ifi.dbs.elki.math.MeanVariance;
 import de.lmu.ifi.dbs.elki.utilities.documentation.Reference;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
@@ -121,42 +120,31 @@ public class PerplexityAffinityMatrixBuilder<O> extends GaussianAffinityMatrixBu
    * @param initialScale Initial scale
    * @return Affinity matrix pij
    */
-  protected static double[][] computePij(double[][] dist, double perplexity, double initialScale) {
+  protected static double[][] computePij(final double[][] dist, final double perplexity, double initialScale) {
     final int size = dist.length;
     final double logPerp = FastMath.log(perplexity);
-    double[][] pij = new double[size][size];
-    FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Optimizing perplexities", size, LOG) : null;
+    final double[][] pij = new double[size][size];
+    final double[] sigmas = new double[size];
+    final FiniteProgress prog = LOG.isVerbose() ? new FiniteProgress("Optimizing perplexities", size, LOG) : null;
     Duration timer = LOG.isStatistics() ? LOG.newDuration(PerplexityAffinityMatrixBuilder.class.getName() + ".runtime.pijmatrix").begin() : null;
-    MeanVariance mv = LOG.isStatistics() ? new MeanVariance() : null;
-    for(int i = 0; i < size; i++) {
-      double beta = computePi(i, dist[i], pij[i], perplexity, logPerp);
-      if(mv != null) {
-        mv.put(beta > 0 ? FastMath.sqrt(.5 / beta) : 0.); // Sigma
+    // Calibrate the rows in parallel; each row is independent.
+    processRows(size, false, new RowProcessor() {
+      @Override
+      public double processRow(int i) {
+        double beta = computePi(i, dist[i], pij[i], perplexity, logPerp);
+        sigmas[i] = beta > 0 ? FastMath.sqrt(.5 / beta) : 0.; // Sigma
+        LOG.incrementProcessed(prog);
+        return 0.;
       }
-      LOG.incrementProcessed(prog);
-    }
+    });
     LOG.ensureCompleted(prog);
-    if(LOG.isStatistics()) { // timer != null, mv != null
+    if(LOG.isStatistics()) { // timer != null
+      MeanVariance mv = new MeanVariance().put(sigmas);
       LOG.statistics(timer.end());
       LOG.statistics(new DoubleStatistic(PerplexityAffinityMatrixBuilder.class.getName() + ".sigma.average", mv.getMean()));
       LOG.statistics(new DoubleStatistic(PerplexityAffinityMatrixBuilder.class.getName() + ".sigma.stddev", mv.getSampleStddev()));
     }
-    // Scale pij to have the desired sum EARLY_EXAGGERATION
-    double sum = 0.;
-    for(int i = 1; i < size; i++) {
-      final double[] pij_i = pij[i];
-      for(int j = 0; j < i; j++) { // Nur über halbe Matrix!
-        sum += (pij_i[j] += pij[j][i]); // Symmetrie herstellen
-      }
-    }
-    // Scaling taken from original tSNE code:
-    final double scale = initialScale / (2. * sum);
-    for(int i = 1; i < size; i++) {
-      final double[] pij_i = pij[i];
-      for(int j = 0; j < i; j++) {
-        pij_i[j] = pij[j][i] = MathUtil.max(pij_i[j] * scale, MIN_PIJ);
-      }
-    }
+    symmetrize(pij, initialScale);
     return pij;
   }
 
@@ -20,13 +20,13 @@
  */
 package de.lmu.ifi.dbs.elki.persistent;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 
 import de.lmu.ifi.dbs.elki.logging.Logging;
+import de.lmu.ifi.dbs.elki.logging.statistics.AtomicLongCounter;
+import de.lmu.ifi.dbs.elki.logging.statistics.Counter;
 import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
 
 /**
@@ -34,8 +34,15 @@ import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
  * This cache has a fixed maximum number of objects (<code>cacheSize</code>). If
  * the cache is full and another object is added, the LRU (least recently used)
  * object is dropped.
+ * <p>
+ * To allow concurrent queries, large caches are split into multiple segments
+ * (by page id), each with its own lock and LRU order. Small caches use a
+ * single segment, i.e., exact LRU semantics. Cache misses read from the
+ * underlying file concurrently, so the file must support concurrent reads;
+ * writes, deletions and page allocation are synchronized on the file.
  * 
  * @author Elke Achtert
+ * @author Erich Schubert
  * @since 0.1
  * 
  * @apiviz.uses PageFile
@@ -48,6 +55,11 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    */
   private static final Logging LOG = Logging.getLogger(LRUCache.class);
 
+  /**
+   * Minimum number of pages per segment.
+   */
+  private static final int MIN_SEGMENT_SIZE = 16;
+
   /**
    * Cache size in bytes.
    */
@@ -59,9 +71,14 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   protected int cacheSize;
 
   /**
-   * The map holding the objects of this cache.
+   * The segments holding the objects of this cache.
    */
-  private LinkedHashMap<Integer, P> map;
+  private Segment<P>[] segments;
+
+  /**
+   * Mask to choose the segment from the page id.
+   */
+  private int segmask;
 
   /**
    * The underlying file of this cache. If an object is dropped it is written to
@@ -69,6 +86,11 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    */
   protected PageFile<P> file;
 
+  /**
+   * Cache statistics, may be {@code null}.
+   */
+  private Counter hits, misses, evictions;
+
   /**
    * Initializes this cache with the specified parameters.
    * 
@@ -79,6 +101,22 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   public LRUCache(int cacheSizeBytes, PageFile<P> file) {
     this.file = file;
     this.cacheSizeBytes = cacheSizeBytes;
+    if(LOG.isStatistics()) {
+      final String prefix = this.getClass().getName();
+      hits = new AtomicLongCounter(prefix + ".hits");
+      misses = new AtomicLongCounter(prefix + ".misses");
+      evictions = new AtomicLongCounter(prefix + ".evictions");
+    }
+  }
+
+  /**
+   * Get the segment responsible for a page.
+   * 
+   * @param pageID Page id
+   * @return Segment
+   */
+  private Segment<P> segment(int pageID) {
+    return segments[pageID & segmask];
   }
 
   /**
@@ -90,29 +128,49 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    *         exists in the cache
    */
   @Override
-  public synchronized P readPage(int pageID) {
+  public P readPage(int pageID) {
     countRead();
-    P page = map.get(pageID);
+    final Segment<P> seg = segment(pageID);
+    P page;
+    synchronized(seg) {
+      page = seg.get(pageID);
+    }
     if(page != null) {
+      if(hits != null) {
+        hits.increment();
+      }
       if(LOG.isDebuggingFine()) {
         LOG.debugFine("Read from cache: " + pageID);
       }
+      return page;
     }
-    else {
-      if(LOG.isDebuggingFine()) {
-        LOG.debugFine("Read from backing: " + pageID);
+    if(misses != null) {
+      misses.increment();
+    }
+    if(LOG.isDebuggingFine()) {
+      LOG.debugFine("Read from backing: " + pageID);
+    }
+    // Not synchronized: page files support concurrent reads.
+    page = file.readPage(pageID);
+    synchronized(seg) {
+      // Another thread may have loaded the page concurrently.
+      P other = seg.get(pageID);
+      if(other != null) {
+        return other;
       }
-      page = file.readPage(pageID);
-      map.put(pageID, page);
+      seg.put(pageID, page);
     }
     return page;
   }
 
   @Override
-  public synchronized void writePage(int pageID, P page) {
+  public void writePage(int pageID, P page) {
     countWrite();
     page.setDirty(true);
-    map.put(pageID, page);
+    final Segment<P> seg = segment(pageID);
+    synchronized(seg) {
+      seg.put(pageID, page);
+    }
     if(LOG.isDebuggingFine()) {
       LOG.debugFine("Write to cache: " + pageID);
     }
@@ -121,8 +179,13 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   @Override
   public void deletePage(int pageID) {
     countWrite();
-    map.remove(pageID);
-    file.deletePage(pageID);
+    final Segment<P> seg = segment(pageID);
+    synchronized(seg) {
+      seg.remove(pageID);
+    }
+    synchronized(file) {
+      file.deletePage(pageID);
+    }
   }
 
   /**
@@ -134,15 +197,30 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
     if(LOG.isDebuggingFine()) {
       LOG.debugFine("Write to backing:" + page.getPageID());
     }
-    if (page.isDirty()) {
-      file.writePage(page);
+    if(page.isDirty()) {
+      synchronized(file) {
+        file.writePage(page);
+      }
+    }
+  }
+
+  /**
+   * Evict a page from the cache.
+   * 
+   * @param page Page
+   */
+  protected void evictPage(P page) {
+    if(evictions != null) {
+      evictions.increment();
     }
+    expirePage(page);
   }
 
   @Override
   public int setPageID(P page) {
-    int pageID = file.setPageID(page);
-    return pageID;
+    synchronized(file) {
+      return file.setPageID(page);
+    }
   }
 
   @Override
@@ -170,28 +248,33 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
       throw new AbortException("Invalid cache size: " + cacheSizeBytes + " / " + header.getPageSize() + " = " + cacheSize);
     }
 
+    // Number of segments: a power of two, with a minimum segment size.
+    final int maxsegs = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() << 2);
+    final int numsegs = Math.min(maxsegs, Integer.highestOneBit(Math.max(1, cacheSize / MIN_SEGMENT_SIZE)));
     if(LOG.isDebugging()) {
-      LOG.debug("LRU cache size is " + cacheSize + " pages.");
+      LOG.debug("LRU cache size is " + cacheSize + " pages in " + numsegs + " segments.");
+    }
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    Segment<P>[] segs = (Segment<P>[]) new Segment[numsegs];
+    this.segments = segs;
+    this.segmask = numsegs - 1;
+    for(int i = 0; i < numsegs; i++) {
+      segments[i] = new Segment<>(this, segmentCapacity(i));
     }
-
-    float hashTableLoadFactor = 0.75f;
-    int hashTableCapacity = (int) Math.ceil(cacheSize / hashTableLoadFactor) + 1;
-
-    this.map = new LinkedHashMap<Integer, P>(hashTableCapacity, hashTableLoadFactor, true) {
-      private static final long serialVersionUID = 1L;
-
-      @Override
-      protected boolean removeEldestEntry(Map.Entry<Integer, P> eldest) {
-        if(size() > LRUCache.this.cacheSize) {
-          expirePage(eldest.getValue());
-          return true;
-        }
-        return false;
-      }
-    };
     return created;
   }
 
+  /**
+   * Capacity of a segment, distributing the cache size evenly.
+   * 
+   * @param i Segment number
+   * @return Capacity
+   */
+  private int segmentCapacity(int i) {
+    final int numsegs = segments.length;
+    return cacheSize / numsegs + (i < cacheSize % numsegs ? 1 : 0);
+  }
+
   @Override
   public void close() {
     flush();
@@ -202,10 +285,14 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    * Flushes this caches by writing any entry to the underlying file.
    */
   public void flush() {
-    for(P object : map.values()) {
-      expirePage(object);
+    for(Segment<P> seg : segments) {
+      synchronized(seg) {
+        for(P object : seg.values()) {
+          expirePage(object);
+        }
+        seg.clear();
+      }
     }
-    map.clear();
   }
 
   /**
@@ -215,7 +302,13 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    */
   @Override
   public String toString() {
-    return map.toString();
+    StringBuilder buf = new StringBuilder();
+    for(Segment<P> seg : segments) {
+      synchronized(seg) {
+        buf.append(seg.toString());
+      }
+    }
+    return buf.toString();
   }
 
   /**
@@ -223,7 +316,11 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    */
   @Override
   public void clear() {
-    map.clear();
+    for(Segment<P> seg : segments) {
+      synchronized(seg) {
+        seg.clear();
+      }
+    }
   }
 
   /**
@@ -233,24 +330,29 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
    */
   public void setCacheSize(int cacheSize) {
     this.cacheSize = cacheSize;
-
-    long toDelete = map.size() - this.cacheSize;
-    if(toDelete <= 0) {
-      return;
-    }
-
-    List<Integer> keys = new ArrayList<>(map.keySet());
-    Collections.reverse(keys);
-
-    for(Integer id : keys) {
-      P page = map.remove(id);
-      file.writePage(page);
+    for(int i = 0; i < segments.length; i++) {
+      final Segment<P> seg = segments[i];
+      synchronized(seg) {
+        seg.capacity = segmentCapacity(i);
+        // Remove least recently used pages first.
+        Iterator<P> it = seg.values().iterator();
+        while(seg.size() > seg.capacity && it.hasNext()) {
+          P page = it.next();
+          it.remove();
+          evictPage(page);
+        }
+      }
     }
   }
 
   @Override
   public void logStatistics() {
     super.logStatistics();
+    if(hits != null) {
+      LOG.statistics(hits);
+      LOG.statistics(misses);
+      LOG.statistics(evictions);
+    }
     file.logStatistics();
   }
 
@@ -258,4 +360,49 @@ public class LRUCache<P extends Page> extends AbstractPageFile<P> {
   protected Logging getLogger() {
     return LOG;
   }
+
+  /**
+   * A single segment of the cache, an access-ordered map with a maximum size.
+   * 
+   * @author Erich Schubert
+   *
+   * @param <P> Page type
+   */
+  private static class Segment<P extends Page> extends LinkedHashMap<Integer, P> {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Cache this segment belongs to.
+     */
+    private final transient LRUCache<P> cache;
+
+    /**
+     * Maximum number of pages in this segment.
+     */
+    int capacity;
+
+    /**
+     * Constructor.
+     * 
+     * @param cache Cache this segment belongs to
+     * @param capacity Maximum number of pages
+     */
+    Segment(LRUCache<P> cache, int capacity) {
+      super((int) Math.ceil(capacity / 0.75f) + 1, 0.75f, true);
+      this.cache = cache;
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Integer, P> eldest) {
+      if(size() > capacity) {
+        cache.evictPage(eldest.getValue());
+        return true;
+      }
+      return false;
+    }
+  }
 }
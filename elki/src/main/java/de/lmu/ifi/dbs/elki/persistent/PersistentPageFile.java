@@ -27,6 +27,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 import de.lmu.ifi.dbs.elki.index.tree.TreeIndexHeader;
 import de.lmu.ifi.dbs.elki.logging.Logging;
@@ -115,8 +116,11 @@ public class PersistentPageFile<P extends ExternalizablePage> extends AbstractSt
       countRead();
       long offset = ((long) (header.getReservedPages() + pageID)) * (long) pageSize;
       byte[] buffer = new byte[pageSize];
-      file.seek(offset);
-      file.read(buffer);
+      // Positional read, to allow concurrent reads.
+      ByteBuffer buf = ByteBuffer.wrap(buffer);
+      while(buf.hasRemaining() && file.getChannel().read(buf, offset + buf.position()) >= 0) {
+        // Continue until the page is complete, or the end of file.
+      }
       return byteArrayToPage(buffer);
     }
     catch(IOException e) {
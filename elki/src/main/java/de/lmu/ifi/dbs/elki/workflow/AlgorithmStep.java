@@ -29,6 +29,8 @@ import de.lmu.ifi.dbs.elki.index.Index;
 import de.lmu.ifi.dbs.elki.logging.Logging;
 import de.lmu.ifi.dbs.elki.logging.LoggingConfiguration;
 import de.lmu.ifi.dbs.elki.logging.statistics.Duration;
+import de.lmu.ifi.dbs.elki.parallel.ParallelCore;
+import de.lmu.ifi.dbs.elki.parallel.ParallelExecutor;
 import de.lmu.ifi.dbs.elki.result.BasicResult;
 import de.lmu.ifi.dbs.elki.result.Result;
 import de.lmu.ifi.dbs.elki.result.ResultHierarchy;
@@ -36,6 +38,7 @@ import de.lmu.ifi.dbs.elki.utilities.datastructures.iterator.It;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.AbstractParameterizer;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.OptionID;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.Parameterization;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.EnumParameter;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.Flag;
 import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameters.ObjectListParameter;
 
@@ -60,6 +63,11 @@ public class AlgorithmStep implements WorkflowStep {
    */
   private List<Algorithm> algorithms;
 
+  /**
+   * Scheduling strategy for parallel algorithms, may be null.
+   */
+  private ParallelExecutor.Scheduling scheduling;
+
   /**
    * The algorithm output
    */
@@ -71,8 +79,19 @@ public class AlgorithmStep implements WorkflowStep {
    * @param algorithms
    */
   public AlgorithmStep(List<Algorithm> algorithms) {
+    this(algorithms, null);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param algorithms
+   * @param scheduling Scheduling strategy for parallel algorithms, may be null
+   */
+  public AlgorithmStep(List<Algorithm> algorithms, ParallelExecutor.Scheduling scheduling) {
     super();
     this.algorithms = algorithms;
+    this.scheduling = scheduling;
   }
 
   /**
@@ -82,7 +101,27 @@ public class AlgorithmStep implements WorkflowStep {
    * @return Algorithm result
    */
   public Result runAlgorithms(Database database) {
-    ResultHierarchy hier = database.getHierarchy();
+    final ParallelCore core = ParallelCore.getCore();
+    final ParallelExecutor.Scheduling prev = core.getScheduling();
+    if(scheduling != null) {
+      core.setScheduling(scheduling);
+    }
+    try {
+      return runAlgorithms(database, database.getHierarchy());
+    }
+    finally {
+      core.setScheduling(prev);
+    }
+  }
+
+  /**
+   * Run algorithms.
+   *
+   * @param database Database
+   * @param hier Result hierarchy
+   * @return Algorithm result
+   */
+  private Result runAlgorithms(Database database, ResultHierarchy hier) {
     if(LOG.isStatistics()) {
       boolean first = true;
       for(It<Index> it = hier.iterDescendants(database).filter(Index.class); it.valid(); it.advance()) {
@@ -141,6 +180,11 @@ public class AlgorithmStep implements WorkflowStep {
      */
     protected boolean time = false;
 
+    /**
+     * Scheduling strategy for parallel algorithms.
+     */
+    protected ParallelExecutor.Scheduling scheduling;
+
     /**
      * Holds the algorithm to run.
      */
@@ -154,6 +198,14 @@ public class AlgorithmStep implements WorkflowStep {
      */
     public static final OptionID TIME_ID = new OptionID("time", "Enable logging of runtime data. Do not combine with more verbose logging, since verbose logging can significantly impact performance.");
 
+    /**
+     * Scheduling strategy for parallel algorithms.
+     * <p>
+     * Key: {@code -parallel.scheduling}
+     * </p>
+     */
+    public static final OptionID SCHEDULING_ID = new OptionID("parallel.scheduling", "Scheduling strategy for parallel algorithms: fixed blocks, or recursive splitting with work stealing.");
+
     /**
      * Parameter to specify the algorithm to run.
      * <p>
@@ -170,6 +222,10 @@ public class AlgorithmStep implements WorkflowStep {
       if(config.grab(timeF)) {
         time = timeF.getValue();
       }
+      EnumParameter<ParallelExecutor.Scheduling> schedulingP = new EnumParameter<>(SCHEDULING_ID, ParallelExecutor.Scheduling.class, ParallelExecutor.Scheduling.BLOCKS);
+      if(config.grab(schedulingP)) {
+        scheduling = schedulingP.getValue();
+      }
       // parameter algorithm
       final ObjectListParameter<Algorithm> ALGORITHM_PARAM = new ObjectListParameter<>(ALGORITHM_ID, Algorithm.class);
       if(config.grab(ALGORITHM_PARAM)) {
@@ -182,7 +238,7 @@ public class AlgorithmStep implements WorkflowStep {
       if(time) {
         LoggingConfiguration.setStatistics();
       }
-      return new AlgorithmStep(algorithms);
+      return new AlgorithmStep(algorithms, scheduling);
     }
   }
 }
@@ -0,0 +1,71 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.benchmark;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.query.DatabaseQuery;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.graph.HNSW;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+import de.lmu.ifi.dbs.elki.utilities.exceptions.AbortException;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for validating approximate kNN indexes.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class ValidateApproximativeKNNIndexTest extends AbstractSimpleAlgorithmTest {
+  @Test
+  public void testHNSW() {
+    ListParameterization params = new ListParameterization();
+    params.addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, HNSW.Factory.class);
+    params.addParameter(HNSW.Factory.Parameterizer.DISTANCE_FUNCTION_ID, EuclideanDistanceFunction.class);
+    params.addParameter(HNSW.Factory.Parameterizer.SEED_ID, 0L);
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000, params);
+    // The benchmark must validate the approximate index, not a linear scan:
+    Relation<DoubleVector> rel = db.getRelation(TypeUtil.DOUBLE_VECTOR_FIELD);
+    DistanceQuery<DoubleVector> dq = db.getDistanceQuery(rel, EuclideanDistanceFunction.STATIC);
+    KNNQuery<DoubleVector> knnq = db.getKNNQuery(dq, 10, DatabaseQuery.HINT_OPTIMIZED_ONLY);
+    assertTrue("Approximate kNN query not used.", knnq instanceof HNSW.HNSWKNNQuery);
+    new ELKIBuilder<ValidateApproximativeKNNIndex<DoubleVector>>(ValidateApproximativeKNNIndex.class) //
+        .with(ValidateApproximativeKNNIndex.Parameterizer.K_ID, 10).build().run(db);
+  }
+
+  @Test(expected = AbortException.class)
+  public void testWithoutIndex() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    new ELKIBuilder<ValidateApproximativeKNNIndex<DoubleVector>>(ValidateApproximativeKNNIndex.class) //
+        .with(ValidateApproximativeKNNIndex.Parameterizer.K_ID, 10).build().run(db);
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.projection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.SquaredEuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.math.statistics.intrinsicdimensionality.AggregatedHillEstimator;
+
+/**
+ * Test the (parallel) affinity matrix builders.
+ *
+ * @author Erich Schubert
+ */
+public class AffinityMatrixBuilderTest extends AbstractSimpleAlgorithmTest {
+  @Test
+  public void testGaussian() {
+    AffinityMatrix pij = new GaussianAffinityMatrixBuilder<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, 1.).computeAffinityMatrix(makeRelation(), 4.);
+    assertSymmetric(pij);
+    // Tolerance: the dense matrix has many entries clamped to the minimum.
+    assertEquals("Affinities do not sum to the initial scale.", 4., sum(pij), 1e-5);
+  }
+
+  @Test
+  public void testPerplexity() {
+    AffinityMatrix pij = new PerplexityAffinityMatrixBuilder<NumberVector>(EuclideanDistanceFunction.STATIC, 20.).computeAffinityMatrix(makeRelation(), 4.);
+    assertSymmetric(pij);
+    assertEquals("Affinities do not sum to the initial scale.", 4., sum(pij), 1e-5);
+  }
+
+  @Test
+  public void testNearestNeighbor() {
+    AffinityMatrix pij = new NearestNeighborAffinityMatrixBuilder<NumberVector>(SquaredEuclideanDistanceFunction.STATIC, 20.).computeAffinityMatrix(makeRelation(), 4.);
+    assertSymmetric(pij);
+    for(int i = 0; i < pij.size(); i++) {
+      int n = 0;
+      for(int it = pij.iter(i); pij.iterValid(i, it); it = pij.iterAdvance(i, it), n++) {
+        assertTrue("Affinities not positive.", pij.iterValue(i, it) > 0);
+      }
+      assertEquals("Wrong number of neighbors.", 60, n);
+    }
+  }
+
+  @Test
+  public void testIntrinsicNearestNeighbor() {
+    AffinityMatrix pij = new IntrinsicNearestNeighborAffinityMatrixBuilder<NumberVector>(EuclideanDistanceFunction.STATIC, 20., AggregatedHillEstimator.STATIC).computeAffinityMatrix(makeRelation(), 4.);
+    assertSymmetric(pij);
+    assertEquals("Affinities do not sum to the initial scale.", 4., sum(pij), 1e-9);
+  }
+
+  /**
+   * Load the test data set.
+   *
+   * @return Relation
+   */
+  private static Relation<NumberVector> makeRelation() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    return db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+  }
+
+  /**
+   * Check that all stored entries are symmetric, if stored on both sides.
+   *
+   * @param pij Affinity matrix
+   */
+  private static void assertSymmetric(AffinityMatrix pij) {
+    for(int i = 0; i < pij.size(); i++) {
+      for(int it = pij.iter(i); pij.iterValid(i, it); it = pij.iterAdvance(i, it)) {
+        final int j = pij.iterDim(i, it);
+        final double v = pij.iterValue(i, it), w = pij.get(j, i);
+        if(w != 0.) {
+          assertEquals("Matrix not symmetric.", v, w, 0.);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sum of all affinities.
+   *
+   * @param pij Affinity matrix
+   * @return Sum
+   */
+  private static double sum(AffinityMatrix pij) {
+    double sum = 0.;
+    for(int i = 0; i < pij.size(); i++) {
+      for(int it = pij.iter(i); pij.iterValid(i, it); it = pij.iterAdvance(i, it)) {
+        sum += pij.iterDim(i, it) != i ? pij.iterValue(i, it) : 0.;
+      }
+    }
+    return sum;
+  }
+}
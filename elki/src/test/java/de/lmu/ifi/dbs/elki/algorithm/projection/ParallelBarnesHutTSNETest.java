@@ -0,0 +1,91 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.algorithm.projection;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+
+/**
+ * Test the parallel Barnes-Hut tSNE against the single-threaded version.
+ *
+ * @author Erich Schubert
+ */
+public class ParallelBarnesHutTSNETest extends AbstractSimpleAlgorithmTest {
+  @Test
+  public void testNearestNeighborAffinity() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Relation<DoubleVector> seq = new ELKIBuilder<BarnesHutTSNE<DoubleVector>>(BarnesHutTSNE.class) //
+        .with(TSNE.Parameterizer.ITER_ID, 100) //
+        .with(TSNE.Parameterizer.RANDOM_ID, 0) //
+        .with(AbstractProjectionAlgorithm.KEEP_ID) //
+        .build().run(db);
+    Relation<DoubleVector> par = new ELKIBuilder<ParallelBarnesHutTSNE<DoubleVector>>(ParallelBarnesHutTSNE.class) //
+        .with(TSNE.Parameterizer.ITER_ID, 100) //
+        .with(TSNE.Parameterizer.RANDOM_ID, 0) //
+        .with(AbstractProjectionAlgorithm.KEEP_ID) //
+        .build().run(db);
+    assertSameProjection(seq, par);
+  }
+
+  @Test
+  public void testPerplexityAffinity() {
+    Database db = makeSimpleDatabase(UNITTEST + "different-densities-2d-no-noise.ascii", 1000);
+    Relation<DoubleVector> seq = new ELKIBuilder<BarnesHutTSNE<DoubleVector>>(BarnesHutTSNE.class) //
+        .with(TSNE.Parameterizer.AFFINITY_ID, PerplexityAffinityMatrixBuilder.class) //
+        .with(TSNE.Parameterizer.ITER_ID, 20) //
+        .with(TSNE.Parameterizer.RANDOM_ID, 0) //
+        .with(AbstractProjectionAlgorithm.KEEP_ID) //
+        .build().run(db);
+    Relation<DoubleVector> par = new ELKIBuilder<ParallelBarnesHutTSNE<DoubleVector>>(ParallelBarnesHutTSNE.class) //
+        .with(TSNE.Parameterizer.AFFINITY_ID, PerplexityAffinityMatrixBuilder.class) //
+        .with(TSNE.Parameterizer.ITER_ID, 20) //
+        .with(TSNE.Parameterizer.RANDOM_ID, 0) //
+        .with(AbstractProjectionAlgorithm.KEEP_ID) //
+        .build().run(db);
+    assertSameProjection(seq, par);
+  }
+
+  /**
+   * Compare two projections; they only differ by the summation order of the
+   * normalization factor.
+   *
+   * @param seq Sequential result
+   * @param par Parallel result
+   */
+  private static void assertSameProjection(Relation<DoubleVector> seq, Relation<DoubleVector> par) {
+    assertEquals("Size does not match.", seq.size(), par.size());
+    for(DBIDIter it = seq.iterDBIDs(); it.valid(); it.advance()) {
+      double[] a = seq.get(it).toArray(), b = par.get(it).toArray();
+      assertEquals("Dimensionality does not match.", a.length, b.length);
+      for(int d = 0; d < a.length; d++) {
+        assertEquals("Projection differs.", a[d], b[d], 1e-8 * Math.max(1., Math.abs(a[d])));
+      }
+    }
+  }
+}
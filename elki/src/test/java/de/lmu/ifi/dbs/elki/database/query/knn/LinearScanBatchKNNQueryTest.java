@@ -0,0 +1,85 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.query.knn;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.distance.PrimitiveDistanceQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.ManhattanDistanceFunction;
+
+/**
+ * Verify that the blocked batch queries of the linear scans return the same
+ * results as individual queries.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class LinearScanBatchKNNQueryTest {
+  public static final String filename = "elki/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  @Test
+  public void testBatchQueries() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(filename, 600);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    PrimitiveDistanceQuery<NumberVector> euclidean = new PrimitiveDistanceQuery<>(rel, EuclideanDistanceFunction.STATIC);
+    PrimitiveDistanceQuery<NumberVector> manhattan = new PrimitiveDistanceQuery<>(rel, ManhattanDistanceFunction.STATIC);
+    // Use a subset of queries not aligned with the block sizes.
+    ArrayDBIDs ids = DBIDUtil.ensureArray(rel.getDBIDs()).slice(7, 530);
+    assertSameResults(new LinearScanEuclideanDistanceKNNQuery<>(euclidean), ids, 7);
+    assertSameResults(new LinearScanPrimitiveDistanceKNNQuery<>(manhattan), ids, 7);
+    assertSameResults(new LinearScanDistanceKNNQuery<>(manhattan), ids, 7);
+  }
+
+  /**
+   * Compare batch query results to individual queries.
+   *
+   * @param knnq Query
+   * @param ids Query ids
+   * @param k Number of neighbors
+   */
+  private static void assertSameResults(KNNQuery<NumberVector> knnq, ArrayDBIDs ids, int k) {
+    List<? extends KNNList> batch = knnq.getKNNForBulkDBIDs(ids, k);
+    assertEquals("Wrong number of results.", ids.size(), batch.size());
+    int i = 0;
+    for(DBIDIter it = ids.iter(); it.valid(); it.advance(), i++) {
+      KNNList single = knnq.getKNNForDBID(it, k), bulk = batch.get(i);
+      assertEquals("Result size does not match.", single.size(), bulk.size());
+      for(DoubleDBIDListIter a = single.iter(), b = bulk.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("Distance does not match.", a.doubleValue(), b.doubleValue(), 0.);
+      }
+    }
+  }
+}
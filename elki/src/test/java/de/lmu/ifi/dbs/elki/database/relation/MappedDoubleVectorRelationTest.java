@@ -0,0 +1,147 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.relation;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.DoubleVector;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.data.type.VectorFieldTypeInformation;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.datasource.BundleDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.bundle.BundleWriter;
+import de.lmu.ifi.dbs.elki.datasource.bundle.MultipleObjectsBundle;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+
+/**
+ * Unit test for vector relations backed by a memory-mapped bundle.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class MappedDoubleVectorRelationTest {
+  public static final String filename = "elki/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  @Test
+  public void testMappedLabeledBundle() throws IOException {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(filename, 600);
+    MultipleObjectsBundle bundle = new MultipleObjectsBundle();
+    for(Relation<?> rel : db.getRelations()) {
+      if(rel.getDataTypeInformation() != TypeUtil.DBID) {
+        addColumn(bundle, rel);
+      }
+    }
+    assertMappedEquals(db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD), bundle);
+  }
+
+  @Test
+  public void testMappedFixedSizeBundle() throws IOException {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(filename, 600);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    List<DoubleVector> vecs = new ArrayList<>(rel.size());
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      vecs.add(DoubleVector.copy(rel.get(it).toArray()));
+    }
+    VectorFieldTypeInformation<DoubleVector> type = new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 3);
+    assertMappedEquals(rel, MultipleObjectsBundle.makeSimple(type, vecs));
+  }
+
+  @Test
+  public void testVariableDimensionalityBundle() throws IOException {
+    List<DoubleVector> vecs = new ArrayList<>();
+    for(int i = 0; i < 100; i++) {
+      vecs.add(DoubleVector.copy(i % 2 == 0 ? new double[] { i, -i } : new double[] { i, -i, i * .5 }));
+    }
+    VectorFieldTypeInformation<DoubleVector> type = new VectorFieldTypeInformation<>(DoubleVector.FACTORY, 2, 3, DoubleVector.VARIABLE_SERIALIZER);
+    File file = writeBundle(MultipleObjectsBundle.makeSimple(type, vecs));
+    Database mdb = new StaticArrayDatabase(new BundleDatabaseConnection(null, file, true), null);
+    mdb.initialize();
+    Relation<NumberVector> mrel = mdb.getRelation(TypeUtil.NUMBER_VECTOR_VARIABLE_LENGTH);
+    Relation<?> r = mrel;
+    assertFalse("Variable dimensionality must not be mapped.", r instanceof MappedDoubleVectorRelation);
+    assertEquals("Size does not match.", vecs.size(), mrel.size());
+    int i = 0;
+    for(DBIDIter it = mrel.iterDBIDs(); it.valid(); it.advance(), i++) {
+      assertArrayEquals("Values do not match.", vecs.get(i).toArray(), mrel.get(it).toArray(), 0.);
+    }
+  }
+
+  private static <O> void addColumn(MultipleObjectsBundle bundle, Relation<O> rel) {
+    List<O> data = new ArrayList<>(rel.size());
+    for(DBIDIter it = rel.iterDBIDs(); it.valid(); it.advance()) {
+      data.add(rel.get(it));
+    }
+    bundle.appendColumn(rel.getDataTypeInformation(), data);
+  }
+
+  private static File writeBundle(MultipleObjectsBundle bundle) throws IOException {
+    File file = File.createTempFile("ELKIUnitTest", null);
+    file.deleteOnExit();
+    try (FileOutputStream out = new FileOutputStream(file); FileChannel channel = out.getChannel()) {
+      new BundleWriter().writeBundleStream(bundle.asStream(), channel);
+    }
+    return file;
+  }
+
+  private static void assertMappedEquals(Relation<NumberVector> rel, MultipleObjectsBundle bundle) throws IOException {
+    File file = writeBundle(bundle);
+    Database mdb = new StaticArrayDatabase(new BundleDatabaseConnection(null, file, true), null);
+    mdb.initialize();
+    Relation<NumberVector> mrel = mdb.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Relation<?> r = mrel;
+    assertTrue("Not using mapped storage.", r instanceof MappedDoubleVectorRelation);
+    assertEquals("Size does not match.", rel.size(), mrel.size());
+
+    KNNQuery<NumberVector> knnq = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 10);
+    KNNQuery<NumberVector> mknnq = mrel.getKNNQuery(EuclideanDistanceFunction.STATIC, 10);
+    for(DBIDIter it = rel.iterDBIDs(), mit = mrel.iterDBIDs(); it.valid(); it.advance(), mit.advance()) {
+      NumberVector v = rel.get(it), mv = mrel.get(mit);
+      assertEquals("Dimensionality does not match.", v.getDimensionality(), mv.getDimensionality());
+      for(int d = 0; d < 3; d++) {
+        assertEquals("Values do not match.", v.doubleValue(d), mv.doubleValue(d), 0.);
+      }
+      KNNList knn = knnq.getKNNForDBID(it, 10), mknn = mknnq.getKNNForDBID(mit, 10);
+      assertEquals("kNN size does not match.", knn.size(), mknn.size());
+      for(DoubleDBIDListIter a = knn.iter(), b = mknn.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("kNN distance does not match.", a.doubleValue(), b.doubleValue(), 0.);
+      }
+    }
+  }
+}
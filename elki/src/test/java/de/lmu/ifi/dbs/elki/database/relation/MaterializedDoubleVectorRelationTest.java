@@ -0,0 +1,78 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.database.relation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDIter;
+import de.lmu.ifi.dbs.elki.database.ids.DoubleDBIDListIter;
+import de.lmu.ifi.dbs.elki.database.ids.KNNList;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.datasource.AbstractDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.filter.FixedDBIDsFilter;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Unit test for contiguous vector storage.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class MaterializedDoubleVectorRelationTest {
+  public static final String filename = "elki/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  @Test
+  public void testContiguousStorage() {
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(filename, 600);
+    ListParameterization params = new ListParameterization() //
+        .addParameter(AbstractDatabaseConnection.Parameterizer.FILTERS_ID, new FixedDBIDsFilter(1)) //
+        .addFlag(StaticArrayDatabase.Parameterizer.CONTIGUOUS_ID);
+    Database cdb = AbstractSimpleAlgorithmTest.makeSimpleDatabase(filename, 600, params);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Relation<NumberVector> crel = cdb.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    Relation<?> r = crel;
+    assertTrue("Not using contiguous storage.", r instanceof MaterializedDoubleVectorRelation);
+    assertEquals("Dimensionality does not match.", 3, ((MaterializedDoubleVectorRelation) r).getDimensionality());
+
+    KNNQuery<NumberVector> knnq = rel.getKNNQuery(EuclideanDistanceFunction.STATIC, 10);
+    KNNQuery<NumberVector> cknnq = crel.getKNNQuery(EuclideanDistanceFunction.STATIC, 10);
+    for(DBIDIter it = rel.iterDBIDs(), cit = crel.iterDBIDs(); it.valid(); it.advance(), cit.advance()) {
+      NumberVector v = rel.get(it), cv = crel.get(cit);
+      for(int d = 0; d < 3; d++) {
+        assertEquals("Values do not match.", v.doubleValue(d), cv.doubleValue(d), 0.);
+      }
+      KNNList knn = knnq.getKNNForDBID(it, 10), cknn = cknnq.getKNNForDBID(cit, 10);
+      assertEquals("kNN size does not match.", knn.size(), cknn.size());
+      for(DoubleDBIDListIter a = knn.iter(), b = cknn.iter(); a.valid(); a.advance(), b.advance()) {
+        assertEquals("kNN distance does not match.", a.doubleValue(), b.doubleValue(), 0.);
+      }
+    }
+  }
+}
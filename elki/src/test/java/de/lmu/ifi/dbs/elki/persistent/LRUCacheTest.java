@@ -0,0 +1,124 @@
+/*
+ * This file is part of ELKI:
+ * Environment for Developing KDD-Applications Supported by Index-Structures
+ *
+ * Copyright (C) 2018
+ * ELKI Development Team
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package de.lmu.ifi.dbs.elki.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import de.lmu.ifi.dbs.elki.algorithm.AbstractSimpleAlgorithmTest;
+import de.lmu.ifi.dbs.elki.data.NumberVector;
+import de.lmu.ifi.dbs.elki.data.type.TypeUtil;
+import de.lmu.ifi.dbs.elki.database.Database;
+import de.lmu.ifi.dbs.elki.database.StaticArrayDatabase;
+import de.lmu.ifi.dbs.elki.database.ids.ArrayDBIDs;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDArrayIter;
+import de.lmu.ifi.dbs.elki.database.ids.DBIDUtil;
+import de.lmu.ifi.dbs.elki.database.query.distance.DistanceQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.KNNQuery;
+import de.lmu.ifi.dbs.elki.database.query.knn.LinearScanDistanceKNNQuery;
+import de.lmu.ifi.dbs.elki.database.relation.Relation;
+import de.lmu.ifi.dbs.elki.datasource.AbstractDatabaseConnection;
+import de.lmu.ifi.dbs.elki.datasource.filter.FixedDBIDsFilter;
+import de.lmu.ifi.dbs.elki.distance.distancefunction.minkowski.EuclideanDistanceFunction;
+import de.lmu.ifi.dbs.elki.index.PagedIndexFactory;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.query.RStarTreeKNNQuery;
+import de.lmu.ifi.dbs.elki.index.tree.spatial.rstarvariants.rstar.RStarTreeFactory;
+import de.lmu.ifi.dbs.elki.utilities.ELKIBuilder;
+import de.lmu.ifi.dbs.elki.utilities.optionhandling.parameterization.ListParameterization;
+
+/**
+ * Test the LRU cache, with concurrent queries on an R*-tree.
+ *
+ * @author Erich Schubert
+ * @since 0.7.5
+ */
+public class LRUCacheTest {
+  public static final String filename = "elki/testdata/unittests/hierarchical-3d2d1d.csv";
+
+  @Test
+  public void testSmallCache() throws InterruptedException, ExecutionException {
+    // Cache with 10 pages, i.e., a single segment.
+    runConcurrentQueries(300 * 10);
+  }
+
+  @Test
+  public void testLargeCache() throws InterruptedException, ExecutionException {
+    // Cache with many segments.
+    runConcurrentQueries(300 * 1000);
+  }
+
+  /**
+   * Run concurrent kNN queries, and compare them to a linear scan.
+   *
+   * @param cachesize Cache size in bytes
+   */
+  private void runConcurrentQueries(int cachesize) throws InterruptedException, ExecutionException {
+    RStarTreeFactory<NumberVector> factory = new ELKIBuilder<>(RStarTreeFactory.class) //
+        .with(PagedIndexFactory.Parameterizer.PAGEFILE_ID, LRUCachePageFileFactory.class) //
+        .with(LRUCachePageFileFactory.Parameterizer.PAGEFILE_ID, MemoryPageFileFactory.class) //
+        .with(LRUCachePageFileFactory.Parameterizer.CACHE_SIZE_ID, cachesize) //
+        .with(AbstractPageFileFactory.Parameterizer.PAGE_SIZE_ID, 300) //
+        .build();
+    ListParameterization params = new ListParameterization() //
+        .addParameter(AbstractDatabaseConnection.Parameterizer.FILTERS_ID, new FixedDBIDsFilter(1)) //
+        .addParameter(StaticArrayDatabase.Parameterizer.INDEX_ID, factory);
+    Database db = AbstractSimpleAlgorithmTest.makeSimpleDatabase(filename, 600, params);
+    Relation<NumberVector> rel = db.getRelation(TypeUtil.NUMBER_VECTOR_FIELD);
+    DistanceQuery<NumberVector> dq = rel.getDistanceQuery(EuclideanDistanceFunction.STATIC);
+    final KNNQuery<NumberVector> knnq = rel.getKNNQuery(dq, 10);
+    assertTrue("Index not used.", knnq instanceof RStarTreeKNNQuery);
+    final KNNQuery<NumberVector> lknnq = new LinearScanDistanceKNNQuery<>(dq);
+    final ArrayDBIDs ids = DBIDUtil.ensureArray(rel.getDBIDs());
+
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Double>> futures = new ArrayList<>();
+      for(int t = 0; t < 4; t++) {
+        futures.add(pool.submit(() -> {
+          double sum = 0.;
+          for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+            sum += knnq.getKNNForDBID(it, 10).getKNNDistance();
+          }
+          return sum;
+        }));
+      }
+      double expect = 0.;
+      for(DBIDArrayIter it = ids.iter(); it.valid(); it.advance()) {
+        expect += lknnq.getKNNForDBID(it, 10).getKNNDistance();
+      }
+      for(Future<Double> f : futures) {
+        assertEquals("kNN distances do not match.", expect, f.get(), 1e-10);
+      }
+    }
+    finally {
+      pool.shutdown();
+    }
+  }
+}